@@ -2,15 +2,27 @@ package com.example.aimodgen;
 
 import com.example.aimodgen.ai.LLMService;
 import com.example.aimodgen.ai.LLMServiceFactory;
+import com.example.aimodgen.ai.UsageTracker;
 import com.example.aimodgen.block.DynamicBlockRegistry;
 import com.example.aimodgen.commands.AIModCommands;
 import com.example.aimodgen.commands.EnhancedAICommands;
 import com.example.aimodgen.config.AIModConfig;
+import com.example.aimodgen.generation.AdvancedTextureGenerator;
 import com.example.aimodgen.generation.ContentGenerator;
 import com.example.aimodgen.generation.ContentRegistry;
 import com.example.aimodgen.generation.GeneratedContent;
+import com.example.aimodgen.generation.GenerationQuota;
+import com.example.aimodgen.generation.GenerationScheduler;
+import com.example.aimodgen.generation.PregenerationService;
+import com.example.aimodgen.generation.RequestHistory;
+import com.example.aimodgen.persistence.ContentPersistence;
+import com.example.aimodgen.persistence.TexturePack;
+import com.example.aimodgen.persistence.TextureStore;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.RegisterCommandsEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.server.ServerStartingEvent;
+import net.minecraftforge.event.server.ServerStoppingEvent;
 import net.minecraftforge.eventbus.api.IEventBus;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
@@ -19,13 +31,19 @@ import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Clock;
 import java.util.Map;
 
 @Mod(AiModGenerator.MOD_ID)
 public class AiModGenerator {
     public static final String MOD_ID = "aimodgenerator";
     private static final Logger LOGGER = LogManager.getLogger();
+    private static final String QUOTA_FILE = "config/aimodgenerator/quotas.json";
+    private static final String TEXTURE_DIRECTORY = "src/main/resources/assets/" + MOD_ID + "/textures";
     private LLMService llmService;
+    private PregenerationService pregeneration;
     private static AiModGenerator instance;
 
     public AiModGenerator() {
@@ -45,8 +63,27 @@ public class AiModGenerator {
         LOGGER.info("AI Mod Generator Initializing...");
         try {
             // Initialize AI service
+            GenerationScheduler.configure(
+                AIModConfig.SCHEDULER_MAX_CONCURRENT.get(),
+                AIModConfig.SCHEDULER_QUEUE_CAPACITY.get(),
+                AIModConfig.SCHEDULER_MAX_QUEUED_PER_PLAYER.get(),
+                AIModConfig.SCHEDULER_WORKER_THREADS.get());
+            configureQuotas();
+            ContentPersistence.configure(
+                AIModConfig.PERSISTENCE_FLUSH_INTERVAL_MS.get(),
+                AIModConfig.PERSISTENCE_SYNC_INTERVAL_MS.get(),
+                AIModConfig.PERSISTENCE_COMPACT_AFTER_RECORDS.get());
+            ContentRegistry.configure(AIModConfig.PERSISTENCE_FLUSH_INTERVAL_MS.get());
+            TextureStore.configure(AIModConfig.PERSISTENCE_FLUSH_INTERVAL_MS.get());
+            openTexturePack();
             llmService = LLMServiceFactory.createService();
             ContentGenerator.initialize(llmService);
+            ContentGenerator.getInstance().setBatchGeneration(AIModConfig.BATCH_GENERATION.get());
+            AdvancedTextureGenerator.configureRace(
+                AIModConfig.TEXTURE_RACE_ENABLED.get(),
+                AIModConfig.TEXTURE_RACE_DEADLINE_SECONDS.get() * 1000L,
+                AIModConfig.TEXTURE_RACE_GOOD_ENOUGH_SCORE.get());
+            configurePregeneration();
             LOGGER.info("AI Service initialized successfully");
             
             // Load any pending content that was generated after registration closed
@@ -56,10 +93,9 @@ public class AiModGenerator {
             if (!pendingContent.isEmpty()) {
                 LOGGER.info("Found {} pending content items to register on next restart", pendingContent.size());
                 // Add to regular content persistence for next startup
-                Map<String, GeneratedContent> currentContent = 
-                    com.example.aimodgen.persistence.ContentPersistence.loadGeneratedContent();
-                currentContent.putAll(pendingContent);
-                com.example.aimodgen.persistence.ContentPersistence.saveGeneratedContent(currentContent);
+                for (GeneratedContent content : pendingContent.values()) {
+                    ContentPersistence.putGeneratedContent(content);
+                }
             }
         } catch (Exception e) {
             LOGGER.error("Failed to initialize AI Service: " + e.getMessage());
@@ -71,10 +107,121 @@ public class AiModGenerator {
         LOGGER.info("AI Mod Generator commands registered");
     }
 
+    /**
+     * Map the texture pack once at startup; the first time, pack the textures already saved as files
+     */
+    private void openTexturePack() {
+        try {
+            TexturePack pack = TexturePack.shared();
+            pack.open();
+            if (pack.size() == 0) {
+                int added = pack.importDirectory(Paths.get(TEXTURE_DIRECTORY));
+                if (added > 0) {
+                    LOGGER.info("Packed {} existing texture(s)", added);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to open texture pack: " + e.getMessage());
+        }
+    }
+
+    private void configureQuotas() {
+        if (!AIModConfig.QUOTAS_ENABLED.get()) {
+            return;
+        }
+        GenerationQuota.configure(new GenerationQuota(
+            AIModConfig.QUOTA_PLAYER_REQUESTS_PER_MINUTE.get(),
+            AIModConfig.QUOTA_PLAYER_TOKENS_PER_DAY.get(),
+            AIModConfig.QUOTA_GLOBAL_REQUESTS_PER_MINUTE.get(),
+            AIModConfig.QUOTA_GLOBAL_TOKENS_PER_DAY.get(),
+            AIModConfig.QUOTA_PREGENERATION_TOKENS_PER_DAY.get(),
+            Paths.get(QUOTA_FILE),
+            Clock.systemDefaultZone()));
+        GenerationScheduler.shared().setQuota(GenerationQuota.shared());
+        UsageTracker.shared().addListener((context, tokens) -> {
+            GenerationQuota quota = GenerationQuota.shared();
+            if (quota != null) {
+                quota.charge(context, tokens);
+            }
+        });
+    }
+
+    private void configurePregeneration() {
+        if (!AIModConfig.PREGENERATION_ENABLED.get()) {
+            return;
+        }
+        if (llmService.getResponseCache() == null) {
+            LOGGER.warn("Pre-generation needs the LLM response cache, leaving it off");
+            return;
+        }
+        pregeneration = new PregenerationService(
+            GenerationScheduler.shared(),
+            () -> RequestHistory.shared().getRequests(),
+            (prediction, context) -> ContentGenerator.getInstance()
+                .warmCaches(prediction.getType(), prediction.getDescription(), context),
+            llmService::isIdle,
+            AIModConfig.PREGENERATION_MAX_PREDICTIONS.get(),
+            AIModConfig.PREGENERATION_IDLE_SECONDS.get() * 1000L,
+            AIModConfig.PREGENERATION_MAX_LATENCY_SECONDS.get() * 1000L,
+            AIModConfig.PREGENERATION_TOKEN_RESERVE.get(),
+            Clock.systemUTC());
+        pregeneration.start(AIModConfig.PREGENERATION_CHECK_INTERVAL_SECONDS.get() * 1000L);
+    }
+
+    @SubscribeEvent
+    public void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+        // Nobody is left to receive what they asked for, so stop spending backend time on it
+        GenerationScheduler.shared().cancelAll(event.getEntity().getUUID().toString(),
+            event.getEntity().getName().getString() + " logged off");
+    }
+
+    @SubscribeEvent
+    public void onServerStarting(ServerStartingEvent event) {
+        // Stopped with the previous server, as when a single player world is closed and another one opened
+        LLMServiceFactory.startMockServer();
+        if (pregeneration != null) {
+            pregeneration.start(AIModConfig.PREGENERATION_CHECK_INTERVAL_SECONDS.get() * 1000L);
+        }
+    }
+
+    @SubscribeEvent
+    public void onServerStopping(ServerStoppingEvent event) {
+        if (pregeneration != null) {
+            pregeneration.close();
+        }
+
+        GenerationQuota quota = GenerationQuota.shared();
+        if (quota != null) {
+            quota.save();
+        }
+        RequestHistory.shared().flush();
+        // Pending saves are only held in memory, so they must be written before the server goes
+        ContentPersistence.close();
+        ContentRegistry.flush();
+        // After the content itself, which may still have been linking textures
+        TextureStore.shared().flush();
+        TexturePack.shared().close();
+
+        // Keep the session's LLM usage for later analysis; the counters themselves start over on restart
+        try {
+            UsageTracker.shared().writeDump(UsageTracker.DUMP_FILE);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write LLM usage stats: " + e.getMessage());
+        }
+        LLMServiceFactory.stopMockServer();
+    }
+
     public LLMService getLlmService() {
         return llmService;
     }
 
+    /**
+     * The idle-time pre-generation service, or null if it is turned off
+     */
+    public PregenerationService getPregeneration() {
+        return pregeneration;
+    }
+
     public static AiModGenerator getInstance() {
         return instance;
     }
@@ -7,6 +7,7 @@ import com.theokanning.openai.service.OpenAiService;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class AIModService extends LLMService {
     private final OpenAiService openAiService;
@@ -15,8 +16,11 @@ public class AIModService extends LLMService {
         this.openAiService = new OpenAiService(apiKey);
     }
 
+    /**
+     * The OpenAI client library is blocking, so this completes on the calling thread
+     */
     @Override
-    public String generateModContent(String prompt) {
+    protected CompletableFuture<String> sendPrompt(String prompt) {
         try {
             List<ChatMessage> messages = new ArrayList<>();
             messages.add(new ChatMessage("system", SYSTEM_PROMPT));
@@ -32,10 +36,10 @@ public class AIModService extends LLMService {
                     .getChoices().get(0).getMessage().getContent();
 
             LOGGER.info("Generated mod content for prompt: " + prompt);
-            return response;
+            return CompletableFuture.completedFuture(response);
         } catch (Exception e) {
             LOGGER.error("Error generating mod content: " + e.getMessage());
-            return null;
+            return CompletableFuture.failedFuture(e);
         }
     }
 
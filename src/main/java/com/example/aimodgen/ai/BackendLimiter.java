@@ -0,0 +1,269 @@
+package com.example.aimodgen.ai;
+
+import com.example.aimodgen.util.Futures;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caps how many prompts one backend serves at once and how fast new ones are sent.
+ * Both limits adapt AIMD-style: they grow slowly while the backend keeps up and are cut sharply
+ * when it answers 429/503 or when latency under concurrent load climbs well above its baseline.
+ * Callers over the limit wait in arrival order rather than failing.
+ */
+public class BackendLimiter {
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "aimod-llm-limiter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final double OVERLOAD_BACKOFF = 0.5;
+    private static final double LATENCY_BACKOFF = 0.75;
+    private static final double LATENCY_SMOOTHING = 0.2;
+    private static final double BASELINE_DRIFT = 0.05;
+
+    private final String name;
+    private final int maxConcurrency;
+    private final double maxRate;
+    private final double burst;
+    private final double latencyTolerance;
+
+    // Guarded by this
+    private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private double concurrencyLimit;
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private int inFlight;
+    private boolean wakeupScheduled;
+    private double baselineLatencyMs = -1;
+    private double averageLatencyMs;
+
+    private final AtomicLong overloads = new AtomicLong();
+    private final AtomicLong slowdowns = new AtomicLong();
+
+    /**
+     * @param maxConcurrency   most prompts in flight at once
+     * @param requestsPerSecond sustained send rate; zero or less disables rate limiting
+     * @param burst            requests that may be sent back to back after an idle period
+     * @param latencyTolerance how many times the baseline latency counts as overloaded
+     */
+    public BackendLimiter(String name, int maxConcurrency, double requestsPerSecond, int burst, double latencyTolerance) {
+        this.name = name;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.maxRate = requestsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.latencyTolerance = latencyTolerance;
+        this.concurrencyLimit = this.maxConcurrency;
+        this.rate = requestsPerSecond;
+        this.tokens = this.burst;
+    }
+
+    /**
+     * Run the call once a slot and a token are available, feeding its outcome back into the limits.
+     * Cancelling the returned future gives up the caller's place in line, or cancels the call if it has started.
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<Void> permit = acquire();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        permit.thenRun(() -> {
+            if (result.isDone()) {
+                release(0, new CancellationException());
+                return;
+            }
+            long start = System.nanoTime();
+            CompletableFuture<T> attempt;
+            try {
+                attempt = call.get();
+            } catch (Throwable t) {
+                attempt = CompletableFuture.failedFuture(t);
+            }
+            attempt.whenComplete((value, error) -> {
+                release(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), error);
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+            Futures.propagateCancellation(result, attempt);
+        });
+        return Futures.propagateCancellation(result, permit);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return waiters.size();
+    }
+
+    public synchronized int getConcurrencyLimit() {
+        return currentLimit();
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public synchronized double getAverageLatencyMs() {
+        return averageLatencyMs;
+    }
+
+    public long getOverloadCount() { return overloads.get(); }
+    public long getSlowdownCount() { return slowdowns.get(); }
+
+    public synchronized String getStatsSummary() {
+        return String.format("%s: %d/%d in flight (max %d), %d waiting, %s, latency avg %.0fms, %d overloads, %d slowdowns",
+                name, inFlight, currentLimit(), maxConcurrency, waiters.size(),
+                maxRate > 0 ? String.format("%.2f/%.2f req/s", rate, maxRate) : "no rate limit",
+                averageLatencyMs, overloads.get(), slowdowns.get());
+    }
+
+    private CompletableFuture<Void> acquire() {
+        synchronized (this) {
+            refill();
+            if (waiters.isEmpty() && canStart()) {
+                take();
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            scheduleWakeupIfThrottled();
+            return waiter;
+        }
+    }
+
+    private void release(long latencyMs, Throwable error) {
+        synchronized (this) {
+            int concurrent = inFlight;
+            inFlight--;
+            if (isOverload(error)) {
+                overloads.incrementAndGet();
+                concurrencyLimit = Math.max(1, concurrencyLimit * OVERLOAD_BACKOFF);
+                if (maxRate > 0) {
+                    rate = Math.max(maxRate / 20, rate * OVERLOAD_BACKOFF);
+                    tokens = Math.min(tokens, 0);
+                }
+            } else if (error == null) {
+                onLatency(latencyMs, concurrent);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * Back off when a response that shared the backend with others was much slower than usual,
+     * otherwise creep the limits back up
+     */
+    private void onLatency(long latencyMs, int concurrent) {
+        averageLatencyMs = averageLatencyMs == 0 ? latencyMs
+                : averageLatencyMs + LATENCY_SMOOTHING * (latencyMs - averageLatencyMs);
+        if (baselineLatencyMs < 0 || latencyMs < baselineLatencyMs) {
+            baselineLatencyMs = latencyMs;
+        } else {
+            baselineLatencyMs += BASELINE_DRIFT * (averageLatencyMs - baselineLatencyMs);
+        }
+
+        if (concurrent > 1 && latencyMs > baselineLatencyMs * latencyTolerance) {
+            slowdowns.incrementAndGet();
+            concurrencyLimit = Math.max(1, concurrencyLimit * LATENCY_BACKOFF);
+        } else {
+            concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1.0 / concurrencyLimit);
+            if (maxRate > 0) {
+                rate = Math.min(maxRate, rate + maxRate / 20);
+            }
+        }
+    }
+
+    /**
+     * Hand free slots to waiters in arrival order
+     */
+    private void dispatch() {
+        List<CompletableFuture<Void>> ready = new ArrayList<>();
+        synchronized (this) {
+            refill();
+            while (!waiters.isEmpty() && canStart()) {
+                CompletableFuture<Void> waiter = waiters.poll();
+                if (!waiter.isDone()) {
+                    take();
+                    ready.add(waiter);
+                }
+            }
+            scheduleWakeupIfThrottled();
+        }
+        for (CompletableFuture<Void> waiter : ready) {
+            if (!waiter.complete(null)) {
+                // Cancelled between being picked and being granted
+                synchronized (this) {
+                    inFlight--;
+                }
+                dispatch();
+            }
+        }
+    }
+
+    private boolean canStart() {
+        return inFlight < currentLimit() && (maxRate <= 0 || tokens >= 1);
+    }
+
+    private void take() {
+        inFlight++;
+        if (maxRate > 0) {
+            tokens -= 1;
+        }
+    }
+
+    private int currentLimit() {
+        return Math.max(1, (int) concurrencyLimit);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (maxRate > 0) {
+            tokens = Math.min(burst, tokens + rate * (now - lastRefillNanos) / 1e9);
+        }
+        lastRefillNanos = now;
+    }
+
+    /**
+     * When waiters are held back only by the token bucket, wake up once the next token is due
+     */
+    private void scheduleWakeupIfThrottled() {
+        if (wakeupScheduled || waiters.isEmpty() || maxRate <= 0 || tokens >= 1 || inFlight >= currentLimit()) {
+            return;
+        }
+        long delayNanos = (long) Math.ceil((1 - tokens) / rate * 1e9);
+        wakeupScheduled = true;
+        TIMER.schedule(() -> {
+            synchronized (this) {
+                wakeupScheduled = false;
+            }
+            dispatch();
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static boolean isOverload(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof LLMHttpException httpError) {
+            int status = httpError.getStatusCode();
+            return status == 429 || status == 503;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.aimodgen.ai;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Several related requests packed into one prompt, so the system prompt and the shared description
+ * are sent and evaluated once instead of once per request. The model answers with a single JSON
+ * object holding one member per part, which {@link #split(String)} separates again.
+ */
+public class BatchPrompt {
+    private final String context;
+    private final Map<String, String> parts = new LinkedHashMap<>();
+    private final Map<String, ResponseSchema> schemas = new HashMap<>();
+
+    /**
+     * @param context text every part refers to, such as the player's description
+     */
+    public BatchPrompt(String context) {
+        this.context = context;
+    }
+
+    /**
+     * Add a part whose answer is text, returned under the given name
+     */
+    public BatchPrompt add(String name, String instructions) {
+        parts.put(name, instructions);
+        return this;
+    }
+
+    /**
+     * Add a part whose answer is a JSON object of the given shape
+     */
+    public BatchPrompt add(String name, String instructions, ResponseSchema schema) {
+        parts.put(name, instructions);
+        schemas.put(name, schema);
+        return this;
+    }
+
+    /**
+     * Shape of the combined answer, for backends that can constrain their output to it
+     */
+    public ResponseSchema getSchema() {
+        ResponseSchema combined = new ResponseSchema("batch");
+        for (String name : parts.keySet()) {
+            ResponseSchema schema = schemas.get(name);
+            if (schema != null) {
+                combined.required(name, schema);
+            } else {
+                combined.required(name, ResponseSchema.Type.STRING);
+            }
+        }
+        return combined;
+    }
+
+    public Set<String> getPartNames() {
+        return Collections.unmodifiableSet(parts.keySet());
+    }
+
+    /**
+     * The combined prompt, asking for one JSON object keyed by part name
+     */
+    public String build() {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append(context.trim()).append("\n\n");
+        prompt.append("Answer each of the following parts. Return ONLY one JSON object with exactly these keys: ");
+        prompt.append(String.join(", ", parts.keySet())).append(".\n");
+
+        for (Map.Entry<String, String> part : parts.entrySet()) {
+            prompt.append("\n### ").append(part.getKey()).append('\n');
+            prompt.append(part.getValue().trim()).append('\n');
+        }
+        return prompt.toString();
+    }
+
+    /**
+     * Split a combined answer into per-part answers. Object and array parts are returned as JSON text,
+     * string parts as their plain value. Parts the model left out are missing from the map, so callers
+     * can fall back for those alone.
+     */
+    public Map<String, String> split(String response) {
+        Map<String, String> answers = new HashMap<>();
+        if (response == null) {
+            return answers;
+        }
+
+        JsonObject combined = JsonRepair.parseObject(response);
+        if (combined == null) {
+            return answers;
+        }
+
+        for (String name : parts.keySet()) {
+            JsonElement answer = combined.get(name);
+            if (answer == null || answer.isJsonNull()) {
+                continue;
+            }
+            boolean isString = answer.isJsonPrimitive() && answer.getAsJsonPrimitive().isString();
+            answers.put(name, isString ? answer.getAsString() : answer.toString());
+        }
+        return answers;
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.aimodgen.ai;
+
+import com.example.aimodgen.util.Futures;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Stops sending prompts to a backend that is down, so callers fail in milliseconds instead of
+ * waiting out a connect or read timeout each time.
+ * After enough consecutive failures, of calls or of health probes, the breaker opens and every call fails
+ * with a {@link CircuitOpenException}. Once the open period has passed, or a health probe gets an answer,
+ * it goes half-open and lets a single trial call through: success closes it, failure opens it again.
+ */
+public class CircuitBreaker {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "aimod-llm-health");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final long PROBE_TIMEOUT_MS = 5_000;
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Supplier<CompletableFuture<?>> probe;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+    private boolean probeInFlight;
+    private ScheduledFuture<?> probeTask;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong trips = new AtomicLong();
+    private final AtomicLong probes = new AtomicLong();
+    private final AtomicLong probeFailures = new AtomicLong();
+
+    /**
+     * @param failureThreshold consecutive failures, of calls and probes alike, that open the breaker
+     * @param openMillis       how long the breaker stays open before letting a trial call through
+     * @param probe            health check that completes normally when the backend answers, or null for none
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis, Supplier<CompletableFuture<?>> probe) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+        this.probe = probe;
+    }
+
+    /**
+     * Run the call unless the breaker is open, in which case the returned future fails straight away
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> call) {
+        if (!tryAcquire()) {
+            rejected.incrementAndGet();
+            return CompletableFuture.failedFuture(new CircuitOpenException(name));
+        }
+        CompletableFuture<T> attempt;
+        try {
+            attempt = call.get();
+        } catch (Throwable t) {
+            attempt = CompletableFuture.failedFuture(t);
+        }
+        CompletableFuture<T> observed = attempt;
+        return Futures.propagateCancellation(attempt.whenComplete((value, error) -> {
+            if (observed.isCancelled()) {
+                onCancelled();
+            } else if (isBackendFailure(error)) {
+                onFailure(error);
+            } else {
+                onSuccess();
+            }
+        }), attempt);
+    }
+
+    /**
+     * Whether a call made now would be let through
+     */
+    public synchronized boolean allowsRequests() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                return !trialInFlight;
+            default:
+                return openPeriodOver();
+        }
+    }
+
+    /**
+     * Probe the backend every interval in the background. Probes that fail count towards opening the
+     * breaker, so a backend that has gone away is noticed before any player has to wait on it; probes
+     * that answer let an open breaker try again early.
+     */
+    public synchronized void startProbing(long intervalMs) {
+        if (probe == null || intervalMs <= 0 || probeTask != null) {
+            return;
+        }
+        probeTask = TIMER.scheduleWithFixedDelay(this::checkHealth, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopProbing() {
+        if (probeTask != null) {
+            probeTask.cancel(false);
+            probeTask = null;
+        }
+    }
+
+    /**
+     * Run one health probe now. The future completes with whether the backend answered,
+     * or false straight away when there is no probe or one is already running.
+     */
+    public CompletableFuture<Boolean> checkHealth() {
+        synchronized (this) {
+            if (probe == null || probeInFlight) {
+                return CompletableFuture.completedFuture(false);
+            }
+            probeInFlight = true;
+        }
+        probes.incrementAndGet();
+
+        CompletableFuture<?> check;
+        try {
+            check = probe.get();
+        } catch (Throwable t) {
+            check = CompletableFuture.failedFuture(t);
+        }
+        CompletableFuture<?> running = check;
+        ScheduledFuture<?> timeout = TIMER.schedule(() -> running.cancel(true), PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        return check.handle((value, error) -> {
+            timeout.cancel(false);
+            // Any answer, even an error status, means the server is up
+            boolean healthy = !running.isCancelled() && !isBackendFailure(error);
+            onProbeResult(healthy, error);
+            return healthy;
+        });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public long getRejectedCount() { return rejected.get(); }
+    public long getTripCount() { return trips.get(); }
+    public long getProbeCount() { return probes.get(); }
+    public long getProbeFailureCount() { return probeFailures.get(); }
+
+    public synchronized String getStatsSummary() {
+        return String.format("%s: %s, %d consecutive failures, opened %d times, %d calls rejected, %d probes (%d failed)",
+                name, state, consecutiveFailures, trips.get(), rejected.get(), probes.get(), probeFailures.get());
+    }
+
+    private synchronized boolean tryAcquire() {
+        if (state == State.OPEN && openPeriodOver()) {
+            state = State.HALF_OPEN;
+        }
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOGGER.info("LLM backend {} is answering again, closing circuit", name);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    private synchronized void onFailure(Throwable error) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+            open("trial request failed: " + Futures.unwrap(error).getMessage());
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open(consecutiveFailures + " consecutive failures, last: " + Futures.unwrap(error).getMessage());
+        }
+    }
+
+    private synchronized void onCancelled() {
+        // A cancelled trial says nothing about the backend; let the next caller try instead
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    private synchronized void onProbeResult(boolean healthy, Throwable error) {
+        probeInFlight = false;
+        if (healthy) {
+            if (state == State.OPEN) {
+                LOGGER.info("Health probe of LLM backend {} succeeded, allowing a trial request", name);
+                state = State.HALF_OPEN;
+            }
+            return;
+        }
+
+        probeFailures.incrementAndGet();
+        String reason = error == null || error instanceof CancellationException ? "timed out" : Futures.unwrap(error).getMessage();
+        if (state == State.OPEN) {
+            // Still down: keep the breaker open for another full period
+            openedAt = System.nanoTime();
+        } else if (state == State.HALF_OPEN) {
+            if (!trialInFlight) {
+                open("health probe failed: " + reason);
+            }
+        } else if (++consecutiveFailures >= failureThreshold) {
+            // One lost probe is not an outage, any more than one failed call is
+            open(consecutiveFailures + " consecutive failures, last a health probe: " + reason);
+        }
+    }
+
+    private void open(String reason) {
+        if (state != State.OPEN) {
+            trips.incrementAndGet();
+            LOGGER.warn("Opening circuit for LLM backend {} for {}s: {}", name, openMillis / 1000, reason);
+        }
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+
+    private boolean openPeriodOver() {
+        return System.nanoTime() - openedAt >= TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * Failures that say the backend is unreachable or broken: connection and I/O errors, timeouts and 5xx
+     * answers. A 4xx or 429 means it answered, which the limiter deals with, and errors of our own, such as
+     * an answer that is not the JSON we asked for, say nothing about the backend, so neither counts.
+     */
+    static boolean isBackendFailure(Throwable error) {
+        if (error == null) {
+            return false;
+        }
+        Throwable cause = Futures.unwrap(error);
+        if (cause instanceof LLMHttpException httpError) {
+            return httpError.getStatusCode() >= 500;
+        }
+        return cause instanceof IOException;
+    }
+}
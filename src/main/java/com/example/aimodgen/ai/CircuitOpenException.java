@@ -0,0 +1,17 @@
+package com.example.aimodgen.ai;
+
+/**
+ * Raised instead of calling a backend whose circuit breaker is open
+ */
+public class CircuitOpenException extends RuntimeException {
+    private final String backend;
+
+    public CircuitOpenException(String backend) {
+        super("LLM backend " + backend + " is unavailable");
+        this.backend = backend;
+    }
+
+    public String getBackend() {
+        return backend;
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.aimodgen.ai;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Cuts tail latency by sending a duplicate of a slow request.
+ * If a request has not answered by the chosen percentile of recent latencies, a second copy is sent;
+ * whichever answers first wins and the other is cancelled. Hedges are capped at a fraction of
+ * requests so a slow backend is not buried under duplicates.
+ */
+public class HedgingPolicy {
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "aimod-llm-hedge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final int WINDOW_SIZE = 256;
+    // Percentiles from fewer samples than this are noise, so no hedging until then
+    private static final int MIN_SAMPLES = 20;
+
+    private final double percentile;
+    private final long minDelayMs;
+    private final double maxHedgeRatio;
+
+    // Guarded by this
+    private final long[] window = new long[WINDOW_SIZE];
+    private int samples;
+    private int next;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * @param percentile    latency percentile (0-100) after which a duplicate is sent
+     * @param minDelayMs    never hedge sooner than this
+     * @param maxHedgeRatio most hedges allowed as a fraction of requests
+     */
+    public HedgingPolicy(double percentile, long minDelayMs, double maxHedgeRatio) {
+        this.percentile = percentile;
+        this.minDelayMs = minDelayMs;
+        this.maxHedgeRatio = maxHedgeRatio;
+    }
+
+    /**
+     * Start the primary call and, if it is still running after the hedge delay, the hedge call.
+     * Fails only when every call that was started fails.
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> primary, Supplier<CompletableFuture<T>> hedge) {
+        requests.incrementAndGet();
+        long start = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        AtomicBoolean answered = new AtomicBoolean();
+        AtomicReference<CompletableFuture<T>> duplicate = new AtomicReference<>();
+
+        CompletableFuture<T> first = start(primary);
+        first.whenComplete((value, error) -> settle(result, value, error, pending, answered, start, false));
+
+        long delay = getHedgeDelayMs();
+        ScheduledFuture<?> timer = delay < 0 ? null : TIMER.schedule(() -> {
+            if (result.isDone() || hedges.get() >= maxHedgeRatio * requests.get()) {
+                return;
+            }
+            hedges.incrementAndGet();
+            pending.incrementAndGet();
+            CompletableFuture<T> second = start(hedge);
+            duplicate.set(second);
+            second.whenComplete((value, error) -> settle(result, value, error, pending, answered, start, true));
+            if (result.isDone()) {
+                second.cancel(true);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+
+        // Once there is an answer, or the caller gives up, stop everything still running
+        result.whenComplete((value, error) -> {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            first.cancel(true);
+            CompletableFuture<T> second = duplicate.get();
+            if (second != null) {
+                second.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Current hedge delay, or -1 while there are too few samples to pick one
+     */
+    public synchronized long getHedgeDelayMs() {
+        if (samples < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(window, samples);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return Math.max(minDelayMs, sorted[Math.max(0, Math.min(sorted.length - 1, index))]);
+    }
+
+    public long getRequestCount() { return requests.get(); }
+    public long getHedgeCount() { return hedges.get(); }
+    public long getHedgeWinCount() { return hedgeWins.get(); }
+
+    /**
+     * Fraction of requests that sent a hedge
+     */
+    public double getHedgeRate() {
+        long total = requests.get();
+        return total == 0 ? 0.0 : (double) hedges.get() / total;
+    }
+
+    /**
+     * Fraction of hedges that answered before the original request
+     */
+    public double getWinRate() {
+        long sent = hedges.get();
+        return sent == 0 ? 0.0 : (double) hedgeWins.get() / sent;
+    }
+
+    public String getStatsSummary() {
+        long delay = getHedgeDelayMs();
+        return String.format("%d requests, %d hedged (%.1f%%), %d hedge wins (%.1f%%), delay %s",
+                requests.get(), hedges.get(), getHedgeRate() * 100, hedgeWins.get(), getWinRate() * 100,
+                delay < 0 ? "warming up" : delay + "ms");
+    }
+
+    private <T> void settle(CompletableFuture<T> result, T value, Throwable error, AtomicInteger pending,
+                            AtomicBoolean answered, long start, boolean fromHedge) {
+        if (error == null) {
+            // Count the winner before completing, so callers never see the result ahead of the metrics
+            if (!result.isDone() && answered.compareAndSet(false, true)) {
+                record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                if (fromHedge) {
+                    hedgeWins.incrementAndGet();
+                }
+                result.complete(value);
+            }
+        } else if (pending.decrementAndGet() == 0) {
+            result.completeExceptionally(error);
+        }
+    }
+
+    private synchronized void record(long latencyMs) {
+        window[next] = latencyMs;
+        next = (next + 1) % WINDOW_SIZE;
+        samples = Math.min(samples + 1, WINDOW_SIZE);
+    }
+
+    private static <T> CompletableFuture<T> start(Supplier<CompletableFuture<T>> call) {
+        try {
+            return call.get();
+        } catch (Throwable t) {
+            return CompletableFuture.failedFuture(t);
+        }
+    }
+}
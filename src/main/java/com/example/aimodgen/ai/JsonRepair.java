@@ -0,0 +1,132 @@
+package com.example.aimodgen.ai;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Recovers a JSON object from model output that is almost, but not quite, valid JSON.
+ * Handles chatter and code fences around the object, trailing commas, and answers cut off
+ * mid-object. Parsing is lenient, so unquoted keys, single quotes and comments get through too.
+ * Fixing the answer locally is far cheaper than asking the model again.
+ */
+public final class JsonRepair {
+    private JsonRepair() {
+    }
+
+    /**
+     * The first JSON object in the text, repaired if needed, or null if there is none to be had
+     */
+    public static JsonObject parseObject(String text) {
+        if (text == null) {
+            return null;
+        }
+        int start = text.indexOf('{');
+        if (start < 0) {
+            return null;
+        }
+
+        StreamingJsonExtractor extractor = new StreamingJsonExtractor();
+        extractor.feed(text);
+        String candidate = extractor.isComplete() ? extractor.getJson() : text.substring(start);
+
+        JsonObject parsed = tryParse(candidate);
+        return parsed != null ? parsed : tryParse(repair(candidate));
+    }
+
+    /**
+     * Drop trailing commas and close whatever strings, arrays and objects were left open
+     */
+    static String repair(String json) {
+        StringBuilder out = new StringBuilder(json.length() + 8);
+        Deque<Character> open = new ArrayDeque<>();
+        boolean inString = false;
+        boolean escaped = false;
+
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (inString) {
+                out.append(c);
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+
+            switch (c) {
+                case '"':
+                    inString = true;
+                    out.append(c);
+                    break;
+                case '{':
+                    open.push('}');
+                    out.append(c);
+                    break;
+                case '[':
+                    open.push(']');
+                    out.append(c);
+                    break;
+                case '}':
+                case ']':
+                    dropTrailingComma(out);
+                    if (!open.isEmpty()) {
+                        out.append(open.pop());
+                    }
+                    if (open.isEmpty()) {
+                        return out.toString();
+                    }
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+
+        // Cut off mid-answer: finish the last value and close everything still open
+        if (inString) {
+            if (escaped) {
+                out.setLength(out.length() - 1);
+            }
+            out.append('"');
+        }
+        trimTrailingWhitespace(out);
+        if (out.length() > 0 && out.charAt(out.length() - 1) == ':') {
+            out.append("null");
+        }
+        dropTrailingComma(out);
+        while (!open.isEmpty()) {
+            out.append(open.pop());
+        }
+        return out.toString();
+    }
+
+    private static void dropTrailingComma(StringBuilder out) {
+        trimTrailingWhitespace(out);
+        if (out.length() > 0 && out.charAt(out.length() - 1) == ',') {
+            out.setLength(out.length() - 1);
+        }
+    }
+
+    private static void trimTrailingWhitespace(StringBuilder out) {
+        int end = out.length();
+        while (end > 0 && Character.isWhitespace(out.charAt(end - 1))) {
+            end--;
+        }
+        out.setLength(end);
+    }
+
+    private static JsonObject tryParse(String json) {
+        try {
+            JsonElement element = JsonParser.parseString(json);
+            return element.isJsonObject() ? element.getAsJsonObject() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
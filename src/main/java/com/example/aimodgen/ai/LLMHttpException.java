@@ -0,0 +1,17 @@
+package com.example.aimodgen.ai;
+
+/**
+ * Raised when an LLM backend answers with a non-success HTTP status
+ */
+public class LLMHttpException extends RuntimeException {
+    private final int statusCode;
+
+    public LLMHttpException(int statusCode, String message) {
+        super("HTTP " + statusCode + ": " + message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
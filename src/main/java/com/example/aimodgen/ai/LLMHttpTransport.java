@@ -0,0 +1,251 @@
+package com.example.aimodgen.ai;
+
+import com.example.aimodgen.util.Futures;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared, connection-pooled HTTP transport used by all LLM backends.
+ * Built on the JDK's non-blocking {@link HttpClient}: connections are kept alive between prompts,
+ * and requests are in flight on a handful of I/O threads instead of one parked thread per prompt.
+ */
+public class LLMHttpTransport {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 8;
+    public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 32;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 10_000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 300_000;
+    public static final int DEFAULT_IDLE_EVICTION_SECONDS = 30;
+    public static final int DEFAULT_IO_THREADS = 4;
+
+    private static final String KEEP_ALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+
+    private static LLMHttpTransport shared;
+
+    private final HttpClient client;
+    private final ExecutorService ioExecutor;
+    private final Duration readTimeout;
+    private final int maxPerRoute;
+    private final PermitQueue totalPermits;
+    private final Map<String, PermitQueue> routePermits = new ConcurrentHashMap<>();
+
+    private LLMHttpTransport(int maxPerRoute, int maxTotal, int connectTimeoutMs, int readTimeoutMs,
+                             int idleEvictionSeconds, int ioThreads) {
+        // The JDK pool reads its idle timeout once, when the first client is created
+        if (System.getProperty(KEEP_ALIVE_PROPERTY) == null) {
+            System.setProperty(KEEP_ALIVE_PROPERTY, String.valueOf(idleEvictionSeconds));
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.ioExecutor = Executors.newFixedThreadPool(ioThreads, runnable -> {
+            Thread thread = new Thread(runnable, "aimod-llm-io-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .executor(ioExecutor)
+                .build();
+        this.readTimeout = Duration.ofMillis(readTimeoutMs);
+        this.maxPerRoute = maxPerRoute;
+        this.totalPermits = new PermitQueue(Math.max(maxTotal, maxPerRoute));
+    }
+
+    /**
+     * Get the shared transport, creating it with default settings if it has not been configured
+     */
+    public static synchronized LLMHttpTransport shared() {
+        if (shared == null) {
+            shared = new LLMHttpTransport(DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_TOTAL,
+                    DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS, DEFAULT_IDLE_EVICTION_SECONDS, DEFAULT_IO_THREADS);
+        }
+        return shared;
+    }
+
+    /**
+     * Replace the shared transport with one using the given pool and timeout settings
+     */
+    public static synchronized void configure(int maxPerRoute, int maxTotal, int connectTimeoutMs,
+                                              int readTimeoutMs, int idleEvictionSeconds, int ioThreads) {
+        LLMHttpTransport previous = shared;
+        shared = new LLMHttpTransport(maxPerRoute, maxTotal, connectTimeoutMs, readTimeoutMs, idleEvictionSeconds, ioThreads);
+        LOGGER.info("Configured LLM HTTP transport: {} connections per route, {} total, connect timeout {}ms, read timeout {}ms, {} I/O threads",
+                maxPerRoute, maxTotal, connectTimeoutMs, readTimeoutMs, ioThreads);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * POST a JSON body and collect the whole response as a string
+     */
+    public CompletableFuture<HttpResponse<String>> postJson(String url, Map<String, String> headers, String json) {
+        return postJson(url, headers, json, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * POST a JSON body, handing the response body to the given handler
+     */
+    public <T> CompletableFuture<HttpResponse<T>> postJson(String url, Map<String, String> headers, String json,
+                                                          HttpResponse.BodyHandler<T> bodyHandler) {
+        HttpRequest.Builder builder = newRequest(url, headers)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json));
+        return send(url, builder.build(), bodyHandler);
+    }
+
+    /**
+     * GET a URL and collect the whole response as a string
+     */
+    public CompletableFuture<HttpResponse<String>> get(String url, Map<String, String> headers) {
+        return send(url, newRequest(url, headers).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * GET a URL straight away, outside the connection limits. For health probes, which must not wait behind
+     * the generations holding a route's connections and then time out as though the server were down.
+     */
+    public CompletableFuture<HttpResponse<String>> probe(String url, Map<String, String> headers) {
+        return client.sendAsync(newRequest(url, headers).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Return the body of a successful response, or fail with the status code
+     */
+    public static String requireSuccess(HttpResponse<String> response) {
+        int status = response.statusCode();
+        if (status < 200 || status >= 300) {
+            throw new LLMHttpException(status, response.body());
+        }
+        return response.body();
+    }
+
+    public ExecutorService getIoExecutor() {
+        return ioExecutor;
+    }
+
+    public int getInFlightRequests() {
+        return totalPermits.inUse();
+    }
+
+    public int getQueuedRequests() {
+        return totalPermits.waiting();
+    }
+
+    public void close() {
+        ioExecutor.shutdown();
+    }
+
+    private HttpRequest.Builder newRequest(String url, Map<String, String> headers) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).timeout(readTimeout);
+        if (url.startsWith("http://")) {
+            // Local servers speak plain HTTP/1.1; skip the h2c upgrade attempt
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+        if (headers != null) {
+            headers.forEach(builder::header);
+        }
+        return builder;
+    }
+
+    /**
+     * Send once permits are available. Cancelling the returned future aborts the exchange,
+     * or drops the request without sending it if it is still waiting for a permit.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> send(String url, HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+        PermitQueue route = routePermits.computeIfAbsent(routeKey(request.uri()), key -> new PermitQueue(maxPerRoute));
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        route.acquire()
+                .thenCompose(routeGranted -> totalPermits.acquire())
+                .thenAccept(totalGranted -> {
+                    if (result.isDone()) {
+                        totalPermits.release();
+                        route.release();
+                        return;
+                    }
+                    CompletableFuture<HttpResponse<T>> exchange;
+                    try {
+                        exchange = client.sendAsync(request, bodyHandler);
+                    } catch (RuntimeException e) {
+                        // Thrown here, as by a transport closed by configure(), it would be lost in this stage
+                        totalPermits.release();
+                        route.release();
+                        result.completeExceptionally(e);
+                        return;
+                    }
+                    exchange.whenComplete((response, error) -> {
+                        totalPermits.release();
+                        route.release();
+                        if (error != null) {
+                            result.completeExceptionally(error);
+                        } else {
+                            result.complete(response);
+                        }
+                    });
+                    Futures.propagateCancellation(result, exchange);
+                });
+        return result;
+    }
+
+    private static String routeKey(URI uri) {
+        return uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+    }
+
+    /**
+     * Non-blocking counting permit: callers over the limit get a future completed when a permit frees up
+     */
+    private static final class PermitQueue {
+        private final int limit;
+        private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+        private int inUse;
+
+        PermitQueue(int limit) {
+            this.limit = limit;
+        }
+
+        synchronized CompletableFuture<Void> acquire() {
+            if (inUse < limit) {
+                inUse++;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        }
+
+        void release() {
+            CompletableFuture<Void> next;
+            synchronized (this) {
+                next = waiters.poll();
+                if (next == null) {
+                    inUse--;
+                    return;
+                }
+            }
+            next.complete(null);
+        }
+
+        synchronized int inUse() {
+            return inUse;
+        }
+
+        synchronized int waiting() {
+            return waiters.size();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.aimodgen.ai;
+
+import com.example.aimodgen.generation.GenerationContext;
+
+/**
+ * One attempt at sending a prompt to a backend: what to send, on whose behalf, and what it cost.
+ * Backends report the token counts from their responses here; hedged duplicates are separate attempts.
+ */
+public class LLMRequest {
+    private final String prompt;
+    private final String conversation;
+    private final ResponseSchema schema;
+    private final GenerationContext context;
+    private final long createdNanos = System.nanoTime();
+
+    private volatile long startedNanos;
+    private volatile int promptTokens = -1;
+    private volatile int completionTokens = -1;
+    private volatile long backendMillis = -1;
+    private volatile boolean responded;
+
+    public LLMRequest(String prompt, String conversation, ResponseSchema schema, GenerationContext context) {
+        this.prompt = prompt;
+        this.conversation = conversation;
+        this.schema = schema;
+        this.context = context;
+    }
+
+    public String getPrompt() {
+        return prompt;
+    }
+
+    /**
+     * Key shared by related prompts, or null
+     */
+    public String getConversation() {
+        return conversation;
+    }
+
+    /**
+     * Expected shape of the answer, or null for free text
+     */
+    public ResponseSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Who the prompt is for, or null when it was not sent on anyone's behalf
+     */
+    public GenerationContext getContext() {
+        return context;
+    }
+
+    /**
+     * Token counts as the backend reported them. Either may be negative if it was not reported.
+     */
+    public void reportTokens(int promptTokens, int completionTokens) {
+        this.promptTokens = promptTokens;
+        this.completionTokens = completionTokens;
+    }
+
+    /**
+     * Time the backend says it spent evaluating the prompt and generating the answer
+     */
+    public void reportBackendMillis(long backendMillis) {
+        this.backendMillis = backendMillis;
+    }
+
+    public int getPromptTokens() {
+        return promptTokens;
+    }
+
+    public int getCompletionTokens() {
+        return completionTokens;
+    }
+
+    public long getBackendMillis() {
+        return backendMillis;
+    }
+
+    /**
+     * Record that the backend answered, even if only with an error status or part of a stream
+     */
+    public void markResponded() {
+        responded = true;
+    }
+
+    /**
+     * Whether the backend answered at all. Attempts turned away by the circuit breaker, cancelled while
+     * queued or unable to connect never reached it and cost no tokens.
+     */
+    public boolean hasResponse() {
+        return responded;
+    }
+
+    void markStarted() {
+        startedNanos = System.nanoTime();
+    }
+
+    /**
+     * Time spent waiting for the backend's limiter before the request was sent
+     */
+    long getQueueMillis() {
+        long started = startedNanos;
+        return started == 0 ? elapsedMillis() : (started - createdNanos) / 1_000_000;
+    }
+
+    /**
+     * Time from the attempt being made until now, queueing included
+     */
+    long elapsedMillis() {
+        return (System.nanoTime() - createdNanos) / 1_000_000;
+    }
+}
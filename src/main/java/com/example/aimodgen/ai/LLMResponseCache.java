@@ -0,0 +1,275 @@
+package com.example.aimodgen.ai;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Two-tier cache of LLM responses keyed by a hash of (backend, model, temperature, schema, prompt).
+ * Recent entries live in an in-memory LRU map; every entry is also written to disk so
+ * repeated texture and recipe prompts stay cached across restarts.
+ */
+public class LLMResponseCache {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Gson GSON = new Gson();
+
+    private final Path directory;
+    private final long maxDiskBytes;
+    private final long ttlMillis;
+    private final Map<String, Entry> memory;
+
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public LLMResponseCache(Path directory, int maxMemoryEntries, long maxDiskBytes, long ttlMillis) {
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.ttlMillis = ttlMillis;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxMemoryEntries;
+            }
+        };
+
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.walk(directory)) {
+                diskBytes.set(files.filter(Files::isRegularFile).mapToLong(LLMResponseCache::sizeOf).sum());
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to prepare LLM response cache at {}: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Build the content-addressed key for a request
+     */
+    public static String key(String backend, String model, double temperature, String prompt) {
+        return key(backend, model, temperature, null, prompt);
+    }
+
+    /**
+     * Key for a request whose answer is read against the named schema, or null for free text. The same
+     * prompt asked for under another schema is checked differently, so it is cached apart.
+     */
+    public static String key(String backend, String model, double temperature, String schema, String prompt) {
+        String base = backend + "\n" + model + "\n" + temperature + "\n";
+        return sha256(schema == null ? base + prompt : base + "schema:" + schema + "\n" + prompt);
+    }
+
+    /**
+     * Look up a cached response, returning null on a miss or an expired entry
+     */
+    public String get(String key) {
+        long now = System.currentTimeMillis();
+
+        synchronized (memory) {
+            Entry entry = memory.get(key);
+            if (entry != null) {
+                if (now - entry.createdAt < ttlMillis) {
+                    memoryHits.incrementAndGet();
+                    return entry.response;
+                }
+                memory.remove(key);
+            }
+        }
+
+        Path file = fileFor(key);
+        if (Files.exists(file)) {
+            try {
+                JsonObject stored = GSON.fromJson(Files.readString(file, StandardCharsets.UTF_8), JsonObject.class);
+                long createdAt = stored.get("createdAt").getAsLong();
+                if (now - createdAt < ttlMillis) {
+                    String response = stored.get("response").getAsString();
+                    synchronized (memory) {
+                        memory.put(key, new Entry(response, createdAt));
+                    }
+                    diskHits.incrementAndGet();
+                    return response;
+                }
+                deleteFile(file);
+            } catch (Exception e) {
+                LOGGER.warn("Discarding unreadable cache entry {}: {}", file.getFileName(), e.getMessage());
+                deleteFile(file);
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Store a response in both tiers
+     */
+    public void put(String key, String response) {
+        long now = System.currentTimeMillis();
+        synchronized (memory) {
+            memory.put(key, new Entry(response, now));
+        }
+
+        JsonObject stored = new JsonObject();
+        stored.addProperty("createdAt", now);
+        stored.addProperty("response", response);
+        byte[] data = GSON.toJson(stored).getBytes(StandardCharsets.UTF_8);
+
+        Path file = fileFor(key);
+        try {
+            Files.createDirectories(file.getParent());
+            long previousSize = sizeOf(file);
+            Path temp = Files.createTempFile(file.getParent(), key, ".tmp");
+            Files.write(temp, data);
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (diskBytes.addAndGet(data.length - previousSize) > maxDiskBytes) {
+                pruneDisk();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write LLM response cache entry: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Drop one entry from both tiers, so the next identical request goes to the backend
+     */
+    public void invalidate(String key) {
+        synchronized (memory) {
+            memory.remove(key);
+        }
+        deleteFile(fileFor(key));
+    }
+
+    public void clear() {
+        synchronized (memory) {
+            memory.clear();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.filter(Files::isRegularFile).forEach(this::deleteFile);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to clear LLM response cache: {}", e.getMessage());
+        }
+    }
+
+    public long getMemoryHits() { return memoryHits.get(); }
+    public long getDiskHits() { return diskHits.get(); }
+    public long getMisses() { return misses.get(); }
+    public long getEvictions() { return evictions.get(); }
+    public long getDiskBytes() { return diskBytes.get(); }
+
+    public int getMemoryEntries() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    public String getStatsSummary() {
+        long hits = memoryHits.get() + diskHits.get();
+        long total = hits + misses.get();
+        return String.format("%d hits (%d memory, %d disk), %d misses, %.1f%% hit rate, %d KB on disk",
+                hits, memoryHits.get(), diskHits.get(), misses.get(),
+                total == 0 ? 0.0 : hits * 100.0 / total, diskBytes.get() / 1024);
+    }
+
+    /**
+     * Remove the oldest files until the disk tier is back under three quarters of its budget
+     */
+    private synchronized void pruneDisk() {
+        if (diskBytes.get() <= maxDiskBytes) {
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(directory)) {
+            walk.filter(Files::isRegularFile).forEach(files::add);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to scan LLM response cache: {}", e.getMessage());
+            return;
+        }
+        files.sort(Comparator.comparingLong(LLMResponseCache::modifiedAt));
+
+        long target = maxDiskBytes * 3 / 4;
+        for (Path file : files) {
+            if (diskBytes.get() <= target) {
+                break;
+            }
+            deleteFile(file);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private Path fileFor(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + ".json");
+    }
+
+    private void deleteFile(Path file) {
+        long size = sizeOf(file);
+        try {
+            if (Files.deleteIfExists(file)) {
+                diskBytes.addAndGet(-size);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete cache entry {}: {}", file.getFileName(), e.getMessage());
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.exists(file) ? Files.size(file) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long modifiedAt(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static final class Entry {
+        final String response;
+        final long createdAt;
+
+        Entry(String response, long createdAt) {
+            this.response = response;
+            this.createdAt = createdAt;
+        }
+    }
+}
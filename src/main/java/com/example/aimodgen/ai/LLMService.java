@@ -1,73 +1,494 @@
 package com.example.aimodgen.ai;
 
+import com.example.aimodgen.generation.GenerationContext;
+import com.example.aimodgen.util.Futures;
+import com.example.aimodgen.util.SingleFlight;
 import com.google.gson.JsonObject;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public abstract class LLMService {
     protected static final Logger LOGGER = LogManager.getLogger();
     protected static final String SYSTEM_PROMPT = "You are an AI assistant that helps generate Minecraft mod content. " +
             "Generate content that is balanced, fun, and fits the Minecraft style.";
+    protected static final double DEFAULT_TEMPERATURE = 0.7;
+
+    // When set, backends stream tokens and stop as soon as the first JSON object closes
+    protected volatile boolean streamResponses = false;
+    private LLMResponseCache responseCache;
+    private final SingleFlight<String, String> inFlightPrompts = new SingleFlight<>();
+    private BackendLimiter limiter;
+    private HedgingPolicy hedgingPolicy;
+    private CircuitBreaker circuitBreaker;
+    private UsageTracker usageTracker = UsageTracker.shared();
+    // Set once the backend has turned down a structured output request
+    private volatile boolean structuredOutputRejected;
+
+    /**
+     * Send a prompt to the backend without blocking the caller.
+     * The future completes exceptionally if the backend call fails.
+     */
+    public CompletableFuture<String> generateModContentAsync(String prompt) {
+        return generateModContentAsync(prompt, null, null);
+    }
+
+    /**
+     * Send a prompt that belongs with earlier prompts under the same conversation key, such as the
+     * stages of one item. Backends that can keep state between prompts use it to skip re-evaluating
+     * what they have already seen; the answer is cached by prompt alone, as for any other prompt.
+     */
+    public CompletableFuture<String> generateModContentAsync(String prompt, String conversation) {
+        return generateModContentAsync(prompt, conversation, null);
+    }
+
+    /**
+     * Send a prompt whose answer should be JSON of the given shape. Backends that can constrain their
+     * output are asked to; callers still read the answer with {@link ResponseSchema#parse(String)},
+     * which repairs and type-checks it for backends that cannot.
+     */
+    public CompletableFuture<String> generateModContentAsync(String prompt, String conversation, ResponseSchema schema) {
+        return generateModContentAsync(prompt, conversation, schema, null);
+    }
+
+    /**
+     * Send a prompt on behalf of the player and command in the given context, which its token and time
+     * usage is accounted to. A prompt that joins an identical one already in flight costs nothing extra
+     * and is accounted to whoever sent it first. Cancelling the context aborts the call; once it has been
+     * cancelled, nothing more is sent for it.
+     */
+    public CompletableFuture<String> generateModContentAsync(String prompt, String conversation, ResponseSchema schema,
+                                                             GenerationContext context) {
+        if (context == null) {
+            return sendOrReuse(prompt, conversation, schema, null);
+        }
+        if (context.isCancelled()) {
+            return CompletableFuture.failedFuture(new CancellationException(context.getCancellation().getReason()));
+        }
+        return context.getCancellation().track(sendOrReuse(prompt, conversation, schema, context));
+    }
+
+    private CompletableFuture<String> sendOrReuse(String prompt, String conversation, ResponseSchema schema,
+                                                  GenerationContext context) {
+        String key = cacheKey(prompt, schema);
+
+        if (responseCache != null) {
+            String cached = responseCache.get(key);
+            if (cached != null) {
+                if (usageTracker != null) {
+                    usageTracker.recordCacheHit(getBackendName(), context);
+                }
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+
+        // Identical prompts already in flight share one backend call
+        return inFlightPrompts.execute(key, () -> {
+            CompletableFuture<String> call = dispatch(prompt, conversation, schema, context);
+            // Once every caller has given up, the call itself is cancelled through here
+            return Futures.propagateCancellation(call.thenApply(response -> {
+                if (responseCache != null && isReusable(response, schema)) {
+                    responseCache.put(key, response);
+                }
+                return response;
+            }), call);
+        });
+    }
+
+    /**
+     * Forget the cached answer to a prompt, so asking again reaches the backend. For regenerating content
+     * whose answer was usable but not wanted; the new answer replaces the old one in the cache.
+     */
+    public void invalidateCachedResponse(String prompt, ResponseSchema schema) {
+        if (responseCache != null) {
+            responseCache.invalidate(cacheKey(prompt, schema));
+        }
+    }
+
+    private String cacheKey(String prompt, ResponseSchema schema) {
+        return LLMResponseCache.key(getBackendName(), getModelName(), getTemperature(),
+                schema != null ? schema.getName() : null, prompt);
+    }
+
+    /**
+     * Only answers that can be read are kept, so a truncated or malformed one is asked for again next time
+     * instead of being served until it expires
+     */
+    private static boolean isReusable(String response, ResponseSchema schema) {
+        if (response == null || response.trim().isEmpty()) {
+            return false;
+        }
+        return schema != null ? schema.parse(response) != null : JsonRepair.parseObject(response) != null;
+    }
+
+    /**
+     * Forget whatever was kept for the conversation, once nothing more will be sent under its key
+     */
+    public void endConversation(String conversation) {
+    }
+
+    /**
+     * Blocking variant of {@link #generateModContentAsync(String)}; returns null on failure
+     */
+    public String generateModContent(String prompt) {
+        return generateModContent(prompt, null);
+    }
+
+    /**
+     * Blocking variant for a prompt sent on behalf of the given requester; returns null on failure
+     */
+    public String generateModContent(String prompt, GenerationContext context) {
+        return joinOrNull(generateModContentAsync(prompt, null, null, context));
+    }
+
+    /**
+     * Send several related requests as one prompt and split the answer back into per-part results.
+     * Parts missing from the answer are missing from the map; the future fails if the backend call does.
+     */
+    public CompletableFuture<Map<String, String>> generateBatchAsync(BatchPrompt batch) {
+        return generateBatchAsync(batch, null);
+    }
+
+    public CompletableFuture<Map<String, String>> generateBatchAsync(BatchPrompt batch, String conversation) {
+        return generateBatchAsync(batch, conversation, null);
+    }
+
+    public CompletableFuture<Map<String, String>> generateBatchAsync(BatchPrompt batch, String conversation,
+                                                                    GenerationContext context) {
+        return generateModContentAsync(batch.build(), conversation, batch.getSchema(), context).thenApply(batch::split);
+    }
+
+    public void setStreamResponses(boolean streamResponses) {
+        this.streamResponses = streamResponses;
+    }
+
+    public boolean isStreamResponses() {
+        return streamResponses;
+    }
+
+    /**
+     * Number of prompts that were answered by joining an identical call already in flight
+     */
+    public long getCoalescedPromptCount() {
+        return inFlightPrompts.getCoalescedCount();
+    }
+
+    public void setResponseCache(LLMResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    public LLMResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public void setLimiter(BackendLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    public BackendLimiter getLimiter() {
+        return limiter;
+    }
+
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Where this service accounts its token and time usage; null turns accounting off
+     */
+    public void setUsageTracker(UsageTracker usageTracker) {
+        this.usageTracker = usageTracker;
+    }
+
+    public UsageTracker getUsageTracker() {
+        return usageTracker;
+    }
+
+    /**
+     * Whether a prompt sent now would reach the backend. False while its circuit breaker is open,
+     * so callers with a local fallback can use it straight away instead of waiting for a failure.
+     */
+    public boolean isAvailable() {
+        return circuitBreaker == null || circuitBreaker.allowsRequests();
+    }
+
+    /**
+     * Whether the backend has no prompts in flight or waiting for its limiter. A service without a
+     * limiter cannot tell, and says it is idle.
+     */
+    public boolean isIdle() {
+        BackendLimiter current = limiter;
+        return current == null || (current.getInFlight() == 0 && current.getQueued() == 0);
+    }
+
+    /**
+     * Cheap request that completes normally when the backend is up, used by the circuit breaker's
+     * health probes. Null when the backend has nothing suitable.
+     */
+    protected CompletableFuture<?> probeHealth() {
+        return null;
+    }
+
+    /**
+     * Send a prompt through the limiter, hedging it with a duplicate if it runs long
+     */
+    private CompletableFuture<String> dispatch(String prompt, String conversation, ResponseSchema schema,
+                                               GenerationContext context) {
+        Supplier<CompletableFuture<String>> attempt = () -> metered(new LLMRequest(prompt, conversation, schema, context));
+        if (hedgingPolicy == null) {
+            return attempt.get();
+        }
+        return hedgingPolicy.execute(attempt, attempt);
+    }
+
+    /**
+     * Send one attempt through the limiter and account for what it cost once it finishes
+     */
+    private CompletableFuture<String> metered(LLMRequest request) {
+        return metered(request, this::sendPrompt);
+    }
+
+    /**
+     * Send a request some other way than {@link #sendPrompt(LLMRequest)}, through the limiter, and account
+     * for what it cost once it finishes, as prompts are. The sender reports the request's token counts.
+     */
+    protected CompletableFuture<String> metered(LLMRequest request, Function<LLMRequest, CompletableFuture<String>> send) {
+        CompletableFuture<String> call = limited(() -> {
+            request.markStarted();
+            return send.apply(request);
+        });
+        UsageTracker tracker = usageTracker;
+        if (tracker == null || isDelegating()) {
+            return call;
+        }
+        return Futures.propagateCancellation(call.whenComplete((response, error) ->
+                tracker.record(getBackendName(), request, response, error)), call);
+    }
+
+    /**
+     * Whether this service hands prompts on to other services, which account for them themselves
+     */
+    protected boolean isDelegating() {
+        return false;
+    }
+
+    /**
+     * Send with the schema unless this backend has already turned structured output down. Servers and
+     * models without support answer 400, in which case the prompt is sent once more without the schema
+     * and later prompts skip it; answers are still checked against the schema locally.
+     */
+    protected CompletableFuture<String> sendStructured(ResponseSchema schema, Function<ResponseSchema, CompletableFuture<String>> send) {
+        if (schema == null || structuredOutputRejected) {
+            return send.apply(null);
+        }
+        CompletableFuture<String> first = send.apply(schema);
+        return Futures.propagateCancellation(first.exceptionallyCompose(error -> {
+            if (!isStructuredOutputRejection(error)) {
+                return CompletableFuture.failedFuture(error);
+            }
+            structuredOutputRejected = true;
+            LOGGER.warn("{} does not support structured output, sending prompts without it", getBackendName());
+            return send.apply(null);
+        }), first);
+    }
+
+    /**
+     * OpenAI-style response_format asking for JSON that matches the schema
+     */
+    protected static JsonObject jsonSchemaFormat(ResponseSchema schema) {
+        JsonObject jsonSchema = new JsonObject();
+        jsonSchema.addProperty("name", schema.getName());
+        jsonSchema.add("schema", schema.toJsonSchema());
+        JsonObject format = new JsonObject();
+        format.addProperty("type", "json_schema");
+        format.add("json_schema", jsonSchema);
+        return format;
+    }
+
+    /**
+     * Report the OpenAI-style usage object of a chat completion, if the server sent one
+     */
+    protected static void reportChatUsage(LLMRequest request, JsonObject response) {
+        if (response.has("usage") && response.get("usage").isJsonObject()) {
+            JsonObject usage = response.getAsJsonObject("usage");
+            request.reportTokens(
+                    usage.has("prompt_tokens") ? usage.get("prompt_tokens").getAsInt() : -1,
+                    usage.has("completion_tokens") ? usage.get("completion_tokens").getAsInt() : -1);
+        }
+    }
+
+    private static boolean isStructuredOutputRejection(Throwable error) {
+        Throwable cause = Futures.unwrap(error);
+        if (cause instanceof LLMHttpException httpError && (httpError.getStatusCode() == 400 || httpError.getStatusCode() == 422)) {
+            String message = String.valueOf(httpError.getMessage()).toLowerCase();
+            return message.contains("response_format") || message.contains("schema");
+        }
+        return false;
+    }
 
-    public abstract String generateModContent(String prompt);    public String generateTexture(String description) {
-        return generateTexture(description, "item");
-    }    public String generateTexture(String description, String itemType) {
+    /**
+     * Run a backend call through this service's limiter and circuit breaker, if it has them.
+     * The breaker is checked both before queueing and again when the call's turn comes,
+     * so callers queued behind requests to a backend that has just gone down fail fast too.
+     */
+    protected <T> CompletableFuture<T> limited(Supplier<CompletableFuture<T>> call) {
+        if (circuitBreaker == null) {
+            return limiter != null ? limiter.execute(call) : call.get();
+        }
+        if (!circuitBreaker.allowsRequests()) {
+            return CompletableFuture.failedFuture(new CircuitOpenException(circuitBreaker.getName()));
+        }
+        Supplier<CompletableFuture<T>> guarded = () -> circuitBreaker.execute(call);
+        return limiter != null ? limiter.execute(guarded) : guarded.get();
+    }
+
+    /**
+     * Short backend identifier, used in cache keys and logs
+     */
+    public String getBackendName() {
+        return getClass().getSimpleName();
+    }
+
+    public String getModelName() {
+        return "default";
+    }
+
+    public double getTemperature() {
+        return DEFAULT_TEMPERATURE;
+    }
+
+    /**
+     * Backend-specific request for a single prompt
+     */
+    protected abstract CompletableFuture<String> sendPrompt(String prompt);
+
+    /**
+     * Backend-specific request for a prompt that may be part of a conversation and may expect JSON of
+     * a given shape. Backends that can do neither send it like any other prompt. Backends that learn the
+     * token counts from their response report them on the request.
+     */
+    protected CompletableFuture<String> sendPrompt(LLMRequest request) {
+        return sendPrompt(request.getPrompt());
+    }
+
+    public String generateTexture(String description) {
+        return joinOrNull(generateTextureAsync(description));
+    }
+
+    public String generateTexture(String description, String itemType) {
+        return joinOrNull(generateTextureAsync(description, itemType));
+    }
+
+    public CompletableFuture<String> generateTextureAsync(String description) {
+        return generateTextureAsync(description, "item");
+    }
+
+    public CompletableFuture<String> generateTextureAsync(String description, String itemType) {
+        return generateTextureAsync(description, itemType, null);
+    }
+
+    public CompletableFuture<String> generateTextureAsync(String description, String itemType, GenerationContext context) {
         // Use enhanced prompts for better texture generation
         String prompt = com.example.aimodgen.generation.TexturePrompts.createTexturePrompt(description, itemType);
-        
-        String response = generateModContent(prompt);
-        LOGGER.info("Generated enhanced texture description for: {} (type: {})", description, itemType);
-        return response;
+
+        return generateModContentAsync(prompt, null, com.example.aimodgen.generation.ContentSchemas.TEXTURE, context).thenApply(response -> {
+            LOGGER.info("Generated enhanced texture description for: {} (type: {})", description, itemType);
+            return response;
+        });
     }
 
     /**
      * Generate texture with multiple enhancement stages
      */
     public String generateEnhancedTexture(String description, String itemType, Map<String, Object> options) {
+        return generateEnhancedTexture(description, itemType, options, null);
+    }
+
+    public String generateEnhancedTexture(String description, String itemType, Map<String, Object> options,
+                                          GenerationContext context) {
+        return joinOrNull(generateEnhancedTextureAsync(description, itemType, options, context));
+    }
+
+    public CompletableFuture<String> generateEnhancedTextureAsync(String description, String itemType,
+                                                                  Map<String, Object> options, GenerationContext context) {
         // Stage 1: Basic texture generation
-        String baseResponse = generateTexture(description, itemType);
-        
-        // Stage 2: Enhancement based on context
-        if (options.containsKey("enhance") && (Boolean) options.get("enhance")) {
-            String enhancementPrompt = createEnhancementPrompt(description, itemType, baseResponse);
-            String enhanced = generateModContent(enhancementPrompt);
-            if (enhanced != null && !enhanced.trim().isEmpty()) {
-                return enhanced;
-            }
+        CompletableFuture<String> base = generateTextureAsync(description, itemType, context);
+        if (!Boolean.TRUE.equals(options.get("enhance"))) {
+            return base;
         }
-        
-        return baseResponse;
+
+        // Stage 2: Enhancement based on context, keeping the basic texture if it gives nothing
+        CompletableFuture<String> result = new CompletableFuture<>();
+        base.whenComplete((baseResponse, baseError) -> {
+            if (result.isDone()) {
+                return;
+            }
+            String fallback = baseError == null ? baseResponse : null;
+            String enhancementPrompt = createEnhancementPrompt(description, itemType, fallback);
+            CompletableFuture<String> enhancement = generateModContentAsync(enhancementPrompt, null, null, context);
+            Futures.propagateCancellation(result, enhancement);
+            enhancement.whenComplete((enhanced, error) ->
+                result.complete(enhanced != null && !enhanced.trim().isEmpty() ? enhanced : fallback));
+        });
+        return Futures.propagateCancellation(result, base);
     }
 
     /**
      * Generate texture with specific style requirements
      */
     public String generateStyledTexture(String description, String style, Map<String, String> styleParameters) {
+        return generateStyledTexture(description, style, styleParameters, null);
+    }
+
+    public String generateStyledTexture(String description, String style, Map<String, String> styleParameters,
+                                        GenerationContext context) {
+        return joinOrNull(generateStyledTextureAsync(description, style, styleParameters, context));
+    }
+
+    public CompletableFuture<String> generateStyledTextureAsync(String description, String style,
+                                                                Map<String, String> styleParameters,
+                                                                GenerationContext context) {
         String prompt = com.example.aimodgen.generation.TexturePrompts.createStyledTexturePrompt(
             description, style, styleParameters);
-        
-        String response = generateModContent(prompt);
-        LOGGER.info("Generated styled texture for: {} with style: {}", description, style);
-        return response;
+
+        return generateModContentAsync(prompt, null, null, context).thenApply(response -> {
+            LOGGER.info("Generated styled texture for: {} with style: {}", description, style);
+            return response;
+        });
     }
 
     /**
      * Generate texture variations for user choice
      */
     public List<String> generateTextureVariations(String description, String itemType, int count) {
+        return generateTextureVariations(description, itemType, count, null);
+    }
+
+    public List<String> generateTextureVariations(String description, String itemType, int count,
+                                                  GenerationContext context) {
         List<String> variations = new ArrayList<>();
         
-        for (int i = 0; i < count; i++) {
-            String variationPrompt = com.example.aimodgen.generation.TexturePrompts.createVariationPrompt(
-                description, itemType, i);
-            String variation = generateModContent(variationPrompt);
+        for (CompletableFuture<String> pending : generateTextureVariationsAsync(description, itemType, count, context)) {
+            String variation = joinOrNull(pending);
             if (variation != null && !variation.trim().isEmpty()) {
                 variations.add(variation);
             }
@@ -76,6 +497,23 @@ public abstract class LLMService {
         return variations;
     }
 
+    /**
+     * Ask for all variations at once. They run side by side as far as the backend's limiter allows,
+     * and each future completes as its answer arrives, so callers can use the first good one and
+     * cancel the rest.
+     */
+    public List<CompletableFuture<String>> generateTextureVariationsAsync(String description, String itemType, int count,
+                                                                         GenerationContext context) {
+        List<CompletableFuture<String>> variations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String variationPrompt = com.example.aimodgen.generation.TexturePrompts.createVariationPrompt(
+                description, itemType, i);
+            variations.add(generateModContentAsync(variationPrompt, null,
+                com.example.aimodgen.generation.ContentSchemas.TEXTURE, context));
+        }
+        return variations;
+    }
+
     /**
      * Create enhancement prompt for refinement
      */
@@ -103,9 +541,20 @@ public abstract class LLMService {
      * Generate image using external AI image services (if available)
      */
     public byte[] generateImage(String description, Map<String, Object> parameters) {
+        try {
+            return generateImageAsync(description, parameters).join();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Image bytes for the description, or null if none could be generated
+     */
+    public CompletableFuture<byte[]> generateImageAsync(String description, Map<String, Object> parameters) {
         // This can be overridden by specific services that support image generation
         LOGGER.warn("Image generation not supported by this LLM service");
-        return null;
+        return CompletableFuture.completedFuture(null);
     }
 
     /**
@@ -136,6 +585,18 @@ public abstract class LLMService {
         return generateModContent(prompt);
     }
 
+    /**
+     * Wait for a backend future, mapping failure to null like the blocking API.
+     * Backends log their own failures, so nothing is logged here.
+     */
+    protected static String joinOrNull(CompletableFuture<String> future) {
+        try {
+            return future.join();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     public JsonObject generateItemProperties(String itemName, String itemDescription) {
         String prompt = String.format("Generate balanced Minecraft item properties for an item named '%s' with description '%s'. " +
                 "Include properties like damage, durability, and special effects.", itemName, itemDescription);
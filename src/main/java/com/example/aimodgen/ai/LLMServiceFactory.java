@@ -2,26 +2,160 @@ package com.example.aimodgen.ai;
 
 import com.example.aimodgen.config.AIModConfig;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
 public class LLMServiceFactory {
+    private static final String CACHE_DIRECTORY = "config/aimodgenerator/llm_cache";
+    private static MockLLMServer mockServer;
+
     public static LLMService createService() {
         String llmType = AIModConfig.LLM_TYPE.get();
-          switch (llmType.toLowerCase()) {
+
+        LLMHttpTransport.configure(
+            AIModConfig.HTTP_MAX_CONNECTIONS_PER_ROUTE.get(),
+            AIModConfig.HTTP_MAX_CONNECTIONS_TOTAL.get(),
+            AIModConfig.HTTP_CONNECT_TIMEOUT_MS.get(),
+            AIModConfig.HTTP_READ_TIMEOUT_MS.get(),
+            AIModConfig.HTTP_IDLE_EVICTION_SECONDS.get(),
+            AIModConfig.HTTP_IO_THREADS.get());
+        startMockServer();
+
+        LLMService service;
+        if ("router".equalsIgnoreCase(llmType)) {
+            service = createRouter(AIModConfig.ROUTER_BACKENDS.get());
+        } else {
+            service = createLimitedBackend(llmType, AIModConfig.LOCAL_LLM_URL.get(), AIModConfig.LOCAL_LLM_MODEL.get());
+        }
+        service.setStreamResponses(AIModConfig.STREAM_RESPONSES.get());
+
+        if (AIModConfig.HEDGING_ENABLED.get()) {
+            service.setHedgingPolicy(new HedgingPolicy(
+                AIModConfig.HEDGING_PERCENTILE.get(),
+                AIModConfig.HEDGING_MIN_DELAY_MS.get(),
+                AIModConfig.HEDGING_MAX_RATIO.get()));
+        }
+
+        if (AIModConfig.CACHE_ENABLED.get()) {
+            service.setResponseCache(new LLMResponseCache(
+                Paths.get(CACHE_DIRECTORY),
+                AIModConfig.CACHE_MEMORY_ENTRIES.get(),
+                AIModConfig.CACHE_DISK_MAX_MB.get() * 1024L * 1024L,
+                AIModConfig.CACHE_TTL_HOURS.get() * 60L * 60L * 1000L));
+        }
+        return service;
+    }
+
+    /**
+     * How mock backends and the mock server behave, from the mock section of the config
+     */
+    public static MockBehavior createMockBehavior() {
+        return new MockBehavior(AIModConfig.MOCK_SEED.get())
+            .latency(MockBehavior.Latency.parse(AIModConfig.MOCK_LATENCY.get()))
+            .errors(AIModConfig.MOCK_ERROR_RATE.get(), AIModConfig.MOCK_ERROR_STATUS.get())
+            .streaming(AIModConfig.MOCK_STREAM_CHUNK_CHARS.get(), AIModConfig.MOCK_STREAM_CHUNK_DELAY_MS.get())
+            .chatty(AIModConfig.MOCK_CHATTY.get());
+    }
+
+    /**
+     * Serve mock answers over HTTP if the config asks for it and the server is not already running
+     */
+    public static synchronized void startMockServer() {
+        int port = AIModConfig.MOCK_SERVER_PORT.get();
+        if (port == 0 || mockServer != null) {
+            return;
+        }
+        try {
+            mockServer = new MockLLMServer(createMockBehavior()).start(port);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to start the mock LLM server on port " + port + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stop serving mock answers, freeing the port for the next time the server starts
+     */
+    public static synchronized void stopMockServer() {
+        if (mockServer != null) {
+            mockServer.close();
+            mockServer = null;
+        }
+    }
+
+    /**
+     * Build a router over backends listed as "type,url,model" (url and model default to the local LLM settings)
+     */
+    private static LLMService createRouter(List<? extends String> backendSpecs) {
+        List<LLMService> backends = new ArrayList<>();
+        for (String spec : backendSpecs) {
+            String[] parts = spec.split(",");
+            String type = parts[0].trim();
+            String url = parts.length > 1 ? parts[1].trim() : AIModConfig.LOCAL_LLM_URL.get();
+            String model = parts.length > 2 ? parts[2].trim() : AIModConfig.LOCAL_LLM_MODEL.get();
+            backends.add(createLimitedBackend(type, url, model));
+        }
+        return new RoutingLLMService(backends);
+    }
+
+    private static LLMService createLimitedBackend(String llmType, String url, String model) {
+        LLMService backend = createBackend(llmType, url, model);
+        String name = "openai".equalsIgnoreCase(llmType) ? "openai" : llmType.toLowerCase() + "@" + url;
+        if (AIModConfig.LIMITS_ENABLED.get()) {
+            backend.setLimiter(createLimiter(name, limitsFor(llmType)));
+        }
+        if (AIModConfig.BREAKER_ENABLED.get()) {
+            CircuitBreaker breaker = new CircuitBreaker(name,
+                AIModConfig.BREAKER_FAILURE_THRESHOLD.get(),
+                AIModConfig.BREAKER_OPEN_SECONDS.get() * 1000L,
+                backend::probeHealth);
+            breaker.startProbing(AIModConfig.BREAKER_PROBE_INTERVAL_SECONDS.get() * 1000L);
+            backend.setCircuitBreaker(breaker);
+        }
+        return backend;
+    }
+
+    private static BackendLimiter createLimiter(String name, AIModConfig.BackendLimits limits) {
+        return new BackendLimiter(name,
+            limits.maxConcurrency.get(),
+            limits.requestsPerSecond.get(),
+            limits.burst.get(),
+            AIModConfig.LIMITS_LATENCY_TOLERANCE.get());
+    }
+
+    private static AIModConfig.BackendLimits limitsFor(String llmType) {
+        switch (llmType.toLowerCase()) {
+            case "openai":
+                return AIModConfig.OPENAI_LIMITS;
+            case "lmstudio":
+                return AIModConfig.LMSTUDIO_LIMITS;
+            default:
+                return AIModConfig.OLLAMA_LIMITS;
+        }
+    }
+
+    private static LLMService createBackend(String llmType, String url, String model) {
+        switch (llmType.toLowerCase()) {
             case "openai":
                 String apiKey = AIModConfig.OPENAI_API_KEY.get();
                 if (apiKey == null || apiKey.isEmpty()) {
                     throw new IllegalStateException("OpenAI API key is required when using OpenAI service");
                 }
-                return new OpenAIService(apiKey);
-                
+                return new OpenAIService(apiKey, AIModConfig.OPENAI_BASE_URL.get());
+
             case "lmstudio":
-                String lmStudioUrl = AIModConfig.LOCAL_LLM_URL.get();
-                return new LMStudioService(lmStudioUrl);
-                
+                return new LMStudioService(url);
+
+            case "mock":
+                return new MockLLMService(createMockBehavior());
+
             case "ollama":
-                String ollamaUrl = AIModConfig.LOCAL_LLM_URL.get();
-                String model = AIModConfig.LOCAL_LLM_MODEL.get();
-                return new OllamaService(ollamaUrl, model);
-                
+                OllamaService ollama = new OllamaService(url, model);
+                ollama.setKeepAlive(AIModConfig.OLLAMA_KEEP_ALIVE.get());
+                ollama.setReuseContext(AIModConfig.OLLAMA_REUSE_CONTEXT.get());
+                return ollama;
+
             default:
                 throw new IllegalArgumentException("Unsupported LLM type: " + llmType);
         }
@@ -2,13 +2,12 @@ package com.example.aimodgen.ai;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
 import com.google.gson.Gson;
+import com.example.aimodgen.util.Futures;
+
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class LMStudioService extends LLMService {
     private final String baseUrl;
@@ -19,40 +18,74 @@ public class LMStudioService extends LLMService {
     }
 
     @Override
-    public String generateModContent(String prompt) {
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            HttpPost post = new HttpPost(baseUrl + "/v1/chat/completions");
-            post.setHeader("Content-Type", "application/json");
-
-            JsonObject requestBody = new JsonObject();
-            JsonArray messages = new JsonArray();
-            
-            JsonObject systemMessage = new JsonObject();
-            systemMessage.addProperty("role", "system");
-            systemMessage.addProperty("content", SYSTEM_PROMPT);
-            messages.add(systemMessage);
-
-            JsonObject userMessage = new JsonObject();
-            userMessage.addProperty("role", "user");
-            userMessage.addProperty("content", prompt);
-            messages.add(userMessage);
-
-            requestBody.add("messages", messages);
-            requestBody.addProperty("temperature", 0.7);
-            requestBody.addProperty("stream", false);
-
-            post.setEntity(new StringEntity(gson.toJson(requestBody)));
-
-            try (CloseableHttpResponse response = client.execute(post)) {
-                String jsonResponse = EntityUtils.toString(response.getEntity());
-                JsonObject responseObj = gson.fromJson(jsonResponse, JsonObject.class);
+    public String getBackendName() {
+        return "lmstudio";
+    }
+
+    @Override
+    protected CompletableFuture<?> probeHealth() {
+        return LLMHttpTransport.shared().probe(baseUrl + "/v1/models", Map.of());
+    }
+
+    @Override
+    protected CompletableFuture<String> sendPrompt(String prompt) {
+        return sendPrompt(new LLMRequest(prompt, null, null, null));
+    }
+
+    @Override
+    protected CompletableFuture<String> sendPrompt(LLMRequest request) {
+        CompletableFuture<String> content = sendStructured(request.getSchema(), responseSchema -> postChat(request, responseSchema));
+        return Futures.propagateCancellation(content.whenComplete((result, error) -> {
+            if (error != null && !content.isCancelled()) {
+                LOGGER.error("Error generating content with LM Studio: " + error.getMessage());
+            }
+        }), content);
+    }
+
+    /**
+     * POST a chat completion. With a schema, LM Studio turns it into a grammar that the sampler
+     * must follow, so the answer is always JSON of that shape.
+     */
+    private CompletableFuture<String> postChat(LLMRequest request, ResponseSchema schema) {
+        JsonObject requestBody = new JsonObject();
+        JsonArray messages = new JsonArray();
+
+        JsonObject systemMessage = new JsonObject();
+        systemMessage.addProperty("role", "system");
+        systemMessage.addProperty("content", SYSTEM_PROMPT);
+        messages.add(systemMessage);
+
+        JsonObject userMessage = new JsonObject();
+        userMessage.addProperty("role", "user");
+        userMessage.addProperty("content", request.getPrompt());
+        messages.add(userMessage);
+
+        requestBody.add("messages", messages);
+        requestBody.addProperty("temperature", getTemperature());
+        requestBody.addProperty("stream", streamResponses);
+        if (schema != null) {
+            requestBody.add("response_format", jsonSchemaFormat(schema));
+        }
+
+        CompletableFuture<HttpResponse<String>> exchange;
+        CompletableFuture<String> content;
+        if (streamResponses) {
+            exchange = LLMHttpTransport.shared()
+                    .postJson(baseUrl + "/v1/chat/completions", Map.of(), gson.toJson(requestBody),
+                            StreamingResponseHandler.openAiCompatible().forRequest(request));
+            content = exchange.thenApply(LLMHttpTransport::requireSuccess);
+        } else {
+            exchange = LLMHttpTransport.shared()
+                    .postJson(baseUrl + "/v1/chat/completions", Map.of(), gson.toJson(requestBody));
+            content = exchange.thenApply(response -> {
+                request.markResponded();
+                JsonObject responseObj = gson.fromJson(LLMHttpTransport.requireSuccess(response), JsonObject.class);
+                reportChatUsage(request, responseObj);
                 return responseObj.getAsJsonArray("choices").get(0)
                         .getAsJsonObject().getAsJsonObject("message")
                         .get("content").getAsString();
-            }
-        } catch (Exception e) {
-            LOGGER.error("Error generating content with LM Studio: " + e.getMessage());
-            return null;
+            });
         }
+        return Futures.propagateCancellation(content, exchange);
     }
 }
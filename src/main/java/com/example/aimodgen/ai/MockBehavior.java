@@ -0,0 +1,335 @@
+package com.example.aimodgen.ai;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * How a mock backend behaves: how long it takes, how often it fails, how it streams and what it answers,
+ * for running the generation pipeline on machines with no GPU or network. Answers are canned and depend
+ * only on the prompt: properties, recipes and textures shaped like the ones the generators ask for, with a
+ * generated 16x16 PNG wherever a texture is expected. Latency and failures come from a seeded random source,
+ * so a run with the same seed and the same prompts in the same order behaves the same way.
+ * Used in process by {@link MockLLMService} and over HTTP by {@link MockLLMServer}.
+ */
+public class MockBehavior {
+    private static final String BATCH_MARKER = "Return ONLY one JSON object with exactly these keys: ";
+    private static final String CHATTY_PREFIX = "Sure! Here is what you asked for:\n";
+    private static final String CHATTY_SUFFIX = "\n\nLet me know if you would like any changes to fit your world better.";
+    private static final int TEXTURE_SIZE = 16;
+
+    // Guarded by itself
+    private final Random random;
+    private final List<Map.Entry<String, String>> cannedAnswers = new CopyOnWriteArrayList<>();
+    private volatile Latency latency = Latency.fixed(0);
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+    private volatile int chunkChars = 8;
+    private volatile long chunkDelayMillis;
+    private volatile boolean chatty;
+
+    public MockBehavior(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Time until the first token of every answer
+     */
+    public MockBehavior latency(Latency latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * Fail this fraction of requests (0-1) with the given HTTP status, as an overloaded server would
+     */
+    public MockBehavior errors(double errorRate, int errorStatus) {
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+        return this;
+    }
+
+    /**
+     * Produce answers in chunks of this many characters, one every delay, streamed or not. Whole answers
+     * take the time of all their chunks; streamed answers can be cut short at the end of their JSON.
+     */
+    public MockBehavior streaming(int chunkChars, long chunkDelayMillis) {
+        this.chunkChars = Math.max(1, chunkChars);
+        this.chunkDelayMillis = chunkDelayMillis;
+        return this;
+    }
+
+    /**
+     * Wrap JSON answers in the friendly text real models add around them
+     */
+    public MockBehavior chatty(boolean chatty) {
+        this.chatty = chatty;
+        return this;
+    }
+
+    /**
+     * Answer prompts containing the given text with a fixed response, instead of the canned one.
+     * Checked in the order they were added.
+     */
+    public MockBehavior answer(String promptFragment, String response) {
+        cannedAnswers.add(Map.entry(promptFragment, response));
+        return this;
+    }
+
+    /**
+     * The answer for a prompt; the same prompt always gets the same answer
+     */
+    public String answerFor(String prompt) {
+        for (Map.Entry<String, String> canned : cannedAnswers) {
+            if (prompt.contains(canned.getKey())) {
+                return canned.getValue();
+            }
+        }
+
+        int seed = prompt.hashCode();
+        String firstLine = prompt.trim().lines().findFirst().orElse("").toLowerCase(Locale.ROOT);
+        JsonObject answer;
+        int batch = prompt.indexOf(BATCH_MARKER);
+        if (batch >= 0) {
+            answer = new JsonObject();
+            String keys = prompt.substring(batch + BATCH_MARKER.length()).lines().findFirst().orElse("");
+            boolean block = firstLine.contains("minecraft block");
+            for (String key : keys.replaceAll("\\.$", "").split(",\\s*")) {
+                if (key.contains("texture")) {
+                    answer.addProperty(key, texturePng(seed));
+                } else if (key.contains("recipe")) {
+                    answer.add(key, recipe());
+                } else {
+                    answer.add(key, properties(block, prompt, seed));
+                }
+            }
+        } else if (firstLine.contains("crafting recipe")) {
+            answer = recipe();
+        } else if (firstLine.contains("texture")) {
+            answer = texture(seed);
+        } else if (firstLine.contains("minecraft block") || firstLine.contains("minecraft item")) {
+            answer = properties(firstLine.contains("minecraft block"), prompt, seed);
+        } else {
+            return "This is a mock answer to: " + firstLine;
+        }
+        return chatty ? CHATTY_PREFIX + answer + CHATTY_SUFFIX : answer.toString();
+    }
+
+    /**
+     * Draw the time to the first token of the next answer
+     */
+    public long sampleLatencyMillis() {
+        synchronized (random) {
+            return Math.max(0, latency.sample(random));
+        }
+    }
+
+    /**
+     * Draw whether the next request fails
+     */
+    public boolean sampleFailure() {
+        if (errorRate <= 0) {
+            return false;
+        }
+        synchronized (random) {
+            return random.nextDouble() < errorRate;
+        }
+    }
+
+    public int getErrorStatus() {
+        return errorStatus;
+    }
+
+    public long getChunkDelayMillis() {
+        return chunkDelayMillis;
+    }
+
+    /**
+     * The answer split into the chunks it is produced in
+     */
+    public List<String> chunks(String answer) {
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < answer.length(); i += chunkChars) {
+            chunks.add(answer.substring(i, Math.min(answer.length(), i + chunkChars)));
+        }
+        return chunks;
+    }
+
+    /**
+     * Rough token count, as backends that do not report one are estimated elsewhere
+     */
+    public static int countTokens(String text) {
+        return UsageTracker.estimateTokens(text);
+    }
+
+    private static JsonObject properties(boolean block, String prompt, int seed) {
+        String description = describedThing(prompt);
+        String id = description.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "_").replaceAll("^_+|_+$", "");
+        if (id.isEmpty()) {
+            id = "mock_" + Integer.toHexString(seed);
+        } else if (id.length() > 32) {
+            id = id.substring(0, 32).replaceAll("_+$", "");
+        }
+        int variety = Math.floorMod(seed, 16);
+
+        JsonObject properties = new JsonObject();
+        properties.addProperty("id", id);
+        properties.addProperty("name", "Mock " + id.replace('_', ' '));
+        if (block) {
+            properties.addProperty("hardness", 1.0 + variety / 4.0);
+            properties.addProperty("resistance", 3.0 + variety);
+            properties.addProperty("lightLevel", variety % 4 == 0 ? variety : 0);
+            properties.addProperty("requiresTool", variety > 4);
+            properties.addProperty("material", "minecraft:stone");
+            properties.addProperty("soundType", "minecraft:stone");
+            properties.addProperty("hasGravity", false);
+            properties.addProperty("isTransparent", false);
+        } else {
+            properties.addProperty("maxStackSize", variety > 8 ? 64 : 1);
+            properties.addProperty("maxDurability", variety > 8 ? 0 : 100 + variety * 50);
+            properties.addProperty("craftingMaterial", "minecraft:iron_ingot");
+            properties.addProperty("isFood", false);
+            properties.add("foodProperties", new JsonObject());
+        }
+        properties.add("customProperties", new JsonObject());
+        return properties;
+    }
+
+    /**
+     * The line after "description:" in a generation prompt, or nothing
+     */
+    private static String describedThing(String prompt) {
+        int marker = prompt.indexOf("description:");
+        if (marker < 0) {
+            return "";
+        }
+        return prompt.substring(marker + "description:".length()).trim().lines().findFirst().orElse("");
+    }
+
+    private static JsonObject recipe() {
+        JsonObject recipe = new JsonObject();
+        recipe.addProperty("type", "shapeless");
+        JsonArray ingredients = new JsonArray();
+        ingredients.add("minecraft:iron_ingot");
+        ingredients.add("minecraft:stick");
+        recipe.add("ingredients", ingredients);
+        return recipe;
+    }
+
+    private static JsonObject texture(int seed) {
+        Random colors = new Random(seed);
+        JsonArray palette = new JsonArray();
+        for (int i = 0; i < 4; i++) {
+            palette.add(new JsonPrimitive(String.format("#%06x", colors.nextInt(0x1000000))));
+        }
+        JsonObject texture = new JsonObject();
+        texture.add("colorPalette", palette);
+        texture.add("dominantColors", palette.deepCopy());
+        texture.addProperty("description", "Mock texture");
+        texture.addProperty("pattern", "noise");
+        texture.addProperty("style", "pixel art");
+        texture.addProperty("textureType", "generic");
+        texture.addProperty("base64", texturePng(seed));
+        return texture;
+    }
+
+    /**
+     * A 16x16 PNG of noise in a few colors picked from the seed, as Base64
+     */
+    static String texturePng(int seed) {
+        Random pixels = new Random(seed);
+        int[] palette = new int[4];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = 0xFF000000 | pixels.nextInt(0x1000000);
+        }
+        BufferedImage image = new BufferedImage(TEXTURE_SIZE, TEXTURE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < TEXTURE_SIZE; y++) {
+            for (int x = 0; x < TEXTURE_SIZE; x++) {
+                image.setRGB(x, y, palette[pixels.nextInt(palette.length)]);
+            }
+        }
+        try {
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(image, "PNG", png);
+            return Base64.getEncoder().encodeToString(png.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Distribution of the time until the first token
+     */
+    public abstract static class Latency {
+        abstract long sample(Random random);
+
+        public static Latency fixed(long millis) {
+            return new Latency() {
+                @Override
+                long sample(Random random) {
+                    return millis;
+                }
+            };
+        }
+
+        public static Latency uniform(long minMillis, long maxMillis) {
+            return new Latency() {
+                @Override
+                long sample(Random random) {
+                    return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+                }
+            };
+        }
+
+        /**
+         * Mostly near the median with a long tail of slow answers, like a busy GPU backend
+         *
+         * @param sigma spread; 0.5 puts about one answer in twenty above twice the median
+         */
+        public static Latency logNormal(long medianMillis, double sigma) {
+            return new Latency() {
+                @Override
+                long sample(Random random) {
+                    return Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+                }
+            };
+        }
+
+        /**
+         * Read a distribution written as "fixed:200", "uniform:100-400" or "lognormal:800,0.5"
+         */
+        public static Latency parse(String spec) {
+            String[] parts = spec.trim().toLowerCase(Locale.ROOT).split(":", 2);
+            try {
+                switch (parts[0]) {
+                    case "fixed":
+                        return fixed(Long.parseLong(parts[1].trim()));
+                    case "uniform":
+                        String[] range = parts[1].split("-");
+                        return uniform(Long.parseLong(range[0].trim()), Long.parseLong(range[1].trim()));
+                    case "lognormal":
+                        String[] shape = parts[1].split(",");
+                        return logNormal(Long.parseLong(shape[0].trim()), Double.parseDouble(shape[1].trim()));
+                    default:
+                        break;
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid latency \"" + spec + "\": " + e.getMessage(), e);
+            }
+            throw new IllegalArgumentException("Invalid latency \"" + spec + "\", expected fixed, uniform or lognormal");
+        }
+    }
+}
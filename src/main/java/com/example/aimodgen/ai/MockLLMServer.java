@@ -0,0 +1,310 @@
+package com.example.aimodgen.ai;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small HTTP server speaking enough of the Ollama (/api/generate, /api/tags) and OpenAI-compatible
+ * (/v1/chat/completions, /v1/models, /v1/images/generations) protocols for the real backends to talk to,
+ * streamed or not, so their wire handling can be tested and benchmarked offline. LM Studio uses the
+ * OpenAI paths. Answers, delays and failures follow a {@link MockBehavior}.
+ */
+public class MockLLMServer implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Gson GSON = new Gson();
+    private static final String MODEL = "mock";
+
+    private final MockBehavior behavior;
+    private final AtomicLong requests = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService handlers;
+
+    public MockLLMServer(MockBehavior behavior) {
+        this.behavior = behavior;
+    }
+
+    /**
+     * Start listening on localhost
+     *
+     * @param port port to listen on, or 0 for any free port
+     */
+    public synchronized MockLLMServer start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/api/generate", exchange -> handle(exchange, this::ollamaGenerate));
+        server.createContext("/api/tags", exchange -> handle(exchange, this::ollamaTags));
+        server.createContext("/v1/chat/completions", exchange -> handle(exchange, this::chatCompletion));
+        server.createContext("/v1/models", exchange -> handle(exchange, this::models));
+        server.createContext("/v1/images/generations", exchange -> handle(exchange, this::imageGeneration));
+        // Every request sleeps through its simulated latency, so each gets a thread of its own
+        AtomicInteger threadCount = new AtomicInteger();
+        handlers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "aimod-mock-http-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(handlers);
+        startDaemon(server);
+        LOGGER.info("Mock LLM server listening on {}", getBaseUrl());
+        return this;
+    }
+
+    /**
+     * Start the server from a daemon thread. Its dispatcher thread takes the daemon flag from the thread that
+     * starts it, and would otherwise keep the JVM alive if the server were never closed.
+     */
+    private static void startDaemon(HttpServer server) throws IOException {
+        Thread starter = new Thread(server::start, "aimod-mock-http-start");
+        starter.setDaemon(true);
+        starter.start();
+        try {
+            starter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            server.stop(0);
+            throw new IOException("Interrupted while starting the mock LLM server", e);
+        }
+    }
+
+    /**
+     * Base URL for Ollama and LM Studio backends; OpenAI backends take this with "/v1" appended
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + getPort();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            handlers.shutdownNow();
+            server = null;
+        }
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange, JsonObject body) throws IOException, InterruptedException;
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        requests.incrementAndGet();
+        try {
+            String text = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            JsonObject body = text.isBlank() ? new JsonObject() : JsonParser.parseString(text).getAsJsonObject();
+            handler.handle(exchange, body);
+        } catch (IOException e) {
+            // Usually a streaming client that had what it needed and hung up
+            LOGGER.debug("Mock LLM client went away: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Mock LLM server could not answer {}: {}", exchange.getRequestURI(), e.getMessage());
+            sendJson(exchange, 400, error(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Fail or wait out the time to the first token, as the behavior decides.
+     *
+     * @return false if the request was failed
+     */
+    private boolean beginAnswer(HttpExchange exchange) throws IOException, InterruptedException {
+        boolean fail = behavior.sampleFailure();
+        Thread.sleep(behavior.sampleLatencyMillis());
+        if (fail) {
+            sendJson(exchange, behavior.getErrorStatus(), error("mock failure"));
+            return false;
+        }
+        return true;
+    }
+
+    private void ollamaGenerate(HttpExchange exchange, JsonObject body) throws IOException, InterruptedException {
+        String prompt = body.get("prompt").getAsString();
+        // Ollama streams unless told not to
+        boolean stream = !body.has("stream") || body.get("stream").getAsBoolean();
+        if (!beginAnswer(exchange)) {
+            return;
+        }
+        String answer = behavior.answerFor(prompt);
+        List<String> chunks = behavior.chunks(answer);
+
+        JsonObject last = new JsonObject();
+        last.addProperty("model", body.has("model") ? body.get("model").getAsString() : MODEL);
+        last.addProperty("done", true);
+        JsonArray context = new JsonArray();
+        context.add(Math.abs(prompt.hashCode() % 1000));
+        context.add(chunks.size());
+        last.add("context", context);
+        last.addProperty("prompt_eval_count", MockBehavior.countTokens(prompt));
+        last.addProperty("eval_count", MockBehavior.countTokens(answer));
+        last.addProperty("prompt_eval_duration", 1_000_000L);
+        last.addProperty("eval_duration", chunks.size() * behavior.getChunkDelayMillis() * 1_000_000L);
+
+        if (!stream) {
+            Thread.sleep(chunks.size() * behavior.getChunkDelayMillis());
+            last.addProperty("response", answer);
+            sendJson(exchange, 200, last);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        for (String chunk : chunks) {
+            Thread.sleep(behavior.getChunkDelayMillis());
+            JsonObject part = new JsonObject();
+            part.addProperty("model", last.get("model").getAsString());
+            part.addProperty("response", chunk);
+            part.addProperty("done", false);
+            writeLine(out, GSON.toJson(part) + "\n");
+        }
+        last.addProperty("response", "");
+        writeLine(out, GSON.toJson(last) + "\n");
+    }
+
+    private void ollamaTags(HttpExchange exchange, JsonObject body) throws IOException {
+        JsonObject model = new JsonObject();
+        model.addProperty("name", MODEL);
+        JsonArray models = new JsonArray();
+        models.add(model);
+        JsonObject response = new JsonObject();
+        response.add("models", models);
+        sendJson(exchange, 200, response);
+    }
+
+    private void chatCompletion(HttpExchange exchange, JsonObject body) throws IOException, InterruptedException {
+        String prompt = "";
+        for (JsonElement message : body.getAsJsonArray("messages")) {
+            JsonObject entry = message.getAsJsonObject();
+            if ("user".equals(entry.get("role").getAsString())) {
+                prompt = entry.get("content").getAsString();
+            }
+        }
+        boolean stream = body.has("stream") && body.get("stream").getAsBoolean();
+        if (!beginAnswer(exchange)) {
+            return;
+        }
+        String answer = behavior.answerFor(prompt);
+        List<String> chunks = behavior.chunks(answer);
+
+        if (!stream) {
+            Thread.sleep(chunks.size() * behavior.getChunkDelayMillis());
+            JsonObject message = new JsonObject();
+            message.addProperty("role", "assistant");
+            message.addProperty("content", answer);
+            JsonObject choice = choice("message", message, "stop");
+            JsonObject usage = new JsonObject();
+            int promptTokens = MockBehavior.countTokens(prompt);
+            int completionTokens = MockBehavior.countTokens(answer);
+            usage.addProperty("prompt_tokens", promptTokens);
+            usage.addProperty("completion_tokens", completionTokens);
+            usage.addProperty("total_tokens", promptTokens + completionTokens);
+            JsonObject response = completion("chat.completion", choice);
+            response.add("usage", usage);
+            sendJson(exchange, 200, response);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        for (String chunk : chunks) {
+            Thread.sleep(behavior.getChunkDelayMillis());
+            JsonObject delta = new JsonObject();
+            delta.addProperty("content", chunk);
+            writeLine(out, "data: " + GSON.toJson(completion("chat.completion.chunk", choice("delta", delta, null))) + "\n\n");
+        }
+        writeLine(out, "data: " + GSON.toJson(completion("chat.completion.chunk", choice("delta", new JsonObject(), "stop"))) + "\n\n");
+        writeLine(out, "data: [DONE]\n\n");
+    }
+
+    private void models(HttpExchange exchange, JsonObject body) throws IOException {
+        JsonObject model = new JsonObject();
+        model.addProperty("id", MODEL);
+        model.addProperty("object", "model");
+        JsonArray data = new JsonArray();
+        data.add(model);
+        JsonObject response = new JsonObject();
+        response.addProperty("object", "list");
+        response.add("data", data);
+        sendJson(exchange, 200, response);
+    }
+
+    private void imageGeneration(HttpExchange exchange, JsonObject body) throws IOException, InterruptedException {
+        String prompt = body.has("prompt") ? body.get("prompt").getAsString() : "";
+        if (!beginAnswer(exchange)) {
+            return;
+        }
+        JsonObject image = new JsonObject();
+        image.addProperty("b64_json", MockBehavior.texturePng(prompt.hashCode()));
+        JsonArray data = new JsonArray();
+        data.add(image);
+        JsonObject response = new JsonObject();
+        response.addProperty("created", System.currentTimeMillis() / 1000);
+        response.add("data", data);
+        sendJson(exchange, 200, response);
+    }
+
+    private static JsonObject choice(String field, JsonObject content, String finishReason) {
+        JsonObject choice = new JsonObject();
+        choice.addProperty("index", 0);
+        choice.add(field, content);
+        choice.addProperty("finish_reason", finishReason);
+        return choice;
+    }
+
+    private static JsonObject completion(String object, JsonObject choice) {
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+        JsonObject completion = new JsonObject();
+        completion.addProperty("id", "mock-" + Integer.toHexString(choice.hashCode()));
+        completion.addProperty("object", object);
+        completion.addProperty("model", MODEL);
+        completion.add("choices", choices);
+        return completion;
+    }
+
+    private static JsonObject error(String message) {
+        JsonObject error = new JsonObject();
+        error.addProperty("error", message);
+        return error;
+    }
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, JsonObject body) throws IOException {
+        byte[] bytes = GSON.toJson(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
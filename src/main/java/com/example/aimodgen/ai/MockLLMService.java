@@ -0,0 +1,137 @@
+package com.example.aimodgen.ai;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Backend answering in process with canned content after a simulated delay, for exercising and
+ * benchmarking the generation pipeline without a model. Limiter, cache, hedging, breaker and usage
+ * accounting all apply as they do to a real backend; see {@link MockBehavior} for what it answers and when.
+ */
+public class MockLLMService extends LLMService {
+    private static final ScheduledExecutorService TIMER = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "aimod-mock-llm");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String name;
+    private final MockBehavior behavior;
+    private final AtomicLong prompts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public MockLLMService(MockBehavior behavior) {
+        this("mock", behavior);
+    }
+
+    /**
+     * @param name backend name for cache keys and usage reports, to tell several mocks apart behind a router
+     */
+    public MockLLMService(String name, MockBehavior behavior) {
+        this.name = name;
+        this.behavior = behavior;
+    }
+
+    @Override
+    public String getBackendName() {
+        return name;
+    }
+
+    @Override
+    public String getModelName() {
+        return "mock";
+    }
+
+    public MockBehavior getBehavior() {
+        return behavior;
+    }
+
+    /**
+     * Prompts that reached this backend, failed ones included
+     */
+    public long getPromptCount() {
+        return prompts.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Prompts this backend is working on right now
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    @Override
+    protected CompletableFuture<?> probeHealth() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    protected CompletableFuture<String> sendPrompt(String prompt) {
+        return sendPrompt(new LLMRequest(prompt, null, null, null));
+    }
+
+    /**
+     * Answer after the sampled time to first token plus the time to produce the answer's chunks.
+     * A streamed answer stops at the end of its first JSON object, as the streaming handler does.
+     */
+    @Override
+    protected CompletableFuture<String> sendPrompt(LLMRequest request) {
+        prompts.incrementAndGet();
+        boolean fail = behavior.sampleFailure();
+        long delay = behavior.sampleLatencyMillis();
+        String answer = behavior.answerFor(request.getPrompt());
+
+        List<String> chunks = behavior.chunks(answer);
+        int produced = chunks.size();
+        if (streamResponses) {
+            StreamingJsonExtractor extractor = new StreamingJsonExtractor();
+            produced = 0;
+            for (String chunk : chunks) {
+                produced++;
+                if (extractor.feed(chunk)) {
+                    break;
+                }
+            }
+            answer = extractor.getText();
+        }
+        long total = delay + produced * behavior.getChunkDelayMillis();
+        String text = answer;
+
+        CompletableFuture<String> result = new CompletableFuture<>();
+        inFlight.incrementAndGet();
+        ScheduledFuture<?> timer = TIMER.schedule(() -> {
+            // Before completing, since whatever waits on the result (such as the limiter) may start the next call
+            inFlight.decrementAndGet();
+            request.markResponded();
+            if (fail) {
+                failures.incrementAndGet();
+                result.completeExceptionally(new LLMHttpException(behavior.getErrorStatus(), "{\"error\": \"mock failure\"}"));
+                return;
+            }
+            request.reportTokens(MockBehavior.countTokens(SYSTEM_PROMPT + request.getPrompt()), MockBehavior.countTokens(text));
+            request.reportBackendMillis(total);
+            result.complete(text);
+        }, total, TimeUnit.MILLISECONDS);
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled() && timer.cancel(false)) {
+                inFlight.decrementAndGet();
+            }
+        });
+        return result;
+    }
+
+    public String getStatsSummary() {
+        return String.format("%s: %d prompts, %d failed, %d in flight", name, prompts.get(), failures.get(), inFlight.get());
+    }
+}
@@ -1,61 +1,115 @@
 package com.example.aimodgen.ai;
 
-import com.google.gson.JsonObject;
 import com.google.gson.JsonArray;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.Gson;
+import com.example.aimodgen.generation.GenerationContext;
+import com.example.aimodgen.util.Futures;
+import java.net.http.HttpResponse;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class OllamaService extends LLMService {
+    private static final int MAX_CONVERSATIONS = 64;
+    // The context grows with every exchange; past this many tokens it costs more to send than it saves
+    private static final int MAX_CONTEXT_TOKENS = 4096;
+
     private final String baseUrl;
     private final String model;
     private final Gson gson = new Gson();
+    private volatile String keepAlive;
+    private volatile boolean reuseContext = true;
+    // Token context Ollama returned for the last prompt of each conversation, least recently used first
+    private final Map<String, JsonArray> conversations = Collections.synchronizedMap(
+            new LinkedHashMap<String, JsonArray>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, JsonArray> eldest) {
+                    return size() > MAX_CONVERSATIONS;
+                }
+            });
 
     public OllamaService(String baseUrl, String model) {
         this.baseUrl = baseUrl;
         this.model = model;
     }
 
+    /**
+     * How long Ollama keeps the model loaded after a request, such as "30m" or "-1" for always.
+     * Null or empty leaves it to the server's default of five minutes.
+     */
+    public void setKeepAlive(String keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Pass the context Ollama returned for one prompt along with the next prompt of the same
+     * conversation, so the server continues from it instead of evaluating everything again
+     */
+    public void setReuseContext(boolean reuseContext) {
+        this.reuseContext = reuseContext;
+    }
+
+    public int getConversationCount() {
+        return conversations.size();
+    }
+
+    @Override
+    public void endConversation(String conversation) {
+        conversations.remove(conversation);
+    }
+
+    @Override
+    public String getBackendName() {
+        return "ollama";
+    }
+
+    @Override
+    public String getModelName() {
+        return model;
+    }
+
+    @Override
+    protected CompletableFuture<?> probeHealth() {
+        return LLMHttpTransport.shared().probe(baseUrl + "/api/tags", Map.of());
+    }
+
+    @Override
+    protected CompletableFuture<String> sendPrompt(String prompt) {
+        return sendPrompt(new LLMRequest(prompt, null, null, null));
+    }
+
     @Override
-    public String generateModContent(String prompt) {
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            HttpPost post = new HttpPost(baseUrl + "/api/generate");
-            post.setHeader("Content-Type", "application/json");
-
-            JsonObject requestBody = new JsonObject();
-            requestBody.addProperty("model", model);
-            requestBody.addProperty("prompt", SYSTEM_PROMPT + "\n\n" + prompt);
-            requestBody.addProperty("stream", false);
-            requestBody.addProperty("temperature", 0.7);
-
-            post.setEntity(new StringEntity(gson.toJson(requestBody)));
-
-            try (CloseableHttpResponse response = client.execute(post)) {
-                String jsonResponse = EntityUtils.toString(response.getEntity());
-                JsonObject responseObj = gson.fromJson(jsonResponse, JsonObject.class);
-                return responseObj.get("response").getAsString();
+    protected CompletableFuture<String> sendPrompt(LLMRequest request) {
+        CompletableFuture<String> generation = postGenerate(request.getPrompt(),
+                reuseContext ? request.getConversation() : null, request.getSchema() != null, request);
+        return Futures.propagateCancellation(generation.whenComplete((content, error) -> {
+            if (error != null && !generation.isCancelled()) {
+                LOGGER.error("Error generating content with Ollama: " + error.getMessage());
             }
-        } catch (Exception e) {
-            LOGGER.error("Error generating content with Ollama: " + e.getMessage());            return null;
-        }
-    }    @Override
-    public String generateTexture(String description) {
+        }), generation);
+    }
+
+    /**
+     * The shorter overloads come here too, so every texture request tries the vision model first
+     */
+    @Override
+    public CompletableFuture<String> generateTextureAsync(String description, String itemType, GenerationContext context) {
         // Check if the model supports vision/image generation
         if (supportsImageGeneration()) {
-            String imageResult = generateImageWithOllama(description);
-            if (imageResult != null) {
-                return imageResult;
-            }
+            return generateImageWithOllama(description, context).thenCompose(imageResult -> {
+                if (imageResult != null) {
+                    return CompletableFuture.completedFuture(imageResult);
+                }
+                // Fallback to enhanced text description
+                return super.generateTextureAsync(description, itemType, context);
+            });
         }
-        
-        // Fallback to enhanced text description
-        return super.generateTexture(description);
+
+        return super.generateTextureAsync(description, itemType, context);
     }
 
     @Override
@@ -75,29 +129,27 @@ public class OllamaService extends LLMService {
     }
 
     @Override
-    public byte[] generateImage(String description, Map<String, Object> parameters) {
+    public CompletableFuture<byte[]> generateImageAsync(String description, Map<String, Object> parameters) {
         if (!supportsImageGeneration()) {
             LOGGER.warn("Current model {} does not support image generation", model);
-            return null;
+            return CompletableFuture.completedFuture(null);
         }
         
-        try {
-            // Use image generation capabilities for supported models
-            String imagePrompt = createImageGenerationPrompt(description, parameters);
-            String response = generateImageWithOllama(imagePrompt);
-            
-            if (response != null) {
+        // Use image generation capabilities for supported models
+        String imagePrompt = createImageGenerationPrompt(description, parameters);
+        CompletableFuture<String> response = generateImageWithOllama(imagePrompt, null);
+        return Futures.propagateCancellation(response.thenApply(text -> {
+            try {
                 // Try to extract image data from response
-                String base64Data = extractImageFromResponse(response);
+                String base64Data = extractImageFromResponse(text);
                 if (base64Data != null) {
                     return Base64.getDecoder().decode(base64Data);
                 }
+            } catch (Exception e) {
+                LOGGER.error("Image generation failed: {}", e.getMessage());
             }
-        } catch (Exception e) {
-            LOGGER.error("Image generation failed: {}", e.getMessage());
-        }
-        
-        return null;
+            return null;
+        }), response);
     }
 
     /**
@@ -169,37 +221,103 @@ public class OllamaService extends LLMService {
     /**
      * Generate enhanced texture description using vision-capable models
      */
-    private String generateImageWithOllama(String description) {
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            HttpPost post = new HttpPost(baseUrl + "/api/generate");
-            post.setHeader("Content-Type", "application/json");
-
-            String enhancedPrompt = String.format(
-                "Create a detailed JSON description for a 16x16 Minecraft pixel art texture for '%s'. " +
-                "Respond with JSON containing 'colorPalette' (array of hex colors), 'pattern' (description), " +
-                "and 'pixelMap' (16x16 array of color indices). Focus on Minecraft's blocky aesthetic.",
-                description
-            );
-
-            JsonObject requestBody = new JsonObject();
-            requestBody.addProperty("model", model);
-            requestBody.addProperty("prompt", SYSTEM_PROMPT + "\n\n" + enhancedPrompt);
-            requestBody.addProperty("stream", false);
-            requestBody.addProperty("temperature", 0.7);
-
-            post.setEntity(new StringEntity(gson.toJson(requestBody)));
-
-            try (CloseableHttpResponse response = client.execute(post)) {
-                String jsonResponse = EntityUtils.toString(response.getEntity());
-                JsonObject responseObj = gson.fromJson(jsonResponse, JsonObject.class);
-                String result = responseObj.get("response").getAsString();
-                
-                LOGGER.info("Generated enhanced texture description with vision model for: {}", description);
-                return result;
+    private CompletableFuture<String> generateImageWithOllama(String description, GenerationContext context) {
+        String enhancedPrompt = String.format(
+            "Create a detailed JSON description for a 16x16 Minecraft pixel art texture for '%s'. " +
+            "Respond with JSON containing 'colorPalette' (array of hex colors), 'pattern' (description), " +
+            "and 'pixelMap' (16x16 array of color indices). Focus on Minecraft's blocky aesthetic.",
+            description
+        );
+
+        // Shares the limiter with text prompts, as both run on the same local model server, and is charged
+        // to the requester like them
+        LLMRequest request = new LLMRequest(enhancedPrompt, null, null, context);
+        return metered(request, sent -> postGenerate(sent.getPrompt(), null, true, sent))
+                .thenApply(result -> {
+                    LOGGER.info("Generated enhanced texture description with vision model for: {}", description);
+                    return result;
+                })
+                .exceptionally(error -> {
+                    LOGGER.warn("Failed to generate image description with vision model: " + error.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * POST a prompt to /api/generate and return the generated text.
+     * The system prompt goes in its own field, so it is the same token prefix on every request and
+     * Ollama can reuse its evaluation while the model stays loaded. JSON mode makes the model
+     * produce only valid JSON, so answers never need a second try to parse.
+     * Token counts and evaluation time from the response are reported on the request, if there is one.
+     */
+    private CompletableFuture<String> postGenerate(String prompt, String conversation, boolean json, LLMRequest request) {
+        JsonObject requestBody = new JsonObject();
+        requestBody.addProperty("model", model);
+        requestBody.addProperty("system", SYSTEM_PROMPT);
+        requestBody.addProperty("prompt", prompt);
+        requestBody.addProperty("stream", streamResponses);
+        if (json) {
+            requestBody.addProperty("format", "json");
+        }
+        JsonObject options = new JsonObject();
+        options.addProperty("temperature", getTemperature());
+        requestBody.add("options", options);
+        if (keepAlive != null && !keepAlive.isEmpty()) {
+            requestBody.addProperty("keep_alive", keepAlive);
+        }
+        JsonArray context = conversation != null ? conversations.get(conversation) : null;
+        if (context != null) {
+            requestBody.add("context", context);
+        }
+
+        if (streamResponses) {
+            // A stream cut short at the first JSON object never reaches the final chunk carrying the context
+            CompletableFuture<HttpResponse<String>> exchange = LLMHttpTransport.shared()
+                    .postJson(baseUrl + "/api/generate", Map.of(), gson.toJson(requestBody), StreamingResponseHandler.ollama().forRequest(request));
+            return Futures.propagateCancellation(exchange.thenApply(LLMHttpTransport::requireSuccess), exchange);
+        }
+
+        CompletableFuture<HttpResponse<String>> exchange = LLMHttpTransport.shared()
+                .postJson(baseUrl + "/api/generate", Map.of(), gson.toJson(requestBody));
+        return Futures.propagateCancellation(exchange.thenApply(response -> {
+            if (request != null) {
+                request.markResponded();
+            }
+            JsonObject responseObj = gson.fromJson(LLMHttpTransport.requireSuccess(response), JsonObject.class);
+            if (conversation != null) {
+                rememberContext(conversation, responseObj.get("context"));
+            }
+            if (request != null) {
+                reportUsage(request, responseObj);
+            }
+            return responseObj.get("response").getAsString();
+        }), exchange);
+    }
+
+    /**
+     * Ollama reports counts as prompt_eval_count and eval_count, and durations in nanoseconds.
+     * The prompt count is left out when the whole prompt came from its cache.
+     */
+    private static void reportUsage(LLMRequest request, JsonObject response) {
+        if (!response.has("eval_count")) {
+            return;
+        }
+        int promptTokens = response.has("prompt_eval_count") ? response.get("prompt_eval_count").getAsInt() : 0;
+        request.reportTokens(promptTokens, response.get("eval_count").getAsInt());
+        long nanos = 0;
+        for (String field : new String[] {"prompt_eval_duration", "eval_duration"}) {
+            if (response.has(field)) {
+                nanos += response.get(field).getAsLong();
             }
-        } catch (Exception e) {
-            LOGGER.warn("Failed to generate image description with vision model: " + e.getMessage());
         }
-        return null;
+        request.reportBackendMillis(nanos / 1_000_000);
+    }
+
+    private void rememberContext(String conversation, JsonElement context) {
+        if (context != null && context.isJsonArray() && context.getAsJsonArray().size() <= MAX_CONTEXT_TOKENS) {
+            conversations.put(conversation, context.getAsJsonArray());
+        } else {
+            conversations.remove(conversation);
+        }
     }
 }
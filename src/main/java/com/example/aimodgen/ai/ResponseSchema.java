@@ -0,0 +1,205 @@
+package com.example.aimodgen.ai;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Typed shape of a JSON answer. Backends that support structured output are given it as a JSON Schema
+ * so the model can only produce matching JSON; {@link #parse(String)} then repairs and type-checks
+ * the answer locally, so one call gives one usable result even from backends that cannot enforce it.
+ */
+public class ResponseSchema {
+    public enum Type {
+        STRING("string"), INTEGER("integer"), NUMBER("number"), BOOLEAN("boolean"), ARRAY("array"), OBJECT("object");
+
+        private final String jsonName;
+
+        Type(String jsonName) {
+            this.jsonName = jsonName;
+        }
+    }
+
+    private final String name;
+    private final Map<String, Field> fields = new LinkedHashMap<>();
+
+    public ResponseSchema(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Add an optional field; an answer without it, or with a value that cannot be read as this type, omits it
+     */
+    public ResponseSchema field(String fieldName, Type type) {
+        fields.put(fieldName, new Field(type, null, false));
+        return this;
+    }
+
+    /**
+     * Add a field the answer must have to be usable
+     */
+    public ResponseSchema required(String fieldName, Type type) {
+        fields.put(fieldName, new Field(type, null, true));
+        return this;
+    }
+
+    /**
+     * Add a required object field with its own schema
+     */
+    public ResponseSchema required(String fieldName, ResponseSchema schema) {
+        fields.put(fieldName, new Field(Type.OBJECT, schema, true));
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The schema in JSON Schema form, for backends that constrain output to it
+     */
+    public JsonObject toJsonSchema() {
+        JsonObject schema = new JsonObject();
+        schema.addProperty("type", "object");
+        JsonObject properties = new JsonObject();
+        JsonArray required = new JsonArray();
+        for (Map.Entry<String, Field> entry : fields.entrySet()) {
+            Field field = entry.getValue();
+            JsonObject property;
+            if (field.nested != null) {
+                property = field.nested.toJsonSchema();
+            } else {
+                property = new JsonObject();
+                property.addProperty("type", field.type.jsonName);
+            }
+            properties.add(entry.getKey(), property);
+            if (field.required) {
+                required.add(entry.getKey());
+            }
+        }
+        schema.add("properties", properties);
+        schema.add("required", required);
+        return schema;
+    }
+
+    /**
+     * Read an answer against this schema: find and repair the JSON, convert values to their declared
+     * types where that is unambiguous (such as "2.5" to 2.5), and drop values that cannot be converted.
+     * Fields not in the schema are kept as they are.
+     *
+     * @return the conforming object, or null if there is no JSON object or a required field is unusable
+     */
+    public JsonObject parse(String response) {
+        JsonObject parsed = JsonRepair.parseObject(response);
+        return parsed == null ? null : conform(parsed);
+    }
+
+    /**
+     * Conform an already parsed object, as {@link #parse(String)} does
+     */
+    public JsonObject conform(JsonObject object) {
+        JsonObject result = object.deepCopy();
+        for (Map.Entry<String, Field> entry : fields.entrySet()) {
+            Field field = entry.getValue();
+            JsonElement value = result.get(entry.getKey());
+            JsonElement converted = value == null || value.isJsonNull() ? null : field.convert(value);
+            if (converted != null) {
+                result.add(entry.getKey(), converted);
+            } else {
+                result.remove(entry.getKey());
+                if (field.required) {
+                    return null;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static final class Field {
+        final Type type;
+        final ResponseSchema nested;
+        final boolean required;
+
+        Field(Type type, ResponseSchema nested, boolean required) {
+            this.type = type;
+            this.nested = nested;
+            this.required = required;
+        }
+
+        JsonElement convert(JsonElement value) {
+            switch (type) {
+                case STRING:
+                    return value.isJsonPrimitive() ? new JsonPrimitive(value.getAsString()) : null;
+                case NUMBER:
+                    Double number = toDouble(value);
+                    return number == null ? null : new JsonPrimitive(number);
+                case INTEGER:
+                    Double whole = toDouble(value);
+                    return whole == null ? null : new JsonPrimitive(Math.round(whole));
+                case BOOLEAN:
+                    return toBoolean(value);
+                case ARRAY:
+                    if (value.isJsonArray()) {
+                        return value;
+                    }
+                    if (value.isJsonPrimitive()) {
+                        // A lone value where a list was asked for
+                        JsonArray single = new JsonArray();
+                        single.add(value);
+                        return single;
+                    }
+                    return null;
+                default:
+                    if (!value.isJsonObject()) {
+                        return null;
+                    }
+                    return nested == null ? value : nested.conform(value.getAsJsonObject());
+            }
+        }
+
+        private static Double toDouble(JsonElement value) {
+            if (!value.isJsonPrimitive()) {
+                return null;
+            }
+            JsonPrimitive primitive = value.getAsJsonPrimitive();
+            if (primitive.isNumber()) {
+                return primitive.getAsDouble();
+            }
+            if (primitive.isString()) {
+                try {
+                    return Double.parseDouble(primitive.getAsString().trim());
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        private static JsonPrimitive toBoolean(JsonElement value) {
+            if (!value.isJsonPrimitive()) {
+                return null;
+            }
+            JsonPrimitive primitive = value.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                return primitive;
+            }
+            if (primitive.isNumber()) {
+                return new JsonPrimitive(primitive.getAsDouble() != 0);
+            }
+            switch (primitive.getAsString().trim().toLowerCase()) {
+                case "true":
+                case "yes":
+                    return new JsonPrimitive(true);
+                case "false":
+                case "no":
+                    return new JsonPrimitive(false);
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.aimodgen.ai;
+
+import com.example.aimodgen.generation.GenerationContext;
+import com.example.aimodgen.util.Futures;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Spreads prompts across several backends, for example two Ollama hosts and LM Studio.
+ * Each request goes to the backend with the lowest expected cost, its latency EWMA scaled by the
+ * number of requests it already has outstanding, and fails over to the next best backend on error.
+ */
+public class RoutingLLMService extends LLMService {
+    private static final double LATENCY_SMOOTHING = 0.3;
+    // Cost charged for a failure so a broken backend drops behind healthy ones
+    private static final double FAILURE_PENALTY_MS = 5_000;
+
+    private final List<Route> routes = new ArrayList<>();
+    private final AtomicInteger rotation = new AtomicInteger();
+    private final AtomicLong failovers = new AtomicLong();
+
+    public RoutingLLMService(List<LLMService> backends) {
+        if (backends.isEmpty()) {
+            throw new IllegalArgumentException("Routing LLM service needs at least one backend");
+        }
+        for (LLMService backend : backends) {
+            routes.add(new Route(backend));
+        }
+    }
+
+    @Override
+    public String getBackendName() {
+        return "router";
+    }
+
+    @Override
+    public String getModelName() {
+        return routes.stream()
+                .map(route -> route.backend.getBackendName() + ":" + route.backend.getModelName())
+                .collect(Collectors.joining(","));
+    }
+
+    @Override
+    public void setStreamResponses(boolean streamResponses) {
+        super.setStreamResponses(streamResponses);
+        routes.forEach(route -> route.backend.setStreamResponses(streamResponses));
+    }
+
+    /**
+     * When hedging is on, the duplicate is routed like any other prompt. The original is still
+     * outstanding by then, so the duplicate usually lands on a different backend.
+     */
+    @Override
+    protected CompletableFuture<String> sendPrompt(String prompt) {
+        return sendPrompt(new LLMRequest(prompt, null, null, null));
+    }
+
+    @Override
+    protected CompletableFuture<String> sendPrompt(LLMRequest request) {
+        return route(backend -> backend.generateModContentAsync(request.getPrompt(), request.getConversation(),
+                request.getSchema(), request.getContext()));
+    }
+
+    /**
+     * Usage is accounted by the backend that answers, under its own name
+     */
+    @Override
+    protected boolean isDelegating() {
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<String> generateTextureAsync(String description, String itemType, GenerationContext context) {
+        // Backends may have their own image paths (vision models, DALL-E), so route the whole request
+        return route(backend -> backend.generateTextureAsync(description, itemType, context));
+    }
+
+    /**
+     * Stages of one conversation may have gone to different backends, so every backend forgets it
+     */
+    @Override
+    public void endConversation(String conversation) {
+        routes.forEach(route -> route.backend.endConversation(conversation));
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return routes.stream().anyMatch(route -> route.backend.isAvailable());
+    }
+
+    @Override
+    public boolean isIdle() {
+        return routes.stream().allMatch(route -> route.backend.isIdle());
+    }
+
+    @Override
+    public boolean supportsImageGeneration() {
+        return routes.stream().anyMatch(route -> route.backend.supportsImageGeneration());
+    }
+
+    /**
+     * Routed like prompts, but only across the backends that can generate images. The blocking
+     * {@link #generateImage} waits on this, so both take the same path.
+     */
+    @Override
+    public CompletableFuture<byte[]> generateImageAsync(String description, Map<String, Object> parameters) {
+        // Backends without an image path count as already tried, so they are never picked or failed over to
+        Set<Route> excluded = routes.stream()
+                .filter(route -> !route.backend.supportsImageGeneration())
+                .collect(Collectors.toCollection(HashSet::new));
+        if (excluded.size() == routes.size()) {
+            return super.generateImageAsync(description, parameters);
+        }
+        return route(backend -> backend.generateImageAsync(description, parameters), excluded);
+    }
+
+    public List<LLMService> getBackends() {
+        return routes.stream().map(route -> route.backend).collect(Collectors.toList());
+    }
+
+    public long getFailoverCount() {
+        return failovers.get();
+    }
+
+    public String getStatsSummary() {
+        StringBuilder summary = new StringBuilder(String.format("%d failovers", failovers.get()));
+        for (Route route : routes) {
+            summary.append(String.format("; %s: latency %.0fms, %d outstanding, %d requests, %d failures",
+                    route.label(), route.latencyEwmaMs, route.outstanding.get(),
+                    route.requests.get(), route.failures.get()));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Send a request to the cheapest backend, failing over to the next cheapest not yet tried.
+     * Cancelling the returned future cancels whichever attempt is running.
+     */
+    private <T> CompletableFuture<T> route(Function<LLMService, CompletableFuture<T>> request) {
+        return route(request, new HashSet<>());
+    }
+
+    private <T> CompletableFuture<T> route(Function<LLMService, CompletableFuture<T>> request, Set<Route> excluded) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(request, excluded, result);
+        return result;
+    }
+
+    private <T> void attempt(Function<LLMService, CompletableFuture<T>> request, Set<Route> tried, CompletableFuture<T> result) {
+        Route route = pickRoute(tried);
+        tried.add(route);
+
+        route.outstanding.incrementAndGet();
+        route.requests.incrementAndGet();
+        long start = System.nanoTime();
+        CompletableFuture<T> attempt;
+        try {
+            attempt = request.apply(route.backend);
+        } catch (Throwable t) {
+            attempt = CompletableFuture.failedFuture(t);
+        }
+        Futures.propagateCancellation(result, attempt);
+
+        attempt.whenComplete((value, error) -> {
+            route.outstanding.decrementAndGet();
+            if (result.isDone()) {
+                // Abandoned by the caller; says nothing about the backend
+                return;
+            }
+            if (!(Futures.unwrap(error) instanceof CircuitOpenException)) {
+                route.record((System.nanoTime() - start) / 1_000_000.0, error == null);
+            }
+            if (error == null) {
+                result.complete(value);
+            } else if (tried.size() >= routes.size() || Futures.unwrap(error) instanceof CancellationException) {
+                // A cancelled generation is not retried elsewhere
+                result.completeExceptionally(error);
+            } else {
+                failovers.incrementAndGet();
+                LOGGER.warn("LLM backend {} failed, failing over: {}", route.label(), error.getMessage());
+                attempt(request, tried, result);
+            }
+        });
+    }
+
+    /**
+     * Lowest latency EWMA times (outstanding + 1). Backends with no samples yet are assumed to be
+     * as fast as the average of the others; scanning from a rotating start spreads ties across backends.
+     * Backends whose circuit breaker is open are only picked when nothing else is left.
+     */
+    private Route pickRoute(Set<Route> tried) {
+        double typicalLatency = routes.stream()
+                .mapToDouble(route -> route.latencyEwmaMs)
+                .filter(latency -> latency > 0)
+                .average()
+                .orElse(1);
+
+        int offset = Math.floorMod(rotation.getAndIncrement(), routes.size());
+        Route best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (int i = 0; i < routes.size(); i++) {
+            Route candidate = routes.get((offset + i) % routes.size());
+            if (tried.contains(candidate)) {
+                continue;
+            }
+            double cost = candidate.backend.isAvailable() ? candidate.cost(typicalLatency) : Double.MAX_VALUE;
+            if (best == null || cost < bestCost) {
+                best = candidate;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    private static final class Route {
+        final LLMService backend;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        volatile double latencyEwmaMs;
+
+        Route(LLMService backend) {
+            this.backend = backend;
+        }
+
+        String label() {
+            // Limiter names carry the host, which tells apart two backends of the same type
+            return backend.getLimiter() != null ? backend.getLimiter().getName() : backend.getBackendName();
+        }
+
+        double cost(double typicalLatency) {
+            double latency = latencyEwmaMs > 0 ? latencyEwmaMs : typicalLatency;
+            return latency * (outstanding.get() + 1);
+        }
+
+        synchronized void record(double latencyMs, boolean succeeded) {
+            if (!succeeded) {
+                failures.incrementAndGet();
+                latencyMs = Math.max(latencyMs, latencyEwmaMs) + FAILURE_PENALTY_MS;
+            }
+            latencyEwmaMs = latencyEwmaMs == 0 ? latencyMs
+                    : latencyEwmaMs + LATENCY_SMOOTHING * (latencyMs - latencyEwmaMs);
+        }
+    }
+}
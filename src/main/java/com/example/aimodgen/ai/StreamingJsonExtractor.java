@@ -0,0 +1,83 @@
+package com.example.aimodgen.ai;
+
+/**
+ * Incremental scanner that watches streamed tokens for the first complete top-level JSON object.
+ * Braces inside string literals are ignored, so the object is only considered closed at its real end.
+ */
+public class StreamingJsonExtractor {
+    private final StringBuilder text = new StringBuilder();
+    private int depth = 0;
+    private boolean inString = false;
+    private boolean escaped = false;
+    private int objectStart = -1;
+    private int objectEnd = -1;
+
+    /**
+     * Append a chunk of generated text.
+     *
+     * @return true once the first top-level object has closed
+     */
+    public boolean feed(String chunk) {
+        if (chunk == null || chunk.isEmpty() || isComplete()) {
+            return isComplete();
+        }
+
+        int offset = text.length();
+        text.append(chunk);
+
+        for (int i = 0; i < chunk.length(); i++) {
+            char c = chunk.charAt(i);
+
+            if (depth == 0) {
+                // Skip any chatter before the object starts
+                if (c == '{') {
+                    depth = 1;
+                    objectStart = offset + i;
+                }
+                continue;
+            }
+
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+
+            if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+                if (depth == 0) {
+                    objectEnd = offset + i + 1;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public boolean isComplete() {
+        return objectEnd != -1;
+    }
+
+    /**
+     * The first complete object, or null if none has closed yet
+     */
+    public String getJson() {
+        return isComplete() ? text.substring(objectStart, objectEnd) : null;
+    }
+
+    /**
+     * Everything received up to the end of the first object, or all text if no object closed
+     */
+    public String getText() {
+        return isComplete() ? text.substring(0, objectEnd) : text.toString();
+    }
+}
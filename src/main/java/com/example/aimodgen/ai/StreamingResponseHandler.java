@@ -0,0 +1,160 @@
+package com.example.aimodgen.ai;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayOutputStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+
+/**
+ * Consumes a streamed completion line by line and finishes as soon as the first top-level
+ * JSON object has closed. The rest of the stream is cancelled, which closes the connection
+ * and stops the backend from generating trailing text nobody reads.
+ */
+public class StreamingResponseHandler implements HttpResponse.BodyHandler<String> {
+    private final Function<String, String> tokenExtractor;
+    private final LLMRequest request;
+
+    private StreamingResponseHandler(Function<String, String> tokenExtractor, LLMRequest request) {
+        this.tokenExtractor = tokenExtractor;
+        this.request = request;
+    }
+
+    /**
+     * Ollama /api/generate streams newline-delimited JSON with the text in "response"
+     */
+    public static StreamingResponseHandler ollama() {
+        return new StreamingResponseHandler(line -> {
+            JsonObject chunk = JsonParser.parseString(line).getAsJsonObject();
+            if (chunk.has("error")) {
+                throw new IllegalStateException(chunk.get("error").getAsString());
+            }
+            return chunk.has("response") ? chunk.get("response").getAsString() : null;
+        }, null);
+    }
+
+    /**
+     * OpenAI-compatible chat completions (OpenAI, LM Studio) stream server-sent events
+     * with the text in choices[0].delta.content
+     */
+    public static StreamingResponseHandler openAiCompatible() {
+        return new StreamingResponseHandler(line -> {
+            if (!line.startsWith("data:")) {
+                return null;
+            }
+            String payload = line.substring(5).trim();
+            if (payload.isEmpty() || payload.equals("[DONE]")) {
+                return null;
+            }
+            JsonArray choices = JsonParser.parseString(payload).getAsJsonObject().getAsJsonArray("choices");
+            if (choices == null || choices.size() == 0) {
+                return null;
+            }
+            JsonObject delta = choices.get(0).getAsJsonObject().getAsJsonObject("delta");
+            return delta != null && delta.has("content") && !delta.get("content").isJsonNull()
+                    ? delta.get("content").getAsString() : null;
+        }, null);
+    }
+
+    /**
+     * The same handler, marking the request as answered once the response starts to arrive, so a stream
+     * that breaks off part way is still accounted for
+     */
+    public StreamingResponseHandler forRequest(LLMRequest request) {
+        return new StreamingResponseHandler(tokenExtractor, request);
+    }
+
+    @Override
+    public HttpResponse.BodySubscriber<String> apply(HttpResponse.ResponseInfo responseInfo) {
+        if (request != null) {
+            request.markResponded();
+        }
+        if (responseInfo.statusCode() < 200 || responseInfo.statusCode() >= 300) {
+            // Error bodies are plain JSON; read them whole so the caller can report them
+            return HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
+        }
+        return new TokenSubscriber(tokenExtractor);
+    }
+
+    private static final class TokenSubscriber implements HttpResponse.BodySubscriber<String> {
+        private final Function<String, String> tokenExtractor;
+        private final StreamingJsonExtractor extractor = new StreamingJsonExtractor();
+        private final ByteArrayOutputStream pendingLine = new ByteArrayOutputStream();
+        private final CompletableFuture<String> body = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+
+        TokenSubscriber(Function<String, String> tokenExtractor) {
+            this.tokenExtractor = tokenExtractor;
+        }
+
+        @Override
+        public CompletionStage<String> getBody() {
+            return body;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            try {
+                for (ByteBuffer buffer : buffers) {
+                    while (buffer.hasRemaining()) {
+                        byte b = buffer.get();
+                        // '\n' never occurs inside a multi-byte UTF-8 sequence, so splitting on bytes is safe
+                        if (b == '\n') {
+                            handleLine();
+                            if (body.isDone()) {
+                                subscription.cancel();
+                                return;
+                            }
+                        } else {
+                            pendingLine.write(b);
+                        }
+                    }
+                }
+                subscription.request(1);
+            } catch (Exception e) {
+                subscription.cancel();
+                body.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            body.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                handleLine();
+                body.complete(extractor.getText());
+            } catch (Exception e) {
+                body.completeExceptionally(e);
+            }
+        }
+
+        private void handleLine() {
+            String line = pendingLine.toString(StandardCharsets.UTF_8).trim();
+            pendingLine.reset();
+            if (line.isEmpty() || body.isDone()) {
+                return;
+            }
+            if (extractor.feed(tokenExtractor.apply(line))) {
+                body.complete(extractor.getText());
+            }
+        }
+    }
+}
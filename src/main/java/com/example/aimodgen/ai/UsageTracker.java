@@ -0,0 +1,323 @@
+package com.example.aimodgen.ai;
+
+import com.example.aimodgen.generation.GenerationContext;
+import com.example.aimodgen.util.Futures;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token and time accounting for every backend call, totalled per player, per command and per backend,
+ * so the expensive paths show up and quotas have something to go on. Tokens come from the usage the
+ * backend reports; when it reports none, as with streamed answers cut short, they are estimated from length.
+ * Attempts that never reached the backend cost nothing and are only counted.
+ */
+public class UsageTracker {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    // Rough average for English text with the tokenizers of the models we talk to
+    private static final int ESTIMATED_CHARS_PER_TOKEN = 4;
+    public static final Path DUMP_FILE = Paths.get("config/aimodgenerator/usage_stats.json");
+
+    private static UsageTracker shared;
+
+    private final Totals overall = new Totals();
+    private final Map<String, Totals> byPlayer = new ConcurrentHashMap<>();
+    private final Map<String, Totals> byCommand = new ConcurrentHashMap<>();
+    private final Map<String, Totals> byBackend = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Told about the tokens of every recorded call, for example to charge them against a budget
+     */
+    public interface Listener {
+        void onTokensUsed(GenerationContext context, long tokens);
+    }
+
+    public static synchronized UsageTracker shared() {
+        if (shared == null) {
+            shared = new UsageTracker();
+        }
+        return shared;
+    }
+
+    /**
+     * Account for a finished backend call
+     *
+     * @param response the answer, used to estimate completion tokens when the backend did not report them
+     * @param error    why the call failed, or null
+     */
+    public void record(String backend, LLMRequest request, String response, Throwable error) {
+        int promptTokens = request.getPromptTokens();
+        int completionTokens = request.getCompletionTokens();
+        boolean estimated = false;
+        if (error != null && !request.hasResponse()) {
+            // Turned away by the breaker, cancelled in the limiter's queue or never connected: nothing was spent
+            promptTokens = 0;
+            completionTokens = 0;
+        }
+        if (promptTokens < 0) {
+            promptTokens = estimateTokens(request.getPrompt());
+            estimated = true;
+        }
+        if (completionTokens < 0) {
+            completionTokens = estimateTokens(response);
+            estimated = true;
+        }
+        boolean cancelled = error != null && Futures.unwrap(error) instanceof CancellationException;
+
+        long latencyMillis = request.elapsedMillis();
+        for (Totals totals : totalsFor(backend, request.getContext())) {
+            totals.requests.incrementAndGet();
+            if (error != null && !cancelled) {
+                totals.failures.incrementAndGet();
+            }
+            if (estimated) {
+                totals.estimated.incrementAndGet();
+            }
+            totals.promptTokens.addAndGet(promptTokens);
+            totals.completionTokens.addAndGet(completionTokens);
+            totals.queueMillis.addAndGet(request.getQueueMillis());
+            totals.latencyMillis.addAndGet(latencyMillis);
+            totals.maxLatencyMillis.accumulateAndGet(latencyMillis, Math::max);
+            if (request.getBackendMillis() >= 0) {
+                totals.backendMillis.addAndGet(request.getBackendMillis());
+            }
+        }
+        if (promptTokens + completionTokens == 0) {
+            return;
+        }
+        for (Listener listener : listeners) {
+            listener.onTokensUsed(request.getContext(), promptTokens + completionTokens);
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Account for a prompt answered from the response cache, which costs no tokens
+     */
+    public void recordCacheHit(String backend, GenerationContext context) {
+        for (Totals totals : totalsFor(backend, context)) {
+            totals.cacheHits.incrementAndGet();
+        }
+    }
+
+    public Totals getTotals() {
+        return overall;
+    }
+
+    /**
+     * Totals for one player by name, or empty totals if they have not used anything
+     */
+    public Totals getPlayerTotals(String player) {
+        return byPlayer.getOrDefault(player, new Totals());
+    }
+
+    /**
+     * Totals per player, most tokens first
+     */
+    public Map<String, Totals> getByPlayer() {
+        return sorted(byPlayer);
+    }
+
+    public Map<String, Totals> getByCommand() {
+        return sorted(byCommand);
+    }
+
+    public Map<String, Totals> getByBackend() {
+        return sorted(byBackend);
+    }
+
+    public void reset() {
+        overall.clear();
+        byPlayer.clear();
+        byCommand.clear();
+        byBackend.clear();
+    }
+
+    public String getStatsSummary() {
+        return overall.describe();
+    }
+
+    /**
+     * Everything as JSON, for tools that chart or alert on usage
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("generatedAt", Instant.now().toString());
+        json.add("total", overall.toJson());
+        json.add("players", toJson(getByPlayer()));
+        json.add("commands", toJson(getByCommand()));
+        json.add("backends", toJson(getByBackend()));
+        return json;
+    }
+
+    /**
+     * Write {@link #toJson()} to a file, replacing any earlier dump
+     */
+    public void writeDump(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, GSON.toJson(toJson()));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        LOGGER.info("Wrote LLM usage stats to {}", file);
+    }
+
+    static int estimateTokens(String text) {
+        return text == null ? 0 : (text.length() + ESTIMATED_CHARS_PER_TOKEN - 1) / ESTIMATED_CHARS_PER_TOKEN;
+    }
+
+    private Totals[] totalsFor(String backend, GenerationContext context) {
+        String player = context != null ? context.getRequesterName() : GenerationContext.SERVER_REQUESTER;
+        String command = context != null ? context.getCommand() : GenerationContext.BACKGROUND_COMMAND;
+        return new Totals[] {
+            overall,
+            byPlayer.computeIfAbsent(player, key -> new Totals()),
+            byCommand.computeIfAbsent(command, key -> new Totals()),
+            byBackend.computeIfAbsent(backend, key -> new Totals())
+        };
+    }
+
+    private static Map<String, Totals> sorted(Map<String, Totals> totals) {
+        Map<String, Totals> result = new LinkedHashMap<>();
+        totals.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, Totals> entry) -> entry.getValue().getTotalTokens()).reversed())
+                .forEach(entry -> result.put(entry.getKey(), entry.getValue()));
+        return result;
+    }
+
+    private static JsonObject toJson(Map<String, Totals> totals) {
+        JsonObject json = new JsonObject();
+        totals.forEach((key, value) -> json.add(key, value.toJson()));
+        return json;
+    }
+
+    /**
+     * Running totals for one player, command or backend
+     */
+    public static final class Totals {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong cacheHits = new AtomicLong();
+        private final AtomicLong estimated = new AtomicLong();
+        private final AtomicLong promptTokens = new AtomicLong();
+        private final AtomicLong completionTokens = new AtomicLong();
+        private final AtomicLong queueMillis = new AtomicLong();
+        private final AtomicLong latencyMillis = new AtomicLong();
+        private final AtomicLong maxLatencyMillis = new AtomicLong();
+        private final AtomicLong backendMillis = new AtomicLong();
+
+        /**
+         * Backend calls made, hedged duplicates and failed calls included
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getCacheHits() {
+            return cacheHits.get();
+        }
+
+        /**
+         * Calls whose token counts were estimated because the backend did not report them
+         */
+        public long getEstimatedRequests() {
+            return estimated.get();
+        }
+
+        public long getPromptTokens() {
+            return promptTokens.get();
+        }
+
+        public long getCompletionTokens() {
+            return completionTokens.get();
+        }
+
+        public long getTotalTokens() {
+            return promptTokens.get() + completionTokens.get();
+        }
+
+        public long getQueueMillis() {
+            return queueMillis.get();
+        }
+
+        public long getLatencyMillis() {
+            return latencyMillis.get();
+        }
+
+        public long getMaxLatencyMillis() {
+            return maxLatencyMillis.get();
+        }
+
+        /**
+         * Evaluation time reported by backends that report it (Ollama)
+         */
+        public long getBackendMillis() {
+            return backendMillis.get();
+        }
+
+        public long getAverageLatencyMillis() {
+            long count = requests.get();
+            return count == 0 ? 0 : latencyMillis.get() / count;
+        }
+
+        public String describe() {
+            return String.format("%d requests (%d failed, %d cached), %d tokens (%d prompt, %d completion), " +
+                    "avg %dms, max %dms, %dms queued",
+                    requests.get(), failures.get(), cacheHits.get(), getTotalTokens(), promptTokens.get(),
+                    completionTokens.get(), getAverageLatencyMillis(), maxLatencyMillis.get(), queueMillis.get());
+        }
+
+        JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("requests", requests.get());
+            json.addProperty("failures", failures.get());
+            json.addProperty("cacheHits", cacheHits.get());
+            json.addProperty("estimatedRequests", estimated.get());
+            json.addProperty("promptTokens", promptTokens.get());
+            json.addProperty("completionTokens", completionTokens.get());
+            json.addProperty("queueMillis", queueMillis.get());
+            json.addProperty("latencyMillis", latencyMillis.get());
+            json.addProperty("maxLatencyMillis", maxLatencyMillis.get());
+            json.addProperty("backendMillis", backendMillis.get());
+            return json;
+        }
+
+        private void clear() {
+            for (AtomicLong counter : new AtomicLong[] {requests, failures, cacheHits, estimated, promptTokens,
+                    completionTokens, queueMillis, latencyMillis, maxLatencyMillis, backendMillis}) {
+                counter.set(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.aimodgen.client;
+
+import com.example.aimodgen.AiModGenerator;
+import com.example.aimodgen.persistence.TexturePack;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.AbstractPackResources;
+import net.minecraft.server.packs.PackResources;
+import net.minecraft.server.packs.PackType;
+import net.minecraft.server.packs.metadata.MetadataSectionSerializer;
+import net.minecraft.server.packs.repository.Pack;
+import net.minecraft.server.packs.repository.PackSource;
+import net.minecraftforge.event.AddPackFindersEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Serves generated textures to the game straight from the texture pack, as a resource pack placed above
+ * the mod's own resources. Texture "block/ruby_block" in the pack is
+ * {@code aimodgenerator:textures/block/ruby_block.png}. Reads go through the pack's read-only slices of its
+ * mapping, so loading a texture copies it once, into the game, and no texture is written out as a file.
+ */
+@Mod.EventBusSubscriber(modid = AiModGenerator.MOD_ID, bus = Mod.EventBusSubscriber.Bus.MOD)
+public class GeneratedTextureResources implements PackResources {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String PACK_ID = AiModGenerator.MOD_ID + "_generated_textures";
+    private static final String TEXTURE_PREFIX = "textures/";
+    private static final String PNG_SUFFIX = ".png";
+    private static final byte[] PACK_METADATA = ("{\"pack\": {\"description\": \"Textures generated by AI Mod Generator\", "
+            + "\"pack_format\": 9}}").getBytes(StandardCharsets.UTF_8);
+
+    private final TexturePack pack;
+
+    public GeneratedTextureResources(TexturePack pack) {
+        this.pack = pack;
+    }
+
+    @SubscribeEvent
+    public static void onAddPackFinders(AddPackFindersEvent event) {
+        if (event.getPackType() != PackType.CLIENT_RESOURCES) {
+            return;
+        }
+        event.addRepositorySource((packs, constructor) -> {
+            Pack pack = Pack.create(PACK_ID, true, () -> new GeneratedTextureResources(TexturePack.shared()),
+                    constructor, Pack.Position.TOP, PackSource.BUILT_IN);
+            if (pack != null) {
+                packs.accept(pack);
+            }
+        });
+    }
+
+    @Override
+    public InputStream getRootResource(String fileName) {
+        return "pack.mcmeta".equals(fileName) ? new ByteArrayInputStream(PACK_METADATA) : null;
+    }
+
+    @Override
+    public InputStream getResource(PackType type, ResourceLocation location) throws IOException {
+        ByteBuffer png = find(type, location);
+        if (png == null) {
+            throw new FileNotFoundException(location.toString());
+        }
+        return new BufferInputStream(png);
+    }
+
+    @Override
+    public Collection<ResourceLocation> getResources(PackType type, String namespace, String path,
+                                                     Predicate<ResourceLocation> filter) {
+        List<ResourceLocation> found = new ArrayList<>();
+        if (type != PackType.CLIENT_RESOURCES || !AiModGenerator.MOD_ID.equals(namespace)) {
+            return found;
+        }
+        try {
+            for (String id : pack.getIds()) {
+                TexturePack.Texture texture = pack.getTexture(id);
+                ResourceLocation location = ResourceLocation.tryParse(
+                        AiModGenerator.MOD_ID + ":" + TEXTURE_PREFIX + id + PNG_SUFFIX);
+                if (texture != null && texture.getFormat() == TexturePack.Format.PNG && location != null
+                        && location.getPath().startsWith(path + "/") && filter.test(location)) {
+                    found.add(location);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to list generated textures: " + e.getMessage());
+        }
+        return found;
+    }
+
+    @Override
+    public boolean hasResource(PackType type, ResourceLocation location) {
+        try {
+            return find(type, location) != null;
+        } catch (IOException e) {
+            LOGGER.error("Failed to look up generated texture {}: {}", location, e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public Set<String> getNamespaces(PackType type) {
+        return type == PackType.CLIENT_RESOURCES ? Set.of(AiModGenerator.MOD_ID) : Set.of();
+    }
+
+    @Override
+    public <T> T getMetadataSection(MetadataSectionSerializer<T> serializer) {
+        return AbstractPackResources.getMetadataFromStream(serializer, new ByteArrayInputStream(PACK_METADATA));
+    }
+
+    @Override
+    public String getName() {
+        return "AI generated textures";
+    }
+
+    /**
+     * The pack belongs to the mod, which closes it when the server stops
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * The PNG the location names, or null if the pack has no such texture or holds it unencoded
+     */
+    private ByteBuffer find(PackType type, ResourceLocation location) throws IOException {
+        String path = location.getPath();
+        if (type != PackType.CLIENT_RESOURCES || !AiModGenerator.MOD_ID.equals(location.getNamespace())
+                || !path.startsWith(TEXTURE_PREFIX) || !path.endsWith(PNG_SUFFIX)) {
+            return null;
+        }
+        TexturePack.Texture texture = pack.getTexture(
+                path.substring(TEXTURE_PREFIX.length(), path.length() - PNG_SUFFIX.length()));
+        return texture == null || texture.getFormat() != TexturePack.Format.PNG ? null : texture.getData();
+    }
+
+    /**
+     * Reads a buffer from its position to its limit without copying it first
+     */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
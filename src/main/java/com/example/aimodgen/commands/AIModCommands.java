@@ -1,22 +1,38 @@
 package com.example.aimodgen.commands;
 
+import com.example.aimodgen.AiModGenerator;
+import com.example.aimodgen.ai.UsageTracker;
+import com.example.aimodgen.config.AIModConfig;
 import com.example.aimodgen.generation.ContentGenerator;
 import com.example.aimodgen.generation.GeneratedContent;
 import com.example.aimodgen.generation.ContentType;
+import com.example.aimodgen.generation.GenerationContext;
+import com.example.aimodgen.generation.GenerationQuota;
+import com.example.aimodgen.generation.GenerationScheduler;
+import com.example.aimodgen.generation.PregenerationService;
+import com.example.aimodgen.persistence.ContentPersistence;
+import com.example.aimodgen.persistence.TexturePack;
+import com.example.aimodgen.persistence.TextureStore;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
 import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.item.Item;
 
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class AIModCommands {
-    private static final Pattern PROPERTY_PATTERN = Pattern.compile("(\\w+)=(\\w+)");    public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+    private static final Pattern PROPERTY_PATTERN = Pattern.compile("(\\w+)=(\\w+)");
+    private static final int STATS_ROWS = 5;
+
+    public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
         dispatcher.register(Commands.literal("aimod")
             .then(Commands.literal("generate")
                 .then(Commands.literal("block")
@@ -36,7 +52,17 @@ public class AIModCommands {
             .then(Commands.literal("delete")
                 .then(Commands.argument("name", StringArgumentType.word())
                     .executes(context -> deleteContent(context.getSource(), 
-                        StringArgumentType.getString(context, "name"))))));
+                        StringArgumentType.getString(context, "name")))))
+            .then(Commands.literal("export")
+                .requires(source -> source.hasPermission(2))
+                .executes(context -> exportContent(context.getSource())))
+            .then(Commands.literal("cancel")
+                .executes(context -> cancelGenerations(context.getSource())))
+            .then(Commands.literal("stats")
+                .executes(context -> showStats(context.getSource()))
+                .then(Commands.literal("dump")
+                    .requires(source -> source.hasPermission(2))
+                    .executes(context -> dumpStats(context.getSource())))));
     }
 
     private static int generateBlock(CommandSourceStack source, String description) {
@@ -45,12 +71,13 @@ public class AIModCommands {
               Map<String, String> properties = extractProperties(description);
             String cleanDescription = description.replaceAll("\\s+\\w+=\\w+", "").trim();
             
-            ContentGenerator.getInstance().generateBlock(cleanDescription, properties)
+            GenerationContext generation = generationContext(source, "generate block");
+            ContentGenerator.getInstance().generateBlock(cleanDescription, properties, generation)
                 .thenAccept(block -> {
                     source.sendSuccess(Component.literal("Successfully generated block!"), true);
                 })
                 .exceptionally(e -> {
-                    source.sendFailure(Component.literal("Failed to generate block: " + e.getMessage()));
+                    source.sendFailure(Component.literal("Failed to generate block: " + failureMessage(e, generation)));
                     return null;
                 });
             
@@ -67,12 +94,13 @@ public class AIModCommands {
               Map<String, String> properties = extractProperties(description);
             String cleanDescription = description.replaceAll("\\s+\\w+=\\w+", "").trim();
             
-            ContentGenerator.getInstance().generateItem(cleanDescription, properties)
+            GenerationContext generation = generationContext(source, "generate item");
+            ContentGenerator.getInstance().generateItem(cleanDescription, properties, generation)
                 .thenAccept(item -> {
                     source.sendSuccess(Component.literal("Successfully generated item!"), true);
                 })
                 .exceptionally(e -> {
-                    source.sendFailure(Component.literal("Failed to generate item: " + e.getMessage()));
+                    source.sendFailure(Component.literal("Failed to generate item: " + failureMessage(e, generation)));
                     return null;
                 });
             
@@ -108,6 +136,72 @@ public class AIModCommands {
         }
     }
 
+    private static int exportContent(CommandSourceStack source) {
+        try {
+            int count = ContentPersistence.exportJson(Paths.get(ContentPersistence.EXPORT_FILE));
+            source.sendSuccess(Component.literal("Exported " + count + " generated content items to " +
+                ContentPersistence.EXPORT_FILE), false);
+            return 1;
+        } catch (Exception e) {
+            source.sendFailure(Component.literal("Failed to export content: " + e.getMessage()));
+            return 0;
+        }
+    }
+
+    private static int cancelGenerations(CommandSourceStack source) {
+        int cancelled = GenerationScheduler.shared().cancelAll(requesterId(source), "Cancelled by " + source.getTextName());
+        if (cancelled == 0) {
+            source.sendSuccess(Component.literal("You have no generations running or queued."), false);
+        } else {
+            source.sendSuccess(Component.literal("Cancelled " + cancelled + " generation(s)."), false);
+        }
+        return cancelled;
+    }
+
+    private static int showStats(CommandSourceStack source) {
+        UsageTracker usage = UsageTracker.shared();
+        source.sendSuccess(Component.literal("LLM usage: " + usage.getStatsSummary()), false);
+        sendTopUsage(source, "By player", usage.getByPlayer());
+        sendTopUsage(source, "By command", usage.getByCommand());
+        sendTopUsage(source, "By backend", usage.getByBackend());
+
+        source.sendSuccess(Component.literal("Persistence: " + ContentPersistence.getStatsSummary()), false);
+        source.sendSuccess(Component.literal("Textures: " + TextureStore.shared().getStatsSummary()), false);
+        source.sendSuccess(Component.literal("Texture pack: " + TexturePack.shared().getStatsSummary()), false);
+
+        PregenerationService pregeneration = AiModGenerator.getInstance().getPregeneration();
+        if (pregeneration != null) {
+            source.sendSuccess(Component.literal("Pre-generation: " + pregeneration.getStatsSummary()), false);
+        }
+
+        GenerationQuota quota = GenerationQuota.shared();
+        if (quota != null && source.getEntity() instanceof ServerPlayer player && quota.getPlayerTokensPerDay() > 0) {
+            source.sendSuccess(Component.literal(String.format("Your budget today: %d of %d tokens used",
+                quota.tokensUsed(player.getUUID().toString()), quota.getPlayerTokensPerDay())), false);
+        }
+        return 1;
+    }
+
+    private static void sendTopUsage(CommandSourceStack source, String heading, Map<String, UsageTracker.Totals> totals) {
+        if (totals.isEmpty()) {
+            return;
+        }
+        source.sendSuccess(Component.literal(heading + ":"), false);
+        totals.entrySet().stream().limit(STATS_ROWS).forEach(entry ->
+            source.sendSuccess(Component.literal("- " + entry.getKey() + ": " + entry.getValue().describe()), false));
+    }
+
+    private static int dumpStats(CommandSourceStack source) {
+        try {
+            UsageTracker.shared().writeDump(UsageTracker.DUMP_FILE);
+            source.sendSuccess(Component.literal("Wrote LLM usage stats to " + UsageTracker.DUMP_FILE), false);
+            return 1;
+        } catch (Exception e) {
+            source.sendFailure(Component.literal("Failed to write usage stats: " + e.getMessage()));
+            return 0;
+        }
+    }
+
     private static int giveGeneratedItem(CommandSourceStack source, String itemName) {
         try {
             Map<String, GeneratedContent> content = ContentGenerator.getInstance().listContent();
@@ -191,6 +285,41 @@ public class AIModCommands {
         }
     }
 
+    /**
+     * Interactive generation context for the command sender, with queue updates sent back to them,
+     * LLM usage accounted to the sender and the named command, and the configured overall deadline
+     */
+    static GenerationContext generationContext(CommandSourceStack source, String command) {
+        return GenerationContext.interactive(requesterId(source), source.getTextName())
+            .withCommand(command)
+            .withFeedback(message -> source.sendSuccess(Component.literal(message), false))
+            .withDeadline(AIModConfig.GENERATION_TIMEOUT_SECONDS.get() * 1000L);
+    }
+
+    /**
+     * Players are known by UUID so their generations can be found again after a rename or on logout
+     */
+    static String requesterId(CommandSourceStack source) {
+        return source.getEntity() instanceof ServerPlayer player
+            ? player.getUUID().toString()
+            : source.getTextName();
+    }
+
+    /**
+     * Message of the underlying failure rather than the CompletionException wrapping it
+     */
+    static String failureMessage(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause.getMessage();
+    }
+
+    /**
+     * Why a generation failed, saying why it was cancelled if it was
+     */
+    static String failureMessage(Throwable e, GenerationContext context) {
+        return context.isCancelled() ? context.getCancellation().getReason() : failureMessage(e);
+    }
+
     private static Map<String, String> extractProperties(String description) {
         Map<String, String> properties = new HashMap<>();
         Matcher matcher = PROPERTY_PATTERN.matcher(description);
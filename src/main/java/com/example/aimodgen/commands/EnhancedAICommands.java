@@ -2,6 +2,7 @@ package com.example.aimodgen.commands;
 
 import com.example.aimodgen.integration.EnhancedContentGenerationService;
 import com.example.aimodgen.generation.GeneratedContent;
+import com.example.aimodgen.generation.GenerationContext;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
@@ -57,7 +58,7 @@ public class EnhancedAICommands {
         EnhancedContentGenerationService.EnhancedGenerationOptions options = 
             EnhancedContentGenerationService.EnhancedGenerationOptions.defaultOptions();
         
-        generateContentAsync(source, description, options);
+        generateContentAsync(source, description, options, "enhanced generate");
         return 1;
     }
     
@@ -73,7 +74,7 @@ public class EnhancedAICommands {
         EnhancedContentGenerationService.EnhancedGenerationOptions options = 
             EnhancedContentGenerationService.EnhancedGenerationOptions.highQuality();
         
-        generateContentAsync(source, description, options);
+        generateContentAsync(source, description, options, "enhanced hq");
         return 1;
     }
     
@@ -91,7 +92,7 @@ public class EnhancedAICommands {
             EnhancedContentGenerationService.EnhancedGenerationOptions.defaultOptions();
         // Note: We would need to add style support to EnhancedGenerationOptions
         
-        generateContentAsync(source, description, options);
+        generateContentAsync(source, description, options, "enhanced styled");
         return 1;
     }
     
@@ -111,7 +112,7 @@ public class EnhancedAICommands {
         options.useAdvancedAI = qualityLevel >= 3;
         options.enhanceTextures = qualityLevel >= 2;
         
-        generateContentAsync(source, description, options);
+        generateContentAsync(source, description, options, "enhanced quality");
         return 1;
     }
     
@@ -133,7 +134,7 @@ public class EnhancedAICommands {
             EnhancedContentGenerationService.EnhancedGenerationOptions.defaultOptions()
             .withUser(userId);
         
-        generateContentAsync(source, description, options);
+        generateContentAsync(source, description, options, "enhanced profile");
         return 1;
     }
     
@@ -141,11 +142,13 @@ public class EnhancedAICommands {
      * Generate content asynchronously and handle the result
      */
     private static void generateContentAsync(CommandSourceStack source, String description, 
-                                           EnhancedContentGenerationService.EnhancedGenerationOptions options) {
+                                           EnhancedContentGenerationService.EnhancedGenerationOptions options,
+                                           String command) {
         
         EnhancedContentGenerationService service = EnhancedContentGenerationService.getInstance();
         
-        CompletableFuture<GeneratedContent> future = service.generateEnhancedContent(description, options);
+        GenerationContext generation = AIModCommands.generationContext(source, command);
+        CompletableFuture<GeneratedContent> future = service.generateEnhancedContent(description, options, generation);
           future.thenAccept(content -> {
             if (content != null) {
                 source.sendSuccess(Component.literal("§a✓ Enhanced content generation completed!"), false);
@@ -168,7 +171,7 @@ public class EnhancedAICommands {
             }
         }).exceptionally(throwable -> {
             LOGGER.error("Enhanced content generation failed", throwable);
-            source.sendFailure(Component.literal("§c✗ Enhanced content generation failed: " + throwable.getMessage()));
+            source.sendFailure(Component.literal("§c✗ Enhanced content generation failed: " + AIModCommands.failureMessage(throwable, generation)));
             return null;
         });
     }
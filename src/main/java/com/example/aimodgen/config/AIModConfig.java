@@ -4,33 +4,365 @@ import net.minecraftforge.common.ForgeConfigSpec;
 import net.minecraftforge.fml.ModLoadingContext;
 import net.minecraftforge.fml.config.ModConfig;
 
+import java.util.List;
+
 public class AIModConfig {
     private static ForgeConfigSpec.Builder BUILDER = new ForgeConfigSpec.Builder();
     
     public static ForgeConfigSpec.ConfigValue<String> OPENAI_API_KEY;
+    public static ForgeConfigSpec.ConfigValue<String> OPENAI_BASE_URL;
     public static ForgeConfigSpec.ConfigValue<String> LLM_TYPE;
     public static ForgeConfigSpec.ConfigValue<String> LOCAL_LLM_URL;
     public static ForgeConfigSpec.ConfigValue<String> LOCAL_LLM_MODEL;
-    
+    public static ForgeConfigSpec.BooleanValue STREAM_RESPONSES;
+    public static ForgeConfigSpec.BooleanValue BATCH_GENERATION;
+    public static ForgeConfigSpec.ConfigValue<List<? extends String>> ROUTER_BACKENDS;
+
+    public static ForgeConfigSpec.ConfigValue<String> MOCK_LATENCY;
+    public static ForgeConfigSpec.DoubleValue MOCK_ERROR_RATE;
+    public static ForgeConfigSpec.IntValue MOCK_ERROR_STATUS;
+    public static ForgeConfigSpec.IntValue MOCK_STREAM_CHUNK_CHARS;
+    public static ForgeConfigSpec.IntValue MOCK_STREAM_CHUNK_DELAY_MS;
+    public static ForgeConfigSpec.BooleanValue MOCK_CHATTY;
+    public static ForgeConfigSpec.IntValue MOCK_SEED;
+    public static ForgeConfigSpec.IntValue MOCK_SERVER_PORT;
+
+    public static ForgeConfigSpec.ConfigValue<String> OLLAMA_KEEP_ALIVE;
+    public static ForgeConfigSpec.BooleanValue OLLAMA_REUSE_CONTEXT;
+
+    public static ForgeConfigSpec.IntValue HTTP_MAX_CONNECTIONS_PER_ROUTE;
+    public static ForgeConfigSpec.IntValue HTTP_MAX_CONNECTIONS_TOTAL;
+    public static ForgeConfigSpec.IntValue HTTP_CONNECT_TIMEOUT_MS;
+    public static ForgeConfigSpec.IntValue HTTP_READ_TIMEOUT_MS;
+    public static ForgeConfigSpec.IntValue HTTP_IDLE_EVICTION_SECONDS;
+    public static ForgeConfigSpec.IntValue HTTP_IO_THREADS;
+
+    public static ForgeConfigSpec.BooleanValue CACHE_ENABLED;
+    public static ForgeConfigSpec.IntValue CACHE_MEMORY_ENTRIES;
+    public static ForgeConfigSpec.IntValue CACHE_DISK_MAX_MB;
+    public static ForgeConfigSpec.IntValue CACHE_TTL_HOURS;
+
+    public static ForgeConfigSpec.IntValue SCHEDULER_MAX_CONCURRENT;
+    public static ForgeConfigSpec.IntValue SCHEDULER_QUEUE_CAPACITY;
+    public static ForgeConfigSpec.IntValue SCHEDULER_MAX_QUEUED_PER_PLAYER;
+    public static ForgeConfigSpec.IntValue SCHEDULER_WORKER_THREADS;
+    public static ForgeConfigSpec.IntValue GENERATION_TIMEOUT_SECONDS;
+
+    public static ForgeConfigSpec.BooleanValue TEXTURE_RACE_ENABLED;
+    public static ForgeConfigSpec.IntValue TEXTURE_RACE_DEADLINE_SECONDS;
+    public static ForgeConfigSpec.DoubleValue TEXTURE_RACE_GOOD_ENOUGH_SCORE;
+
+    public static ForgeConfigSpec.BooleanValue PREGENERATION_ENABLED;
+    public static ForgeConfigSpec.IntValue PREGENERATION_MAX_PREDICTIONS;
+    public static ForgeConfigSpec.IntValue PREGENERATION_IDLE_SECONDS;
+    public static ForgeConfigSpec.IntValue PREGENERATION_CHECK_INTERVAL_SECONDS;
+    public static ForgeConfigSpec.IntValue PREGENERATION_MAX_LATENCY_SECONDS;
+    public static ForgeConfigSpec.IntValue PREGENERATION_TOKEN_RESERVE;
+
+    public static ForgeConfigSpec.IntValue PERSISTENCE_FLUSH_INTERVAL_MS;
+    public static ForgeConfigSpec.IntValue PERSISTENCE_SYNC_INTERVAL_MS;
+    public static ForgeConfigSpec.IntValue PERSISTENCE_COMPACT_AFTER_RECORDS;
+
+    public static ForgeConfigSpec.BooleanValue QUOTAS_ENABLED;
+    public static ForgeConfigSpec.IntValue QUOTA_PLAYER_REQUESTS_PER_MINUTE;
+    public static ForgeConfigSpec.IntValue QUOTA_PLAYER_TOKENS_PER_DAY;
+    public static ForgeConfigSpec.IntValue QUOTA_GLOBAL_REQUESTS_PER_MINUTE;
+    public static ForgeConfigSpec.IntValue QUOTA_GLOBAL_TOKENS_PER_DAY;
+    public static ForgeConfigSpec.IntValue QUOTA_PREGENERATION_TOKENS_PER_DAY;
+
+    public static ForgeConfigSpec.BooleanValue HEDGING_ENABLED;
+    public static ForgeConfigSpec.DoubleValue HEDGING_PERCENTILE;
+    public static ForgeConfigSpec.IntValue HEDGING_MIN_DELAY_MS;
+    public static ForgeConfigSpec.DoubleValue HEDGING_MAX_RATIO;
+
+    public static ForgeConfigSpec.BooleanValue BREAKER_ENABLED;
+    public static ForgeConfigSpec.IntValue BREAKER_FAILURE_THRESHOLD;
+    public static ForgeConfigSpec.IntValue BREAKER_OPEN_SECONDS;
+    public static ForgeConfigSpec.IntValue BREAKER_PROBE_INTERVAL_SECONDS;
+
+    public static ForgeConfigSpec.BooleanValue LIMITS_ENABLED;
+    public static ForgeConfigSpec.DoubleValue LIMITS_LATENCY_TOLERANCE;
+    public static BackendLimits OLLAMA_LIMITS;
+    public static BackendLimits LMSTUDIO_LIMITS;
+    public static BackendLimits OPENAI_LIMITS;
+
     static {
         BUILDER.push("AI Mod Generator Configuration");
         
-        LLM_TYPE = BUILDER.comment("Type of LLM to use (openai, lmstudio, or ollama)")
+        LLM_TYPE = BUILDER.comment("Type of LLM to use (openai, lmstudio, ollama, router to spread prompts over router.backends, or mock for canned answers without a model)")
                 .define("llm_type", "openai");
         
         OPENAI_API_KEY = BUILDER.comment("Your OpenAI API key (only needed if llm_type is openai)")
                 .define("openai_api_key", "");
+
+        OPENAI_BASE_URL = BUILDER.comment("API root for llm_type openai, for OpenAI-compatible servers (e.g. http://localhost:11500/v1 for the mock server)")
+                .define("openai_base_url", "https://api.openai.com/v1");
                 
         LOCAL_LLM_URL = BUILDER.comment("URL for local LLM service (e.g., http://localhost:1234 for LM Studio or http://localhost:11434 for Ollama)")
                 .define("local_llm_url", "http://localhost:1234");
                 
         LOCAL_LLM_MODEL = BUILDER.comment("Model name for local LLM (e.g., mistral for Ollama)")
                 .define("local_llm_model", "mistral");
-        
+
+        STREAM_RESPONSES = BUILDER.comment("Stream responses and stop generation as soon as the first complete JSON object arrives")
+                .define("stream_responses", true);
+
+        BATCH_GENERATION = BUILDER.comment("Ask for a new block or item's properties, texture and recipe in one LLM call instead of three")
+                .define("batch_generation", true);
+
+        BUILDER.push("router");
+
+        ROUTER_BACKENDS = BUILDER.comment("Backends used when llm_type is router, as \"type,url,model\" (e.g. \"ollama,http://gpu1:11434,mistral\")",
+                        "Each prompt goes to the backend with the lowest recent latency and fewest outstanding requests; failed prompts are retried on another backend")
+                .defineList("backends", List.of("ollama,http://localhost:11434,mistral"), entry -> entry instanceof String);
+
+        BUILDER.pop();
+
+        BUILDER.push("mock");
+
+        MOCK_LATENCY = BUILDER.comment("Time to the first token of mock answers: \"fixed:200\", \"uniform:100-400\" or \"lognormal:800,0.5\" (median ms, spread)")
+                .define("latency", "lognormal:800,0.5");
+
+        MOCK_ERROR_RATE = BUILDER.comment("Fraction of mock requests that fail (0-1)")
+                .defineInRange("error_rate", 0.0, 0.0, 1.0);
+
+        MOCK_ERROR_STATUS = BUILDER.comment("HTTP status of failed mock requests")
+                .defineInRange("error_status", 503, 400, 599);
+
+        MOCK_STREAM_CHUNK_CHARS = BUILDER.comment("Characters per generated chunk of a mock answer")
+                .defineInRange("stream_chunk_chars", 8, 1, 4096);
+
+        MOCK_STREAM_CHUNK_DELAY_MS = BUILDER.comment("Milliseconds to generate each chunk of a mock answer")
+                .defineInRange("stream_chunk_delay_ms", 15, 0, 10000);
+
+        MOCK_CHATTY = BUILDER.comment("Surround mock JSON answers with friendly text, as many real models do")
+                .define("chatty", false);
+
+        MOCK_SEED = BUILDER.comment("Seed for mock latencies and failures, so runs can be repeated")
+                .defineInRange("seed", 42, Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+        MOCK_SERVER_PORT = BUILDER.comment("Also serve mock answers over the Ollama and OpenAI HTTP APIs on this localhost port, for testing the real backends offline (0 to not serve)")
+                .defineInRange("server_port", 0, 0, 65535);
+
+        BUILDER.pop();
+
+        BUILDER.push("ollama");
+
+        OLLAMA_KEEP_ALIVE = BUILDER.comment("How long Ollama keeps the model loaded between prompts (e.g. 30m, 2h, or -1 for always; empty for the server default)")
+                .define("keep_alive", "30m");
+
+        OLLAMA_REUSE_CONTEXT = BUILDER.comment("Continue from Ollama's context for prompts about the same item instead of evaluating the shared text again")
+                .define("reuse_context", true);
+
+        BUILDER.pop();
+
+        BUILDER.push("http");
+
+        HTTP_MAX_CONNECTIONS_PER_ROUTE = BUILDER.comment("Maximum pooled connections kept open to a single LLM host")
+                .defineInRange("max_connections_per_route", 8, 1, 256);
+
+        HTTP_MAX_CONNECTIONS_TOTAL = BUILDER.comment("Maximum pooled connections across all LLM hosts")
+                .defineInRange("max_connections_total", 32, 1, 1024);
+
+        HTTP_CONNECT_TIMEOUT_MS = BUILDER.comment("Timeout in milliseconds for opening a connection to the LLM service")
+                .defineInRange("connect_timeout_ms", 10000, 100, 600000);
+
+        HTTP_READ_TIMEOUT_MS = BUILDER.comment("Maximum time in milliseconds to wait for an LLM response (slow models need a high value)")
+                .defineInRange("read_timeout_ms", 300000, 1000, 3600000);
+
+        HTTP_IDLE_EVICTION_SECONDS = BUILDER.comment("Close pooled connections that have been idle for this many seconds")
+                .defineInRange("idle_eviction_seconds", 30, 1, 3600);
+
+        HTTP_IO_THREADS = BUILDER.comment("Threads handling LLM responses; requests in flight do not hold a thread")
+                .defineInRange("io_threads", 4, 1, 64);
+
+        BUILDER.pop();
+
+        BUILDER.push("cache");
+
+        CACHE_ENABLED = BUILDER.comment("Reuse LLM responses for identical prompts (stored under config/aimodgenerator/llm_cache)")
+                .define("enabled", true);
+
+        CACHE_MEMORY_ENTRIES = BUILDER.comment("Number of responses kept in memory")
+                .defineInRange("memory_entries", 512, 0, 100000);
+
+        CACHE_DISK_MAX_MB = BUILDER.comment("Maximum size of the on-disk response cache in megabytes")
+                .defineInRange("disk_max_mb", 64, 1, 10240);
+
+        CACHE_TTL_HOURS = BUILDER.comment("Hours before a cached response expires")
+                .defineInRange("ttl_hours", 168, 1, 87600);
+
+        BUILDER.pop();
+
+        BUILDER.push("scheduler");
+
+        SCHEDULER_MAX_CONCURRENT = BUILDER.comment("Maximum generations running at the same time; the rest wait in the queue")
+                .defineInRange("max_concurrent", 4, 1, 64);
+
+        SCHEDULER_QUEUE_CAPACITY = BUILDER.comment("Maximum generations waiting to start; further requests are turned away (background work may use half)")
+                .defineInRange("queue_capacity", 64, 1, 4096);
+
+        SCHEDULER_MAX_QUEUED_PER_PLAYER = BUILDER.comment("Maximum generations a single player can have waiting at once")
+                .defineInRange("max_queued_per_player", 4, 1, 256);
+
+        SCHEDULER_WORKER_THREADS = BUILDER.comment("Threads parsing responses and building textures for running generations")
+                .defineInRange("worker_threads", 2, 1, 32);
+
+        GENERATION_TIMEOUT_SECONDS = BUILDER.comment("Longest a command's generation may take, queueing included, before it and its LLM calls are cancelled (0 for no limit)")
+                .defineInRange("generation_timeout_seconds", 300, 0, 86400);
+
+        BUILDER.pop();
+
+        BUILDER.push("texture_race");
+
+        TEXTURE_RACE_ENABLED = BUILDER.comment("Run several texture strategies at once and keep the best texture, instead of trying them one after another (how many depends on the detail level)")
+                .define("enabled", true);
+
+        TEXTURE_RACE_DEADLINE_SECONDS = BUILDER.comment("Longest to wait for the raced strategies before taking the best texture so far (0 to wait for all)")
+                .defineInRange("deadline_seconds", 45, 0, 600);
+
+        TEXTURE_RACE_GOOD_ENOUGH_SCORE = BUILDER.comment("Texture score (0-1) at which a texture is taken straight away and the other strategies are cancelled")
+                .defineInRange("good_enough_score", 0.7, 0.0, 1.0);
+
+        BUILDER.pop();
+
+        BUILDER.push("pregeneration");
+
+        PREGENERATION_ENABLED = BUILDER.comment("While the server is idle, generate the most requested blocks and items again so their answers are cached before players ask (uses backend time and tokens nobody asked for)")
+                .define("enabled", false);
+
+        PREGENERATION_MAX_PREDICTIONS = BUILDER.comment("How many of the most often requested descriptions to keep cached")
+                .defineInRange("max_predictions", 20, 1, 1000);
+
+        PREGENERATION_IDLE_SECONDS = BUILDER.comment("Seconds without a player starting a generation before pre-generation starts")
+                .defineInRange("idle_seconds", 120, 0, 86400);
+
+        PREGENERATION_CHECK_INTERVAL_SECONDS = BUILDER.comment("Seconds between checks for idle time")
+                .defineInRange("check_interval_seconds", 15, 1, 3600);
+
+        PREGENERATION_MAX_LATENCY_SECONDS = BUILDER.comment("A pre-generation taking longer than this means something else is using the GPU, so the next one waits (0 to never wait)")
+                .defineInRange("max_latency_seconds", 60, 0, 3600);
+
+        PREGENERATION_TOKEN_RESERVE = BUILDER.comment("Pre-generation stops for the day once the server has this many of its daily tokens left or fewer, keeping them for players")
+                .defineInRange("token_reserve", 20000, 0, Integer.MAX_VALUE);
+
+        BUILDER.pop();
+
+        BUILDER.push("persistence");
+
+        PERSISTENCE_FLUSH_INTERVAL_MS = BUILDER.comment("Milliseconds content changes are held so a burst of them is saved in one write, off the generation threads (0 to save each change straight away)")
+                .defineInRange("flush_interval_ms", 1000, 0, 60000);
+
+        PERSISTENCE_SYNC_INTERVAL_MS = BUILDER.comment("Milliseconds saved content may wait to be synced to disk together; a crash loses at most this much (0 to sync every save)")
+                .defineInRange("sync_interval_ms", 200, 0, 60000);
+
+        PERSISTENCE_COMPACT_AFTER_RECORDS = BUILDER.comment("Saves kept in the content journal before it is folded into generated_content.json")
+                .defineInRange("compact_after_records", 1000, 1, 1000000);
+
+        BUILDER.pop();
+
+        BUILDER.push("quotas");
+
+        QUOTAS_ENABLED = BUILDER.comment("Turn away generations once a player or the server is over budget")
+                .define("enabled", true);
+
+        QUOTA_PLAYER_REQUESTS_PER_MINUTE = BUILDER.comment("Generations a player can start per minute (0 for no limit)")
+                .defineInRange("player_requests_per_minute", 6, 0, 10000);
+
+        QUOTA_PLAYER_TOKENS_PER_DAY = BUILDER.comment("LLM tokens a player's generations can use per day (0 for no limit)")
+                .defineInRange("player_tokens_per_day", 200000, 0, Integer.MAX_VALUE);
+
+        QUOTA_GLOBAL_REQUESTS_PER_MINUTE = BUILDER.comment("Generations all players together can start per minute (0 for no limit)")
+                .defineInRange("global_requests_per_minute", 30, 0, 100000);
+
+        QUOTA_GLOBAL_TOKENS_PER_DAY = BUILDER.comment("LLM tokens the whole server can use per day (0 for no limit)")
+                .defineInRange("global_tokens_per_day", 0, 0, Integer.MAX_VALUE);
+
+        QUOTA_PREGENERATION_TOKENS_PER_DAY = BUILDER.comment("LLM tokens pre-generation can use per day, apart from the server's own budget (0 for no limit)")
+                .defineInRange("pregeneration_tokens_per_day", 100000, 0, Integer.MAX_VALUE);
+
+        BUILDER.pop();
+
+        BUILDER.push("hedging");
+
+        HEDGING_ENABLED = BUILDER.comment("Send a duplicate of a prompt that is taking unusually long and use whichever answer comes first")
+                .define("enabled", false);
+
+        HEDGING_PERCENTILE = BUILDER.comment("Latency percentile of recent prompts after which the duplicate is sent")
+                .defineInRange("percentile", 95.0, 50.0, 99.9);
+
+        HEDGING_MIN_DELAY_MS = BUILDER.comment("Never send a duplicate sooner than this many milliseconds")
+                .defineInRange("min_delay_ms", 2000, 0, 600000);
+
+        HEDGING_MAX_RATIO = BUILDER.comment("Most duplicates allowed as a fraction of prompts, so a slow backend is not flooded")
+                .defineInRange("max_hedge_ratio", 0.1, 0.0, 1.0);
+
+        BUILDER.pop();
+
+        BUILDER.push("circuit_breaker");
+
+        BREAKER_ENABLED = BUILDER.comment("Stop calling an LLM backend that keeps failing and use procedural textures until it recovers")
+                .define("enabled", true);
+
+        BREAKER_FAILURE_THRESHOLD = BUILDER.comment("Consecutive failures after which a backend is treated as down")
+                .defineInRange("failure_threshold", 3, 1, 100);
+
+        BREAKER_OPEN_SECONDS = BUILDER.comment("Seconds to wait before trying a backend that is down again")
+                .defineInRange("open_seconds", 30, 1, 3600);
+
+        BREAKER_PROBE_INTERVAL_SECONDS = BUILDER.comment("Seconds between background health checks of each backend (0 to disable)")
+                .defineInRange("probe_interval_seconds", 15, 0, 3600);
+
+        BUILDER.pop();
+
+        BUILDER.push("limits");
+
+        LIMITS_ENABLED = BUILDER.comment("Limit concurrent and per-second requests to each LLM backend, backing off on 429/503 and rising latency")
+                .define("enabled", true);
+
+        LIMITS_LATENCY_TOLERANCE = BUILDER.comment("Back off when a response takes this many times longer than the backend's usual latency")
+                .defineInRange("latency_tolerance", 3.0, 1.1, 100.0);
+
+        // A single local model slows down overall when it serves many prompts at once
+        OLLAMA_LIMITS = defineBackendLimits("ollama", 2, 0.0, 2);
+        LMSTUDIO_LIMITS = defineBackendLimits("lmstudio", 2, 0.0, 2);
+        OPENAI_LIMITS = defineBackendLimits("openai", 8, 3.0, 5);
+
+        BUILDER.pop();
+
         BUILDER.pop();
     }
     
     public static ForgeConfigSpec SPEC = BUILDER.build();
+
+    /**
+     * Concurrency and rate ceilings for one LLM backend
+     */
+    public static class BackendLimits {
+        public final ForgeConfigSpec.IntValue maxConcurrency;
+        public final ForgeConfigSpec.DoubleValue requestsPerSecond;
+        public final ForgeConfigSpec.IntValue burst;
+
+        private BackendLimits(ForgeConfigSpec.IntValue maxConcurrency, ForgeConfigSpec.DoubleValue requestsPerSecond,
+                              ForgeConfigSpec.IntValue burst) {
+            this.maxConcurrency = maxConcurrency;
+            this.requestsPerSecond = requestsPerSecond;
+            this.burst = burst;
+        }
+    }
+
+    private static BackendLimits defineBackendLimits(String backend, int maxConcurrency, double requestsPerSecond, int burst) {
+        BUILDER.push(backend);
+        BackendLimits limits = new BackendLimits(
+                BUILDER.comment("Most prompts sent to " + backend + " at the same time")
+                        .defineInRange("max_concurrency", maxConcurrency, 1, 256),
+                BUILDER.comment("Most prompts per second sent to " + backend + " (0 for no limit)")
+                        .defineInRange("requests_per_second", requestsPerSecond, 0.0, 1000.0),
+                BUILDER.comment("Prompts that may be sent back to back after an idle period")
+                        .defineInRange("burst", burst, 1, 1000));
+        BUILDER.pop();
+        return limits;
+    }
     
     public static void register() {
         ModLoadingContext.get().registerConfig(ModConfig.Type.COMMON, SPEC);
@@ -2,7 +2,9 @@ package com.example.aimodgen.generation;
 
 import com.example.aimodgen.AiModGenerator;
 import com.example.aimodgen.ai.LLMService;
-import com.google.gson.Gson;
+import com.example.aimodgen.persistence.TexturePack;
+import com.example.aimodgen.persistence.TextureStore;
+import com.example.aimodgen.util.Futures;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import net.minecraft.resources.ResourceLocation;
@@ -14,28 +16,44 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 /**
  * Advanced AI-powered texture generation service with multiple enhancement strategies
  */
 public class AdvancedTextureGenerator {
     private static final Logger LOGGER = LogManager.getLogger();
-    private static final Gson gson = new Gson();
     private static final ExecutorService executor = Executors.newFixedThreadPool(3);
+    private static final int VARIATION_COUNT = 3;
+
+    // Set from the config at startup, see configureRace
+    private static volatile boolean raceEnabled = true;
+    private static volatile long raceDeadlineMillis = 45_000;
+    private static volatile double raceGoodEnoughScore = 0.7;
     
     // Cache for generated textures to avoid regeneration
     private static final Map<String, CachedTexture> textureCache = new HashMap<>();
     
+    /**
+     * Let several texture strategies run side by side instead of one after another
+     *
+     * @param deadlineMillis  longest to wait for better textures once the race has started, 0 for no deadline
+     * @param goodEnoughScore {@link TextureScore} at which a texture is taken without waiting for the others
+     */
+    public static void configureRace(boolean enabled, long deadlineMillis, double goodEnoughScore) {
+        raceEnabled = enabled;
+        raceDeadlineMillis = deadlineMillis;
+        raceGoodEnoughScore = goodEnoughScore;
+    }
+
     /**
      * Generate enhanced texture with multiple strategies
      */
@@ -55,6 +73,7 @@ public class AdvancedTextureGenerator {
                 }
                 
                 // Try multiple generation strategies
+                throwIfCancelled(options);
                 ResourceLocation result = tryMultipleStrategies(name, description, type, options);
                 
                 if (result != null) {
@@ -65,9 +84,14 @@ public class AdvancedTextureGenerator {
                 }
                 
                 // Fallback to advanced generated texture
+                throwIfCancelled(options);
                 LOGGER.warn("All strategies failed, using advanced fallback for: {}", name);
                 return TextureGenerator.generateAdvancedTexture(name, description, type);
                 
+            } catch (CancellationException e) {
+                // Nobody wants the texture any more, so no fallback either
+                LOGGER.info("Enhanced texture generation cancelled for {}: {}", name, e.getMessage());
+                throw e;
             } catch (Exception e) {
                 LOGGER.error("Enhanced texture generation failed for {}: {}", name, e.getMessage());
                 return TextureGenerator.generateAdvancedTexture(name, description, type);
@@ -76,145 +100,177 @@ public class AdvancedTextureGenerator {
     }
     
     /**
-     * Try multiple texture generation strategies
+     * Try multiple texture generation strategies. The first few applicable ones race each other, as many as
+     * the options' race width allows, and the best texture among them wins; any left over are then tried one
+     * after another as a fallback.
      */
     private static ResourceLocation tryMultipleStrategies(String name, String description, String type, TextureGenerationOptions options) {
         LLMService llmService = AiModGenerator.getInstance().getLlmService();
-        
-        // Strategy 1: Direct image generation (if supported)
-        if (llmService.supportsImageGeneration() && options.useImageGeneration) {
-            ResourceLocation imageResult = tryDirectImageGeneration(name, description, type, llmService, options);
-            if (imageResult != null) {
-                LOGGER.info("Strategy 1 (Direct Image) succeeded for: {}", name);
-                return imageResult;
-            }
+
+        // Backend is down: every strategy would only fail, so go straight to the procedural texture
+        if (!llmService.isAvailable()) {
+            LOGGER.info("LLM backend unavailable, skipping AI strategies for: {}", name);
+            return null;
         }
-        
-        // Strategy 2: Enhanced multi-stage generation
-        if (options.useEnhancedPrompts) {
-            ResourceLocation enhancedResult = tryEnhancedGeneration(name, description, type, llmService, options);
-            if (enhancedResult != null) {
-                LOGGER.info("Strategy 2 (Enhanced Prompts) succeeded for: {}", name);
-                return enhancedResult;
+
+        List<Strategy> strategies = applicableStrategies(llmService, options);
+        int width = raceEnabled ? Math.min(options.getRaceWidth(), strategies.size()) : 1;
+        if (width > 1) {
+            BufferedImage raced = raceStrategies(name, description, type, strategies.subList(0, width), llmService, options);
+            if (raced != null) {
+                return saveTextureImage(name, raced, type);
             }
+            strategies = strategies.subList(width, strategies.size());
         }
-        
-        // Strategy 3: Style-specific generation
-        if (options.style != null && !options.style.isEmpty()) {
-            ResourceLocation styledResult = tryStyledGeneration(name, description, type, llmService, options);
-            if (styledResult != null) {
-                LOGGER.info("Strategy 3 (Styled) succeeded for: {}", name);
-                return styledResult;
+
+        for (Strategy strategy : strategies) {
+            throwIfCancelled(options);
+            if (!llmService.isAvailable()) {
+                return null;
+            }
+            BufferedImage image = awaitOrNull(strategy, startStrategy(strategy, name, description, type, llmService, options));
+            if (image != null) {
+                LOGGER.info("Strategy {} succeeded for: {}", strategy.label, name);
+                return saveTextureImage(name, image, type);
             }
         }
-        
-        // Strategy 4: Variation-based generation
-        ResourceLocation variationResult = tryVariationGeneration(name, description, type, llmService, options);
-        if (variationResult != null) {
-            LOGGER.info("Strategy 4 (Variation) succeeded for: {}", name);
-            return variationResult;
-        }
-        
+
         return null;
     }
-    
+
     /**
-     * Try direct image generation for services that support it
+     * Strategies the options and backend allow, most direct first
      */
-    private static ResourceLocation tryDirectImageGeneration(String name, String description, String type, 
-                                                           LLMService llmService, TextureGenerationOptions options) {
-        try {
-            Map<String, Object> imageParams = new HashMap<>();
-            imageParams.put("width", 16);
-            imageParams.put("height", 16);
-            imageParams.put("style", "minecraft_pixel_art");
-            imageParams.put("description", description);
-            
-            byte[] imageData = llmService.generateImage(description, imageParams);
-            if (imageData != null && imageData.length > 0) {
-                return saveGeneratedImage(name, imageData, type);
-            }
-        } catch (Exception e) {
-            LOGGER.warn("Direct image generation failed: {}", e.getMessage());
+    private static List<Strategy> applicableStrategies(LLMService llmService, TextureGenerationOptions options) {
+        List<Strategy> strategies = new ArrayList<>();
+        if (llmService.supportsImageGeneration() && options.useImageGeneration) {
+            strategies.add(Strategy.DIRECT_IMAGE);
         }
-        return null;
+        if (options.useEnhancedPrompts) {
+            strategies.add(Strategy.ENHANCED);
+        }
+        if (options.style != null && !options.style.isEmpty()) {
+            strategies.add(Strategy.STYLED);
+        }
+        strategies.add(Strategy.VARIATION);
+        return strategies;
     }
-    
+
     /**
-     * Try enhanced multi-stage generation
+     * Start the strategies together and take the best scoring texture: straight away once one is good
+     * enough, otherwise when they have all finished or the deadline passes. The rest are cancelled.
      */
-    private static ResourceLocation tryEnhancedGeneration(String name, String description, String type, 
-                                                        LLMService llmService, TextureGenerationOptions options) {
+    private static BufferedImage raceStrategies(String name, String description, String type, List<Strategy> strategies,
+                                                LLMService llmService, TextureGenerationOptions options) {
+        long started = System.currentTimeMillis();
+        List<CompletableFuture<Candidate>> entrants = new ArrayList<>();
+        for (Strategy strategy : strategies) {
+            CompletableFuture<BufferedImage> image = startStrategy(strategy, name, description, type, llmService, options);
+            // The race cancels the losing entrants; that has to reach their LLM calls, not just this wrapper
+            entrants.add(Futures.propagateCancellation(
+                image.thenApply(texture -> texture != null ? new Candidate(strategy, texture) : null), image));
+        }
+
+        Candidate winner;
         try {
-            Map<String, Object> enhanceOptions = new HashMap<>();
-            enhanceOptions.put("enhance", true);
-            enhanceOptions.put("detailLevel", options.detailLevel);
-            enhanceOptions.put("quality", "high");
-            
-            String enhanced = llmService.generateEnhancedTexture(description, type, enhanceOptions);
-            if (enhanced != null && !enhanced.trim().isEmpty()) {
-                return processAIResponse(name, description, enhanced, type);
-            }
+            winner = Futures.best(entrants, Candidate::getScore, raceGoodEnoughScore, raceDeadlineMillis).join();
         } catch (Exception e) {
-            LOGGER.warn("Enhanced generation failed: {}", e.getMessage());
+            LOGGER.warn("Texture strategy race failed for {}: {}", name, e.getMessage());
+            return null;
         }
-        return null;
+
+        if (winner == null) {
+            LOGGER.info("No strategy of {} raced produced a texture for: {}", strategies.size(), name);
+            return null;
+        }
+        LOGGER.info("Strategy {} won the race of {} for: {} (score {}, {}ms)", winner.strategy.label, strategies.size(),
+            name, String.format("%.2f", winner.getScore()), System.currentTimeMillis() - started);
+        return winner.image;
     }
-    
+
     /**
-     * Try style-specific generation
+     * Start one strategy without waiting for it. The texture is built on the scheduler's workers, and
+     * cancelling the returned future cancels the strategy's LLM calls.
      */
-    private static ResourceLocation tryStyledGeneration(String name, String description, String type, 
-                                                      LLMService llmService, TextureGenerationOptions options) {
-        try {
-            String styled = llmService.generateStyledTexture(description, options.style, options.styleParameters);
-            if (styled != null && !styled.trim().isEmpty()) {
-                return processAIResponse(name, description, styled, type);
-            }
-        } catch (Exception e) {
-            LOGGER.warn("Styled generation failed: {}", e.getMessage());
+    private static CompletableFuture<BufferedImage> startStrategy(Strategy strategy, String name, String description,
+                                                                  String type, LLMService llmService,
+                                                                  TextureGenerationOptions options) {
+        CompletableFuture<BufferedImage> started = startUntracked(strategy, name, description, type, llmService, options);
+        // Image generation has no context of its own, so the whole strategy is cancelled with the generation
+        return options.context != null ? options.context.getCancellation().track(started) : started;
+    }
+
+    private static CompletableFuture<BufferedImage> startUntracked(Strategy strategy, String name, String description,
+                                                                   String type, LLMService llmService,
+                                                                   TextureGenerationOptions options) {
+        Executor workers = GenerationScheduler.shared().getExecutor();
+        switch (strategy) {
+            case DIRECT_IMAGE:
+                Map<String, Object> imageParams = new HashMap<>();
+                imageParams.put("width", 16);
+                imageParams.put("height", 16);
+                imageParams.put("style", "minecraft_pixel_art");
+                imageParams.put("description", description);
+                return render(llmService.generateImageAsync(description, imageParams), AdvancedTextureGenerator::decodeImage);
+
+            case ENHANCED:
+                Map<String, Object> enhanceOptions = new HashMap<>();
+                enhanceOptions.put("enhance", true);
+                enhanceOptions.put("detailLevel", options.detailLevel);
+                enhanceOptions.put("quality", "high");
+                return render(llmService.generateEnhancedTextureAsync(description, type, enhanceOptions, options.context),
+                    response -> renderAIResponse(name, description, response));
+
+            case STYLED:
+                return render(llmService.generateStyledTextureAsync(description, options.style, options.styleParameters,
+                    options.context), response -> renderAIResponse(name, description, response));
+
+            default:
+                // All variations are requested together; the first one that makes a texture wins and the rest are cancelled
+                List<CompletableFuture<String>> variations = llmService.generateTextureVariationsAsync(
+                    description, type, VARIATION_COUNT, options.context);
+                return Futures.firstNonNull(variations, response -> renderAIResponse(name, description, response), workers);
         }
-        return null;
     }
-    
-    /**
-     * Try variation-based generation
-     */
-    private static ResourceLocation tryVariationGeneration(String name, String description, String type, 
-                                                         LLMService llmService, TextureGenerationOptions options) {
+
+    private static void throwIfCancelled(TextureGenerationOptions options) {
+        if (options.context != null) {
+            options.context.getCancellation().throwIfCancelled();
+        }
+    }
+
+    private static <T> CompletableFuture<BufferedImage> render(CompletableFuture<T> response, Function<T, BufferedImage> renderer) {
+        return Futures.propagateCancellation(
+            response.thenApplyAsync(renderer, GenerationScheduler.shared().getExecutor()), response);
+    }
+
+    private static BufferedImage awaitOrNull(Strategy strategy, CompletableFuture<BufferedImage> image) {
         try {
-            List<String> variations = llmService.generateTextureVariations(description, type, 3);
-            if (!variations.isEmpty()) {
-                // Try the first variation that works
-                for (String variation : variations) {
-                    ResourceLocation result = processAIResponse(name, description, variation, type);
-                    if (result != null) {
-                        return result;
-                    }
-                }
-            }
+            return image.join();
         } catch (Exception e) {
-            LOGGER.warn("Variation generation failed: {}", e.getMessage());
+            LOGGER.warn("{} generation failed: {}", strategy.label, Futures.unwrap(e).getMessage());
+            return null;
         }
-        return null;
     }
-    
+
     /**
-     * Process AI response and create texture
+     * Turn an AI response into a texture image, or null if it describes none
      */
-    private static ResourceLocation processAIResponse(String name, String description, String aiResponse, String type) {
+    private static BufferedImage renderAIResponse(String name, String description, String aiResponse) {
+        if (aiResponse == null || aiResponse.trim().isEmpty()) {
+            return null;
+        }
         try {
             // Try to parse as JSON first
             JsonObject textureData = parseTextureResponse(aiResponse);
             if (textureData != null) {
-                return generateFromTextureData(name, description, textureData, type);
+                return renderTextureData(name, description, textureData);
             }
             
             // Try to extract base64 image
             String base64Image = extractBase64FromResponse(aiResponse);
             if (base64Image != null) {
-                byte[] imageData = Base64.getDecoder().decode(base64Image);
-                return saveGeneratedImage(name, imageData, type);
+                return decodeImage(Base64.getDecoder().decode(base64Image));
             }
         } catch (Exception e) {
             LOGGER.warn("Failed to process AI response: {}", e.getMessage());
@@ -224,7 +280,7 @@ public class AdvancedTextureGenerator {
       /**
      * Generate texture from parsed texture data
      */
-    private static ResourceLocation generateFromTextureData(String name, String description, JsonObject textureData, String type) {
+    private static BufferedImage renderTextureData(String name, String description, JsonObject textureData) {
         try {
             // Extract color palette
             List<Color> colorPalette = extractColorPalette(textureData);
@@ -237,8 +293,7 @@ public class AdvancedTextureGenerator {
             String textureType = textureData.has("textureType") ? textureData.get("textureType").getAsString() : "generic";
             
             // Create enhanced texture
-            BufferedImage image = createEnhancedTexture(name, description, colorPalette, pattern, textureType);
-            return saveTextureImage(name, image, type);
+            return createEnhancedTexture(name, description, colorPalette, pattern, textureType);
             
         } catch (Exception e) {
             LOGGER.error("Failed to generate from texture data: {}", e.getMessage());
@@ -653,7 +708,27 @@ public class AdvancedTextureGenerator {
         public String style = "";
         public Map<String, String> styleParameters = new HashMap<>();
         public int detailLevel = 3; // 1-5 scale
+        public int raceWidth = 0; // strategies raced at once, 0 to go by detailLevel
         public boolean cacheResults = true;
+        // Who the texture is for, so its LLM calls count against their budget; null for server work
+        public GenerationContext context;
+        
+        /**
+         * How many strategies race each other. Low detail keeps the serial fallback chain and its single
+         * backend call; higher detail spends more calls to pick the best of several textures.
+         */
+        public int getRaceWidth() {
+            if (raceWidth > 0) {
+                return raceWidth;
+            }
+            if (detailLevel <= 1) {
+                return 1;
+            }
+            if (detailLevel <= 3) {
+                return 2;
+            }
+            return detailLevel == 4 ? 3 : 4;
+        }
         
         public static TextureGenerationOptions defaultOptions() {
             return new TextureGenerationOptions();
@@ -667,6 +742,41 @@ public class AdvancedTextureGenerator {
         }
     }
     
+    /**
+     * Ways of getting a texture out of the LLM, most direct first
+     */
+    private enum Strategy {
+        DIRECT_IMAGE("Direct Image"),
+        ENHANCED("Enhanced Prompts"),
+        STYLED("Styled"),
+        VARIATION("Variation");
+
+        private final String label;
+
+        Strategy(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * A texture a strategy produced, scored once for the race
+     */
+    private static class Candidate {
+        private final Strategy strategy;
+        private final BufferedImage image;
+        private final double score;
+
+        Candidate(Strategy strategy, BufferedImage image) {
+            this.strategy = strategy;
+            this.image = image;
+            this.score = TextureScore.score(image);
+        }
+
+        double getScore() {
+            return score;
+        }
+    }
+    
     /**
      * Cached texture entry
      */
@@ -704,22 +814,11 @@ public class AdvancedTextureGenerator {
      * Parse texture response from AI
      */
     private static JsonObject parseTextureResponse(String response) {
-        try {
-            String jsonString = response;
-            int startIndex = response.indexOf("{");
-            int endIndex = response.lastIndexOf("}");
-            
-            if (startIndex != -1 && endIndex != -1 && endIndex > startIndex) {
-                jsonString = response.substring(startIndex, endIndex + 1);
-            }
-            
-            JsonObject parsed = gson.fromJson(jsonString, JsonObject.class);
-            
-            if (parsed != null && (parsed.has("colorPalette") || parsed.has("description") || parsed.has("base64"))) {
-                return parsed;
-            }
-        } catch (Exception e) {
-            LOGGER.warn("Failed to parse texture response as JSON: {}", e.getMessage());
+        JsonObject parsed = ContentSchemas.TEXTURE.parse(response);
+
+        // Validate that it has texture-related fields
+        if (parsed != null && (parsed.has("colorPalette") || parsed.has("description") || parsed.has("base64"))) {
+            return parsed;
         }
         return null;
     }
@@ -782,9 +881,12 @@ public class AdvancedTextureGenerator {
     }
     
     /**
-     * Save generated image to file
+     * Read image bytes from a backend as a 16x16 texture
      */
-    private static ResourceLocation saveGeneratedImage(String name, byte[] imageData, String type) {
+    private static BufferedImage decodeImage(byte[] imageData) {
+        if (imageData == null || imageData.length == 0) {
+            return null;
+        }
         try {
             BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageData));
             if (image == null) {
@@ -800,27 +902,22 @@ public class AdvancedTextureGenerator {
                 image = resized;
             }
             
-            return saveTextureImage(name, image, type);
+            return image;
             
         } catch (Exception e) {
-            LOGGER.error("Failed to save generated image: {}", e.getMessage());
+            LOGGER.error("Failed to read generated image: {}", e.getMessage());
             return null;
         }
     }
     
     /**
-     * Save texture image to file system
+     * Save texture image to the texture pack, which the game loads it from
      */
     private static ResourceLocation saveTextureImage(String name, BufferedImage image, String type) {
         try {
-            String directory = "src/main/resources/assets/" + AiModGenerator.MOD_ID + "/textures/" + type;
-            Path dirPath = Paths.get(directory);
-            Files.createDirectories(dirPath);
-
-            File outputFile = new File(dirPath.toFile(), name + ".png");
-            ImageIO.write(image, "PNG", outputFile);
+            TexturePack.shared().putPng(type + "/" + name, TextureStore.encodePng(image));
 
-            LOGGER.info("Generated enhanced texture for {} at {}", name, outputFile.getPath());
+            LOGGER.info("Generated enhanced texture for {} as {}/{}", name, type, name);
             return new ResourceLocation(AiModGenerator.MOD_ID, "textures/" + type + "/" + name);
             
         } catch (IOException e) {
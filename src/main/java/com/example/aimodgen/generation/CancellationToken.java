@@ -0,0 +1,120 @@
+package com.example.aimodgen.generation;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancels everything one generation has in flight at once. Queued jobs, LLM calls and texture
+ * strategies register their futures here. When the requester gives up, logs off or the deadline
+ * passes, they are all cancelled, which aborts the HTTP requests behind them. Every copy of a
+ * {@link GenerationContext} shares the same token.
+ */
+public class CancellationToken {
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "aimod-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile String reason;
+    private volatile long deadlineNanos;
+    // Guarded by this
+    private ScheduledFuture<?> deadlineTask;
+
+    /**
+     * Cancel everything registered once the timeout passes, unless cancelled sooner.
+     * A later call replaces the earlier deadline.
+     */
+    public synchronized void expireAfter(long timeoutMillis) {
+        if (timeoutMillis <= 0 || reason != null) {
+            return;
+        }
+        if (deadlineTask != null) {
+            deadlineTask.cancel(false);
+        }
+        deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        deadlineTask = TIMER.schedule(
+            () -> cancel(String.format("Generation timed out after %ds", TimeUnit.MILLISECONDS.toSeconds(timeoutMillis))),
+            timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancel everything registered now and anything registered later
+     *
+     * @param reason shown to the requester, such as why the generation was stopped
+     * @return false if it had already been cancelled
+     */
+    public boolean cancel(String reason) {
+        synchronized (this) {
+            if (this.reason != null) {
+                return false;
+            }
+            this.reason = reason;
+            if (deadlineTask != null) {
+                deadlineTask.cancel(false);
+            }
+        }
+        for (CompletableFuture<?> future : inFlight) {
+            future.cancel(true);
+        }
+        inFlight.clear();
+        return true;
+    }
+
+    /**
+     * Register work to cancel along with the generation. It is forgotten once it completes, and is
+     * cancelled straight away if the generation already has been.
+     */
+    public <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+        if (future.isDone()) {
+            return future;
+        }
+        inFlight.add(future);
+        future.whenComplete((value, error) -> inFlight.remove(future));
+        // Checked after adding, so a concurrent cancel cannot miss it
+        if (reason != null) {
+            future.cancel(true);
+        }
+        return future;
+    }
+
+    /**
+     * Stop a step from starting once the generation has been cancelled
+     */
+    public void throwIfCancelled() {
+        String cancelled = reason;
+        if (cancelled != null) {
+            throw new CancellationException(cancelled);
+        }
+    }
+
+    public boolean isCancelled() {
+        return reason != null;
+    }
+
+    /**
+     * Why the generation was cancelled, or null if it was not
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * Time left before the deadline, or {@link Long#MAX_VALUE} if there is none
+     */
+    public long getRemainingMillis() {
+        long deadline = deadlineNanos;
+        return deadline == 0 ? Long.MAX_VALUE : Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    int getInFlightCount() {
+        return inFlight.size();
+    }
+}
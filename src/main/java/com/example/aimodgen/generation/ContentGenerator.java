@@ -1,6 +1,10 @@
 package com.example.aimodgen.generation;
 
+import com.example.aimodgen.ai.BatchPrompt;
 import com.example.aimodgen.ai.LLMService;
+import com.example.aimodgen.ai.ResponseSchema;
+import com.example.aimodgen.util.Futures;
+import com.example.aimodgen.util.SingleFlight;
 import com.google.gson.JsonObject;
 import net.minecraft.world.item.Item;
 import net.minecraft.world.level.block.Block;
@@ -9,17 +13,57 @@ import org.apache.logging.log4j.Logger;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 public class ContentGenerator {
     private static final Logger LOGGER = LogManager.getLogger();
+    private static final String PROPERTIES_STAGE = "properties";
+    private static final String TEXTURE_STAGE = "texture";
+    private static final String RECIPE_STAGE = "recipe";
+
+    private static final String BLOCK_SCHEMA = """
+        {
+            "id": "block_id",
+            "name": "Display Name",
+            "hardness": float,
+            "resistance": float,
+            "lightLevel": int (0-15),
+            "requiresTool": boolean,
+            "material": "minecraft:material_type",
+            "soundType": "minecraft:sound_type",
+            "hasGravity": boolean,
+            "isTransparent": boolean,
+            "customProperties": {}
+        }
+        """;
+
+    private static final String ITEM_SCHEMA = """
+        {
+            "id": "item_id",
+            "name": "Display Name",
+            "maxStackSize": int,
+            "maxDurability": int,
+            "craftingMaterial": "minecraft:material",
+            "isFood": boolean,
+            "foodProperties": {},
+            "customProperties": {}
+        }
+        """;
+
     private static ContentGenerator instance;
     private final LLMService llmService;
+    private volatile boolean batchGeneration;
     private final Map<String, GeneratedContent> generatedContent;
+    // Keyed by prompt, so players asking for the same thing at once share one generation
+    private final SingleFlight<String, Block> blockGenerations = new SingleFlight<>();
+    private final SingleFlight<String, Item> itemGenerations = new SingleFlight<>();
 
     private ContentGenerator(LLMService llmService) {
         this.llmService = llmService;
-        this.generatedContent = new HashMap<>();
+        this.generatedContent = new ConcurrentHashMap<>();
         
         // Load existing content from persistence
         Map<String, GeneratedContent> savedContent = com.example.aimodgen.persistence.ContentPersistence.loadGeneratedContent();
@@ -50,81 +94,228 @@ public class ContentGenerator {
             throw new IllegalStateException("ContentGenerator not initialized! Call initialize() first.");
         }
         return instance;
-    }    public CompletableFuture<Block> generateBlock(String description, Map<String, String> properties) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // 1. Generate block properties using LLM
-                String prompt = generateBlockPrompt(description, properties);
-                String response = llmService.generateModContent(prompt);
-                JsonObject blockData = parseResponse(response);
-                
+    }
+
+    /**
+     * Ask for properties, texture and recipe in a single LLM call instead of one call each
+     */
+    public void setBatchGeneration(boolean batchGeneration) {
+        this.batchGeneration = batchGeneration;
+    }
+
+    public boolean isBatchGeneration() {
+        return batchGeneration;
+    }
+
+    public CompletableFuture<Block> generateBlock(String description, Map<String, String> properties) {
+        return generateBlock(description, properties, GenerationContext.background());
+    }
+
+    /**
+     * Queue a block generation on the generation scheduler on behalf of the given requester
+     */
+    public CompletableFuture<Block> generateBlock(String description, Map<String, String> properties, GenerationContext context) {
+        recordRequest(ContentType.BLOCK, description, context);
+        String prompt = generateBlockPrompt(description, properties);
+        return GenerationScheduler.shared().submitShared(blockGenerations, prompt, context,
+            shared -> doGenerateBlock(description, properties, prompt, shared));
+    }
+
+    public CompletableFuture<Item> generateItem(String description, Map<String, String> properties) {
+        return generateItem(description, properties, GenerationContext.background());
+    }
+
+    /**
+     * Queue an item generation on the generation scheduler on behalf of the given requester
+     */
+    public CompletableFuture<Item> generateItem(String description, Map<String, String> properties, GenerationContext context) {
+        recordRequest(ContentType.ITEM, description, context);
+        String prompt = generateItemPrompt(description, properties);
+        return GenerationScheduler.shared().submitShared(itemGenerations, prompt, context,
+            shared -> doGenerateItem(description, properties, prompt, shared));
+    }
+
+    /**
+     * Count the request towards what pre-generation keeps warm, whether or not it is then answered from the
+     * cache or joins a generation already running; pre-generation's own work is not a request
+     */
+    private static void recordRequest(ContentType type, String description, GenerationContext context) {
+        if (context.getPriority() != GenerationContext.Priority.SPECULATIVE) {
+            RequestHistory.shared().record(type, description);
+        }
+    }
+
+    private CompletableFuture<Block> doGenerateBlock(String description, Map<String, String> properties, String prompt,
+                                                     GenerationContext context) {
+        // 1. Generate block properties using LLM (with texture and recipe in the same call when batching)
+        CompletableFuture<Block> generation = requestStages("block", description, properties, BLOCK_SCHEMA, ContentSchemas.BLOCK, context).thenComposeAsync(stages ->
+            stages.get(PROPERTIES_STAGE, () -> requestContent(prompt, stages, ContentSchemas.BLOCK)).thenCompose(response -> {
+                JsonObject blockData = parseResponse(response, ContentSchemas.BLOCK);
+
                 // 2. Generate texture
-                String texturePrompt = generateTexturePrompt(description, blockData);
-                byte[] textureData = generateTexture(texturePrompt);
-
-                // 3. Create and register the block
-                Block block = createBlock(blockData, textureData);
-                
-                // 4. Store generation data
-                String blockId = blockData.get("id").getAsString();
-                GeneratedContent content = new GeneratedContent(
-                    ContentType.BLOCK,
-                    blockId,
-                    description,
-                    blockData,
-                    textureData
-                );
-                generatedContent.put(blockId, content);
-
-                // 5. Generate crafting recipe
-                RecipeGenerator.generateRecipe(content);
-
-                // 6. Save to persistence
-                com.example.aimodgen.persistence.ContentPersistence.saveGeneratedContent(generatedContent);
-
-                return block;
-            } catch (Exception e) {
-                LOGGER.error("Failed to generate block: " + e.getMessage());
-                throw new RuntimeException("Block generation failed", e);
-            }
+                return textureFor(description, blockData, stages).thenCompose(textureData -> {
+                    // 3. Create and register the block, unless the requester has given up meanwhile
+                    context.getCancellation().throwIfCancelled();
+                    String blockId = blockData.get("id").getAsString();
+                    String textureHash = saveTexture(blockId, textureData, "block");
+                    Block block = createBlock(blockData);
+
+                    // 4. Store generation data, referring to the stored texture rather than holding it
+                    GeneratedContent content = withTexture(ContentType.BLOCK, blockId, description, blockData,
+                        textureData, textureHash);
+                    generatedContent.put(blockId, content);
+
+                    // 5. Generate crafting recipe
+                    return recipeFor(content, stages).thenApply(recipeDone -> {
+                        // 6. Save to persistence
+                        com.example.aimodgen.persistence.ContentPersistence.putGeneratedContent(content);
+                        return block;
+                    });
+                });
+            }), GenerationScheduler.shared().getExecutor()).exceptionally(e -> {
+            rethrowIfCancelled(e, context);
+            LOGGER.error("Failed to generate block: " + e.getMessage());
+            throw new RuntimeException("Block generation failed", e);
         });
-    }    public CompletableFuture<Item> generateItem(String description, Map<String, String> properties) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // Similar to block generation
-                String prompt = generateItemPrompt(description, properties);
-                String response = llmService.generateModContent(prompt);
-                JsonObject itemData = parseResponse(response);
-                
-                String texturePrompt = generateTexturePrompt(description, itemData);
-                byte[] textureData = generateTexture(texturePrompt);
-
-                Item item = createItem(itemData, textureData);
-                
-                String itemId = itemData.get("id").getAsString();
-                GeneratedContent content = new GeneratedContent(
-                    ContentType.ITEM,
-                    itemId,
-                    description,
-                    itemData,
-                    textureData
-                );
-                generatedContent.put(itemId, content);
-
-                // Generate crafting recipe
-                RecipeGenerator.generateRecipe(content);
-
-                // Save to persistence
-                com.example.aimodgen.persistence.ContentPersistence.saveGeneratedContent(generatedContent);
-
-                return item;
-            } catch (Exception e) {
-                LOGGER.error("Failed to generate item: " + e.getMessage());
-                throw new RuntimeException("Item generation failed", e);
+        generation.whenComplete((block, error) -> llmService.endConversation(conversationFor("block", description, context)));
+        return generation;
+    }
+
+    private CompletableFuture<Item> doGenerateItem(String description, Map<String, String> properties, String prompt,
+                                                   GenerationContext context) {
+        // Similar to block generation
+        CompletableFuture<Item> generation = requestStages("item", description, properties, ITEM_SCHEMA, ContentSchemas.ITEM, context).thenComposeAsync(stages ->
+            stages.get(PROPERTIES_STAGE, () -> requestContent(prompt, stages, ContentSchemas.ITEM)).thenCompose(response -> {
+                JsonObject itemData = parseResponse(response, ContentSchemas.ITEM);
+
+                return textureFor(description, itemData, stages).thenCompose(textureData -> {
+                    context.getCancellation().throwIfCancelled();
+                    String itemId = itemData.get("id").getAsString();
+                    String textureHash = saveTexture(itemId, textureData, "item");
+                    Item item = createItem(itemData);
+
+                    GeneratedContent content = withTexture(ContentType.ITEM, itemId, description, itemData,
+                        textureData, textureHash);
+                    generatedContent.put(itemId, content);
+
+                    // Generate crafting recipe
+                    return recipeFor(content, stages).thenApply(recipeDone -> {
+                        // Save to persistence
+                        com.example.aimodgen.persistence.ContentPersistence.putGeneratedContent(content);
+                        return item;
+                    });
+                });
+            }), GenerationScheduler.shared().getExecutor()).exceptionally(e -> {
+            rethrowIfCancelled(e, context);
+            LOGGER.error("Failed to generate item: " + e.getMessage());
+            throw new RuntimeException("Item generation failed", e);
+        });
+        generation.whenComplete((item, error) -> llmService.endConversation(conversationFor("item", description, context)));
+        return generation;
+    }
+
+    /**
+     * Send the prompts a player's request for this description would send, so their answers are already in
+     * the response cache when someone asks for it. Nothing is created, registered or saved. Like the
+     * generations themselves, callers run it on the generation scheduler.
+     */
+    public CompletableFuture<Void> warmCaches(ContentType type, String description, GenerationContext context) {
+        boolean block = type == ContentType.BLOCK;
+        // Commands only pass the properties a player typed after the description, which is usually none
+        Map<String, String> properties = new HashMap<>();
+        String prompt = block ? generateBlockPrompt(description, properties) : generateItemPrompt(description, properties);
+        ResponseSchema schema = block ? ContentSchemas.BLOCK : ContentSchemas.ITEM;
+
+        CompletableFuture<Void> warming = requestStages(block ? "block" : "item", description, properties, block ? BLOCK_SCHEMA : ITEM_SCHEMA,
+                schema, context).thenCompose(stages ->
+            stages.get(PROPERTIES_STAGE, () -> requestContent(prompt, stages, schema)).thenCompose(response -> {
+                // The later prompts are built from the parsed answer, exactly as a real generation builds them
+                JsonObject data = parseResponse(response, schema);
+                GeneratedContent content = new GeneratedContent(type, data.get("id").getAsString(), description, data, new byte[0]);
+                return textureFor(description, data, stages).thenCompose(textureData ->
+                    stages.get(RECIPE_STAGE, () -> RecipeGenerator.requestRecipeAsync(content, stages.conversation, stages.context)));
+            })).thenApply(recipe -> null);
+        warming.whenComplete((done, error) -> llmService.endConversation(conversationFor(block ? "block" : "item", description, context)));
+        return warming;
+    }
+
+    /**
+     * A cancelled generation fails as cancelled, with the reason, rather than as a generation error
+     */
+    private static void rethrowIfCancelled(Throwable error, GenerationContext context) {
+        if (context.isCancelled() || Futures.unwrap(error) instanceof CancellationException) {
+            LOGGER.info("Generation {} cancelled: {}", context, context.getCancellation().getReason());
+            CancellationException cancelled = new CancellationException(context.getCancellation().getReason());
+            cancelled.initCause(error);
+            throw cancelled;
+        }
+    }
+
+    /**
+     * Send a prompt without blocking; a failed call yields null so parsing falls back to defaults
+     */
+    private CompletableFuture<String> requestContent(String prompt, StageAnswers stages, ResponseSchema schema) {
+        return llmService.generateModContentAsync(prompt, stages.conversation, schema, stages.context).exceptionally(e -> null);
+    }
+
+    /**
+     * With batching on, ask for properties, texture and recipe in one call, so the system prompt and
+     * description are evaluated once rather than three times. Otherwise every stage asks separately,
+     * as one conversation so backends that keep context between prompts can continue from the last one.
+     */
+    private CompletableFuture<StageAnswers> requestStages(String kind, String description, Map<String, String> properties,
+                                                          String schemaText, ResponseSchema schema,
+                                                          GenerationContext context) {
+        String conversation = conversationFor(kind, description, context);
+        if (!batchGeneration) {
+            return CompletableFuture.completedFuture(StageAnswers.separate(conversation, context));
+        }
+
+        BatchPrompt batch = new BatchPrompt(String.format("""
+            Design a new Minecraft %s with the following description:
+            %s
+
+            Additional properties: %s
+            """, kind, description, properties.toString()))
+            .add(PROPERTIES_STAGE, "Properties of the " + kind + ", as a JSON object with the following structure:\n" + schemaText,
+                schema)
+            .add(TEXTURE_STAGE, "A 16x16 pixel art texture for the " + kind + " in Minecraft's style, using colors that fit " +
+                "its material and clear at 16x16 resolution, as a Base64 encoded PNG image string.")
+            .add(RECIPE_STAGE, RecipeGenerator.createRecipePrompt("the " + kind + " described above"), ContentSchemas.RECIPE);
+
+        return llmService.generateBatchAsync(batch, conversation, context).handle((answers, error) -> {
+            if (error != null) {
+                return StageAnswers.failed(conversation, context);
+            }
+            if (answers.size() < batch.getPartNames().size()) {
+                LOGGER.debug("Batched {} generation answered {} of {} parts, asking for the rest separately",
+                    kind, answers.size(), batch.getPartNames().size());
             }
+            return new StageAnswers(answers, conversation, context);
         });
     }
 
+    /**
+     * Conversation key for the stages of one generation. It names the request, so two generations of the
+     * same description, whether by different players or one regenerating, never continue from each other.
+     * The key is dropped once the generation finishes.
+     */
+    private static String conversationFor(String kind, String description, GenerationContext context) {
+        return kind + ":" + context.getRequestId() + ":" + description;
+    }
+
+    private CompletableFuture<byte[]> textureFor(String description, JsonObject contentData, StageAnswers stages) {
+        return stages.get(TEXTURE_STAGE, () ->
+                llmService.generateTextureAsync(generateTexturePrompt(description, contentData), "item", stages.context)
+                    .exceptionally(e -> null))
+            .thenApply(this::decodeTexture);
+    }
+
+    private CompletableFuture<Void> recipeFor(GeneratedContent content, StageAnswers stages) {
+        return stages.get(RECIPE_STAGE, () -> RecipeGenerator.requestRecipeAsync(content, stages.conversation, stages.context))
+            .thenAccept(response -> RecipeGenerator.saveRecipe(content, response));
+    }
+
     private String generateBlockPrompt(String description, Map<String, String> properties) {
         return String.format("""
             Generate properties for a Minecraft block with the following description:
@@ -133,20 +324,7 @@ public class ContentGenerator {
             Additional properties: %s
             
             Return a JSON object with the following structure:
-            {
-                "id": "block_id",
-                "name": "Display Name",
-                "hardness": float,
-                "resistance": float,
-                "lightLevel": int (0-15),
-                "requiresTool": boolean,
-                "material": "minecraft:material_type",
-                "soundType": "minecraft:sound_type",
-                "hasGravity": boolean,
-                "isTransparent": boolean,
-                "customProperties": {}
-            }
-            """, description, properties.toString());
+            %s""", description, properties.toString(), BLOCK_SCHEMA);
     }
 
     private String generateItemPrompt(String description, Map<String, String> properties) {
@@ -157,17 +335,7 @@ public class ContentGenerator {
             Additional properties: %s
             
             Return a JSON object with the following structure:
-            {
-                "id": "item_id",
-                "name": "Display Name",
-                "maxStackSize": int,
-                "maxDurability": int,
-                "craftingMaterial": "minecraft:material",
-                "isFood": boolean,
-                "foodProperties": {},
-                "customProperties": {}
-            }
-            """, description, properties.toString());
+            %s""", description, properties.toString(), ITEM_SCHEMA);
     }
 
     private String generateTexturePrompt(String description, JsonObject contentData) {
@@ -187,28 +355,26 @@ public class ContentGenerator {
             """, description, contentData.toString());
     }
 
-    private JsonObject parseResponse(String response) {
-        try {
-            // Extract JSON from response if it's wrapped in text
-            String jsonString = response;
-            int startIndex = response.indexOf("{");
-            int endIndex = response.lastIndexOf("}");
-            
-            if (startIndex != -1 && endIndex != -1 && endIndex > startIndex) {
-                jsonString = response.substring(startIndex, endIndex + 1);
-            }
-            
-            return com.google.gson.JsonParser.parseString(jsonString).getAsJsonObject();
-        } catch (Exception e) {
-            LOGGER.warn("Failed to parse LLM response, using defaults: " + e.getMessage());
+    private JsonObject parseResponse(String response, ResponseSchema schema) {
+        // Repairs truncated or chatty JSON and coerces values to their types instead of re-asking
+        JsonObject parsed = schema.parse(response);
+        if (parsed == null) {
+            LOGGER.warn("Failed to parse LLM response, using defaults");
             JsonObject defaultObj = new JsonObject();
             defaultObj.addProperty("id", "default_generated");
             defaultObj.addProperty("name", "Generated Content");
             return defaultObj;
         }
-    }    private byte[] generateTexture(String prompt) {
+        if (!parsed.has("id")) {
+            String name = parsed.has("name") ? parsed.get("name").getAsString() : "";
+            String id = name.toLowerCase().replaceAll("[^a-z0-9_]+", "_").replaceAll("^_+|_+$", "");
+            parsed.addProperty("id", id.isEmpty() ? "default_generated" : id);
+        }
+        return parsed;
+    }
+
+    private byte[] decodeTexture(String base64Response) {
         try {
-            String base64Response = llmService.generateTexture(prompt);
             if (base64Response != null && !base64Response.trim().isEmpty()) {
                 // Try to extract base64 data from various formats
                 String base64Data = extractBase64(base64Response);
@@ -219,7 +385,7 @@ public class ContentGenerator {
         } catch (Exception e) {
             LOGGER.warn("Failed to generate texture: " + e.getMessage());
         }
-        
+
         // Return default texture data if generation fails
         return createDefaultTexture();
     }
@@ -270,13 +436,21 @@ public class ContentGenerator {
         }
     }
 
-    private Block createBlock(JsonObject data, byte[] texture) {
+    /**
+     * Content that refers to its texture in the texture store, or holds the bytes if storing them failed
+     */
+    private static GeneratedContent withTexture(ContentType type, String id, String description, JsonObject data,
+                                                byte[] textureData, String textureHash) {
+        if (textureHash == null) {
+            return new GeneratedContent(type, id, description, data, textureData);
+        }
+        return new GeneratedContent(type, id, description, data, textureHash);
+    }
+
+    private Block createBlock(JsonObject data) {
         try {
             String blockId = data.get("id").getAsString();
-            
-            // Save texture to resources
-            saveTexture(blockId, texture, "block");
-            
+
             // Create block using dynamic registry
             return com.example.aimodgen.block.DynamicBlockRegistry.createAndRegisterBlock(blockId, data);
         } catch (Exception e) {
@@ -285,12 +459,11 @@ public class ContentGenerator {
         }
     }
 
-    private Item createItem(JsonObject data, byte[] texture) {
+    private Item createItem(JsonObject data) {
         try {
             String itemId = data.get("id").getAsString();
-            
-            // Save texture to resources
-            saveTexture(itemId, texture, "item");            // Create item using dynamic registry
+
+            // Create item using dynamic registry
             // For now, we'll return a simple notification that the item was "created"
             // The actual item will be available after restart when persistence loads it
             LOGGER.info("Item '{}' data generated and saved. Will be available after restart.", itemId);
@@ -299,23 +472,33 @@ public class ContentGenerator {
             LOGGER.error("Failed to create item: " + e.getMessage());
             return null;
         }
-    }    private void saveTexture(String id, byte[] textureData, String type) {
+    }
+
+    /**
+     * Save the texture to the texture pack the game loads it from, and to the texture store, where saved
+     * content refers to it by hash so identical textures are kept once
+     *
+     * @return the texture's hash in the store, or null if there is no texture or it could not be saved
+     */
+    private String saveTexture(String id, byte[] textureData, String type) {
+        if (textureData == null || textureData.length == 0) {
+            return null;
+        }
         try {
-            java.nio.file.Path textureDir = java.nio.file.Paths.get("src/main/resources/assets/aimodgenerator/textures/" + type);
-            java.nio.file.Files.createDirectories(textureDir);
-            
             // Strip namespace from id if it exists (e.g., "mymod:block_name" -> "block_name")
             String safeId = id;
             if (safeId.contains(":")) {
                 safeId = safeId.substring(safeId.indexOf(':') + 1);
             }
             
-            java.nio.file.Path texturePath = textureDir.resolve(safeId + ".png");
-            java.nio.file.Files.write(texturePath, textureData);
-            
-            LOGGER.info("Saved texture for {} at {}", id, texturePath);
+            String textureHash = com.example.aimodgen.persistence.TextureStore.shared().put(textureData);
+            com.example.aimodgen.persistence.TexturePack.shared().putPng(type + "/" + safeId, textureData);
+
+            LOGGER.info("Saved texture for {} as {}/{}", id, type, safeId);
+            return textureHash;
         } catch (Exception e) {
             LOGGER.error("Failed to save texture for {}: {}", id, e.getMessage());
+            return null;
         }
     }
 
@@ -324,7 +507,7 @@ public class ContentGenerator {
         if (content != null) {
             // TODO: Implement proper content unregistration
             // For now, just remove from memory and persistence
-            com.example.aimodgen.persistence.ContentPersistence.saveGeneratedContent(generatedContent);
+            com.example.aimodgen.persistence.ContentPersistence.deleteGeneratedContent(id);
             LOGGER.info("Deleted content: {}", id);
         }
     }
@@ -332,4 +515,38 @@ public class ContentGenerator {
     public Map<String, GeneratedContent> listContent() {
         return new HashMap<>(generatedContent);
     }
+
+    /**
+     * Per-stage answers from a batched call. A stage the batch left out asks separately; when the
+     * batched call itself failed, stages get null and fall back to defaults as a failed separate call would.
+     */
+    private static final class StageAnswers {
+        final String conversation;
+        final GenerationContext context;
+        private final Map<String, String> answers;
+
+        StageAnswers(Map<String, String> answers, String conversation, GenerationContext context) {
+            this.answers = answers;
+            this.conversation = conversation;
+            this.context = context;
+        }
+
+        static StageAnswers separate(String conversation, GenerationContext context) {
+            return new StageAnswers(Map.of(), conversation, context);
+        }
+
+        static StageAnswers failed(String conversation, GenerationContext context) {
+            return new StageAnswers(null, conversation, context);
+        }
+
+        CompletableFuture<String> get(String stage, Supplier<CompletableFuture<String>> separately) {
+            // Every stage starts here, so a cancelled generation goes no further than the stage it was in
+            context.getCancellation().throwIfCancelled();
+            if (answers == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            String answer = answers.get(stage);
+            return answer != null ? CompletableFuture.completedFuture(answer) : separately.get();
+        }
+    }
 }
@@ -1,6 +1,10 @@
 package com.example.aimodgen.generation;
 
 import com.example.aimodgen.AiModGenerator;
+import com.example.aimodgen.persistence.ContentRecord;
+import com.example.aimodgen.persistence.ContentSnapshot;
+import com.example.aimodgen.persistence.TextureStore;
+import com.example.aimodgen.persistence.WriteBehind;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
@@ -15,25 +19,46 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ContentRegistry {
     private static final Logger LOGGER = LogManager.getLogger();
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
-    private static final String REGISTRY_FILE = "config/aimodgenerator/generated_content.json";
-    private static final Map<String, GeneratedContent> contentMap = new HashMap<>();
+    private static final String REGISTRY_FILE = "config/aimodgenerator/generated_content.bin";
+    // Where the registry was saved before the binary format; read if there is no binary file yet
+    private static final String LEGACY_REGISTRY_FILE = "config/aimodgenerator/generated_content.json";
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+    private static final Map<String, GeneratedContent> contentMap = new ConcurrentHashMap<>();
+    // The registry file is rewritten whole, so changes only mark it dirty and bursts share one rewrite
+    private static WriteBehind<String, GeneratedContent> writes = createWrites(DEFAULT_FLUSH_INTERVAL_MS);
 
     public static void init() {
         loadRegistry();
     }
 
+    /**
+     * Set how long registry changes may be held to be saved together, writing out any pending first
+     */
+    public static synchronized void configure(long flushIntervalMillis) {
+        writes.close();
+        writes = createWrites(flushIntervalMillis);
+    }
+
+    /**
+     * Save pending changes now, as the server stops
+     */
+    public static synchronized void flush() {
+        writes.flush();
+    }
+
     public static void register(GeneratedContent content) {
         contentMap.put(content.getId(), content);
-        saveRegistry();
+        writes().put(content.getId(), content);
     }
 
     public static void unregister(String id) {
         contentMap.remove(id);
-        saveRegistry();
+        writes().delete(id);
     }
 
     public static GeneratedContent getContent(String id) {
@@ -47,31 +72,63 @@ public class ContentRegistry {
     private static void loadRegistry() {
         try {
             Path registryPath = Paths.get(REGISTRY_FILE);
-            if (!Files.exists(registryPath)) {
+            if (Files.exists(registryPath)) {
+                contentMap.clear();
+                for (Map.Entry<String, ContentRecord> entry : ContentSnapshot.read(registryPath).entrySet()) {
+                    contentMap.put(entry.getKey(), entry.getValue().toContent());
+                    // Already linked unless the snapshot predates the texture store
+                    if (entry.getValue().getTextureHash() != null) {
+                        TextureStore.shared().link(textureName(entry.getKey()), entry.getValue().getTextureHash());
+                    }
+                }
+                return;
+            }
+            Path legacyPath = Paths.get(LEGACY_REGISTRY_FILE);
+            if (!Files.exists(legacyPath)) {
                 Files.createDirectories(registryPath.getParent());
                 return;
             }
 
-            String json = Files.readString(registryPath);
+            String json = Files.readString(legacyPath);
             Type type = new TypeToken<HashMap<String, GeneratedContent>>(){}.getType();
             Map<String, GeneratedContent> loaded = GSON.fromJson(json, type);
             if (loaded != null) {
                 contentMap.clear();
                 contentMap.putAll(loaded);
+                // Saved again in the binary format, with the textures moved into the texture store
+                loaded.forEach(writes()::put);
             }
         } catch (IOException e) {
             LOGGER.error("Failed to load content registry: " + e.getMessage());
         }
     }
 
-    private static void saveRegistry() {
-        try {
-            Path registryPath = Paths.get(REGISTRY_FILE);
-            Files.createDirectories(registryPath.getParent());
-            String json = GSON.toJson(contentMap);
-            Files.writeString(registryPath, json);
-        } catch (IOException e) {
-            LOGGER.error("Failed to save content registry: " + e.getMessage());
+    private static synchronized WriteBehind<String, GeneratedContent> writes() {
+        return writes;
+    }
+
+    private static WriteBehind<String, GeneratedContent> createWrites(long flushIntervalMillis) {
+        return new WriteBehind<>("content registry", ContentRegistry::saveRegistry, flushIntervalMillis);
+    }
+
+    private static void saveRegistry(Map<String, GeneratedContent> changes) throws IOException {
+        TextureStore textures = TextureStore.shared();
+        for (Map.Entry<String, GeneratedContent> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                textures.unlink(textureName(change.getKey()));
+            } else {
+                textures.linkTexture(textureName(change.getKey()), change.getValue());
+            }
         }
+
+        Map<String, ContentRecord> records = new LinkedHashMap<>();
+        for (Map.Entry<String, GeneratedContent> entry : contentMap.entrySet()) {
+            records.put(entry.getKey(), ContentRecord.of(entry.getValue(), textures.getHash(textureName(entry.getKey()))));
+        }
+        ContentSnapshot.write(Paths.get(REGISTRY_FILE), records);
+    }
+
+    private static String textureName(String id) {
+        return "registry/" + id;
     }
 }
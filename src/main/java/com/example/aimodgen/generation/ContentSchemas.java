@@ -0,0 +1,51 @@
+package com.example.aimodgen.generation;
+
+import com.example.aimodgen.ai.ResponseSchema;
+import com.example.aimodgen.ai.ResponseSchema.Type;
+
+/**
+ * Typed shapes of the JSON the generators ask the LLM for, matching the structures given in their prompts
+ */
+public final class ContentSchemas {
+    private ContentSchemas() {
+    }
+
+    public static final ResponseSchema BLOCK = new ResponseSchema("block")
+        .field("id", Type.STRING)
+        .field("name", Type.STRING)
+        .field("hardness", Type.NUMBER)
+        .field("resistance", Type.NUMBER)
+        .field("lightLevel", Type.INTEGER)
+        .field("requiresTool", Type.BOOLEAN)
+        .field("material", Type.STRING)
+        .field("soundType", Type.STRING)
+        .field("hasGravity", Type.BOOLEAN)
+        .field("isTransparent", Type.BOOLEAN)
+        .field("customProperties", Type.OBJECT);
+
+    public static final ResponseSchema ITEM = new ResponseSchema("item")
+        .field("id", Type.STRING)
+        .field("name", Type.STRING)
+        .field("maxStackSize", Type.INTEGER)
+        .field("maxDurability", Type.INTEGER)
+        .field("craftingMaterial", Type.STRING)
+        .field("isFood", Type.BOOLEAN)
+        .field("foodProperties", Type.OBJECT)
+        .field("customProperties", Type.OBJECT);
+
+    // The result is always replaced with the generated content, so only the ingredients matter
+    public static final ResponseSchema RECIPE = new ResponseSchema("recipe")
+        .required("type", Type.STRING)
+        .field("pattern", Type.ARRAY)
+        .field("key", Type.OBJECT)
+        .field("ingredients", Type.ARRAY);
+
+    public static final ResponseSchema TEXTURE = new ResponseSchema("texture")
+        .field("colorPalette", Type.ARRAY)
+        .field("description", Type.STRING)
+        .field("pattern", Type.STRING)
+        .field("style", Type.STRING)
+        .field("dominantColors", Type.ARRAY)
+        .field("textureType", Type.STRING)
+        .field("base64", Type.STRING);
+}
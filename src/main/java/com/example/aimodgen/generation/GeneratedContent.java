@@ -1,13 +1,21 @@
 package com.example.aimodgen.generation;
 
+import com.example.aimodgen.persistence.TextureStore;
 import com.google.gson.JsonObject;
 
+import java.io.IOException;
+import java.util.function.Supplier;
+
 public class GeneratedContent {
     private final ContentType type;
     private final String id;
     private final String description;
-    private final JsonObject properties;
+    private JsonObject properties;
+    // Set until the properties are first asked for; not part of the saved form
+    private transient volatile Supplier<JsonObject> propertyLoader;
     private final byte[] textureData;
+    // Set instead of the data when the texture is kept in the texture store
+    private final String textureHash;
 
     public GeneratedContent(ContentType type, String id, String description, JsonObject properties, byte[] textureData) {
         this.type = type;
@@ -15,18 +23,69 @@ public class GeneratedContent {
         this.description = description;
         this.properties = properties;
         this.textureData = textureData;
+        this.textureHash = null;
+    }
+
+    /**
+     * Content whose texture is kept in the {@link TextureStore} under the given hash (null for no texture)
+     */
+    public GeneratedContent(ContentType type, String id, String description, JsonObject properties, String textureHash) {
+        this.type = type;
+        this.id = id;
+        this.description = description;
+        this.properties = properties;
+        this.textureData = null;
+        this.textureHash = textureHash;
+    }
+
+    /**
+     * Content whose properties are loaded the first time they are needed, such as content read from storage
+     */
+    public GeneratedContent(ContentType type, String id, String description, Supplier<JsonObject> propertyLoader,
+                            String textureHash) {
+        this.type = type;
+        this.id = id;
+        this.description = description;
+        this.propertyLoader = propertyLoader;
+        this.textureData = null;
+        this.textureHash = textureHash;
     }
 
     public ContentType getType() { return type; }
     public String getId() { return id; }
     public String getName() { 
         // Extract name from properties or use id as fallback
+        JsonObject properties = getProperties();
         if (properties != null && properties.has("name")) {
             return properties.get("name").getAsString();
         }
         return id; 
     }
     public String getDescription() { return description; }
-    public JsonObject getProperties() { return properties; }
-    public byte[] getTextureData() { return textureData; }
+    public JsonObject getProperties() {
+        if (propertyLoader != null) {
+            synchronized (this) {
+                if (propertyLoader != null) {
+                    properties = propertyLoader.get();
+                    propertyLoader = null;
+                }
+            }
+        }
+        return properties;
+    }
+    /**
+     * The texture's bytes, read from the texture store each time if that is where it is kept
+     */
+    public byte[] getTextureData() {
+        if (textureHash == null) {
+            return textureData;
+        }
+        try {
+            byte[] data = TextureStore.shared().get(textureHash);
+            return data == null ? new byte[0] : data;
+        } catch (IOException e) {
+            return new byte[0];
+        }
+    }
+    public String getTextureHash() { return textureHash; }
 }
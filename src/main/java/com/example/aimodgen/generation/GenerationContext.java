@@ -0,0 +1,164 @@
+package com.example.aimodgen.generation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Who asked for a generation, how urgently and whether it is still wanted, carried from the command
+ * down through the pipeline to every LLM call
+ */
+public class GenerationContext {
+    private static final AtomicLong NEXT_REQUEST_ID = new AtomicLong();
+    public static final String SERVER_REQUESTER = "server";
+    public static final String BACKGROUND_COMMAND = "background";
+    public static final String PREGENERATION_COMMAND = "pregenerate";
+
+    public enum Priority {
+        // A player is waiting on a command
+        INTERACTIVE,
+        // Regeneration and other work nobody is actively waiting for
+        BACKGROUND,
+        // Guesses at what players will ask for, run only while nothing else is and stopped as soon as it is
+        SPECULATIVE
+    }
+
+    private final long requestId;
+    private final String requesterId;
+    private final String requesterName;
+    private final String command;
+    private final Priority priority;
+    private final Consumer<String> feedback;
+    private final CancellationToken cancellation;
+    private final boolean detached;
+
+    private GenerationContext(long requestId, String requesterId, String requesterName, String command,
+                              Priority priority, Consumer<String> feedback, CancellationToken cancellation,
+                              boolean detached) {
+        this.requestId = requestId;
+        this.requesterId = requesterId != null ? requesterId : SERVER_REQUESTER;
+        this.requesterName = requesterName != null ? requesterName : this.requesterId;
+        this.command = command != null ? command : BACKGROUND_COMMAND;
+        this.priority = priority;
+        this.feedback = feedback;
+        this.cancellation = cancellation;
+        this.detached = detached;
+    }
+
+    public static GenerationContext interactive(String requesterId) {
+        return interactive(requesterId, null);
+    }
+
+    /**
+     * @param requesterName readable name for usage reports, such as the player's name; defaults to the id
+     */
+    public static GenerationContext interactive(String requesterId, String requesterName) {
+        return new GenerationContext(NEXT_REQUEST_ID.incrementAndGet(), requesterId, requesterName, null,
+                Priority.INTERACTIVE, null, new CancellationToken(), false);
+    }
+
+    public static GenerationContext background() {
+        return new GenerationContext(NEXT_REQUEST_ID.incrementAndGet(), SERVER_REQUESTER, null, null,
+                Priority.BACKGROUND, null, new CancellationToken(), false);
+    }
+
+    /**
+     * Server work generating what players are likely to ask for, so the answers are cached before they do
+     */
+    public static GenerationContext speculative() {
+        return new GenerationContext(NEXT_REQUEST_ID.incrementAndGet(), SERVER_REQUESTER, null, PREGENERATION_COMMAND,
+                Priority.SPECULATIVE, null, new CancellationToken(), false);
+    }
+
+    /**
+     * Copy of this context that reports queueing and rejection messages to the given sink
+     */
+    public GenerationContext withFeedback(Consumer<String> feedback) {
+        return new GenerationContext(requestId, requesterId, requesterName, command, priority, feedback, cancellation,
+                detached);
+    }
+
+    /**
+     * Copy of this context tagged with the command that started it, so its LLM usage is accounted to that command
+     */
+    public GenerationContext withCommand(String command) {
+        return new GenerationContext(requestId, requesterId, requesterName, command, priority, feedback, cancellation,
+                detached);
+    }
+
+    /**
+     * Copy of this context for work done on behalf of others too, such as a generation other requesters
+     * have joined. It is accounted to the same requester but has its own cancellation, so this requester
+     * giving up, logging off or running out of time does not stop it for the rest.
+     */
+    public GenerationContext detached() {
+        return new GenerationContext(requestId, requesterId, requesterName, command, priority, feedback,
+                new CancellationToken(), true);
+    }
+
+    /**
+     * Whether this context was made by {@link #detached()}; cancelling a requester's generations leaves it alone
+     */
+    public boolean isDetached() {
+        return detached;
+    }
+
+    /**
+     * Context whose generation is cancelled once the timeout passes. The deadline belongs to the request,
+     * so every copy of this context shares it.
+     */
+    public GenerationContext withDeadline(long timeoutMillis) {
+        cancellation.expireAfter(timeoutMillis);
+        return this;
+    }
+
+    /**
+     * Stop the generation and abort its LLM calls
+     *
+     * @return false if it had already been stopped
+     */
+    public boolean cancel(String reason) {
+        return cancellation.cancel(reason);
+    }
+
+    public boolean isCancelled() {
+        return cancellation.isCancelled();
+    }
+
+    public CancellationToken getCancellation() {
+        return cancellation;
+    }
+
+    /**
+     * Send a status message back to whoever requested the generation, if anyone is listening
+     */
+    public void sendFeedback(String message) {
+        if (feedback != null) {
+            feedback.accept(message);
+        }
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public String getRequesterId() {
+        return requesterId;
+    }
+
+    public String getRequesterName() {
+        return requesterName;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + requestId + " " + priority.name().toLowerCase() + " " + command + " for " + requesterName;
+    }
+}
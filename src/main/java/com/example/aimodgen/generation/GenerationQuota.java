@@ -0,0 +1,301 @@
+package com.example.aimodgen.generation;
+
+import com.example.aimodgen.persistence.WriteBehind;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budgets for generations, per player and for the whole server: generations started per minute and
+ * LLM tokens used per day. They are checked when a generation is submitted, so a player over budget
+ * is told straight away instead of their work taking GPU time from everyone else. Token use is
+ * saved to disk in the background so restarting the server does not hand out a fresh daily budget.
+ * Pre-generation is kept out of the server's budgets and has a daily token budget of its own, so a night
+ * of speculative work cannot use up what players have to share the next morning.
+ * A limit of zero means no limit.
+ */
+public class GenerationQuota {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final long MINUTE_MS = 60_000;
+    // Token use is written at most this often; the rest is written on shutdown
+    private static final long SAVE_INTERVAL_MS = 30_000;
+    private static final String GLOBAL_KEY = "global";
+    private static final String SPECULATIVE_KEY = "speculative";
+
+    private static GenerationQuota shared;
+
+    private final int playerRequestsPerMinute;
+    private final long playerTokensPerDay;
+    private final int globalRequestsPerMinute;
+    private final long globalTokensPerDay;
+    private final long speculativeTokensPerDay;
+    private final Path stateFile;
+    private final Clock clock;
+    // Writes one at a time, off the threads that charge tokens; null when nothing is saved
+    private final WriteBehind<String, Long> tokenWrites;
+
+    // Guarded by this
+    private final Map<String, Deque<Long>> playerRequests = new HashMap<>();
+    private final Deque<Long> globalRequests = new ArrayDeque<>();
+    private final Map<String, Long> playerTokens = new HashMap<>();
+    private long globalTokens;
+    private long speculativeTokens;
+    private LocalDate day;
+
+    private final AtomicLong rejectedRequests = new AtomicLong();
+    private final AtomicLong rejectedTokens = new AtomicLong();
+
+    /**
+     * @param stateFile where token use for the day is kept across restarts, or null to keep it in memory only
+     */
+    public GenerationQuota(int playerRequestsPerMinute, long playerTokensPerDay, int globalRequestsPerMinute,
+                           long globalTokensPerDay, Path stateFile, Clock clock) {
+        this(playerRequestsPerMinute, playerTokensPerDay, globalRequestsPerMinute, globalTokensPerDay, 0, stateFile, clock);
+    }
+
+    /**
+     * @param speculativeTokensPerDay tokens pre-generation may use per day, apart from the server's budget
+     * @param stateFile               where token use for the day is kept across restarts, or null to keep it in memory only
+     */
+    public GenerationQuota(int playerRequestsPerMinute, long playerTokensPerDay, int globalRequestsPerMinute,
+                           long globalTokensPerDay, long speculativeTokensPerDay, Path stateFile, Clock clock) {
+        this.playerRequestsPerMinute = playerRequestsPerMinute;
+        this.playerTokensPerDay = playerTokensPerDay;
+        this.globalRequestsPerMinute = globalRequestsPerMinute;
+        this.globalTokensPerDay = globalTokensPerDay;
+        this.speculativeTokensPerDay = speculativeTokensPerDay;
+        this.stateFile = stateFile;
+        this.clock = clock;
+        this.day = LocalDate.now(clock);
+        this.tokenWrites = stateFile == null ? null
+                : new WriteBehind<>("generation quotas", changes -> writeState(), SAVE_INTERVAL_MS);
+        load();
+    }
+
+    /**
+     * The shared quota, or null if quotas have not been configured
+     */
+    public static synchronized GenerationQuota shared() {
+        return shared;
+    }
+
+    /**
+     * Replace the shared quota, saving what the previous one had recorded
+     */
+    public static synchronized void configure(GenerationQuota quota) {
+        if (shared != null) {
+            shared.save();
+        }
+        shared = quota;
+    }
+
+    /**
+     * Count a generation against the requester's and the server's budgets if both have room.
+     * Background work has no player budget but counts against the server's. Pre-generation counts
+     * against neither, only its own token budget, and waits while the server is out of tokens.
+     *
+     * @return null if the generation may go ahead, otherwise the reason to show the requester
+     */
+    public synchronized String tryAcquire(GenerationContext context) {
+        long now = clock.millis();
+        rollOver();
+        if (context.getPriority() == GenerationContext.Priority.SPECULATIVE) {
+            if (speculativeTokensPerDay > 0 && speculativeTokens >= speculativeTokensPerDay) {
+                return "Pre-generation has used its daily budget";
+            }
+            if (globalTokensPerDay > 0 && globalTokens >= globalTokensPerDay) {
+                return "The server has used its daily generation budget, it resets at midnight";
+            }
+            return null;
+        }
+        boolean player = !GenerationContext.SERVER_REQUESTER.equals(context.getRequesterId());
+
+        if (player && playerTokensPerDay > 0 && tokensUsed(context.getRequesterId()) >= playerTokensPerDay) {
+            rejectedTokens.incrementAndGet();
+            return String.format("You have used your daily generation budget (%d tokens), it resets at midnight",
+                    playerTokensPerDay);
+        }
+        if (globalTokensPerDay > 0 && globalTokens >= globalTokensPerDay) {
+            rejectedTokens.incrementAndGet();
+            return "The server has used its daily generation budget, it resets at midnight";
+        }
+
+        Deque<Long> mine = player ? playerRequests.computeIfAbsent(context.getRequesterId(), id -> new ArrayDeque<>()) : null;
+        if (mine != null && playerRequestsPerMinute > 0 && countRecent(mine, now) >= playerRequestsPerMinute) {
+            rejectedRequests.incrementAndGet();
+            return String.format("You can start %d generations per minute, please try again in %ds",
+                    playerRequestsPerMinute, secondsUntilFree(mine, now));
+        }
+        if (globalRequestsPerMinute > 0 && countRecent(globalRequests, now) >= globalRequestsPerMinute) {
+            rejectedRequests.incrementAndGet();
+            return String.format("The server is at its limit of %d generations per minute, please try again in %ds",
+                    globalRequestsPerMinute, secondsUntilFree(globalRequests, now));
+        }
+
+        if (mine != null) {
+            mine.addLast(now);
+        }
+        globalRequests.addLast(now);
+        return null;
+    }
+
+    /**
+     * Charge tokens used on behalf of a requester; a null context is server work
+     */
+    public void charge(GenerationContext context, long tokens) {
+        if (tokens <= 0) {
+            return;
+        }
+        String key = GLOBAL_KEY;
+        long used;
+        synchronized (this) {
+            rollOver();
+            if (context != null && context.getPriority() == GenerationContext.Priority.SPECULATIVE) {
+                key = SPECULATIVE_KEY;
+                speculativeTokens += tokens;
+                used = speculativeTokens;
+            } else {
+                globalTokens += tokens;
+                used = globalTokens;
+            }
+            if (context != null && !GenerationContext.SERVER_REQUESTER.equals(context.getRequesterId())) {
+                key = context.getRequesterId();
+                used = playerTokens.merge(key, tokens, Long::sum);
+            }
+        }
+        // Written later, by whole state, so this costs the caller (a usage listener) no I/O
+        if (tokenWrites != null) {
+            tokenWrites.put(key, used);
+        }
+    }
+
+    public synchronized long tokensUsed(String requesterId) {
+        rollOver();
+        return playerTokens.getOrDefault(requesterId, 0L);
+    }
+
+    public synchronized long getGlobalTokensUsed() {
+        rollOver();
+        return globalTokens;
+    }
+
+    /**
+     * Tokens the server can still use today, not counting pre-generation's own budget
+     */
+    public synchronized long globalTokensRemaining() {
+        rollOver();
+        return globalTokensPerDay > 0 ? Math.max(0, globalTokensPerDay - globalTokens) : Long.MAX_VALUE;
+    }
+
+    public synchronized long getSpeculativeTokensUsed() {
+        rollOver();
+        return speculativeTokens;
+    }
+
+    public long getPlayerTokensPerDay() {
+        return playerTokensPerDay;
+    }
+
+    public long getGlobalTokensPerDay() {
+        return globalTokensPerDay;
+    }
+
+    public String getStatsSummary() {
+        return String.format("%d of %s tokens used today, %d by pre-generation, %d rejected for rate, %d rejected for tokens",
+                getGlobalTokensUsed(), globalTokensPerDay > 0 ? String.valueOf(globalTokensPerDay) : "unlimited",
+                getSpeculativeTokensUsed(), rejectedRequests.get(), rejectedTokens.get());
+    }
+
+    /**
+     * Write today's token use to the state file now, if it changed since the last write
+     */
+    public void save() {
+        if (tokenWrites != null) {
+            tokenWrites.flush();
+        }
+    }
+
+    /**
+     * Token use charged but not yet written to the state file, by requester
+     */
+    public int getPendingSaveCount() {
+        return tokenWrites == null ? 0 : tokenWrites.getPendingCount();
+    }
+
+    // Only called by the write-behind, which writes one batch at a time, so the temporary file is not shared
+    private void writeState() throws IOException {
+        JsonObject state = new JsonObject();
+        synchronized (this) {
+            state.addProperty("day", day.toString());
+            state.addProperty("global", globalTokens);
+            state.addProperty("speculative", speculativeTokens);
+            JsonObject players = new JsonObject();
+            playerTokens.forEach(players::addProperty);
+            state.add("players", players);
+        }
+
+        Files.createDirectories(stateFile.toAbsolutePath().getParent());
+        Path temp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        Files.writeString(temp, GSON.toJson(state));
+        Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void load() {
+        if (stateFile == null || !Files.exists(stateFile)) {
+            return;
+        }
+        try {
+            JsonObject state = GSON.fromJson(Files.readString(stateFile), JsonObject.class);
+            if (!day.toString().equals(state.get("day").getAsString())) {
+                // Saved on an earlier day, so every budget has reset since
+                return;
+            }
+            globalTokens = state.get("global").getAsLong();
+            if (state.has("speculative")) {
+                speculativeTokens = state.get("speculative").getAsLong();
+            }
+            state.getAsJsonObject("players").entrySet()
+                    .forEach(entry -> playerTokens.put(entry.getKey(), entry.getValue().getAsLong()));
+            LOGGER.info("Loaded generation quotas: {} tokens used today by {} players", globalTokens, playerTokens.size());
+        } catch (Exception e) {
+            LOGGER.warn("Failed to load generation quotas, starting from zero: " + e.getMessage());
+        }
+    }
+
+    // Callers hold the lock
+    private void rollOver() {
+        LocalDate today = LocalDate.now(clock);
+        if (!today.equals(day)) {
+            day = today;
+            playerTokens.clear();
+            globalTokens = 0;
+            speculativeTokens = 0;
+        }
+    }
+
+    private static int countRecent(Deque<Long> requests, long now) {
+        while (!requests.isEmpty() && now - requests.peekFirst() >= MINUTE_MS) {
+            requests.pollFirst();
+        }
+        return requests.size();
+    }
+
+    private static long secondsUntilFree(Deque<Long> requests, long now) {
+        return Math.max(1, (requests.peekFirst() + MINUTE_MS - now + 999) / 1000);
+    }
+}
@@ -0,0 +1,506 @@
+package com.example.aimodgen.generation;
+
+import com.example.aimodgen.util.Futures;
+import com.example.aimodgen.util.SingleFlight;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs content generations on the mod's own threads instead of the common pool.
+ * At most a fixed number of generations are in flight; the rest wait in a bounded queue where
+ * interactive commands go ahead of background work and players take turns, so one player
+ * queueing many requests cannot hold everyone else up. Speculative work never queues: it only
+ * starts when a slot is free and nothing is waiting, and an interactive request preempts it.
+ */
+public class GenerationScheduler {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final int DEFAULT_MAX_CONCURRENT = 4;
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    public static final int DEFAULT_MAX_QUEUED_PER_REQUESTER = 4;
+    public static final int DEFAULT_WORKER_THREADS = 2;
+
+    private static GenerationScheduler shared;
+
+    private final ExecutorService workers;
+    private final int maxConcurrent;
+    private final int queueCapacity;
+    private final int maxQueuedPerRequester;
+    private volatile GenerationQuota quota;
+
+    // Guarded by this
+    private final Map<GenerationContext.Priority, FairQueue> queues = new EnumMap<>(GenerationContext.Priority.class);
+    private int running;
+    private int queued;
+    private int peakQueued;
+    // Accepted and not yet finished, by requester
+    private final Map<String, Set<Job<?>>> active = new HashMap<>();
+    // Requesters' own contexts for shared generations they are waiting on, by requester
+    private final Map<String, Set<GenerationContext>> joined = new HashMap<>();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong preempted = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+    private volatile long lastInteractiveNanos = System.nanoTime();
+
+    public GenerationScheduler(int maxConcurrent, int queueCapacity, int maxQueuedPerRequester, int workerThreads) {
+        this.maxConcurrent = maxConcurrent;
+        this.queueCapacity = queueCapacity;
+        this.maxQueuedPerRequester = maxQueuedPerRequester;
+        for (GenerationContext.Priority priority : GenerationContext.Priority.values()) {
+            queues.put(priority, new FairQueue());
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "aimod-gen-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the shared scheduler, creating it with default settings if it has not been configured
+     */
+    public static synchronized GenerationScheduler shared() {
+        if (shared == null) {
+            shared = new GenerationScheduler(DEFAULT_MAX_CONCURRENT, DEFAULT_QUEUE_CAPACITY,
+                    DEFAULT_MAX_QUEUED_PER_REQUESTER, DEFAULT_WORKER_THREADS);
+        }
+        return shared;
+    }
+
+    /**
+     * Replace the shared scheduler with one using the given limits
+     */
+    public static synchronized void configure(int maxConcurrent, int queueCapacity, int maxQueuedPerRequester, int workerThreads) {
+        GenerationScheduler previous = shared;
+        shared = new GenerationScheduler(maxConcurrent, queueCapacity, maxQueuedPerRequester, workerThreads);
+        LOGGER.info("Configured generation scheduler: {} concurrent, queue of {} ({} per player), {} worker threads",
+                maxConcurrent, queueCapacity, maxQueuedPerRequester, workerThreads);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Run a generation when a slot is free. The slot is held until the task's future completes.
+     * When the queue is full the returned future fails straight away with a {@link RejectedExecutionException}
+     * whose message can be shown to the requester; otherwise they are told their place in the queue.
+     */
+    public <T> CompletableFuture<T> submit(GenerationContext context, Supplier<CompletableFuture<T>> task) {
+        submitted.incrementAndGet();
+        Job<T> job = new Job<>(context, task);
+        if (context.isCancelled()) {
+            job.result.completeExceptionally(new CancellationException(context.getCancellation().getReason()));
+            return job.result;
+        }
+        if (context.getPriority() == GenerationContext.Priority.INTERACTIVE) {
+            lastInteractiveNanos = System.nanoTime();
+            // Stopping speculative work usually frees its slot before this job looks for one
+            preemptSpeculative();
+        }
+
+        String rejection;
+        int ahead = 0;
+        boolean startNow = false;
+        synchronized (this) {
+            boolean free = running < maxConcurrent && queued == 0;
+            if (context.getPriority() == GenerationContext.Priority.SPECULATIVE) {
+                rejection = free ? null : "Generation slots are busy";
+            } else {
+                rejection = free ? null : checkCapacity(context);
+            }
+            // Only generations that would otherwise be accepted count against the budget
+            GenerationQuota budget = quota;
+            if (rejection == null && budget != null) {
+                rejection = budget.tryAcquire(context);
+            }
+            if (rejection == null && free) {
+                running++;
+                startNow = true;
+            } else if (rejection == null) {
+                ahead = aheadOf(context.getPriority());
+                queues.get(context.getPriority()).add(job);
+                queued++;
+                peakQueued = Math.max(peakQueued, queued);
+            }
+        }
+
+        if (rejection == null) {
+            // A cancelled job is skipped while queued, and stops its work once running
+            trackActive(job);
+            context.getCancellation().track(job.result);
+        }
+
+        if (startNow) {
+            start(job);
+        } else if (rejection != null) {
+            rejected.incrementAndGet();
+            job.result.completeExceptionally(new RejectedExecutionException(rejection));
+        } else {
+            context.sendFeedback(String.format("Generation queued, %d request(s) ahead of yours", ahead));
+        }
+        return job.result;
+    }
+
+    /**
+     * Run a generation that anyone asking for the same key while it runs joins instead of repeating. The work
+     * is queued and accounted as the first requester's, but under a {@link GenerationContext#detached()} copy
+     * of their context: each requester's result is tied to their own context, so one of them cancelling only
+     * gives up their own wait, and the work (with its LLM calls) is stopped once all of them have.
+     */
+    public <K, T> CompletableFuture<T> submitShared(SingleFlight<K, T> flights, K key, GenerationContext context,
+                                                   Function<GenerationContext, CompletableFuture<T>> task) {
+        CompletableFuture<T> result = flights.execute(key, () -> {
+            GenerationContext shared = context.detached();
+            CompletableFuture<T> job = submit(shared, () -> task.apply(shared));
+            job.whenComplete((value, error) -> {
+                if (job.isCancelled()) {
+                    shared.cancel("Cancelled by everyone waiting for it");
+                }
+            });
+            return job;
+        });
+        return join(context, result);
+    }
+
+    /**
+     * Tie a requester's copy of a shared generation to their context, and to {@link #cancelAll} for them
+     */
+    private <T> CompletableFuture<T> join(GenerationContext context, CompletableFuture<T> result) {
+        String requester = context.getRequesterId();
+        synchronized (this) {
+            joined.computeIfAbsent(requester, key -> new HashSet<>()).add(context);
+        }
+        result.whenComplete((value, error) -> {
+            synchronized (this) {
+                Set<GenerationContext> contexts = joined.get(requester);
+                if (contexts != null && contexts.remove(context) && contexts.isEmpty()) {
+                    joined.remove(requester);
+                }
+            }
+        });
+        return context.getCancellation().track(result);
+    }
+
+    /**
+     * Cancel every queued and running generation of one requester, for example when they log off
+     *
+     * @return how many were cancelled
+     */
+    public int cancelAll(String requesterId, String reason) {
+        List<Job<?>> jobs;
+        List<GenerationContext> contexts = new ArrayList<>();
+        synchronized (this) {
+            jobs = new ArrayList<>(active.getOrDefault(requesterId, Collections.emptySet()));
+            contexts.addAll(joined.getOrDefault(requesterId, Collections.emptySet()));
+        }
+        // Queued jobs first, so stopping a running one does not hand its slot to another being cancelled
+        jobs.sort(Comparator.comparing(job -> job.started));
+        int count = 0;
+        for (Job<?> job : jobs) {
+            // Shared work is stopped through its requesters' own contexts, once none of them want it
+            if (!job.context.isDetached() && job.context.cancel(reason)) {
+                count++;
+            }
+        }
+        for (GenerationContext context : contexts) {
+            if (context.cancel(reason)) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            LOGGER.info("Cancelled {} generation(s) for {}: {}", count, requesterId, reason);
+        }
+        return count;
+    }
+
+    /**
+     * Budgets checked before a generation is accepted; null accepts everything the queue has room for
+     */
+    public void setQuota(GenerationQuota quota) {
+        this.quota = quota;
+    }
+
+    public GenerationQuota getQuota() {
+        return quota;
+    }
+
+    /**
+     * Executor for the CPU-side steps of a generation, such as parsing responses and building textures
+     */
+    public Executor getExecutor() {
+        return workers;
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized int getQueueDepth() {
+        return queued;
+    }
+
+    public synchronized int getQueueDepth(GenerationContext.Priority priority) {
+        return queues.get(priority).size;
+    }
+
+    public synchronized int getPeakQueueDepth() {
+        return peakQueued;
+    }
+
+    public long getSubmitted() { return submitted.get(); }
+    public long getRejected() { return rejected.get(); }
+    public long getCompleted() { return completed.get(); }
+    public long getFailed() { return failed.get(); }
+    public long getCancelled() { return cancelled.get(); }
+    public long getPreempted() { return preempted.get(); }
+    public long getMaxWaitMillis() { return maxWaitMillis.get(); }
+
+    public double getAverageWaitMillis() {
+        long count = started.get();
+        return count == 0 ? 0.0 : (double) totalWaitMillis.get() / count;
+    }
+
+    /**
+     * Time since a player last submitted a generation, or since the scheduler was created if none has
+     */
+    public long getMillisSinceInteractive() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastInteractiveNanos);
+    }
+
+    public String getStatsSummary() {
+        return String.format("%d running, %d queued (%d interactive, %d background, peak %d), " +
+                        "%d submitted, %d rejected, %d completed, %d failed, %d cancelled (%d preempted), wait avg %.0fms max %dms",
+                getRunning(), getQueueDepth(),
+                getQueueDepth(GenerationContext.Priority.INTERACTIVE), getQueueDepth(GenerationContext.Priority.BACKGROUND),
+                getPeakQueueDepth(), submitted.get(), rejected.get(), completed.get(), failed.get(), cancelled.get(),
+                preempted.get(), getAverageWaitMillis(), maxWaitMillis.get());
+    }
+
+    public void close() {
+        workers.shutdown();
+    }
+
+    /**
+     * Decide whether a request can be queued; returns the reason when it cannot.
+     * Background work only gets half the queue so interactive commands always have room.
+     */
+    private String checkCapacity(GenerationContext context) {
+        int limit = context.getPriority() == GenerationContext.Priority.BACKGROUND ? queueCapacity / 2 : queueCapacity;
+        if (queued >= limit) {
+            return String.format("Server is busy (%d generations queued), please try again shortly", queued);
+        }
+        int mine = 0;
+        for (FairQueue queue : queues.values()) {
+            mine += queue.countFor(context.getRequesterId());
+        }
+        if (mine >= maxQueuedPerRequester) {
+            return String.format("You already have %d generations queued, please wait for them to finish", mine);
+        }
+        return null;
+    }
+
+    private int aheadOf(GenerationContext.Priority priority) {
+        int ahead = 0;
+        for (GenerationContext.Priority other : GenerationContext.Priority.values()) {
+            ahead += queues.get(other).size;
+            if (other == priority) {
+                break;
+            }
+        }
+        return ahead;
+    }
+
+    private void preemptSpeculative() {
+        List<Job<?>> speculative = new ArrayList<>();
+        synchronized (this) {
+            for (Set<Job<?>> jobs : active.values()) {
+                for (Job<?> job : jobs) {
+                    if (job.context.getPriority() == GenerationContext.Priority.SPECULATIVE) {
+                        speculative.add(job);
+                    }
+                }
+            }
+        }
+        for (Job<?> job : speculative) {
+            if (job.context.cancel("Preempted by a player's generation")) {
+                preempted.incrementAndGet();
+            }
+        }
+    }
+
+    private void trackActive(Job<?> job) {
+        String requester = job.context.getRequesterId();
+        synchronized (this) {
+            active.computeIfAbsent(requester, key -> new HashSet<>()).add(job);
+        }
+        job.result.whenComplete((value, error) -> {
+            synchronized (this) {
+                Set<Job<?>> jobs = active.get(requester);
+                if (jobs != null && jobs.remove(job) && jobs.isEmpty()) {
+                    active.remove(requester);
+                }
+            }
+        });
+    }
+
+    private void start(Job<?> job) {
+        job.started = true;
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - job.enqueuedAt);
+        started.incrementAndGet();
+        totalWaitMillis.addAndGet(waited);
+        maxWaitMillis.accumulateAndGet(waited, Math::max);
+
+        try {
+            workers.execute(job::run);
+        } catch (RejectedExecutionException e) {
+            job.result.completeExceptionally(e);
+            finished(job, e);
+        }
+    }
+
+    private void finished(Job<?> job, Throwable error) {
+        if (error == null) {
+            completed.incrementAndGet();
+        } else if (Futures.unwrap(error) instanceof CancellationException) {
+            cancelled.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+
+        Job<?> next;
+        synchronized (this) {
+            next = pollNext();
+            if (next == null) {
+                running--;
+                return;
+            }
+        }
+        next.context.sendFeedback("Your generation is starting");
+        start(next);
+    }
+
+    /**
+     * Take the next job, highest priority first, skipping any whose caller has already given up
+     */
+    private Job<?> pollNext() {
+        for (GenerationContext.Priority priority : GenerationContext.Priority.values()) {
+            FairQueue queue = queues.get(priority);
+            Job<?> job;
+            while ((job = queue.poll()) != null) {
+                queued--;
+                if (!job.result.isDone()) {
+                    return job;
+                }
+                cancelled.incrementAndGet();
+            }
+        }
+        return null;
+    }
+
+    private final class Job<T> {
+        final GenerationContext context;
+        final Supplier<CompletableFuture<T>> task;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final long enqueuedAt = System.nanoTime();
+        volatile boolean started;
+
+        Job(GenerationContext context, Supplier<CompletableFuture<T>> task) {
+            this.context = context;
+            this.task = task;
+        }
+
+        void run() {
+            CompletableFuture<T> work;
+            try {
+                // Cancelled between leaving the queue and reaching a thread
+                context.getCancellation().throwIfCancelled();
+                work = task.get();
+            } catch (Throwable t) {
+                work = CompletableFuture.failedFuture(t);
+            }
+            Futures.propagateCancellation(result, work);
+            work.whenComplete((value, error) -> {
+                // Free the slot first so callers chaining more work onto the result can get it
+                finished(this, error);
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        }
+    }
+
+    /**
+     * Per-priority queue that hands out one job per requester in turn
+     */
+    private static final class FairQueue {
+        private final Map<String, ArrayDeque<Job<?>>> byRequester = new HashMap<>();
+        private final ArrayDeque<String> rotation = new ArrayDeque<>();
+        int size;
+
+        void add(Job<?> job) {
+            String requester = job.context.getRequesterId();
+            ArrayDeque<Job<?>> jobs = byRequester.get(requester);
+            if (jobs == null) {
+                jobs = new ArrayDeque<>();
+                byRequester.put(requester, jobs);
+                rotation.add(requester);
+            }
+            jobs.add(job);
+            size++;
+        }
+
+        Job<?> poll() {
+            String requester = rotation.poll();
+            if (requester == null) {
+                return null;
+            }
+            ArrayDeque<Job<?>> jobs = byRequester.get(requester);
+            Job<?> job = jobs.poll();
+            if (jobs.isEmpty()) {
+                byRequester.remove(requester);
+            } else {
+                rotation.add(requester);
+            }
+            size--;
+            return job;
+        }
+
+        int countFor(String requester) {
+            ArrayDeque<Job<?>> jobs = byRequester.get(requester);
+            return jobs == null ? 0 : jobs.size();
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.example.aimodgen.generation;
+
+import com.example.aimodgen.util.Futures;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Generates what players are likely to ask for while the server is idle, so the answers are in the
+ * response cache before anyone asks: the fire sword that takes twenty seconds the first time is then
+ * a cache hit. Likely requests are the descriptions players have asked for most often (see {@link RequestHistory}).
+ * One speculative generation runs at a time, only while the scheduler has nothing running or queued,
+ * no player has asked for anything for a while, the backend has nothing in flight and the server has more
+ * than a reserve of its daily tokens left (see {@link GenerationQuota}). A player's
+ * request preempts it straight away (see {@link GenerationScheduler}); preempted work is tried again later.
+ */
+public class PregenerationService {
+    private static final Logger LOGGER = LogManager.getLogger();
+    // Request counts are mined again this often, and everything is warmed again in case it left the cache
+    private static final long REFRESH_INTERVAL_MS = 60 * 60_000;
+    private static final long MAX_BACKOFF_MS = 30 * 60_000;
+    private static final Set<String> FILLER_WORDS = Set.of("a", "an", "the", "of", "some");
+
+    /**
+     * Sends the prompts a player's request would, so their answers end up cached
+     */
+    public interface Warmer {
+        CompletableFuture<?> warm(Prediction prediction, GenerationContext context);
+    }
+
+    private final GenerationScheduler scheduler;
+    private final Supplier<Collection<RequestHistory.Request>> history;
+    private final Warmer warmer;
+    private final BooleanSupplier backendIdle;
+    private final int maxPredictions;
+    private final long idleMillis;
+    private final long maxLatencyMillis;
+    private final long tokenReserve;
+    private final Clock clock;
+
+    // Guarded by this
+    // Null until the request history has been mined
+    private List<Prediction> predictions;
+    private final Set<String> warmed = new HashSet<>();
+    private long minedAt;
+    private long backoffMillis;
+    private long backoffUntil;
+    private CompletableFuture<?> current;
+    private GenerationContext currentContext;
+    private ScheduledExecutorService ticker;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong preempted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong slow = new AtomicLong();
+
+    /**
+     * @param history          requests so far, with how often each was asked for, to mine for likely requests
+     * @param backendIdle      whether the backend has nothing in flight, checked before each generation
+     * @param maxPredictions   how many of the most requested descriptions to keep warm
+     * @param idleMillis       how long since the last player request before speculative work starts
+     * @param maxLatencyMillis a speculative generation taking longer than this means the backend is busy
+     *                         with something else, so the next one waits, longer each time (0 to never wait)
+     * @param tokenReserve     tokens of the server's daily budget left to players: nothing is started once
+     *                         this many or fewer remain
+     */
+    public PregenerationService(GenerationScheduler scheduler, Supplier<Collection<RequestHistory.Request>> history,
+                                Warmer warmer, BooleanSupplier backendIdle, int maxPredictions, long idleMillis,
+                                long maxLatencyMillis, long tokenReserve, Clock clock) {
+        this.scheduler = scheduler;
+        this.history = history;
+        this.warmer = warmer;
+        this.backendIdle = backendIdle;
+        this.maxPredictions = maxPredictions;
+        this.idleMillis = idleMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.tokenReserve = tokenReserve;
+        this.clock = clock;
+    }
+
+    /**
+     * Check for idle time every interval from a background thread, until closed; starting again after
+     * closing picks up where it left off
+     */
+    public synchronized void start(long intervalMillis) {
+        if (ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aimod-pregen");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(() -> {
+            try {
+                tick();
+            } catch (Exception e) {
+                LOGGER.warn("Pre-generation check failed: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        LOGGER.info("Pre-generating up to {} popular requests when idle for {}s", maxPredictions, idleMillis / 1000);
+    }
+
+    /**
+     * Stop checking and cancel the speculative generation in progress, if any
+     */
+    public synchronized void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+        if (currentContext != null) {
+            currentContext.cancel("Pre-generation stopped");
+        }
+    }
+
+    /**
+     * Start the next speculative generation if the server is idle and one is not already running
+     *
+     * @return whether one was started
+     */
+    public synchronized boolean tick() {
+        if (current != null && !current.isDone()) {
+            return false;
+        }
+        long now = clock.millis();
+        if (now < backoffUntil || !isIdle() || !hasTokensToSpare()) {
+            return false;
+        }
+        if (predictions == null || now - minedAt >= REFRESH_INTERVAL_MS) {
+            predictions = predict(history.get(), maxPredictions);
+            warmed.clear();
+            minedAt = now;
+        }
+
+        Prediction next = null;
+        for (Prediction prediction : predictions) {
+            if (!warmed.contains(prediction.getKey())) {
+                next = prediction;
+                break;
+            }
+        }
+        if (next == null) {
+            return false;
+        }
+
+        Prediction prediction = next;
+        GenerationContext context = GenerationContext.speculative();
+        warmed.add(prediction.getKey());
+        LOGGER.debug("Pre-generating {} '{}' (asked for {} times)", prediction.getType(), prediction.getDescription(),
+                prediction.getCount());
+        currentContext = context;
+        current = scheduler.submit(context, () -> warmer.warm(prediction, context));
+        current.whenComplete((result, error) -> finished(prediction, now, error));
+        return true;
+    }
+
+    /**
+     * The most often requested descriptions, most requested first. Descriptions differing only in case,
+     * punctuation or articles count as the same request; each is predicted in the wording players used
+     * most, since that is what the response cache will be asked for.
+     */
+    public static List<Prediction> predict(Collection<RequestHistory.Request> requests, int limit) {
+        Map<String, Map<String, Integer>> wordings = new HashMap<>();
+        Map<String, ContentType> types = new HashMap<>();
+        for (RequestHistory.Request request : requests) {
+            String description = request.getDescription();
+            if (description == null || description.isBlank()) {
+                continue;
+            }
+            String key = request.getType() + ":" + normalize(description);
+            wordings.computeIfAbsent(key, k -> new HashMap<>()).merge(description.trim(), request.getCount(), Integer::sum);
+            types.put(key, request.getType());
+        }
+
+        List<Prediction> predictions = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Integer>> entry : wordings.entrySet()) {
+            Map<String, Integer> counts = entry.getValue();
+            String wording = Collections.max(counts.entrySet(), Map.Entry.<String, Integer>comparingByValue()
+                    .thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder()))).getKey();
+            int total = counts.values().stream().mapToInt(Integer::intValue).sum();
+            predictions.add(new Prediction(types.get(entry.getKey()), wording, total));
+        }
+        predictions.sort(Comparator.comparingInt(Prediction::getCount).reversed()
+                .thenComparing(Prediction::getDescription));
+        return predictions.size() > limit ? new ArrayList<>(predictions.subList(0, limit)) : predictions;
+    }
+
+    public synchronized List<Prediction> getPredictions() {
+        return predictions == null ? Collections.emptyList() : Collections.unmodifiableList(predictions);
+    }
+
+    public long getCompleted() { return completed.get(); }
+    public long getPreempted() { return preempted.get(); }
+    public long getFailed() { return failed.get(); }
+
+    public String getStatsSummary() {
+        int predicted;
+        int warmedCount;
+        synchronized (this) {
+            predicted = predictions == null ? 0 : predictions.size();
+            warmedCount = warmed.size();
+        }
+        return String.format("%d of %d predicted requests warmed, %d completed, %d preempted, %d failed, %d slow",
+                warmedCount, predicted, completed.get(), preempted.get(), failed.get(), slow.get());
+    }
+
+    private boolean isIdle() {
+        return scheduler.getRunning() == 0 && scheduler.getQueueDepth() == 0
+                && scheduler.getMillisSinceInteractive() >= idleMillis && backendIdle.getAsBoolean();
+    }
+
+    /**
+     * Whether the server has more than the reserve of its daily tokens left; pre-generation's own tokens
+     * are not taken from them, but players may want all that remain
+     */
+    private boolean hasTokensToSpare() {
+        GenerationQuota quota = scheduler.getQuota();
+        return quota == null || quota.globalTokensRemaining() > tokenReserve;
+    }
+
+    private synchronized void finished(Prediction prediction, long startedAt, Throwable error) {
+        currentContext = null;
+        if (error != null) {
+            Throwable cause = Futures.unwrap(error);
+            if (cause instanceof CancellationException || cause instanceof RejectedExecutionException) {
+                // A player needed the slot or got there first; it is still worth warming once they are done
+                preempted.incrementAndGet();
+                warmed.remove(prediction.getKey());
+            } else {
+                failed.incrementAndGet();
+                LOGGER.debug("Pre-generating '{}' failed: {}", prediction.getDescription(), error.getMessage());
+            }
+            return;
+        }
+
+        completed.incrementAndGet();
+        long now = clock.millis();
+        if (maxLatencyMillis > 0 && now - startedAt > maxLatencyMillis) {
+            // The backend is slow with nothing else of ours running, so something else has the GPU
+            slow.incrementAndGet();
+            backoffMillis = Math.min(MAX_BACKOFF_MS, Math.max(maxLatencyMillis, backoffMillis * 2));
+            backoffUntil = now + backoffMillis;
+        } else {
+            backoffMillis = 0;
+        }
+    }
+
+    private static String normalize(String description) {
+        List<String> words = new ArrayList<>();
+        for (String word : description.toLowerCase().split("[^a-z0-9]+")) {
+            if (!word.isEmpty() && !FILLER_WORDS.contains(word)) {
+                words.add(word);
+            }
+        }
+        return String.join(" ", words);
+    }
+
+    /**
+     * A description players are expected to ask for again
+     */
+    public static final class Prediction {
+        private final ContentType type;
+        private final String description;
+        private final int count;
+
+        Prediction(ContentType type, String description, int count) {
+            this.type = type;
+            this.description = description;
+            this.count = count;
+        }
+
+        public ContentType getType() {
+            return type;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * How many times this description or one like it was asked for
+         */
+        public int getCount() {
+            return count;
+        }
+
+        String getKey() {
+            return type + ":" + description;
+        }
+    }
+}
@@ -12,18 +12,45 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
 
 public class RecipeGenerator {
     private static final Logger LOGGER = LogManager.getLogger();
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();    public static void generateRecipe(GeneratedContent content) {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    public static void generateRecipe(GeneratedContent content) {
+        generateRecipeAsync(content).join();
+    }
+
+    /**
+     * Ask the AI for a recipe without holding a thread during the LLM call
+     */
+    public static CompletableFuture<Void> generateRecipeAsync(GeneratedContent content) {
+        return requestRecipeAsync(content, null, null).thenAccept(response -> saveRecipe(content, response));
+    }
+
+    /**
+     * Ask the AI for a recipe as part of the given conversation, on behalf of the given requester;
+     * a failed call yields null so the default recipe is used
+     */
+    static CompletableFuture<String> requestRecipeAsync(GeneratedContent content, String conversation,
+                                                        GenerationContext context) {
+        String recipePrompt = createRecipePrompt(content.getName() + ": " + content.getDescription());
+        return AiModGenerator.getInstance().getLlmService().generateModContentAsync(recipePrompt, conversation, ContentSchemas.RECIPE, context)
+            .exceptionally(e -> null);
+    }
+
+    static String createRecipePrompt(String subject) {
+        return String.format("Generate a balanced Minecraft crafting recipe for %s. " +
+            "Return a JSON object with 'type' (shaped or shapeless), 'pattern' (for shaped), " +
+            "'ingredients', and 'result' fields.", subject);
+    }
+
+    /**
+     * Save the recipe from an AI response, or a default recipe if the response is missing or unusable
+     */
+    static void saveRecipe(GeneratedContent content, String response) {
         try {
-            // Get recipe from AI
-            String recipePrompt = String.format("Generate a balanced Minecraft crafting recipe for %s: %s. " +
-                "Return a JSON object with 'type' (shaped or shapeless), 'pattern' (for shaped), " +
-                "'ingredients', and 'result' fields.", 
-                content.getName(), content.getDescription());
-            String response = AiModGenerator.getInstance().getLlmService().generateModContent(recipePrompt);
-            
             JsonObject recipe = parseRecipeResponse(response, content);
             if (recipe == null) {
                 // Generate default recipe if AI fails
@@ -45,32 +72,20 @@ public class RecipeGenerator {
     }
 
     private static JsonObject parseRecipeResponse(String response, GeneratedContent content) {
-        try {
-            // Try to extract JSON from response
-            String jsonString = response;
-            int startIndex = response.indexOf("{");
-            int endIndex = response.lastIndexOf("}");
-            
-            if (startIndex != -1 && endIndex != -1 && endIndex > startIndex) {
-                jsonString = response.substring(startIndex, endIndex + 1);
-            }
-            
-            JsonObject parsed = GSON.fromJson(jsonString, JsonObject.class);
-            
-            // Validate the recipe has required fields
-            if (parsed != null && parsed.has("type") && parsed.has("result")) {
-                // Set the correct result item/block
-                JsonObject result = new JsonObject();
-                result.addProperty("item", AiModGenerator.MOD_ID + ":" + content.getId());
-                result.addProperty("count", 1);
-                parsed.add("result", result);
-                
-                return parsed;
-            }
-        } catch (Exception e) {
-            LOGGER.warn("Failed to parse recipe response: " + e.getMessage());
+        // Repairs and type-checks the answer; the result is replaced below, so only the type is required
+        JsonObject parsed = ContentSchemas.RECIPE.parse(response);
+        if (parsed == null) {
+            LOGGER.warn("Failed to parse recipe response");
+            return null;
         }
-        return null;
+
+        // Set the correct result item/block
+        JsonObject result = new JsonObject();
+        result.addProperty("item", AiModGenerator.MOD_ID + ":" + content.getId());
+        result.addProperty("count", 1);
+        parsed.add("result", result);
+
+        return parsed;
     }
 
     private static JsonObject generateDefaultRecipe(GeneratedContent content) {
@@ -0,0 +1,172 @@
+package com.example.aimodgen.generation;
+
+import com.example.aimodgen.persistence.WriteBehind;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How often each description has been asked for, counted as generations are requested. Saved content
+ * cannot tell this: asking again for something already generated is answered from the response cache
+ * and saves the same content over the old, so every description there looks asked for once. Counts
+ * are saved in the background so popularity survives restarts.
+ */
+public class RequestHistory {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final String DEFAULT_FILE = "config/aimodgenerator/request_history.json";
+    private static final long SAVE_INTERVAL_MS = 30_000;
+    // The least asked for wordings are forgotten beyond this many
+    private static final int MAX_WORDINGS = 2000;
+
+    private static RequestHistory shared;
+
+    private final Path file;
+    // Null when nothing is saved
+    private final WriteBehind<String, Integer> writes;
+
+    // Guarded by this; keyed by type and wording
+    private final Map<String, Request> requests = new LinkedHashMap<>();
+
+    /**
+     * @param file where counts are kept across restarts, or null to keep them in memory only
+     */
+    public RequestHistory(Path file) {
+        this.file = file;
+        this.writes = file == null ? null : new WriteBehind<>("request history", changes -> save(), SAVE_INTERVAL_MS);
+        load();
+    }
+
+    public static synchronized RequestHistory shared() {
+        if (shared == null) {
+            shared = new RequestHistory(Paths.get(DEFAULT_FILE));
+        }
+        return shared;
+    }
+
+    /**
+     * Count a request for the description, in the wording it was asked in
+     */
+    public void record(ContentType type, String description) {
+        if (description == null || description.isBlank()) {
+            return;
+        }
+        String wording = description.trim();
+        String key = type + ":" + wording;
+        int count;
+        synchronized (this) {
+            Request request = requests.get(key);
+            count = request == null ? 1 : request.count + 1;
+            requests.put(key, new Request(type, wording, count));
+            if (requests.size() > MAX_WORDINGS) {
+                forgetLeastRequested();
+            }
+        }
+        if (writes != null) {
+            writes.put(key, count);
+        }
+    }
+
+    /**
+     * Every wording asked for, with how often
+     */
+    public synchronized List<Request> getRequests() {
+        return new ArrayList<>(requests.values());
+    }
+
+    /**
+     * Save the counts now
+     */
+    public void flush() {
+        if (writes != null) {
+            writes.flush();
+        }
+    }
+
+    // Callers hold the lock
+    private void forgetLeastRequested() {
+        String least = Collections.min(requests.entrySet(),
+                Comparator.comparingInt((Map.Entry<String, Request> entry) -> entry.getValue().count)).getKey();
+        requests.remove(least);
+    }
+
+    // Only called by the write-behind, which writes one batch at a time, so the temporary file is not shared
+    private void save() throws IOException {
+        JsonArray saved = new JsonArray();
+        synchronized (this) {
+            for (Request request : requests.values()) {
+                JsonObject entry = new JsonObject();
+                entry.addProperty("type", request.type.name());
+                entry.addProperty("description", request.description);
+                entry.addProperty("count", request.count);
+                saved.add(entry);
+            }
+        }
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, GSON.toJson(saved));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void load() {
+        if (file == null || !Files.exists(file)) {
+            return;
+        }
+        try {
+            JsonArray saved = GSON.fromJson(Files.readString(file), JsonArray.class);
+            for (JsonElement element : saved) {
+                JsonObject entry = element.getAsJsonObject();
+                ContentType type = ContentType.valueOf(entry.get("type").getAsString());
+                String description = entry.get("description").getAsString();
+                requests.put(type + ":" + description, new Request(type, description, entry.get("count").getAsInt()));
+            }
+        } catch (Exception e) {
+            // Only pre-generation uses the counts, and it builds them up again
+            LOGGER.warn("Failed to load request history, starting from nothing: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A description in one wording, and how often it was asked for
+     */
+    public static final class Request {
+        private final ContentType type;
+        private final String description;
+        private final int count;
+
+        public Request(ContentType type, String description, int count) {
+            this.type = type;
+            this.description = description;
+            this.count = count;
+        }
+
+        public ContentType getType() {
+            return type;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.example.aimodgen.generation;
 
 import com.example.aimodgen.AiModGenerator;
-import com.google.gson.Gson;
+import com.example.aimodgen.ai.LLMService;
+import com.example.aimodgen.persistence.TexturePack;
+import com.example.aimodgen.persistence.TextureStore;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import net.minecraft.resources.ResourceLocation;
@@ -13,11 +15,7 @@ import java.awt.image.BufferedImage;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.io.ByteArrayInputStream;
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.Base64;
 import java.util.List;
 import java.util.ArrayList;
@@ -27,12 +25,17 @@ import java.util.regex.Pattern;
 
 public class TextureGenerator {
     private static final Logger LOGGER = LogManager.getLogger();
-    private static final Gson gson = new Gson();
     
     public static ResourceLocation generateTexture(String name, String description, String type) {
         try {
+            LLMService llmService = AiModGenerator.getInstance().getLlmService();
+            if (!llmService.isAvailable()) {
+                LOGGER.info("LLM backend unavailable, using advanced fallback for {}", name);
+                return generateAdvancedTexture(name, description, type);
+            }
+
             // Generate texture using AI
-            String aiResponse = AiModGenerator.getInstance().getLlmService().generateTexture(description);
+            String aiResponse = llmService.generateTexture(description);
             if (aiResponse == null || aiResponse.isEmpty()) {
                 LOGGER.warn("AI failed to generate texture for {}, using advanced fallback", name);
                 return generateAdvancedTexture(name, description, type);
@@ -66,24 +69,11 @@ public class TextureGenerator {
      * Parse AI response to extract texture description JSON
      */
     private static JsonObject parseTextureResponse(String response) {
-        try {
-            // Try to extract JSON from response
-            String jsonString = response;
-            int startIndex = response.indexOf("{");
-            int endIndex = response.lastIndexOf("}");
-            
-            if (startIndex != -1 && endIndex != -1 && endIndex > startIndex) {
-                jsonString = response.substring(startIndex, endIndex + 1);
-            }
-            
-            JsonObject parsed = gson.fromJson(jsonString, JsonObject.class);
-            
-            // Validate that it has texture-related fields
-            if (parsed != null && (parsed.has("colorPalette") || parsed.has("description") || parsed.has("base64"))) {
-                return parsed;
-            }
-        } catch (Exception e) {
-            LOGGER.warn("Failed to parse texture response as JSON: {}", e.getMessage());
+        JsonObject parsed = ContentSchemas.TEXTURE.parse(response);
+
+        // Validate that it has texture-related fields
+        if (parsed != null && (parsed.has("colorPalette") || parsed.has("description") || parsed.has("base64"))) {
+            return parsed;
         }
         return null;
     }
@@ -334,20 +324,13 @@ public class TextureGenerator {
     }
     
     /**
-     * Save texture image to file
+     * Save texture image to the texture pack, which the game loads it from
      */
     private static ResourceLocation saveTexture(String name, BufferedImage image, String type) {
         try {
-            // Ensure resources directory exists
-            String directory = "src/main/resources/assets/" + AiModGenerator.MOD_ID + "/textures/" + type;
-            Path dirPath = Paths.get(directory);
-            Files.createDirectories(dirPath);
-
-            // Save image
-            File outputFile = new File(dirPath.toFile(), name + ".png");
-            ImageIO.write(image, "PNG", outputFile);
+            TexturePack.shared().putPng(type + "/" + name, TextureStore.encodePng(image));
 
-            LOGGER.info("Generated texture for {} at {}", name, outputFile.getPath());
+            LOGGER.info("Generated texture for {} as {}/{}", name, type, name);
             return new ResourceLocation(AiModGenerator.MOD_ID, "textures/" + type + "/" + name);
             
         } catch (IOException e) {
@@ -429,16 +412,10 @@ public class TextureGenerator {
             g2d.drawRect(0, 0, 15, 15);
             g2d.dispose();
 
-            // Ensure resources directory exists
-            String directory = "src/main/resources/assets/" + AiModGenerator.MOD_ID + "/textures/" + type;
-            Path dirPath = Paths.get(directory);
-            Files.createDirectories(dirPath);
-
-            // Save default image
-            File outputFile = new File(dirPath.toFile(), name + ".png");
-            ImageIO.write(image, "PNG", outputFile);
+            // Save default image to the texture pack
+            TexturePack.shared().putPng(type + "/" + name, TextureStore.encodePng(image));
 
-            LOGGER.info("Generated default texture for {} at {}", name, outputFile.getPath());
+            LOGGER.info("Generated default texture for {} as {}/{}", name, type, name);
             return new ResourceLocation(AiModGenerator.MOD_ID, "textures/" + type + "/" + name);
         } catch (IOException e) {
             LOGGER.error("Failed to generate default texture: {}", e.getMessage());
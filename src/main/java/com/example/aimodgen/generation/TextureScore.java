@@ -0,0 +1,55 @@
+package com.example.aimodgen.generation;
+
+import java.awt.image.BufferedImage;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A rough 0 to 1 measure of how usable a generated texture looks, used to pick between textures that
+ * several strategies produced. It rewards what a 16x16 sprite needs to read well in game: enough visible
+ * pixels, several colours and contrast between them. A flat or empty image scores near zero.
+ */
+public final class TextureScore {
+    // Colours beyond this add nothing more to the score
+    private static final int FULL_COLORS = 8;
+    // Standard deviation of luminance (0-255) that counts as full contrast
+    private static final double FULL_CONTRAST = 48.0;
+    // Item sprites are mostly transparent, so a small share of visible pixels is enough
+    private static final double FULL_COVERAGE = 0.15;
+
+    private TextureScore() {
+    }
+
+    public static double score(BufferedImage image) {
+        if (image == null) {
+            return 0.0;
+        }
+
+        Set<Integer> colors = new HashSet<>();
+        int visible = 0;
+        double sum = 0;
+        double sumSquares = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int argb = image.getRGB(x, y);
+                if ((argb >>> 24) < 16) {
+                    continue;
+                }
+                visible++;
+                colors.add(argb & 0xFFFFFF);
+                double luminance = 0.299 * ((argb >> 16) & 0xFF) + 0.587 * ((argb >> 8) & 0xFF) + 0.114 * (argb & 0xFF);
+                sum += luminance;
+                sumSquares += luminance * luminance;
+            }
+        }
+        if (visible == 0) {
+            return 0.0;
+        }
+
+        double coverage = Math.min(1.0, visible / (double) (image.getWidth() * image.getHeight()) / FULL_COVERAGE);
+        double variety = Math.min(1.0, (colors.size() - 1) / (double) (FULL_COLORS - 1));
+        double mean = sum / visible;
+        double contrast = Math.min(1.0, Math.sqrt(Math.max(0, sumSquares / visible - mean * mean)) / FULL_CONTRAST);
+        return 0.2 * coverage + 0.4 * variety + 0.4 * contrast;
+    }
+}
@@ -3,13 +3,19 @@ package com.example.aimodgen.integration;
 import com.example.aimodgen.generation.AdvancedTextureGenerator;
 import com.example.aimodgen.generation.ContentGenerator;
 import com.example.aimodgen.generation.GeneratedContent;
+import com.example.aimodgen.generation.GenerationContext;
+import com.example.aimodgen.generation.GenerationScheduler;
 import net.minecraft.resources.ResourceLocation;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Enhanced AI-powered content generation service that integrates advanced texture generation
@@ -23,7 +29,7 @@ public class EnhancedContentGenerationService {
     private final Map<String, TextureGenerationProfile> userProfiles;
       private EnhancedContentGenerationService() {
         this.contentGenerator = ContentGenerator.getInstance();
-        this.userProfiles = new HashMap<>();
+        this.userProfiles = new ConcurrentHashMap<>();
     }
     
     public static EnhancedContentGenerationService getInstance() {
@@ -35,45 +41,55 @@ public class EnhancedContentGenerationService {
      * Generate content with enhanced AI capabilities
      */
     public CompletableFuture<GeneratedContent> generateEnhancedContent(String description, EnhancedGenerationOptions options) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                LOGGER.info("Starting enhanced content generation for: {}", description);
-                
-                // Analyze the description for better understanding
-                DescriptionAnalysis analysis = analyzeDescription(description);
-                
-                // Generate base content using existing system
-                CompletableFuture<GeneratedContent> contentFuture = generateBaseContent(description, analysis);
-                GeneratedContent baseContent = contentFuture.get();
-                
-                if (baseContent == null) {
-                    throw new RuntimeException("Failed to generate base content");
-                }
-                
-                // Enhance the texture using advanced generation
-                if (options.enhanceTextures) {
-                    enhanceContentTexture(baseContent, analysis, options);
-                }
-                
+        return generateEnhancedContent(description, options, GenerationContext.background());
+    }
+
+    /**
+     * Generate content with enhanced AI capabilities on behalf of the given requester.
+     * Nothing here blocks a thread: each step is chained onto the previous one and runs on the generation scheduler.
+     */
+    public CompletableFuture<GeneratedContent> generateEnhancedContent(String description, EnhancedGenerationOptions options,
+                                                                       GenerationContext context) {
+        LOGGER.info("Starting enhanced content generation for: {}", description);
+
+        // Analyze the description for better understanding
+        DescriptionAnalysis analysis = analyzeDescription(description);
+
+        // Generate base content using existing system
+        return generateBaseContent(description, analysis, context).thenComposeAsync(baseContent -> {
+            if (baseContent == null) {
+                throw new RuntimeException("Failed to generate base content");
+            }
+
+            // Enhance the texture using advanced generation
+            CompletableFuture<Void> textureEnhancement = options.enhanceTextures
+                ? enhanceContentTexture(baseContent, analysis, options, context)
+                : CompletableFuture.completedFuture(null);
+
+            return textureEnhancement.thenApply(done -> {
+                context.getCancellation().throwIfCancelled();
+
                 // Apply user preferences if available
                 if (options.userId != null) {
                     applyUserPreferences(baseContent, options.userId, analysis);
                 }
-                
+
                 LOGGER.info("Enhanced content generation completed for: {}", description);
                 return baseContent;
-                
-            } catch (Exception e) {
-                LOGGER.error("Enhanced content generation failed for '{}': {}", description, e.getMessage());
-                // Fallback to basic generation
-                try {
-                    CompletableFuture<GeneratedContent> fallbackFuture = generateBasicFallback(description);
-                    return fallbackFuture.get();
-                } catch (Exception fallbackError) {
-                    LOGGER.error("Fallback generation also failed: {}", fallbackError.getMessage());
-                    throw new RuntimeException("All content generation attempts failed", e);
-                }
+            });
+        }, GenerationScheduler.shared().getExecutor()).exceptionallyCompose(e -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RejectedExecutionException) {
+                // The scheduler is full; a fallback generation would only be turned away too
+                return CompletableFuture.failedFuture(cause);
             }
+            if (context.isCancelled() || cause instanceof CancellationException) {
+                // Nobody is waiting for the result, so there is nothing to fall back for
+                return CompletableFuture.failedFuture(new CancellationException(context.getCancellation().getReason()));
+            }
+            LOGGER.error("Enhanced content generation failed for '{}': {}", description, cause.getMessage());
+            // Fallback to basic generation
+            return generateBasicFallback(description, context);
         });
     }
     
@@ -141,73 +157,67 @@ public class EnhancedContentGenerationService {
         
         return analysis;
     }
-      /**
+    /**
      * Generate base content using existing content generation system
      */
-    private CompletableFuture<GeneratedContent> generateBaseContent(String description, DescriptionAnalysis analysis) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // Use the existing content generator but with enhanced context
-                Map<String, String> properties = new HashMap<>();
-                properties.put("type", analysis.itemType);
-                properties.put("subType", analysis.subType);
-                properties.put("material", analysis.material);
-                properties.put("element", analysis.element);
-                properties.put("style", analysis.style);
-                properties.put("complexity", String.valueOf(analysis.complexityLevel));
-                
-                // Generate item and then extract the GeneratedContent from the content generator's internal map
-                contentGenerator.generateItem(description, properties).get();
-                
-                // Access the generated content from the content generator
-                // We need to find the content that was just generated
-                Map<String, GeneratedContent> allContent = contentGenerator.listContent();
-                
-                // Find the most recently generated content matching our description
-                GeneratedContent result = allContent.values().stream()
-                    .filter(content -> content.getDescription().equals(description))
-                    .reduce((first, second) -> second) // Get the last one (most recent)
-                    .orElse(null);
-                
-                return result;
-            } catch (Exception e) {
+    private CompletableFuture<GeneratedContent> generateBaseContent(String description, DescriptionAnalysis analysis,
+                                                                    GenerationContext context) {
+        // Use the existing content generator but with enhanced context
+        Map<String, String> properties = new HashMap<>();
+        properties.put("type", analysis.itemType);
+        properties.put("subType", analysis.subType);
+        properties.put("material", analysis.material);
+        properties.put("element", analysis.element);
+        properties.put("style", analysis.style);
+        properties.put("complexity", String.valueOf(analysis.complexityLevel));
+
+        return contentGenerator.generateItem(description, properties, context).handle((item, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof RejectedExecutionException) {
+                    throw new CompletionException(cause);
+                }
                 LOGGER.error("Base content generation failed: {}", e.getMessage());
                 return null;
             }
+            return findGeneratedContent(description);
         });
     }
     
     /**
      * Generate basic fallback content
      */
-    private CompletableFuture<GeneratedContent> generateBasicFallback(String description) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // Simple fallback generation
-                Map<String, String> basicProperties = new HashMap<>();
-                basicProperties.put("type", "generic");
-                basicProperties.put("fallback", "true");
-                
-                contentGenerator.generateItem(description, basicProperties).get();
-                
-                // Return the generated content
-                Map<String, GeneratedContent> allContent = contentGenerator.listContent();
-                return allContent.values().stream()
-                    .filter(content -> content.getDescription().equals(description))
-                    .reduce((first, second) -> second)
-                    .orElse(null);
-                    
-            } catch (Exception e) {
+    private CompletableFuture<GeneratedContent> generateBasicFallback(String description, GenerationContext context) {
+        // Simple fallback generation
+        Map<String, String> basicProperties = new HashMap<>();
+        basicProperties.put("type", "generic");
+        basicProperties.put("fallback", "true");
+
+        return contentGenerator.generateItem(description, basicProperties, context).handle((item, e) -> {
+            if (e != null) {
                 LOGGER.error("Fallback content generation failed: {}", e.getMessage());
                 return null;
             }
+            return findGeneratedContent(description);
         });
     }
+
+    /**
+     * Find the most recently generated content matching a description in the content generator's map
+     */
+    private GeneratedContent findGeneratedContent(String description) {
+        Map<String, GeneratedContent> allContent = contentGenerator.listContent();
+        return allContent.values().stream()
+            .filter(content -> content.getDescription().equals(description))
+            .reduce((first, second) -> second) // Get the last one (most recent)
+            .orElse(null);
+    }
     
     /**
      * Enhance content texture using advanced generation
      */
-    private void enhanceContentTexture(GeneratedContent content, DescriptionAnalysis analysis, EnhancedGenerationOptions options) {
+    private CompletableFuture<Void> enhanceContentTexture(GeneratedContent content, DescriptionAnalysis analysis,
+                                                          EnhancedGenerationOptions options, GenerationContext context) {
         try {
             AdvancedTextureGenerator.TextureGenerationOptions textureOptions = 
                 AdvancedTextureGenerator.TextureGenerationOptions.defaultOptions();
@@ -216,6 +226,7 @@ public class EnhancedContentGenerationService {
             textureOptions.style = analysis.style;
             textureOptions.detailLevel = analysis.complexityLevel;
             textureOptions.useEnhancedPrompts = options.useAdvancedAI;
+            textureOptions.context = context;
             
             // Add style parameters
             if (analysis.isMagical) {
@@ -238,15 +249,19 @@ public class EnhancedContentGenerationService {
                     textureOptions
                 );
             
-            // Wait for texture generation to complete
-            ResourceLocation enhancedTexture = textureGeneration.get();
-            if (enhancedTexture != null) {
-                LOGGER.info("Enhanced texture generated for: {}", content.getId());
-            }
+            return textureGeneration.handle((enhancedTexture, e) -> {
+                if (e != null) {
+                    LOGGER.warn("Texture enhancement failed for {}: {}", content.getId(), e.getMessage());
+                } else if (enhancedTexture != null) {
+                    LOGGER.info("Enhanced texture generated for: {}", content.getId());
+                }
+                return null;
+            });
             
         } catch (Exception e) {
             LOGGER.warn("Texture enhancement failed for {}: {}", content.getId(), e.getMessage());
             // Texture enhancement failure doesn't break the overall process
+            return CompletableFuture.completedFuture(null);
         }
     }
     
@@ -254,11 +269,7 @@ public class EnhancedContentGenerationService {
      * Apply user preferences to generated content
      */
     private void applyUserPreferences(GeneratedContent content, String userId, DescriptionAnalysis analysis) {
-        TextureGenerationProfile profile = userProfiles.get(userId);
-        if (profile == null) {
-            profile = new TextureGenerationProfile();
-            userProfiles.put(userId, profile);
-        }
+        TextureGenerationProfile profile = userProfiles.computeIfAbsent(userId, id -> new TextureGenerationProfile());
         
         // Learn from this generation
         profile.recordGeneration(analysis.itemType, analysis.style, analysis.material);
@@ -348,7 +359,7 @@ public class EnhancedContentGenerationService {
         private final Map<String, Integer> stylePreferences = new HashMap<>();
         private final Map<String, Integer> materialPreferences = new HashMap<>();
         
-        public void recordGeneration(String itemType, String style, String material) {
+        public synchronized void recordGeneration(String itemType, String style, String material) {
             itemTypePreferences.merge(itemType, 1, Integer::sum);
             stylePreferences.merge(style, 1, Integer::sum);
             materialPreferences.merge(material, 1, Integer::sum);
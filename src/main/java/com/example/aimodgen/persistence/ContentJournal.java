@@ -0,0 +1,385 @@
+package com.example.aimodgen.persistence;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Content records kept as a snapshot plus an append-only journal of the puts and deletes since, so saving
+ * one change writes one line instead of the whole library. Each journal line carries a CRC32 of its record;
+ * on open the snapshot is read and the journal replayed up to the first torn or corrupt line, which is cut
+ * off along with everything after it. Appends reach the OS straight away and are fsynced together once per
+ * sync interval, so a crash loses at most that interval's changes. Once the journal holds enough records
+ * it is compacted: the current state is written to a new binary snapshot ({@link ContentSnapshot}), and the
+ * journal is emptied. Replaying a journal over a snapshot that already has its changes is harmless, so a
+ * crash between the two steps loses nothing.
+ */
+public class ContentJournal implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Gson RECORD_GSON = new Gson();
+    private static final ScheduledExecutorService SYNCER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "aimod-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path snapshotFile;
+    private final Path legacySnapshotFile;
+    private final Path journalFile;
+    private final long syncIntervalMillis;
+    private final int compactAfterRecords;
+    private volatile TextureStore textureStore;
+    private volatile Function<String, String> textureNames;
+
+    // Guarded by this
+    private final Map<String, ContentRecord> records = new LinkedHashMap<>();
+    private FileChannel journal;
+    private int journalRecords;
+    private boolean unsynced;
+    private boolean syncScheduled;
+
+    private final AtomicLong appends = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong discardedBytes = new AtomicLong();
+
+    /**
+     * @param syncIntervalMillis  how long appends may wait to be fsynced together (0 to fsync every append)
+     * @param compactAfterRecords journal records that trigger a compaction, once they outnumber the live records
+     */
+    public ContentJournal(Path snapshotFile, Path journalFile, long syncIntervalMillis, int compactAfterRecords) {
+        this(snapshotFile, null, journalFile, syncIntervalMillis, compactAfterRecords);
+    }
+
+    /**
+     * @param legacySnapshotFile snapshot in the JSON format, read instead if there is no binary snapshot yet and
+     *                           converted to one once the journal has been replayed over it (null for none)
+     */
+    public ContentJournal(Path snapshotFile, Path legacySnapshotFile, Path journalFile, long syncIntervalMillis,
+                          int compactAfterRecords) {
+        this.snapshotFile = snapshotFile;
+        this.legacySnapshotFile = legacySnapshotFile;
+        this.journalFile = journalFile;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.compactAfterRecords = Math.max(1, compactAfterRecords);
+    }
+
+    /**
+     * Where records refer to their textures, and under what name each key's texture is linked there. A
+     * snapshot from before the texture store holds the textures themselves; opening it moves them into the
+     * store and links them, as saving the records would have. Set before opening; without it, textures
+     * go into the shared store and are not linked.
+     */
+    public void setTextures(TextureStore textureStore, Function<String, String> textureNames) {
+        this.textureStore = textureStore;
+        this.textureNames = textureNames;
+    }
+
+    /**
+     * Read the snapshot and replay the journal, recovering from a crash if the last write was torn.
+     * Does nothing if already open.
+     */
+    public synchronized void open() throws IOException {
+        if (journal != null) {
+            return;
+        }
+        records.clear();
+        Files.deleteIfExists(ContentSnapshot.temporaryFile(snapshotFile));
+        TextureStore textures = textureStore != null ? textureStore : TextureStore.shared();
+        boolean legacy = false;
+        boolean texturesToLink = false;
+        if (Files.exists(snapshotFile)) {
+            texturesToLink = ContentSnapshot.holdsTextureBytes(snapshotFile);
+            records.putAll(ContentSnapshot.read(snapshotFile, textures));
+        } else if (legacySnapshotFile != null && Files.exists(legacySnapshotFile)) {
+            records.putAll(ContentSnapshot.readJson(legacySnapshotFile));
+            legacy = true;
+        }
+
+        Files.createDirectories(journalFile.toAbsolutePath().getParent());
+        journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long valid = replay(Files.readAllBytes(journalFile));
+        long size = journal.size();
+        if (valid < size) {
+            LOGGER.warn("Discarding {} bytes of torn or corrupt journal at the end of {}", size - valid, journalFile);
+            discardedBytes.addAndGet(size - valid);
+            journal.truncate(valid);
+            journal.force(false);
+        }
+        journal.position(valid);
+
+        if (texturesToLink && textureNames != null) {
+            // The records as replayed are the current state, so their hashes are what the names refer to
+            for (Map.Entry<String, ContentRecord> entry : records.entrySet()) {
+                if (entry.getValue().getTextureHash() != null) {
+                    textures.link(textureNames.apply(entry.getKey()), entry.getValue().getTextureHash());
+                }
+            }
+            // Rewritten in the current format, so this happens once
+            compact();
+            LOGGER.info("Moved the textures of {} content records from {} into the texture store",
+                    records.size(), snapshotFile);
+        }
+        if (legacy) {
+            compact();
+            LOGGER.info("Converted {} content records from {} to {}; the old file is no longer read",
+                    records.size(), legacySnapshotFile, snapshotFile);
+        }
+    }
+
+    /**
+     * Record that the content under this key is now the given record
+     */
+    public void put(String key, ContentRecord record) throws IOException {
+        apply(Collections.singletonMap(key, record));
+    }
+
+    /**
+     * Record that the content under this key is gone
+     */
+    public void delete(String key) throws IOException {
+        apply(Collections.singletonMap(key, null));
+    }
+
+    /**
+     * Record a batch of changes with a single write; a null record means the key was deleted
+     */
+    public synchronized void apply(Map<String, ContentRecord> changes) throws IOException {
+        ensureOpen();
+        StringBuilder lines = new StringBuilder();
+        int count = 0;
+        for (Map.Entry<String, ContentRecord> change : changes.entrySet()) {
+            JsonObject entry = new JsonObject();
+            if (change.getValue() == null) {
+                if (!records.containsKey(change.getKey())) {
+                    continue;
+                }
+                entry.addProperty("op", "delete");
+                entry.addProperty("key", change.getKey());
+            } else {
+                entry.addProperty("op", "put");
+                entry.addProperty("key", change.getKey());
+                entry.add("content", change.getValue().toJson());
+            }
+            lines.append(encode(entry));
+            count++;
+        }
+        if (count == 0) {
+            return;
+        }
+
+        append(lines.toString(), count);
+        for (Map.Entry<String, ContentRecord> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                records.remove(change.getKey());
+            } else {
+                records.put(change.getKey(), change.getValue());
+            }
+        }
+        compactIfDue();
+    }
+
+    /**
+     * Replace everything with the given records, written straight to a new snapshot
+     */
+    public synchronized void replaceAll(Map<String, ContentRecord> replacement) throws IOException {
+        ensureOpen();
+        records.clear();
+        records.putAll(replacement);
+        compact();
+    }
+
+    /**
+     * A copy of the current records by key
+     */
+    public synchronized Map<String, ContentRecord> getRecords() {
+        return new HashMap<>(records);
+    }
+
+    public synchronized int size() {
+        return records.size();
+    }
+
+    /**
+     * Records in the journal since the last compaction
+     */
+    public synchronized int getJournalRecords() {
+        return journalRecords;
+    }
+
+    public long getAppendCount() { return appends.get(); }
+    public long getWriteCount() { return writes.get(); }
+    public long getSyncCount() { return syncs.get(); }
+    public long getCompactionCount() { return compactions.get(); }
+    public long getDiscardedBytes() { return discardedBytes.get(); }
+
+    /**
+     * Write the current state to a new snapshot and empty the journal
+     */
+    public synchronized void compact() throws IOException {
+        ensureOpen();
+        ContentSnapshot.write(snapshotFile, records);
+
+        // Only once the snapshot is in place; until then the journal is still needed
+        journal.truncate(0);
+        journal.position(0);
+        journal.force(false);
+        journalRecords = 0;
+        unsynced = false;
+        compactions.incrementAndGet();
+        LOGGER.debug("Compacted {} into a snapshot of {} records", journalFile, records.size());
+    }
+
+    /**
+     * Fsync appends that have not been yet
+     */
+    public synchronized void sync() {
+        syncScheduled = false;
+        if (!unsynced || journal == null) {
+            return;
+        }
+        try {
+            journal.force(false);
+            unsynced = false;
+            syncs.incrementAndGet();
+        } catch (IOException e) {
+            LOGGER.error("Failed to sync {}: {}", journalFile, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (journal == null) {
+            return;
+        }
+        sync();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close {}: {}", journalFile, e.getMessage());
+        }
+        journal = null;
+    }
+
+    public String getStatsSummary() {
+        return String.format("%d records, %d in journal, %d appends in %d writes, %d syncs, %d compactions",
+                size(), getJournalRecords(), appends.get(), writes.get(), syncs.get(), compactions.get());
+    }
+
+    private void append(String lines, int count) throws IOException {
+        ensureOpen();
+        ByteBuffer bytes = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            journal.write(bytes);
+        }
+        journalRecords += count;
+        appends.addAndGet(count);
+        writes.incrementAndGet();
+
+        if (syncIntervalMillis <= 0) {
+            journal.force(false);
+            syncs.incrementAndGet();
+            return;
+        }
+        unsynced = true;
+        if (!syncScheduled) {
+            syncScheduled = true;
+            SYNCER.schedule(this::sync, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void compactIfDue() throws IOException {
+        if (journalRecords >= compactAfterRecords && journalRecords > records.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Apply journal lines in order, stopping at the first incomplete or corrupt one
+     *
+     * @return the length of the journal that was applied
+     */
+    private long replay(byte[] bytes) {
+        int start = 0;
+        while (start < bytes.length) {
+            int end = start;
+            while (end < bytes.length && bytes[end] != '\n') {
+                end++;
+            }
+            if (end == bytes.length) {
+                // No newline, so the write was cut short
+                break;
+            }
+            JsonObject entry = decode(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+            if (entry == null) {
+                break;
+            }
+            String key = entry.get("key").getAsString();
+            if ("delete".equals(entry.get("op").getAsString())) {
+                records.remove(key);
+            } else {
+                records.put(key, ContentRecord.fromJson(entry.getAsJsonObject("content")));
+            }
+            journalRecords++;
+            start = end + 1;
+        }
+        return start;
+    }
+
+    private static String encode(JsonObject entry) {
+        String json = RECORD_GSON.toJson(entry);
+        return String.format("%08x %s\n", checksum(json), json);
+    }
+
+    /**
+     * The entry on a journal line, or null if the line does not match its checksum
+     */
+    private static JsonObject decode(String line) {
+        if (line.length() < 10 || line.charAt(8) != ' ') {
+            return null;
+        }
+        String json = line.substring(9);
+        try {
+            if (Long.parseLong(line.substring(0, 8), 16) != checksum(json)) {
+                return null;
+            }
+            JsonObject entry = JsonParser.parseString(json).getAsJsonObject();
+            return entry.has("op") && entry.has("key") ? entry : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static long checksum(String json) {
+        CRC32 crc = new CRC32();
+        crc.update(json.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (journal == null) {
+            open();
+        }
+    }
+}
@@ -15,72 +15,77 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class ContentPersistence {
     private static final Logger LOGGER = LogManager.getLogger();
-    private static final String SAVE_FILE = "run/generated_content.json";
+    private static final String SAVE_FILE = "run/generated_content.bin";
+    // Where content was saved before the binary format; read once to convert it
+    private static final String LEGACY_SAVE_FILE = "run/generated_content.json";
+    public static final String EXPORT_FILE = "run/generated_content.export.json";
+    private static final String JOURNAL_FILE = "run/generated_content.journal";
     private static final String PENDING_FILE = "run/pending_content.json";
+    private static final long DEFAULT_SYNC_INTERVAL_MS = 200;
+    private static final int DEFAULT_COMPACT_AFTER_RECORDS = 1000;
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
     private static Map<String, GeneratedContent> pendingContent = new HashMap<>();
+    private static ContentJournal journal;
+    // Saves of single pieces of content, coalesced and written to the journal in the background
+    private static WriteBehind<String, GeneratedContent> writes;
 
+    /**
+     * Replace all saved content with the given map, rewriting the whole snapshot. Saving single changes
+     * with {@link #putGeneratedContent} and {@link #deleteGeneratedContent} only appends to the journal.
+     */
     public static void saveGeneratedContent(Map<String, GeneratedContent> content) {
         try {
-            // Ensure directory exists
-            Path savePath = Paths.get(SAVE_FILE);
-            Files.createDirectories(savePath.getParent());
-
-            // Convert to JSON-serializable format
-            Map<String, JsonObject> serializable = new HashMap<>();
+            writes().flush();
+            ContentJournal journal = journal();
+            Map<String, ContentRecord> records = new HashMap<>();
             for (Map.Entry<String, GeneratedContent> entry : content.entrySet()) {
-                JsonObject contentObj = new JsonObject();
-                contentObj.addProperty("type", entry.getValue().getType().name());
-                contentObj.addProperty("id", entry.getValue().getId());
-                contentObj.addProperty("description", entry.getValue().getDescription());
-                contentObj.add("properties", entry.getValue().getProperties());
-                
-                serializable.put(entry.getKey(), contentObj);
+                records.put(entry.getKey(), record(entry.getKey(), entry.getValue()));
             }
-
-            // Write to file
-            try (FileWriter writer = new FileWriter(SAVE_FILE)) {
-                GSON.toJson(serializable, writer);
+            for (String key : journal.getRecords().keySet()) {
+                if (!content.containsKey(key)) {
+                    TextureStore.shared().unlink(textureName(key));
+                }
             }
+            journal.replaceAll(records);
 
             LOGGER.info("Saved {} generated content items", content.size());
         } catch (IOException e) {
             LOGGER.error("Failed to save generated content: " + e.getMessage());
         }
-    }    public static Map<String, GeneratedContent> loadGeneratedContent() {
+    }
+
+    /**
+     * Save one new or changed piece of content. Returns straight away; the change is written with
+     * any others made within the flush interval.
+     */
+    public static void putGeneratedContent(GeneratedContent content) {
+        writes().put(content.getId(), content);
+    }
+
+    public static void deleteGeneratedContent(String id) {
+        writes().delete(id);
+    }
+
+    public static Map<String, GeneratedContent> loadGeneratedContent() {
         Map<String, GeneratedContent> content = new HashMap<>();
-        
+
         try {
-            Path savePath = Paths.get(SAVE_FILE);
-            if (!Files.exists(savePath)) {
+            if (!Files.exists(Paths.get(SAVE_FILE)) && !Files.exists(Paths.get(LEGACY_SAVE_FILE))
+                    && !Files.exists(Paths.get(JOURNAL_FILE))) {
                 LOGGER.info("No saved content found, starting fresh");
                 return content;
             }
 
-            try (FileReader reader = new FileReader(SAVE_FILE)) {
-                // Parse as JsonObject first, then iterate through elements
-                JsonObject rootObj = GSON.fromJson(reader, JsonObject.class);
-                
-                if (rootObj != null) {
-                    for (Map.Entry<String, com.google.gson.JsonElement> entry : rootObj.entrySet()) {
-                        JsonObject obj = entry.getValue().getAsJsonObject();
-                        
-                        ContentType type = ContentType.valueOf(obj.get("type").getAsString());
-                        String id = obj.get("id").getAsString();
-                        String description = obj.get("description").getAsString();
-                        JsonObject properties = obj.getAsJsonObject("properties");
-                        
-                        GeneratedContent generatedContent = new GeneratedContent(
-                            type, id, description, properties, new byte[0]
-                        );
-                        
-                        content.put(entry.getKey(), generatedContent);
-                    }
-                }
+            writes().flush();
+            // Properties are decoded when first used, not here
+            for (Map.Entry<String, ContentRecord> entry : journal().getRecords().entrySet()) {
+                content.put(entry.getKey(), entry.getValue().toContent());
             }
 
             LOGGER.info("Loaded {} generated content items", content.size());
@@ -91,6 +96,93 @@ public class ContentPersistence {
         return content;
     }
 
+    /**
+     * Set how saves are batched, synced and compacted; writes out and reopens anything already open
+     *
+     * @param flushIntervalMillis how long single saves may be held to be written together (0 to write each straight away)
+     * @param syncIntervalMillis  how long written saves may wait to be fsynced together (0 to fsync every write)
+     * @param compactAfterRecords journal records before they are compacted into the snapshot
+     */
+    public static synchronized void configure(long flushIntervalMillis, long syncIntervalMillis, int compactAfterRecords) {
+        close();
+        ContentJournal opened = new ContentJournal(Paths.get(SAVE_FILE), Paths.get(LEGACY_SAVE_FILE),
+            Paths.get(JOURNAL_FILE), syncIntervalMillis, compactAfterRecords);
+        opened.setTextures(TextureStore.shared(), ContentPersistence::textureName);
+        journal = opened;
+        // Writes to this journal alone, so a flush never waits on the static lock
+        writes = new WriteBehind<>("generated content", changes -> {
+            Map<String, ContentRecord> records = new LinkedHashMap<>();
+            for (Map.Entry<String, GeneratedContent> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    TextureStore.shared().unlink(textureName(change.getKey()));
+                    records.put(change.getKey(), null);
+                } else {
+                    records.put(change.getKey(), record(change.getKey(), change.getValue()));
+                }
+            }
+            opened.open();
+            opened.apply(records);
+            LOGGER.debug("Saved {} generated content change(s)", records.size());
+        }, flushIntervalMillis);
+    }
+
+    /**
+     * Write out pending saves, then sync and close the content journal, as the server stops
+     */
+    public static synchronized void close() {
+        if (writes != null) {
+            writes.close();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    public static synchronized String getStatsSummary() {
+        if (journal == null) {
+            return "not loaded";
+        }
+        return "saves " + writes.getStatsSummary() + "; journal " + journal.getStatsSummary();
+    }
+
+    /**
+     * The record to save for a piece of content, with its texture stored in the texture store
+     */
+    private static ContentRecord record(String key, GeneratedContent content) throws IOException {
+        return ContentRecord.of(content, TextureStore.shared().linkTexture(textureName(key), content));
+    }
+
+    private static String textureName(String key) {
+        return "content/" + key;
+    }
+
+    private static synchronized ContentJournal journal() throws IOException {
+        if (journal == null) {
+            configure(DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_SYNC_INTERVAL_MS, DEFAULT_COMPACT_AFTER_RECORDS);
+        }
+        journal.open();
+        return journal;
+    }
+
+    private static synchronized WriteBehind<String, GeneratedContent> writes() {
+        if (writes == null) {
+            configure(DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_SYNC_INTERVAL_MS, DEFAULT_COMPACT_AFTER_RECORDS);
+        }
+        return writes;
+    }
+
+    /**
+     * Write all saved content as JSON, for tools and people to read
+     *
+     * @return how many pieces of content were written
+     */
+    public static int exportJson(Path file) throws IOException {
+        writes().flush();
+        Map<String, ContentRecord> records = journal().getRecords();
+        ContentSnapshot.writeJson(file, records);
+        return records.size();
+    }
+
     public static void addPendingContent(GeneratedContent content) {
         pendingContent.put(content.getId(), content);
         savePendingContent();
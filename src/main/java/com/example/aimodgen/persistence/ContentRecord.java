@@ -0,0 +1,127 @@
+package com.example.aimodgen.persistence;
+
+import com.example.aimodgen.generation.ContentType;
+import com.example.aimodgen.generation.GeneratedContent;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One saved piece of content as it is stored. Properties read from a snapshot stay encoded until first
+ * asked for, so loading a large library does not build a JSON tree per piece of content up front;
+ * once decoded, the encoded copy is dropped.
+ */
+public final class ContentRecord {
+    private static final Gson GSON = new Gson();
+
+    private final String type;
+    private final String id;
+    private final String description;
+    // Hash of the texture in the texture store, or null for none
+    private final String textureHash;
+
+    // Guarded by this; at most one is set, and neither if the content has no properties
+    private JsonObject properties;
+    private byte[] encodedProperties;
+
+    private ContentRecord(String type, String id, String description, JsonObject properties, byte[] encodedProperties,
+                          String textureHash) {
+        this.type = type;
+        this.id = id;
+        this.description = description;
+        this.properties = properties;
+        this.encodedProperties = encodedProperties;
+        this.textureHash = textureHash;
+    }
+
+    /**
+     * @param textureHash where the content's texture is in the {@link TextureStore}, or null for none
+     */
+    public static ContentRecord of(GeneratedContent content, String textureHash) {
+        return new ContentRecord(content.getType().name(), content.getId(), content.getDescription(),
+                content.getProperties(), null, textureHash);
+    }
+
+    /**
+     * A record whose properties are still the UTF-8 JSON they were stored as, or null for none
+     */
+    static ContentRecord encoded(String type, String id, String description, byte[] encodedProperties, String textureHash) {
+        return new ContentRecord(type, id, description, null, encodedProperties, textureHash);
+    }
+
+    /**
+     * Read a record in the JSON form used by the journal and JSON export
+     */
+    public static ContentRecord fromJson(JsonObject json) {
+        JsonElement properties = json.get("properties");
+        JsonElement textureHash = json.get("textureHash");
+        JsonElement description = json.get("description");
+        return new ContentRecord(json.get("type").getAsString(), json.get("id").getAsString(),
+                description == null || description.isJsonNull() ? null : description.getAsString(),
+                properties == null || properties.isJsonNull() ? null : properties.getAsJsonObject(), null,
+                textureHash == null || textureHash.isJsonNull() ? null : textureHash.getAsString());
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("type", type);
+        json.addProperty("id", id);
+        json.addProperty("description", description);
+        json.add("properties", getProperties());
+        if (textureHash != null) {
+            json.addProperty("textureHash", textureHash);
+        }
+        return json;
+    }
+
+    /**
+     * The content this record holds; its properties are decoded when it first needs them
+     */
+    public GeneratedContent toContent() {
+        return new GeneratedContent(ContentType.valueOf(type), id, description, this::getProperties, textureHash);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getTextureHash() {
+        return textureHash;
+    }
+
+    public synchronized JsonObject getProperties() {
+        if (encodedProperties != null) {
+            properties = JsonParser.parseString(new String(encodedProperties, StandardCharsets.UTF_8)).getAsJsonObject();
+            encodedProperties = null;
+        }
+        return properties;
+    }
+
+    /**
+     * Whether the properties have been decoded, or were never encoded
+     */
+    public synchronized boolean isDecoded() {
+        return encodedProperties == null;
+    }
+
+    /**
+     * The properties as compact UTF-8 JSON, or null for none; not decoded if they have not been yet
+     */
+    synchronized byte[] getEncodedProperties() {
+        if (encodedProperties != null) {
+            return encodedProperties;
+        }
+        return properties == null ? null : GSON.toJson(properties).getBytes(StandardCharsets.UTF_8);
+    }
+}
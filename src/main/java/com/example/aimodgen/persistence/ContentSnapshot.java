@@ -0,0 +1,243 @@
+package com.example.aimodgen.persistence;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes whole sets of content records. The binary format, used for snapshots, is
+ * <pre>
+ *   int    magic "AIMC"
+ *   short  format version (2)
+ *   int    record count
+ *   index: per record, string key and long offset of the record from the start of the records
+ *   records: per record, int length, then string type, string id, string description,
+ *            blob properties (compact UTF-8 JSON, length -1 for none) and string texture hash
+ *            (where the texture is in the {@link TextureStore}, length -1 for none)
+ *   long   CRC32 of everything before it
+ * </pre>
+ * where strings are blobs of UTF-8 and blobs are an int length followed by that many bytes. Loading
+ * copies each properties blob out as it is and leaves parsing it to {@link ContentRecord}. Version 1
+ * snapshots, which held texture bytes in place of the hash, are still read; their textures are moved
+ * into the texture store as they are, and whoever reads one links them (see {@link #holdsTextureBytes}).
+ * The JSON format, a pretty-printed object of records by key, is what the content file used to be
+ * and is kept for migration and for export to tools.
+ */
+public final class ContentSnapshot {
+    private static final int MAGIC = 0x41494D43;
+    private static final short VERSION = 2;
+    private static final short TEXTURE_BYTES_VERSION = 1;
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private ContentSnapshot() {
+    }
+
+    /**
+     * Write records in the binary format, replacing the file atomically once the new one is on disk
+     */
+    public static void write(Path file, Map<String, ContentRecord> records) throws IOException {
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream recordData = new DataOutputStream(recordBytes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeInt(records.size());
+
+        for (Map.Entry<String, ContentRecord> entry : records.entrySet()) {
+            ContentRecord record = entry.getValue();
+            writeString(data, entry.getKey());
+            data.writeLong(recordBytes.size());
+
+            ByteArrayOutputStream one = new ByteArrayOutputStream();
+            DataOutputStream oneData = new DataOutputStream(one);
+            writeString(oneData, record.getType());
+            writeString(oneData, record.getId());
+            writeString(oneData, record.getDescription());
+            writeBlob(oneData, record.getEncodedProperties());
+            writeString(oneData, record.getTextureHash());
+            recordData.writeInt(one.size());
+            one.writeTo(recordData);
+        }
+        recordBytes.writeTo(data);
+
+        CRC32 crc = new CRC32();
+        crc.update(out.toByteArray());
+        data.writeLong(crc.getValue());
+        writeAtomically(file, out.toByteArray());
+    }
+
+    /**
+     * Read records in the binary format, in the order they were written
+     *
+     * @throws IOException if the file cannot be read or is not an intact snapshot this version understands
+     */
+    public static Map<String, ContentRecord> read(Path file) throws IOException {
+        return read(file, TextureStore.shared());
+    }
+
+    /**
+     * Read records, moving the textures of a version 1 snapshot into the given store. They are stored but
+     * not linked; the caller knows what to name them.
+     */
+    public static Map<String, ContentRecord> read(Path file, TextureStore textures) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < 18) {
+            throw new IOException(file + " is too short to be a content snapshot");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Long.BYTES);
+        if (buffer.getLong(bytes.length - Long.BYTES) != crc.getValue()) {
+            throw new IOException(file + " is corrupt (checksum mismatch)");
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException(file + " is not a content snapshot");
+        }
+        short version = buffer.getShort();
+        if (version != VERSION && version != TEXTURE_BYTES_VERSION) {
+            throw new IOException(file + " has unsupported format version " + version);
+        }
+
+        try {
+            int count = buffer.getInt();
+            String[] keys = new String[count];
+            long[] offsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = readString(buffer);
+                offsets[i] = buffer.getLong();
+            }
+            int recordsStart = buffer.position();
+
+            Map<String, ContentRecord> records = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                buffer.position(Math.toIntExact(recordsStart + offsets[i]) + Integer.BYTES);
+                String type = readString(buffer);
+                String id = readString(buffer);
+                String description = readString(buffer);
+                byte[] properties = readBlob(buffer);
+                String textureHash = null;
+                if (version == TEXTURE_BYTES_VERSION) {
+                    byte[] texture = readBlob(buffer);
+                    if (texture != null && texture.length > 0) {
+                        textureHash = textures.put(texture);
+                    }
+                } else {
+                    textureHash = readString(buffer);
+                }
+                records.put(keys[i], ContentRecord.encoded(type, id, description, properties, textureHash));
+            }
+            return records;
+        } catch (BufferUnderflowException | IllegalArgumentException | ArithmeticException | NegativeArraySizeException e) {
+            throw new IOException(file + " is corrupt: " + e, e);
+        }
+    }
+
+    /**
+     * Whether the file is a version 1 snapshot, whose textures are put into the texture store when it is read
+     * and still need linking
+     */
+    public static boolean holdsTextureBytes(Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + Short.BYTES);
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                // Keep reading until the header is in or the file ends
+            }
+            header.flip();
+            return header.remaining() == header.capacity() && header.getInt() == MAGIC
+                    && header.getShort() == TEXTURE_BYTES_VERSION;
+        }
+    }
+
+    /**
+     * Read records from the JSON format
+     */
+    public static Map<String, ContentRecord> readJson(Path file) throws IOException {
+        Map<String, ContentRecord> records = new LinkedHashMap<>();
+        JsonObject root = GSON.fromJson(Files.readString(file, StandardCharsets.UTF_8), JsonObject.class);
+        if (root != null) {
+            for (Map.Entry<String, JsonElement> entry : root.entrySet()) {
+                records.put(entry.getKey(), ContentRecord.fromJson(entry.getValue().getAsJsonObject()));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Write records in the JSON format, for tools and people to read
+     */
+    public static void writeJson(Path file, Map<String, ContentRecord> records) throws IOException {
+        JsonObject root = new JsonObject();
+        for (Map.Entry<String, ContentRecord> entry : records.entrySet()) {
+            root.add(entry.getKey(), entry.getValue().toJson());
+        }
+        writeAtomically(file, GSON.toJson(root).getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Path temporaryFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    static void writeAtomically(Path file, byte[] bytes) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = temporaryFile(file);
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        writeBlob(data, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBlob(DataOutputStream data, byte[] value) throws IOException {
+        if (value == null) {
+            data.writeInt(-1);
+            return;
+        }
+        data.writeInt(value.length);
+        data.write(value);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = readBlob(buffer);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBlob(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
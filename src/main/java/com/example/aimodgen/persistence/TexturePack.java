@@ -0,0 +1,569 @@
+package com.example.aimodgen.persistence;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * All generated textures in one file, so serving or scanning them is one mapping of one file instead of an
+ * open per texture. The file is
+ * <pre>
+ *   int    magic "AIMT"
+ *   short  format version (1)
+ *   entries, appended one after another: int CRC32 of the rest of the entry, string id, byte format
+ *          (0 PNG, 1 raw RGBA), int width, int height, int payload length (-1 for a removed texture), payload
+ * </pre>
+ * where a string is an int length and that many bytes of UTF-8. Opening the pack reads the entries' headers
+ * in order, skipping over the payloads, to index where each id's latest payload is; a torn tail left by a
+ * crash is cut off. Replaced and removed textures leave their old payloads behind until the pack is opened
+ * with more dead bytes than live ones, when it is rewritten without them. Only then is the file mapped, once:
+ * some platforms refuse to truncate or replace a file while any mapping of it is alive, and mappings stay
+ * alive until collected. The checksums are checked against the mapping in one sequential pass, cutting off
+ * the pack from the first entry that fails. Lookups hand out read-only slices of the mapping, so serving a
+ * texture copies nothing, and the mapping is extended when a lookup reaches past it.
+ */
+public class TexturePack implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final int MAGIC = 0x41494D54;
+    private static final short VERSION = 1;
+    private static final int HEADER_BYTES = Integer.BYTES + Short.BYTES;
+    // Format byte, width, height and payload length, after the id
+    private static final int FIXED_FIELD_BYTES = 1 + Integer.BYTES * 3;
+    private static final String DEFAULT_FILE = "run/textures.pack";
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static TexturePack shared;
+
+    public enum Format { PNG, RGBA }
+
+    /**
+     * A texture in the pack. Its data is a read-only view of the mapped file and stays readable after the
+     * pack is closed.
+     */
+    public static final class Texture {
+        private final Format format;
+        private final int width;
+        private final int height;
+        private final ByteBuffer data;
+
+        private Texture(Format format, int width, int height, ByteBuffer data) {
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.data = data;
+        }
+
+        public Format getFormat() { return format; }
+        public int getWidth() { return width; }
+        public int getHeight() { return height; }
+        /** A new read-only view each call, so readers do not share a position */
+        public ByteBuffer getData() { return data.duplicate(); }
+    }
+
+    // Where an id's latest payload is, and how much of the file its entry takes
+    private static final class Location {
+        final Format format;
+        final int width;
+        final int height;
+        final long payloadOffset;
+        final int payloadLength;
+        final long entryBytes;
+
+        Location(Format format, int width, int height, long payloadOffset, int payloadLength, long entryBytes) {
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.payloadOffset = payloadOffset;
+            this.payloadLength = payloadLength;
+            this.entryBytes = entryBytes;
+        }
+    }
+
+    // An entry found by the scan, kept until its checksum has been checked against the mapping
+    private static final class ScannedEntry {
+        final String id;
+        final Format format;
+        final int width;
+        final int height;
+        final long start;
+        final long payloadOffset;
+        final int payloadLength;
+        final int crc;
+
+        ScannedEntry(String id, Format format, int width, int height, long start, long payloadOffset,
+                     int payloadLength, int crc) {
+            this.id = id;
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.start = start;
+            this.payloadOffset = payloadOffset;
+            this.payloadLength = payloadLength;
+            this.crc = crc;
+        }
+
+        long end() {
+            return payloadOffset + Math.max(payloadLength, 0);
+        }
+    }
+
+    private final Path file;
+
+    // Guarded by this
+    private final Map<String, Location> index = new LinkedHashMap<>();
+    // Only while opening
+    private List<ScannedEntry> entries;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long end;
+    private long liveBytes;
+    private long deadBytes;
+
+    private final AtomicLong appends = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong maps = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong discardedBytes = new AtomicLong();
+
+    public TexturePack(Path file) {
+        this.file = file;
+    }
+
+    public static synchronized TexturePack shared() {
+        if (shared == null) {
+            shared = new TexturePack(Paths.get(DEFAULT_FILE));
+        }
+        return shared;
+    }
+
+    /**
+     * Map the pack and index its entries, cutting off a damaged tail; does nothing if already open
+     *
+     * @throws IOException if the file cannot be read or is not a texture pack this version understands
+     */
+    public synchronized void open() throws IOException {
+        open(true);
+    }
+
+    private void open(boolean mayCompact) throws IOException {
+        if (channel != null) {
+            return;
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        FileChannel opened = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long size = opened.size();
+            if (size == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putShort(VERSION);
+                header.flip();
+                writeFully(opened, header, 0);
+                channel = opened;
+                end = HEADER_BYTES;
+                return;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map");
+            }
+            channel = opened;
+            entries = scan(size);
+            long valid = entries.isEmpty() ? HEADER_BYTES : entries.get(entries.size() - 1).end();
+            indexEntries(entries.size());
+            if (valid < size) {
+                cutOff(valid, size);
+            }
+            end = valid;
+        } catch (IOException | RuntimeException e) {
+            channel = null;
+            entries = null;
+            index.clear();
+            liveBytes = 0;
+            deadBytes = 0;
+            opened.close();
+            throw e;
+        }
+
+        if (mayCompact && deadBytes > liveBytes) {
+            // Reopens the pack, maps it and checks it
+            entries = null;
+            compact();
+            return;
+        }
+        if (end > HEADER_BYTES) {
+            map(end);
+            verify();
+        }
+        entries = null;
+    }
+
+    /**
+     * Add or replace a PNG texture; its size is read from the PNG header
+     */
+    public synchronized void putPng(String id, byte[] png) throws IOException {
+        // The signature is followed by the IHDR chunk, whose data starts with the width and height
+        ByteBuffer header = ByteBuffer.wrap(png);
+        boolean hasHeader = png.length >= 24
+                && header.duplicate().limit(PNG_SIGNATURE.length).equals(ByteBuffer.wrap(PNG_SIGNATURE));
+        append(id, Format.PNG, hasHeader ? header.getInt(16) : 0, hasHeader ? header.getInt(20) : 0, png);
+    }
+
+    /**
+     * Add or replace an uncompressed texture of 4 bytes per pixel, red, green, blue and alpha, row by row
+     */
+    public synchronized void putRgba(String id, int width, int height, byte[] pixels) throws IOException {
+        if (width <= 0 || height <= 0 || pixels.length != width * height * 4) {
+            throw new IllegalArgumentException("Expected " + width + "x" + height + " RGBA pixels, got " + pixels.length + " bytes");
+        }
+        append(id, Format.RGBA, width, height, pixels);
+    }
+
+    public synchronized void remove(String id) throws IOException {
+        open();
+        if (index.containsKey(id)) {
+            append(id, Format.PNG, 0, 0, null);
+        }
+    }
+
+    /**
+     * The texture's payload as a read-only slice of the mapped pack, or null if there is no such texture
+     */
+    public ByteBuffer get(String id) throws IOException {
+        Texture texture = getTexture(id);
+        return texture == null ? null : texture.data;
+    }
+
+    /**
+     * The texture with its format and size, or null if there is no such texture
+     */
+    public synchronized Texture getTexture(String id) throws IOException {
+        open();
+        lookups.incrementAndGet();
+        Location location = index.get(id);
+        if (location == null) {
+            return null;
+        }
+        return new Texture(location.format, location.width, location.height,
+                slice(location.payloadOffset, location.payloadLength));
+    }
+
+    public synchronized boolean contains(String id) throws IOException {
+        open();
+        return index.containsKey(id);
+    }
+
+    /**
+     * Ids of the textures in the pack, in the order they were first added
+     */
+    public synchronized List<String> getIds() throws IOException {
+        open();
+        return new ArrayList<>(index.keySet());
+    }
+
+    public synchronized int size() throws IOException {
+        open();
+        return index.size();
+    }
+
+    /**
+     * Add every PNG under the directory that the pack does not have yet, with its path below the directory,
+     * without the extension, as its id (as in "block/ruby_block")
+     *
+     * @return how many textures were added
+     */
+    public synchronized int importDirectory(Path directory) throws IOException {
+        open();
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        List<Path> pngs;
+        try (Stream<Path> files = Files.walk(directory)) {
+            pngs = files.filter(path -> path.getFileName().toString().endsWith(".png")).sorted().toList();
+        }
+        int added = 0;
+        for (Path png : pngs) {
+            String relative = directory.relativize(png).toString().replace('\\', '/');
+            String id = relative.substring(0, relative.length() - ".png".length());
+            if (!index.containsKey(id)) {
+                putPng(id, Files.readAllBytes(png));
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Write the pack to disk and close it; slices already handed out stay readable
+     */
+    @Override
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.error("Failed to close texture pack: " + e.getMessage());
+        }
+        channel = null;
+        mapped = null;
+        index.clear();
+        liveBytes = 0;
+        deadBytes = 0;
+    }
+
+    public long getAppendCount() { return appends.get(); }
+    public long getLookupCount() { return lookups.get(); }
+    public long getMapCount() { return maps.get(); }
+    public long getCompactionCount() { return compactions.get(); }
+    public long getDiscardedBytes() { return discardedBytes.get(); }
+
+    public synchronized String getStatsSummary() {
+        if (channel == null) {
+            return "not open";
+        }
+        return String.format("%d textures, %d KB (%d KB dead), %d appends, %d lookups, %d maps, %d compactions",
+                index.size(), end / 1024, deadBytes / 1024, appends.get(), lookups.get(), maps.get(), compactions.get());
+    }
+
+    private void append(String id, Format format, int width, int height, byte[] payload) throws IOException {
+        open();
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = payload == null ? -1 : payload.length;
+        int bodyBytes = Integer.BYTES + idBytes.length + 1 + Integer.BYTES * 3 + Math.max(payloadLength, 0);
+        ByteBuffer entry = ByteBuffer.allocate(Integer.BYTES + bodyBytes);
+        entry.position(Integer.BYTES);
+        entry.putInt(idBytes.length).put(idBytes).put((byte) format.ordinal()).putInt(width).putInt(height)
+                .putInt(payloadLength);
+        if (payload != null) {
+            entry.put(payload);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(entry.array(), Integer.BYTES, bodyBytes);
+        entry.putInt(0, (int) crc.getValue());
+        entry.flip();
+
+        long entryOffset = end;
+        writeFully(channel, entry, entryOffset);
+        end += entry.capacity();
+        appends.incrementAndGet();
+        index(id, entryOffset + entry.capacity() - Math.max(payloadLength, 0), format, width, height, payloadLength,
+                entry.capacity());
+    }
+
+    private void index(String id, long payloadOffset, Format format, int width, int height, int payloadLength,
+                       long entryBytes) {
+        Location previous = payloadLength < 0 ? index.remove(id)
+                : index.put(id, new Location(format, width, height, payloadOffset, payloadLength, entryBytes));
+        if (previous != null) {
+            liveBytes -= previous.entryBytes;
+            deadBytes += previous.entryBytes;
+        }
+        if (payloadLength < 0) {
+            deadBytes += entryBytes;
+        } else {
+            liveBytes += entryBytes;
+        }
+    }
+
+    /**
+     * The entries of a file of the given size, up to the first one that is cut short or makes no sense. Reads
+     * only the headers, through the channel rather than a mapping, so the file can still be cut short or
+     * replaced afterwards; payloads are checked once mapped.
+     */
+    private List<ScannedEntry> scan(long size) throws IOException {
+        ByteBuffer header = read(0, HEADER_BYTES);
+        if (header.getInt() != MAGIC) {
+            throw new IOException(file + " is not a texture pack");
+        }
+        short version = header.getShort();
+        if (version != VERSION) {
+            throw new IOException(file + " has unsupported format version " + version);
+        }
+
+        List<ScannedEntry> scanned = new ArrayList<>();
+        long position = HEADER_BYTES;
+        while (position < size) {
+            // A torn entry ends the scan; everything before it is whole
+            if (size - position < Integer.BYTES * 2 + FIXED_FIELD_BYTES) {
+                break;
+            }
+            ByteBuffer prefix = read(position, Integer.BYTES * 2);
+            int expected = prefix.getInt();
+            int idLength = prefix.getInt();
+            // Lengths are checked against what is left of the file before anything is allocated for them
+            long remaining = size - position - Integer.BYTES * 2 - FIXED_FIELD_BYTES;
+            if (idLength < 0 || idLength > remaining) {
+                break;
+            }
+            ByteBuffer fields = read(position + Integer.BYTES * 2, idLength + FIXED_FIELD_BYTES);
+            byte[] idBytes = new byte[idLength];
+            fields.get(idBytes);
+            int format = fields.get();
+            int width = fields.getInt();
+            int height = fields.getInt();
+            int payloadLength = fields.getInt();
+            long payloadStart = position + Integer.BYTES * 2 + idLength + FIXED_FIELD_BYTES;
+            if (format < 0 || format >= Format.values().length || payloadLength < -1
+                    || payloadLength > size - payloadStart) {
+                break;
+            }
+            ScannedEntry entry = new ScannedEntry(new String(idBytes, StandardCharsets.UTF_8), Format.values()[format],
+                    width, height, position, payloadStart, payloadLength, expected);
+            scanned.add(entry);
+            position = entry.end();
+        }
+        return scanned;
+    }
+
+    /**
+     * Index the first so many scanned entries, in order, so later entries for an id replace earlier ones
+     */
+    private void indexEntries(int count) {
+        index.clear();
+        liveBytes = 0;
+        deadBytes = 0;
+        for (ScannedEntry entry : entries.subList(0, count)) {
+            index(entry.id, entry.payloadOffset, entry.format, entry.width, entry.height, entry.payloadLength,
+                    entry.end() - entry.start);
+        }
+    }
+
+    /**
+     * Check each scanned entry's checksum against the mapping, in file order, cutting the pack off at the
+     * first that fails. The checksum is computed over the mapped bytes, so nothing is copied onto the heap.
+     */
+    private void verify() {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < entries.size(); i++) {
+            ScannedEntry entry = entries.get(i);
+            crc.reset();
+            int checked = (int) (entry.end() - entry.start) - Integer.BYTES;
+            crc.update(mapped.slice((int) entry.start + Integer.BYTES, checked));
+            if ((int) crc.getValue() != entry.crc) {
+                indexEntries(i);
+                cutOff(entry.start, end);
+                end = entry.start;
+                return;
+            }
+        }
+    }
+
+    private void cutOff(long valid, long size) {
+        LOGGER.warn("Discarding {} damaged byte(s) at the end of {}", size - valid, file);
+        discardedBytes.addAndGet(size - valid);
+        truncate(valid);
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException(file + " ended while reading it");
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Cut off a damaged tail. Should the platform refuse, as it may while the file is mapped, appends
+     * overwrite the tail instead, and the next opening cuts off what is left of it.
+     */
+    private void truncate(long valid) {
+        try {
+            channel.truncate(valid);
+        } catch (IOException e) {
+            LOGGER.warn("Could not cut the damaged tail off {}, writing over it instead: {}", file, e.getMessage());
+        }
+    }
+
+    private ByteBuffer slice(long offset, int length) throws IOException {
+        if (mapped == null || mapped.capacity() < offset + length) {
+            map(end);
+        }
+        return mapped.slice((int) offset, length);
+    }
+
+    private MappedByteBuffer map(long size) throws IOException {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        maps.incrementAndGet();
+        return mapped;
+    }
+
+    /**
+     * Rewrite the pack with only the latest entry for each texture, then reopen it. Runs while opening, before
+     * the pack is mapped; if the file still cannot be replaced, because of a mapping from an earlier opening,
+     * the pack is kept as it is until the next start.
+     */
+    private void compact() throws IOException {
+        Path temp = ContentSnapshot.temporaryFile(file);
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putShort(VERSION);
+            header.flip();
+            long position = writeFully(out, header, 0);
+            for (Location location : index.values()) {
+                long entryStart = location.payloadOffset + Math.max(location.payloadLength, 0) - location.entryBytes;
+                position += transferFully(entryStart, location.entryBytes, out, position);
+            }
+            out.force(true);
+        }
+        long before = end;
+        close();
+        try {
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (FileSystemException e) {
+            LOGGER.warn("Could not replace {} with its compacted copy, keeping it as it is: {}", file, e.getMessage());
+            Files.deleteIfExists(temp);
+            open(false);
+            return;
+        }
+        compactions.incrementAndGet();
+        open(false);
+        LOGGER.info("Compacted texture pack from {} KB to {} KB", before / 1024, end / 1024);
+    }
+
+    private long transferFully(long position, long count, FileChannel out, long outPosition) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            out.position(outPosition + transferred);
+            long moved = channel.transferTo(position + transferred, count - transferred, out);
+            if (moved <= 0) {
+                throw new EOFException(file + " ended while compacting it");
+            }
+            transferred += moved;
+        }
+        return transferred;
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+}
@@ -0,0 +1,372 @@
+package com.example.aimodgen.persistence;
+
+import com.example.aimodgen.generation.GeneratedContent;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps each distinct texture image once, as a blob named by the SHA-256 of its bytes. Saved content,
+ * registry entries and the texture files the resource pack loads refer to blobs by name, and a blob
+ * is counted as in use for as long as any name refers to it, so identical textures (most of all the
+ * fallback ones) share a single copy. Texture files are hard links to their blob where the file system
+ * allows it, and copies where it does not.
+ * <p>
+ * Blobs are written through a temporary file moved into place and never changed afterwards. The table
+ * of names is saved in the background; a blob no name refers to any more is deleted only once a table
+ * without it is on disk, so a crash can leave an unused blob behind but never a name without its blob.
+ */
+public class TextureStore implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String DEFAULT_DIRECTORY = "run/texture_store";
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static TextureStore shared;
+
+    private final Path blobDirectory;
+    private final Path referencesFile;
+    private final WriteBehind<String, String> referenceWrites;
+
+    // Guarded by this
+    private final Map<String, String> references = new HashMap<>();
+    private final Map<String, Integer> referenceCounts = new HashMap<>();
+    // Blobs nothing refers to, deleted once the saved table agrees
+    private final Set<String> unreferenced = new HashSet<>();
+    private boolean loaded;
+
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong deduplicatedBytes = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+
+    /**
+     * @param flushIntervalMillis how long reference changes may be held to be saved together (0 to save each straight away)
+     */
+    public TextureStore(Path directory, long flushIntervalMillis) {
+        this.blobDirectory = directory.resolve("blobs");
+        this.referencesFile = directory.resolve("references.json");
+        this.referenceWrites = new WriteBehind<>("texture references", changes -> saveReferences(), flushIntervalMillis);
+    }
+
+    public static synchronized TextureStore shared() {
+        if (shared == null) {
+            shared = new TextureStore(Paths.get(DEFAULT_DIRECTORY), DEFAULT_FLUSH_INTERVAL_MS);
+        }
+        return shared;
+    }
+
+    /**
+     * Set how long reference changes may be held to be saved together, saving any pending first
+     */
+    public static synchronized void configure(long flushIntervalMillis) {
+        if (shared != null) {
+            shared.close();
+        }
+        shared = new TextureStore(Paths.get(DEFAULT_DIRECTORY), flushIntervalMillis);
+    }
+
+    /**
+     * The SHA-256 of the bytes, in lower-case hex, which is what blobs are named by
+     */
+    public static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Store the bytes unless an identical blob is already stored. Nothing refers to the blob until it is
+     * linked, but it is not deleted before then either.
+     *
+     * @return the blob's hash
+     */
+    public synchronized String put(byte[] data) throws IOException {
+        String hash = hash(data);
+        // Whoever holds this hash may link it later, so the blob must outlive a pending delete
+        unreferenced.remove(hash);
+        Path blob = blobPath(hash);
+        if (Files.exists(blob)) {
+            deduplicated.incrementAndGet();
+            deduplicatedBytes.addAndGet(data.length);
+            return hash;
+        }
+        ContentSnapshot.writeAtomically(blob, data);
+        stored.incrementAndGet();
+        storedBytes.addAndGet(data.length);
+        return hash;
+    }
+
+    /**
+     * Store the bytes and point the name at them, dropping whatever it referred to before
+     *
+     * @return the blob's hash
+     */
+    public String link(String name, byte[] data) throws IOException {
+        String hash;
+        boolean changed;
+        // One step, so the blob cannot be deleted between storing and linking it
+        synchronized (this) {
+            hash = put(data);
+            changed = relink(name, hash);
+        }
+        if (changed) {
+            referenceWrites.put(name, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Point the name at an already stored blob, dropping whatever it referred to before
+     */
+    public void link(String name, String hash) {
+        if (relink(name, hash)) {
+            referenceWrites.put(name, hash);
+        }
+    }
+
+    /**
+     * Point the name at the content's texture, storing it first if the content holds the bytes itself
+     *
+     * @return the texture's hash, or null if the content has no texture (the name is dropped)
+     */
+    public String linkTexture(String name, GeneratedContent content) throws IOException {
+        if (content.getTextureHash() != null) {
+            link(name, content.getTextureHash());
+            return content.getTextureHash();
+        }
+        byte[] data = content.getTextureData();
+        if (data == null || data.length == 0) {
+            unlink(name);
+            return null;
+        }
+        return link(name, data);
+    }
+
+    /**
+     * Drop the name; its blob is deleted once nothing else refers to it
+     */
+    public void unlink(String name) {
+        boolean changed;
+        synchronized (this) {
+            ensureLoaded();
+            String previous = references.remove(name);
+            changed = previous != null;
+            if (changed) {
+                release(previous);
+            }
+        }
+        // Outside the lock, as saving the table takes the write-behind lock and then this one
+        if (changed) {
+            referenceWrites.delete(name);
+        }
+    }
+
+    /**
+     * Store the bytes and write them to a file by name, such as a texture in the resource pack. The file is
+     * replaced whole, never written in place, since it may share its data with the blob.
+     *
+     * @return the blob's hash
+     */
+    public String saveFile(Path file, byte[] data) throws IOException {
+        String hash = link(fileName(file), data);
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        // A name of its own, as two saves of the same file may overlap
+        Path temp = directory.resolve(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createLink(temp, blobPath(hash));
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(blobPath(hash), temp, StandardCopyOption.REPLACE_EXISTING);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return hash;
+    }
+
+    /**
+     * The image encoded as PNG, ready for {@link #saveFile}
+     */
+    public static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "PNG", png)) {
+            throw new IOException("No PNG writer available");
+        }
+        return png.toByteArray();
+    }
+
+    /**
+     * The blob's bytes, or null if there is no such blob
+     */
+    public byte[] get(String hash) throws IOException {
+        try {
+            return Files.readAllBytes(blobPath(hash));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    public boolean contains(String hash) {
+        return Files.exists(blobPath(hash));
+    }
+
+    /**
+     * The hash the name refers to, or null if it refers to nothing
+     */
+    public synchronized String getHash(String name) {
+        ensureLoaded();
+        return references.get(name);
+    }
+
+    public synchronized int getReferenceCount(String hash) {
+        ensureLoaded();
+        return referenceCounts.getOrDefault(hash, 0);
+    }
+
+    /**
+     * Save the table of names now, and delete the blobs it no longer refers to
+     */
+    public void flush() {
+        referenceWrites.flush();
+    }
+
+    /**
+     * Save pending reference changes; later changes are saved as they are made
+     */
+    @Override
+    public void close() {
+        referenceWrites.close();
+    }
+
+    public long getStoredCount() {
+        return stored.get();
+    }
+
+    public long getDeduplicatedCount() {
+        return deduplicated.get();
+    }
+
+    public long getDeletedCount() {
+        return deleted.get();
+    }
+
+    public synchronized String getStatsSummary() {
+        ensureLoaded();
+        return String.format("%d blobs for %d names, %d stored (%d KB), %d deduplicated (%d KB saved), %d deleted",
+                referenceCounts.size(), references.size(), stored.get(), storedBytes.get() / 1024,
+                deduplicated.get(), deduplicatedBytes.get() / 1024, deleted.get());
+    }
+
+    Path blobPath(String hash) {
+        return blobDirectory.resolve(hash.substring(0, 2)).resolve(hash + ".png");
+    }
+
+    private static String fileName(Path file) {
+        return "file/" + file.normalize().toString().replace('\\', '/');
+    }
+
+    private synchronized boolean relink(String name, String hash) {
+        ensureLoaded();
+        String previous = references.put(name, hash);
+        if (hash.equals(previous)) {
+            return false;
+        }
+        referenceCounts.merge(hash, 1, Integer::sum);
+        unreferenced.remove(hash);
+        if (previous != null) {
+            release(previous);
+        }
+        return true;
+    }
+
+    private void release(String hash) {
+        int remaining = referenceCounts.merge(hash, -1, Integer::sum);
+        if (remaining <= 0) {
+            referenceCounts.remove(hash);
+            unreferenced.add(hash);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.exists(referencesFile)) {
+            return;
+        }
+        try {
+            JsonObject root = GSON.fromJson(Files.readString(referencesFile, StandardCharsets.UTF_8), JsonObject.class);
+            if (root != null) {
+                for (Map.Entry<String, JsonElement> entry : root.entrySet()) {
+                    String hash = entry.getValue().getAsString();
+                    references.put(entry.getKey(), hash);
+                    referenceCounts.merge(hash, 1, Integer::sum);
+                }
+            }
+        } catch (Exception e) {
+            // Starting without the table only means blobs it referred to are never deleted
+            LOGGER.error("Failed to load texture references: " + e.getMessage());
+        }
+    }
+
+    private void saveReferences() throws IOException {
+        Map<String, String> table;
+        Set<String> deletable;
+        synchronized (this) {
+            ensureLoaded();
+            table = new TreeMap<>(references);
+            deletable = new HashSet<>(unreferenced);
+        }
+
+        JsonObject root = new JsonObject();
+        table.forEach(root::addProperty);
+        ContentSnapshot.writeAtomically(referencesFile, GSON.toJson(root).getBytes(StandardCharsets.UTF_8));
+
+        synchronized (this) {
+            // Anything linked or stored again since the table was taken is no longer in unreferenced
+            for (String hash : deletable) {
+                if (unreferenced.remove(hash)) {
+                    if (Files.deleteIfExists(blobPath(hash))) {
+                        deleted.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.aimodgen.persistence;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects changes to keyed records and writes them out later, off the caller's thread, so saving does
+ * not hold up generation and a burst of changes costs one write. Changes are kept in a dirty set until
+ * the next flush, one flush interval after the first unflushed change; a record changed several times
+ * in between is written once, with its last value. A failed flush puts its changes back to be tried at
+ * the next interval, unless they were changed again meanwhile. Call {@link #flush()} to write everything
+ * now, as on server shutdown.
+ *
+ * @param <K> record key
+ * @param <V> record value
+ */
+public class WriteBehind<K, V> implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "aimod-write-behind");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Writes a batch of changes to storage
+     */
+    public interface Sink<K, V> {
+        /**
+         * @param changes changed records in the order they were first changed; a null value means deleted
+         */
+        void write(Map<K, V> changes) throws IOException;
+    }
+
+    private final String name;
+    private final Sink<K, V> sink;
+    private final long flushIntervalMillis;
+    // Held while writing, so batches reach the sink one at a time and in order
+    private final Object writeLock = new Object();
+
+    // Guarded by this
+    private Map<K, V> dirty = new LinkedHashMap<>();
+    private long oldestDirtyNanos;
+    private boolean flushScheduled;
+    private boolean closed;
+
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastFlushLagMillis;
+    private volatile long maxFlushLagMillis;
+
+    /**
+     * @param flushIntervalMillis how long after the first unflushed change to flush (0 to write every change straight away)
+     */
+    public WriteBehind(String name, Sink<K, V> sink, long flushIntervalMillis) {
+        this.name = name;
+        this.sink = sink;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public void put(K key, V value) {
+        change(key, value);
+    }
+
+    public void delete(K key) {
+        change(key, null);
+    }
+
+    /**
+     * Write all pending changes now, on the calling thread
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            Map<K, V> batch;
+            long since;
+            synchronized (this) {
+                flushScheduled = false;
+                if (dirty.isEmpty()) {
+                    return;
+                }
+                batch = dirty;
+                since = oldestDirtyNanos;
+                dirty = new LinkedHashMap<>();
+            }
+
+            try {
+                sink.write(batch);
+            } catch (IOException | RuntimeException e) {
+                failures.incrementAndGet();
+                LOGGER.error("Failed to save {} {} change(s), will retry: {}", batch.size(), name, e.getMessage());
+                requeue(batch, since);
+                return;
+            }
+            written.addAndGet(batch.size());
+            flushes.incrementAndGet();
+            long lag = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+            lastFlushLagMillis = lag;
+            maxFlushLagMillis = Math.max(maxFlushLagMillis, lag);
+        }
+    }
+
+    /**
+     * Flush what is pending; later changes are written straight away
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+    }
+
+    /**
+     * Changes waiting to be written
+     */
+    public synchronized int getPendingCount() {
+        return dirty.size();
+    }
+
+    /**
+     * How long the oldest unwritten change has been waiting, or 0 if there are none
+     */
+    public synchronized long getFlushLagMillis() {
+        return dirty.isEmpty() ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldestDirtyNanos);
+    }
+
+    /**
+     * How long the changes written by the last flush had waited, at most
+     */
+    public long getLastFlushLagMillis() { return lastFlushLagMillis; }
+    public long getMaxFlushLagMillis() { return maxFlushLagMillis; }
+    public long getChangeCount() { return changes.get(); }
+    public long getWrittenCount() { return written.get(); }
+    public long getFlushCount() { return flushes.get(); }
+    public long getFailureCount() { return failures.get(); }
+
+    public String getStatsSummary() {
+        return String.format("%d changes, %d written in %d flushes, %d pending (%dms behind), last lag %dms, max %dms, %d failed",
+                changes.get(), written.get(), flushes.get(), getPendingCount(), getFlushLagMillis(),
+                lastFlushLagMillis, maxFlushLagMillis, failures.get());
+    }
+
+    private void change(K key, V value) {
+        changes.incrementAndGet();
+        boolean writeNow;
+        synchronized (this) {
+            if (dirty.isEmpty()) {
+                oldestDirtyNanos = System.nanoTime();
+            }
+            dirty.put(key, value);
+            writeNow = closed || flushIntervalMillis <= 0;
+            if (!writeNow && !flushScheduled) {
+                flushScheduled = true;
+                FLUSHER.schedule(this::flush, flushIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (writeNow) {
+            flush();
+        }
+    }
+
+    private synchronized void requeue(Map<K, V> batch, long since) {
+        Map<K, V> merged = new LinkedHashMap<>(batch);
+        // Anything changed since the batch was taken is newer than what failed to be written
+        merged.putAll(dirty);
+        dirty = merged;
+        oldestDirtyNanos = since;
+        if (!closed && !flushScheduled) {
+            flushScheduled = true;
+            FLUSHER.schedule(this::flush, Math.max(flushIntervalMillis, 1000), TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.aimodgen.util;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Small helpers for CompletableFuture chains
+ */
+public final class Futures {
+    private Futures() {
+    }
+
+    /**
+     * Cancel the upstream future when the downstream one is cancelled.
+     * CompletableFuture does not do this by itself, so without it an abandoned LLM call would keep running.
+     */
+    public static <T> CompletableFuture<T> propagateCancellation(CompletableFuture<T> downstream, CompletableFuture<?> upstream) {
+        downstream.whenComplete((value, error) -> {
+            if (downstream.isCancelled()) {
+                upstream.cancel(true);
+            }
+        });
+        return downstream;
+    }
+
+    /**
+     * Hand each future's value to the handler as soon as it arrives, and complete with the first non-null
+     * result the handler gives; the futures still running are then cancelled. Values are handled one at a
+     * time on the executor, so the handler need not be thread-safe. Futures that fail, and handlers that
+     * throw or return null, are skipped; if none gives a result the returned future completes with null.
+     * Cancelling the returned future cancels them all.
+     */
+    public static <T, R> CompletableFuture<R> firstNonNull(List<CompletableFuture<T>> futures, Function<T, R> handler,
+                                                           Executor executor) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        if (futures.isEmpty()) {
+            result.complete(null);
+            return result;
+        }
+
+        AtomicInteger remaining = new AtomicInteger(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            propagateCancellation(result, future);
+            future.whenCompleteAsync((value, error) -> {
+                synchronized (result) {
+                    if (error == null && !result.isDone()) {
+                        R handled = null;
+                        try {
+                            handled = handler.apply(value);
+                        } catch (RuntimeException e) {
+                            // Counts as no result, like a failed future
+                        }
+                        if (handled != null) {
+                            result.complete(handled);
+                            futures.forEach(other -> other.cancel(true));
+                        }
+                    }
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    result.complete(null);
+                }
+            }, executor);
+        }
+        return result;
+    }
+
+    /**
+     * Score each future's value as it arrives and complete with the highest scoring one: straight away once
+     * a value scores at least goodEnough, otherwise when all have finished or the deadline passes, whichever
+     * comes first. The futures still running are then cancelled. Failed futures, null values and values the
+     * scorer throws on are skipped; if none gave a value the returned future completes with null. Cancelling it cancels them all.
+     *
+     * @param deadlineMillis longest to wait, or 0 to wait for every future
+     */
+    public static <T> CompletableFuture<T> best(List<CompletableFuture<T>> futures, ToDoubleFunction<T> scorer,
+                                                double goodEnough, long deadlineMillis) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (futures.isEmpty()) {
+            result.complete(null);
+            return result;
+        }
+
+        Best<T> best = new Best<>();
+        Runnable finish = () -> {
+            T value;
+            synchronized (best) {
+                if (best.finished) {
+                    return;
+                }
+                best.finished = true;
+                value = best.value;
+            }
+            // Losers are cancelled before the winner is announced, so callers never see them still running
+            futures.forEach(future -> future.cancel(true));
+            result.complete(value);
+        };
+
+        AtomicInteger remaining = new AtomicInteger(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            propagateCancellation(result, future);
+            future.whenComplete((value, error) -> {
+                boolean goodEnoughFound = false;
+                if (error == null && value != null) {
+                    Double score = null;
+                    try {
+                        score = scorer.applyAsDouble(value);
+                    } catch (RuntimeException e) {
+                        // Counts as no value, like a failed future
+                    }
+                    if (score != null) {
+                        synchronized (best) {
+                            if (!best.finished && (best.value == null || score > best.score)) {
+                                best.value = value;
+                                best.score = score;
+                            }
+                        }
+                        goodEnoughFound = score >= goodEnough;
+                    }
+                }
+                if (goodEnoughFound || remaining.decrementAndGet() == 0) {
+                    finish.run();
+                }
+            });
+        }
+        if (deadlineMillis > 0 && !result.isDone()) {
+            CompletableFuture.delayedExecutor(deadlineMillis, TimeUnit.MILLISECONDS).execute(finish);
+        }
+        return result;
+    }
+
+    private static final class Best<T> {
+        private T value;
+        private double score;
+        private boolean finished;
+    }
+
+    /**
+     * The underlying failure, without the CompletionException/ExecutionException wrapper
+     */
+    public static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.aimodgen.util;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent requests for the same key onto a single in-flight future.
+ * The first caller starts the work; callers arriving before it finishes share its result.
+ */
+public class SingleFlight<K, V> {
+    private final Map<K, Flight> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Run the work for this key, or join the run already in progress.
+     * Each caller gets its own copy of the shared future, so cancelling one does not affect the others;
+     * once every caller has cancelled, the work itself is cancelled, since nobody wants its result.
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> work) {
+        while (true) {
+            Flight flight = new Flight(key);
+            Flight existing = inFlight.putIfAbsent(key, flight);
+            if (existing != null) {
+                CompletableFuture<V> joined = existing.join();
+                if (joined != null) {
+                    coalesced.incrementAndGet();
+                    return joined;
+                }
+                // Abandoned by all its callers and on its way out; start afresh
+                inFlight.remove(key, existing);
+                continue;
+            }
+
+            CompletableFuture<V> caller = flight.join();
+            CompletableFuture<V> started;
+            try {
+                started = work.get();
+            } catch (Throwable t) {
+                started = CompletableFuture.failedFuture(t);
+            }
+            flight.start(started);
+            return caller;
+        }
+    }
+
+    public boolean isInFlight(K key) {
+        return inFlight.containsKey(key);
+    }
+
+    public int size() {
+        return inFlight.size();
+    }
+
+    /**
+     * Number of calls that joined an existing run instead of starting their own
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * One run of the work and the callers waiting on it
+     */
+    private final class Flight {
+        private final K key;
+        private final CompletableFuture<V> promise = new CompletableFuture<>();
+        // Guarded by this
+        private CompletableFuture<V> work;
+        private int callers;
+        private boolean abandoned;
+
+        Flight(K key) {
+            this.key = key;
+        }
+
+        /**
+         * A copy of the result for one more caller, or null if every earlier caller has already given up
+         */
+        synchronized CompletableFuture<V> join() {
+            if (abandoned) {
+                return null;
+            }
+            callers++;
+            CompletableFuture<V> copy = promise.copy();
+            copy.whenComplete((value, error) -> {
+                if (copy.isCancelled()) {
+                    leave();
+                }
+            });
+            return copy;
+        }
+
+        void start(CompletableFuture<V> started) {
+            boolean cancel;
+            synchronized (this) {
+                work = started;
+                cancel = abandoned;
+            }
+            started.whenComplete((value, error) -> {
+                inFlight.remove(key, this);
+                if (error != null) {
+                    promise.completeExceptionally(error);
+                } else {
+                    promise.complete(value);
+                }
+            });
+            if (cancel) {
+                started.cancel(true);
+            }
+        }
+
+        private void leave() {
+            CompletableFuture<V> toCancel;
+            synchronized (this) {
+                if (--callers > 0 || promise.isDone()) {
+                    return;
+                }
+                abandoned = true;
+                toCancel = work;
+            }
+            inFlight.remove(key, this);
+            if (toCancel != null) {
+                toCancel.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.ai.BackendLimiter;
+import com.example.aimodgen.ai.LLMHttpException;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for per-backend concurrency and rate limiting
+ */
+@Tag("llm")
+public class BackendLimiterTest {
+
+    @Test
+    public void testWaitersStartInArrivalOrder() throws Exception {
+        BackendLimiter limiter = new BackendLimiter("ollama", 2, 0, 1, 3.0);
+        List<String> started = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<String>> calls = new ArrayList<>();
+        List<CompletableFuture<String>> results = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            String name = "call" + i;
+            CompletableFuture<String> call = new CompletableFuture<>();
+            calls.add(call);
+            results.add(limiter.execute(() -> {
+                started.add(name);
+                return call;
+            }));
+        }
+
+        assertEquals(List.of("call0", "call1"), started);
+        assertEquals(2, limiter.getQueued());
+
+        calls.get(1).complete("done");
+        assertEquals(List.of("call0", "call1", "call2"), started);
+
+        calls.forEach(call -> call.complete("done"));
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        assertEquals(4, started.size());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testThrottlingHalvesConcurrencyAndSuccessRecovers() {
+        BackendLimiter limiter = new BackendLimiter("openai", 4, 0, 1, 3.0);
+
+        CompletableFuture<String> throttled = limiter.execute(() ->
+            CompletableFuture.failedFuture(new LLMHttpException(429, "Too Many Requests")));
+
+        assertTrue(throttled.isCompletedExceptionally());
+        assertEquals(2, limiter.getConcurrencyLimit());
+        assertEquals(1, limiter.getOverloadCount());
+
+        for (int i = 0; i < 10; i++) {
+            limiter.execute(() -> CompletableFuture.completedFuture("ok")).join();
+        }
+        assertEquals(4, limiter.getConcurrencyLimit());
+    }
+
+    @Test
+    public void testRateLimitSpacesOutRequests() throws Exception {
+        BackendLimiter limiter = new BackendLimiter("openai", 8, 20.0, 1, 3.0);
+        long start = System.nanoTime();
+
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(limiter.execute(() -> CompletableFuture.completedFuture("ok")));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        // One token up front, then one every 50ms
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90);
+    }
+}
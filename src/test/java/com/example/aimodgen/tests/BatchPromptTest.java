@@ -0,0 +1,71 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.ai.BatchPrompt;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+
+/**
+ * Tests for packing several requests into one prompt and splitting the answer
+ */
+@Tag("llm")
+public class BatchPromptTest {
+
+    private static BatchPrompt itemBatch() {
+        return new BatchPrompt("Design a new Minecraft item: a glowing crystal sword")
+            .add("properties", "Properties of the item as a JSON object")
+            .add("texture", "A Base64 encoded PNG texture")
+            .add("recipe", "A crafting recipe as a JSON object");
+    }
+
+    @Test
+    public void testPromptStatesContextOnceAndListsEveryPart() {
+        String prompt = itemBatch().build();
+
+        assertEquals(prompt.indexOf("glowing crystal sword"), prompt.lastIndexOf("glowing crystal sword"));
+        assertTrue(prompt.contains("properties, texture, recipe"));
+        assertTrue(prompt.indexOf("### properties") < prompt.indexOf("### texture"));
+        assertTrue(prompt.indexOf("### texture") < prompt.indexOf("### recipe"));
+    }
+
+    @Test
+    public void testSplitsCombinedAnswer() {
+        String response = "Sure! Here you go:\n" +
+            "{\"properties\": {\"id\": \"crystal_sword\", \"name\": \"Crystal {Sword}\"}, " +
+            "\"texture\": \"iVBORw0KGgo=\", " +
+            "\"recipe\": {\"type\": \"shaped\", \"result\": \"crystal_sword\"}}\n" +
+            "Let me know if you need anything else.";
+
+        Map<String, String> parts = itemBatch().split(response);
+
+        assertEquals(3, parts.size());
+        assertEquals("{\"id\":\"crystal_sword\",\"name\":\"Crystal {Sword}\"}", parts.get("properties"));
+        assertEquals("iVBORw0KGgo=", parts.get("texture"), "String parts come back without JSON quotes");
+        assertTrue(parts.get("recipe").contains("\"shaped\""));
+    }
+
+    @Test
+    public void testMissingPartsAreLeftOut() {
+        Map<String, String> parts = itemBatch().split("{\"properties\": {\"id\": \"x\"}, \"texture\": null, \"extra\": 1}");
+
+        assertEquals(Map.of("properties", "{\"id\":\"x\"}"), parts);
+    }
+
+    @Test
+    public void testUnusableAnswersGiveNoParts() {
+        BatchPrompt batch = itemBatch();
+
+        assertTrue(batch.split(null).isEmpty());
+        assertTrue(batch.split("I cannot help with that").isEmpty());
+    }
+
+    @Test
+    public void testTruncatedAnswerKeepsFinishedParts() {
+        Map<String, String> parts = itemBatch().split("{\"properties\": {\"id\": \"x\"}, \"texture\": \"iVBOR");
+
+        assertEquals("{\"id\":\"x\"}", parts.get("properties"));
+        assertEquals("iVBOR", parts.get("texture"));
+    }
+}
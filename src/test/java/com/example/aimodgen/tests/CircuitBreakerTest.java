@@ -0,0 +1,133 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.ai.CircuitBreaker;
+import com.example.aimodgen.ai.CircuitOpenException;
+import com.example.aimodgen.ai.LLMHttpException;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.ConnectException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the per-backend circuit breaker
+ */
+@Tag("llm")
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAfterConsecutiveFailuresAndFailsFast() {
+        CircuitBreaker breaker = new CircuitBreaker("ollama", 3, 60_000, null);
+        AtomicInteger calls = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            breaker.execute(() -> {
+                calls.incrementAndGet();
+                return CompletableFuture.failedFuture(new ConnectException("Connection refused"));
+            });
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowsRequests());
+
+        CompletableFuture<String> rejected = breaker.execute(() -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("never");
+        });
+        ExecutionException error = assertThrows(ExecutionException.class, () -> rejected.get(1, TimeUnit.SECONDS));
+        assertTrue(error.getCause() instanceof CircuitOpenException);
+        assertEquals(3, calls.get(), "Open breaker should not call the backend");
+        assertEquals(1, breaker.getRejectedCount());
+        assertEquals(1, breaker.getTripCount());
+    }
+
+    @Test
+    public void testClientErrorsDoNotTrip() {
+        CircuitBreaker breaker = new CircuitBreaker("openai", 2, 60_000, null);
+
+        for (int i = 0; i < 5; i++) {
+            breaker.execute(() -> CompletableFuture.failedFuture(new LLMHttpException(429, "Too Many Requests")));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.execute(() -> CompletableFuture.failedFuture(new LLMHttpException(500, "Internal Server Error")));
+        breaker.execute(() -> CompletableFuture.completedFuture("ok"));
+        breaker.execute(() -> CompletableFuture.failedFuture(new LLMHttpException(500, "Internal Server Error")));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(), "A success in between resets the count");
+    }
+
+    @Test
+    public void testHalfOpenLetsOneTrialThrough() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("ollama", 1, 50, null);
+        breaker.execute(() -> CompletableFuture.failedFuture(new ConnectException("Connection refused")));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(100);
+        assertTrue(breaker.allowsRequests());
+
+        CompletableFuture<String> trialCall = new CompletableFuture<>();
+        CompletableFuture<String> trial = breaker.execute(() -> trialCall);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        CompletableFuture<String> second = breaker.execute(() -> CompletableFuture.completedFuture("too early"));
+        assertTrue(second.isCompletedExceptionally(), "Only one trial at a time");
+
+        trialCall.complete("back");
+        assertEquals("back", trial.get(1, TimeUnit.SECONDS));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testFailedTrialReopens() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("ollama", 1, 50, null);
+        breaker.execute(() -> CompletableFuture.failedFuture(new ConnectException("Connection refused")));
+        Thread.sleep(100);
+
+        breaker.execute(() -> CompletableFuture.failedFuture(new ConnectException("Connection refused")));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowsRequests());
+    }
+
+    @Test
+    public void testHealthProbeControlsBreaker() throws Exception {
+        AtomicBoolean up = new AtomicBoolean(false);
+        CircuitBreaker breaker = new CircuitBreaker("lmstudio", 3, 60_000, () -> up.get()
+                ? CompletableFuture.completedFuture("{\"data\":[]}")
+                : CompletableFuture.failedFuture(new ConnectException("Connection refused")));
+
+        assertFalse(breaker.checkHealth().get(1, TimeUnit.SECONDS));
+        assertFalse(breaker.checkHealth().get(1, TimeUnit.SECONDS));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(), "Failed probes count like failed calls");
+        assertFalse(breaker.checkHealth().get(1, TimeUnit.SECONDS));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(), "Failed probes open the breaker before any request waits");
+
+        up.set(true);
+        assertTrue(breaker.checkHealth().get(1, TimeUnit.SECONDS));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState(), "A good probe lets a trial through early");
+
+        breaker.execute(() -> CompletableFuture.completedFuture("ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(4, breaker.getProbeCount());
+        assertEquals(3, breaker.getProbeFailureCount());
+    }
+
+    @Test
+    public void testLocalErrorsDoNotTrip() {
+        CircuitBreaker breaker = new CircuitBreaker("ollama", 2, 60_000, null);
+
+        for (int i = 0; i < 3; i++) {
+            // The backend answered; we could not read the answer
+            breaker.execute(() -> CompletableFuture.failedFuture(new IllegalStateException("Expected BEGIN_OBJECT")));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getConsecutiveFailures());
+
+        breaker.execute(() -> CompletableFuture.failedFuture(new java.net.http.HttpTimeoutException("request timed out")));
+        breaker.execute(() -> CompletableFuture.failedFuture(new ConnectException("Connection refused")));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.ai.LLMService;
+import com.example.aimodgen.ai.RoutingLLMService;
+import com.example.aimodgen.generation.ContentGenerator;
+import com.example.aimodgen.generation.ContentType;
+import com.example.aimodgen.generation.GenerationContext;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for how the content generator asks its LLM service for each stage
+ */
+@Tag("contentgen")
+public class ContentGeneratorTest {
+    // The generator is a singleton, so every test talks to this one backend
+    private static final PaintingBackend PAINTER = new PaintingBackend();
+
+    static {
+        ContentGenerator.initialize(new RoutingLLMService(List.of(PAINTER)));
+    }
+
+    @Test
+    public void testTexturesTakeTheBackendsImagePath() throws Exception {
+        GenerationContext context = GenerationContext.interactive("alice");
+        try {
+            ContentGenerator.getInstance().warmCaches(ContentType.ITEM, "fire sword", context).get(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            // Only the texture stage matters here, not whether the recipe stage can run outside the game
+        }
+
+        assertFalse(PAINTER.painted.isEmpty(), "The texture went through the backend's own image path");
+        assertSame(context, PAINTER.painted.get(0), "On behalf of the requester, through the router");
+
+        PAINTER.painted.clear();
+        PAINTER.generateTextureAsync("ruby block").join();
+        assertEquals(1, PAINTER.painted.size(), "The shorter overloads reach the same path");
+    }
+
+    /**
+     * Answers texture requests with an image of its own, as the vision and DALL-E backends do
+     */
+    private static class PaintingBackend extends LLMService {
+        final List<GenerationContext> painted = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String getBackendName() {
+            return "painter";
+        }
+
+        @Override
+        protected CompletableFuture<String> sendPrompt(String prompt) {
+            return CompletableFuture.completedFuture("{}");
+        }
+
+        @Override
+        public boolean supportsImageGeneration() {
+            return true;
+        }
+
+        @Override
+        public CompletableFuture<String> generateTextureAsync(String description, String itemType, GenerationContext context) {
+            painted.add(context == null ? GenerationContext.background() : context);
+            return CompletableFuture.completedFuture("{\"base64\": \"iVBORw0KGgo=\"}");
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.generation.ContentType;
+import com.example.aimodgen.generation.GeneratedContent;
+import com.example.aimodgen.persistence.ContentJournal;
+import com.example.aimodgen.persistence.ContentRecord;
+import com.example.aimodgen.persistence.ContentSnapshot;
+import com.example.aimodgen.persistence.TextureStore;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Tests for the append-only journal behind saved content
+ */
+@Tag("contentgen")
+public class ContentJournalTest {
+
+    @Test
+    public void testChangesSurviveReopenWithoutRewritingTheSnapshot() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        ContentJournal journal = open(dir, 1000);
+        journal.put("ruby_block", record("ruby_block", 1));
+        journal.put("jade_sword", record("jade_sword", 2));
+        journal.put("ruby_block", record("ruby_block", 3));
+        journal.delete("jade_sword");
+        journal.close();
+
+        assertFalse(Files.exists(dir.resolve("content.bin")), "Single changes only append to the journal");
+        assertEquals(4, Files.readAllLines(dir.resolve("content.journal")).size());
+
+        ContentJournal reopened = open(dir, 1000);
+        Map<String, ContentRecord> records = reopened.getRecords();
+        assertEquals(1, records.size());
+        assertEquals(3, records.get("ruby_block").getProperties().get("version").getAsInt());
+        assertEquals(4, reopened.getJournalRecords());
+    }
+
+    @Test
+    public void testTornWriteIsCutOffOnRecovery() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        ContentJournal journal = open(dir, 1000);
+        journal.put("ruby_block", record("ruby_block", 1));
+        journal.put("jade_sword", record("jade_sword", 1));
+        journal.close();
+
+        // A crash partway through the next append
+        Path journalFile = dir.resolve("content.journal");
+        long intact = Files.size(journalFile);
+        Files.write(journalFile, "1234abcd {\"op\":\"put\",\"key\":\"half".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        ContentJournal recovered = open(dir, 1000);
+        assertEquals(2, recovered.size());
+        assertEquals(intact, Files.size(journalFile), "Torn tail is truncated");
+        assertTrue(recovered.getDiscardedBytes() > 0);
+
+        // Appending after recovery starts a clean line
+        recovered.put("onyx_lamp", record("onyx_lamp", 1));
+        recovered.close();
+        assertEquals(3, open(dir, 1000).size());
+    }
+
+    @Test
+    public void testCorruptRecordStopsReplay() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        ContentJournal journal = open(dir, 1000);
+        journal.put("ruby_block", record("ruby_block", 1));
+        journal.put("jade_sword", record("jade_sword", 1));
+        journal.put("onyx_lamp", record("onyx_lamp", 1));
+        journal.close();
+
+        Path journalFile = dir.resolve("content.journal");
+        List<String> lines = Files.readAllLines(journalFile);
+        lines.set(1, lines.get(1).replace("jade_sword", "jade_swore"));
+        Files.write(journalFile, lines);
+
+        ContentJournal recovered = open(dir, 1000);
+        assertEquals(List.of("ruby_block"), List.copyOf(recovered.getRecords().keySet()),
+                "Nothing after a record that fails its checksum can be trusted");
+    }
+
+    @Test
+    public void testCompactionFoldsJournalIntoSnapshot() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        ContentJournal journal = open(dir, 5);
+        for (int i = 0; i < 3; i++) {
+            journal.put("ruby_block", record("ruby_block", i));
+            journal.put("jade_sword", record("jade_sword", i));
+        }
+
+        assertEquals(1, journal.getCompactionCount());
+        assertTrue(Files.exists(dir.resolve("content.bin")));
+        assertEquals(1, journal.getJournalRecords(), "Only the change after the compaction is left in the journal");
+        journal.close();
+
+        ContentJournal reopened = open(dir, 5);
+        assertEquals(2, reopened.size());
+        assertEquals(2, reopened.getRecords().get("ruby_block").getProperties().get("version").getAsInt());
+        assertEquals(2, reopened.getRecords().get("jade_sword").getProperties().get("version").getAsInt());
+    }
+
+    @Test
+    public void testBatchIsOneWrite() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        ContentJournal journal = open(dir, 1000);
+        journal.put("jade_sword", record("jade_sword", 1));
+
+        Map<String, ContentRecord> changes = new LinkedHashMap<>();
+        for (int i = 0; i < 50; i++) {
+            changes.put("item_" + i, record("item_" + i, i));
+        }
+        changes.put("jade_sword", null);
+        changes.put("never_saved", null);
+        journal.apply(changes);
+
+        assertEquals(2, journal.getWriteCount());
+        assertEquals(52, journal.getAppendCount(), "Deleting what was never saved is not journaled");
+        assertEquals(50, journal.size());
+        journal.close();
+        assertEquals(50, open(dir, 1000).size());
+    }
+
+    @Test
+    public void testAppendsShareOneSync() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        ContentJournal journal = new ContentJournal(dir.resolve("content.bin"), dir.resolve("content.journal"), 100, 1000);
+        journal.open();
+        for (int i = 0; i < 20; i++) {
+            journal.put("item_" + i, record("item_" + i, i));
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (journal.getSyncCount() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the sync");
+            Thread.sleep(10);
+        }
+        assertEquals(1, journal.getSyncCount());
+        assertEquals(20, journal.getAppendCount());
+    }
+
+    @Test
+    public void testTexturesOfOldSnapshotsAreLinkedOnOpen() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        byte[] texture = {(byte) 0x89, 'P', 'N', 'G', 7, 7, 7};
+        writeVersion1Snapshot(dir.resolve("content.bin"), "ruby_block", texture);
+        TextureStore store = new TextureStore(dir.resolve("textures"), 0);
+
+        ContentJournal journal = new ContentJournal(dir.resolve("content.bin"), dir.resolve("content.journal"), 0, 1000);
+        journal.setTextures(store, key -> "content/" + key);
+        journal.open();
+
+        String hash = TextureStore.hash(texture);
+        assertEquals(hash, journal.getRecords().get("ruby_block").getTextureHash());
+        assertEquals(hash, store.getHash("content/ruby_block"), "Linked, not just stored");
+        assertEquals(1, store.getReferenceCount(hash));
+        assertEquals(1, journal.getCompactionCount(), "Rewritten in the current format");
+
+        // Another name dropping the same texture must not take it from the migrated content
+        store.link("registry/ruby_block", hash);
+        store.unlink("registry/ruby_block");
+        assertTrue(store.contains(hash));
+        journal.close();
+        assertFalse(ContentSnapshot.holdsTextureBytes(dir.resolve("content.bin")));
+    }
+
+    /**
+     * A snapshot as written before the texture store, holding the texture bytes in the record
+     */
+    private static void writeVersion1Snapshot(Path file, String key, byte[] texture) throws Exception {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream recordData = new DataOutputStream(record);
+        writeString(recordData, "BLOCK");
+        writeString(recordData, key);
+        writeString(recordData, "ruby block");
+        writeString(recordData, "{}");
+        recordData.writeInt(texture.length);
+        recordData.write(texture);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(0x41494D43);
+        data.writeShort(1);
+        data.writeInt(1);
+        writeString(data, key);
+        data.writeLong(0);
+        data.writeInt(record.size());
+        record.writeTo(data);
+        CRC32 crc = new CRC32();
+        crc.update(out.toByteArray());
+        data.writeLong(crc.getValue());
+        Files.write(file, out.toByteArray());
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws Exception {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static ContentJournal open(Path dir, int compactAfterRecords) throws Exception {
+        ContentJournal journal = new ContentJournal(dir.resolve("content.bin"), dir.resolve("content.journal"), 0,
+                compactAfterRecords);
+        journal.open();
+        return journal;
+    }
+
+    private static ContentRecord record(String id, int version) {
+        JsonObject properties = new JsonObject();
+        properties.addProperty("version", version);
+        return ContentRecord.of(new GeneratedContent(ContentType.BLOCK, id, id.replace('_', ' '), properties, new byte[0]),
+                null);
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.generation.ContentType;
+import com.example.aimodgen.generation.GeneratedContent;
+import com.example.aimodgen.persistence.ContentJournal;
+import com.example.aimodgen.persistence.ContentRecord;
+import com.example.aimodgen.persistence.ContentSnapshot;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for the binary content snapshot format and its JSON import and export
+ */
+@Tag("contentgen")
+public class ContentSnapshotTest {
+
+    @Test
+    public void testRoundTripLeavesPropertiesEncodedUntilUsed() throws Exception {
+        Path file = Files.createTempDirectory("snapshot").resolve("content.bin");
+        Map<String, ContentRecord> records = new LinkedHashMap<>();
+        records.put("ruby_block", ContentRecord.of(content(ContentType.BLOCK, "ruby_block", 3.5), null));
+        records.put("jade_sword", ContentRecord.of(content(ContentType.ITEM, "jade_sword", 1.0), "ab12"));
+        records.put("bare", ContentRecord.of(new GeneratedContent(ContentType.ITEM, "bare", null, (JsonObject) null, (byte[]) null), null));
+        ContentSnapshot.write(file, records);
+
+        Map<String, ContentRecord> loaded = ContentSnapshot.read(file);
+        assertEquals(List.of("ruby_block", "jade_sword", "bare"), List.copyOf(loaded.keySet()));
+        ContentRecord ruby = loaded.get("ruby_block");
+        assertEquals("BLOCK", ruby.getType());
+        assertEquals("ruby block", ruby.getDescription());
+        assertFalse(ruby.isDecoded(), "Properties are not parsed while loading");
+
+        GeneratedContent content = ruby.toContent();
+        assertEquals("ruby_block", content.getId());
+        assertFalse(ruby.isDecoded(), "Nor when the content is handed out");
+        assertEquals(3.5, content.getProperties().get("hardness").getAsDouble(), 1e-9);
+        assertTrue(ruby.isDecoded());
+        assertSame(content.getProperties(), ruby.getProperties(), "Decoded once and shared");
+
+        assertEquals("ab12", loaded.get("jade_sword").getTextureHash());
+        assertEquals("ab12", loaded.get("jade_sword").toContent().getTextureHash());
+        assertNull(ruby.getTextureHash());
+        assertNull(loaded.get("bare").getProperties());
+        assertNull(loaded.get("bare").getDescription());
+    }
+
+    @Test
+    public void testDamagedSnapshotIsRejected() throws Exception {
+        Path file = Files.createTempDirectory("snapshot").resolve("content.bin");
+        Map<String, ContentRecord> records = new LinkedHashMap<>();
+        records.put("ruby_block", ContentRecord.of(content(ContentType.BLOCK, "ruby_block", 3.5), null));
+        ContentSnapshot.write(file, records);
+
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 0x40;
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> ContentSnapshot.read(file));
+
+        Files.writeString(file, "{\"not\": \"binary\"}");
+        assertThrows(IOException.class, () -> ContentSnapshot.read(file));
+    }
+
+    @Test
+    public void testLegacyJsonIsConvertedAndExportable() throws Exception {
+        Path dir = Files.createTempDirectory("snapshot");
+        Path legacy = dir.resolve("content.json");
+        Files.writeString(legacy, "{\n" +
+                "  \"ruby_block\": {\"type\": \"BLOCK\", \"id\": \"ruby_block\", \"description\": \"ruby block\",\n" +
+                "    \"properties\": {\"hardness\": 2.0}},\n" +
+                "  \"jade_sword\": {\"type\": \"ITEM\", \"id\": \"jade_sword\", \"description\": \"jade sword\",\n" +
+                "    \"properties\": {\"maxDurability\": 250}}\n" +
+                "}", StandardCharsets.UTF_8);
+
+        ContentJournal journal = new ContentJournal(dir.resolve("content.bin"), legacy, dir.resolve("content.journal"), 0, 1000);
+        journal.open();
+        assertEquals(2, journal.size());
+        assertTrue(Files.exists(dir.resolve("content.bin")), "Converted to the binary format on first open");
+        journal.delete("jade_sword");
+        journal.close();
+
+        // The old file is left alone but no longer read
+        assertTrue(Files.exists(legacy));
+        ContentJournal reopened = new ContentJournal(dir.resolve("content.bin"), legacy, dir.resolve("content.journal"), 0, 1000);
+        reopened.open();
+        assertEquals(List.of("ruby_block"), List.copyOf(reopened.getRecords().keySet()));
+
+        Path export = dir.resolve("export.json");
+        ContentSnapshot.writeJson(export, reopened.getRecords());
+        Map<String, ContentRecord> exported = ContentSnapshot.readJson(export);
+        assertEquals(2.0, exported.get("ruby_block").getProperties().get("hardness").getAsDouble(), 1e-9);
+        assertEquals("ruby block", exported.get("ruby_block").getDescription());
+    }
+
+    @Test
+    public void testBinaryIsSmallerThanPrettyJson() throws Exception {
+        Path dir = Files.createTempDirectory("snapshot");
+        Map<String, ContentRecord> records = new LinkedHashMap<>();
+        for (int i = 0; i < 200; i++) {
+            records.put("item_" + i, ContentRecord.of(content(ContentType.ITEM, "item_" + i, i), null));
+        }
+        ContentSnapshot.write(dir.resolve("content.bin"), records);
+        ContentSnapshot.writeJson(dir.resolve("content.json"), records);
+
+        assertTrue(Files.size(dir.resolve("content.bin")) < Files.size(dir.resolve("content.json")));
+        assertEquals(200, ContentSnapshot.read(dir.resolve("content.bin")).size());
+    }
+
+    private static GeneratedContent content(ContentType type, String id, double hardness) {
+        JsonObject properties = new JsonObject();
+        properties.addProperty("name", id.replace('_', ' '));
+        properties.addProperty("hardness", hardness);
+        JsonObject custom = new JsonObject();
+        custom.addProperty("glows", hardness > 2);
+        properties.add("customProperties", custom);
+        return new GeneratedContent(type, id, id.replace('_', ' '), properties, new byte[] {1, 2, 3});
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.util.Futures;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for taking the first usable result of several concurrent requests
+ */
+@Tag("llm")
+public class FuturesTest {
+
+    @Test
+    public void testFirstResultWinsAndCancelsTheRest() {
+        CompletableFuture<String> slow = new CompletableFuture<>();
+        CompletableFuture<String> fast = new CompletableFuture<>();
+        AtomicInteger handled = new AtomicInteger();
+
+        CompletableFuture<String> result = Futures.firstNonNull(List.of(slow, fast), value -> {
+            handled.incrementAndGet();
+            return value.toUpperCase();
+        }, Runnable::run);
+
+        fast.complete("stone");
+
+        assertEquals("STONE", result.join());
+        assertTrue(slow.isCancelled(), "Variations still running should be cancelled");
+        assertEquals(1, handled.get());
+    }
+
+    @Test
+    public void testUnusableResultsAreSkipped() {
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        CompletableFuture<String> empty = new CompletableFuture<>();
+        CompletableFuture<String> good = new CompletableFuture<>();
+
+        CompletableFuture<String> result = Futures.firstNonNull(List.of(failed, empty, good),
+                value -> value.isEmpty() ? null : value, Runnable::run);
+
+        failed.completeExceptionally(new RuntimeException("backend down"));
+        empty.complete("");
+        assertFalse(result.isDone());
+
+        good.complete("ruby");
+        assertEquals("ruby", result.join());
+    }
+
+    @Test
+    public void testNullWhenNothingIsUsable() {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+
+        CompletableFuture<String> result = Futures.firstNonNull(List.of(first, second), value -> {
+            throw new IllegalStateException("bad texture");
+        }, Runnable::run);
+
+        first.complete("a");
+        second.completeExceptionally(new RuntimeException("timeout"));
+
+        assertNull(result.join());
+    }
+
+    @Test
+    public void testCancellingResultCancelsAll() {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+
+        CompletableFuture<String> result = Futures.firstNonNull(List.of(first, second), value -> value, Runnable::run);
+        result.cancel(true);
+
+        assertTrue(first.isCancelled());
+        assertTrue(second.isCancelled());
+    }
+
+    @Test
+    public void testBestWaitsForAllAndPicksHighestScore() {
+        CompletableFuture<String> small = new CompletableFuture<>();
+        CompletableFuture<String> large = new CompletableFuture<>();
+        CompletableFuture<String> failed = new CompletableFuture<>();
+
+        CompletableFuture<String> result = Futures.best(List.of(small, large, failed), String::length, 100, 0);
+
+        small.complete("ab");
+        large.complete("abcdef");
+        assertFalse(result.isDone(), "Nothing good enough yet, so every entrant is waited for");
+        failed.completeExceptionally(new RuntimeException("backend down"));
+
+        assertEquals("abcdef", result.join());
+    }
+
+    @Test
+    public void testBestTakesGoodEnoughResultStraightAway() {
+        CompletableFuture<String> slow = new CompletableFuture<>();
+        CompletableFuture<String> fast = new CompletableFuture<>();
+
+        CompletableFuture<String> result = Futures.best(List.of(slow, fast), String::length, 3, 0);
+        fast.complete("good");
+
+        assertEquals("good", result.join());
+        assertTrue(slow.isCancelled());
+    }
+
+    @Test
+    public void testBestReturnsBestSoFarAtDeadline() {
+        CompletableFuture<String> stuck = new CompletableFuture<>();
+        CompletableFuture<String> done = CompletableFuture.completedFuture("ok");
+
+        String best = Futures.best(List.of(stuck, done), String::length, 100, 50).join();
+
+        assertEquals("ok", best);
+        assertTrue(stuck.isCancelled(), "Entrants still running at the deadline should be cancelled");
+    }
+
+    @Test
+    public void testBestSkipsValuesTheScorerThrowsOn() {
+        CompletableFuture<String> unscorable = new CompletableFuture<>();
+        CompletableFuture<String> scorable = new CompletableFuture<>();
+        CompletableFuture<String> result = Futures.best(List.of(unscorable, scorable), value -> {
+            if (value.startsWith("!")) {
+                throw new IllegalArgumentException("not an image");
+            }
+            return value.length();
+        }, 100, 0);
+
+        unscorable.complete("!garbled");
+        assertFalse(result.isDone());
+        scorable.complete("ok");
+        assertEquals("ok", result.join(), "The throw counts as no value, and the race still finishes");
+
+        CompletableFuture<String> only = CompletableFuture.completedFuture("!garbled");
+        assertNull(Futures.best(List.of(only), value -> { throw new IllegalStateException(); }, 100, 0).join());
+    }
+
+    @Test
+    public void testBestCancelsLosingEntrantsUnderlyingWork() {
+        // Entrants built the way the texture race builds them: a mapped view of each strategy's LLM call
+        CompletableFuture<String> slowCall = new CompletableFuture<>();
+        CompletableFuture<String> fastCall = new CompletableFuture<>();
+        List<CompletableFuture<Integer>> entrants = List.of(
+            Futures.propagateCancellation(slowCall.thenApply(String::length), slowCall),
+            Futures.propagateCancellation(fastCall.thenApply(String::length), fastCall));
+
+        CompletableFuture<Integer> result = Futures.best(entrants, Integer::doubleValue, 3, 0);
+        fastCall.complete("good");
+
+        assertEquals(Integer.valueOf(4), result.join());
+        assertTrue(slowCall.isCancelled(), "The losing strategy's call itself is cancelled, not just its wrapper");
+    }
+}
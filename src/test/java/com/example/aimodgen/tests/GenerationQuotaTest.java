@@ -0,0 +1,203 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.generation.ContentType;
+import com.example.aimodgen.generation.GenerationContext;
+import com.example.aimodgen.generation.GenerationQuota;
+import com.example.aimodgen.generation.GenerationScheduler;
+import com.example.aimodgen.generation.PregenerationService;
+import com.example.aimodgen.generation.RequestHistory;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for per-player and server-wide generation budgets
+ */
+@Tag("contentgen")
+public class GenerationQuotaTest {
+    private final GenerationContext alice = GenerationContext.interactive("alice");
+    private final GenerationContext bob = GenerationContext.interactive("bob");
+
+    @Test
+    public void testPlayerRequestsPerMinute() {
+        MutableClock clock = new MutableClock();
+        GenerationQuota quota = new GenerationQuota(2, 0, 0, 0, null, clock);
+
+        assertNull(quota.tryAcquire(alice));
+        assertNull(quota.tryAcquire(alice));
+        assertNotNull(quota.tryAcquire(alice), "Third generation within a minute is turned away");
+        assertNull(quota.tryAcquire(bob), "Other players have their own budget");
+
+        clock.advance(60_000);
+        assertNull(quota.tryAcquire(alice));
+    }
+
+    @Test
+    public void testGlobalRequestsPerMinuteIncludesBackgroundWork() {
+        GenerationQuota quota = new GenerationQuota(0, 0, 2, 0, null, new MutableClock());
+
+        assertNull(quota.tryAcquire(GenerationContext.background()));
+        assertNull(quota.tryAcquire(alice));
+        assertNotNull(quota.tryAcquire(bob));
+    }
+
+    @Test
+    public void testTokensPerDayResetAtMidnight() {
+        MutableClock clock = new MutableClock();
+        GenerationQuota quota = new GenerationQuota(0, 1000, 0, 0, null, clock);
+
+        quota.charge(alice, 600);
+        assertNull(quota.tryAcquire(alice));
+        quota.charge(alice, 600);
+        String rejection = quota.tryAcquire(alice);
+        assertNotNull(rejection);
+        assertTrue(rejection.contains("daily"));
+        assertNull(quota.tryAcquire(GenerationContext.background()), "Server work has no player budget");
+
+        clock.advance(24 * 60 * 60 * 1000L);
+        assertEquals(0, quota.tokensUsed("alice"));
+        assertNull(quota.tryAcquire(alice));
+    }
+
+    @Test
+    public void testTokenUseSurvivesRestartOnTheSameDay() throws Exception {
+        Path file = Files.createTempDirectory("quota").resolve("quotas.json");
+        MutableClock clock = new MutableClock();
+        GenerationQuota quota = new GenerationQuota(0, 1000, 0, 5000, file, clock);
+        quota.charge(alice, 1200);
+        quota.charge(null, 300);
+        quota.save();
+
+        GenerationQuota restarted = new GenerationQuota(0, 1000, 0, 5000, file, clock);
+        assertEquals(1200, restarted.tokensUsed("alice"));
+        assertEquals(1500, restarted.getGlobalTokensUsed());
+        assertNotNull(restarted.tryAcquire(alice));
+
+        clock.advance(24 * 60 * 60 * 1000L);
+        GenerationQuota nextDay = new GenerationQuota(0, 1000, 0, 5000, file, clock);
+        assertEquals(0, nextDay.tokensUsed("alice"));
+    }
+
+    @Test
+    public void testPregenerationHasItsOwnBudget() throws Exception {
+        GenerationQuota quota = new GenerationQuota(0, 0, 1, 1000, 500, null, new MutableClock());
+        GenerationContext speculative = GenerationContext.speculative();
+
+        // A night of pre-generation, more than the server's own budget in all
+        for (int i = 0; i < 3; i++) {
+            assertNull(quota.tryAcquire(GenerationContext.speculative()), "Not held to the server's rate either");
+        }
+        quota.charge(speculative, 1200);
+        assertEquals(0, quota.getGlobalTokensUsed());
+        assertEquals(1200, quota.getSpeculativeTokensUsed());
+        assertNotNull(quota.tryAcquire(speculative), "Over its own budget");
+        assertNull(quota.tryAcquire(alice), "Players still have the server's whole budget");
+
+        GenerationQuota spent = new GenerationQuota(0, 0, 0, 1000, 0, null, new MutableClock());
+        spent.charge(alice, 1000);
+        assertEquals(0, spent.globalTokensRemaining());
+        assertNotNull(spent.tryAcquire(speculative), "Nor does it run once players have used the server's budget");
+
+        // Pre-generation stops while the server is down to its reserve
+        GenerationScheduler scheduler = new GenerationScheduler(1, 8, 8, 1);
+        try {
+            GenerationQuota reserved = new GenerationQuota(0, 0, 0, 1000, 0, null, new MutableClock());
+            scheduler.setQuota(reserved);
+            List<String> warmed = Collections.synchronizedList(new ArrayList<>());
+            PregenerationService service = new PregenerationService(scheduler,
+                    () -> List.of(new RequestHistory.Request(ContentType.ITEM, "fire sword", 1)),
+                    (prediction, context) -> {
+                        warmed.add(prediction.getDescription());
+                        return CompletableFuture.completedFuture(null);
+                    }, () -> true, 10, 0, 0, 200, new MutableClock());
+
+            reserved.charge(bob, 850);
+            assertFalse(service.tick(), "Only 150 tokens left, under the reserve of 200");
+            assertTrue(warmed.isEmpty());
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    @Test
+    public void testChargingLeavesWritingToOneBackgroundWriter() throws Exception {
+        Path file = Files.createTempDirectory("quota").resolve("quotas.json");
+        GenerationQuota quota = new GenerationQuota(0, 0, 0, 0, file, new MutableClock());
+        quota.charge(alice, 100);
+        assertFalse(Files.exists(file), "Charged from usage listeners, which must not wait on the disk");
+        assertEquals(1, quota.getPendingSaveCount());
+
+        CompletableFuture<?>[] chargers = new CompletableFuture<?>[8];
+        for (int i = 0; i < chargers.length; i++) {
+            GenerationContext player = GenerationContext.interactive("player" + i);
+            chargers[i] = CompletableFuture.runAsync(() -> {
+                for (int j = 0; j < 100; j++) {
+                    quota.charge(player, 10);
+                    quota.save();
+                }
+            });
+        }
+        CompletableFuture.allOf(chargers).get(30, TimeUnit.SECONDS);
+        quota.save();
+
+        GenerationQuota restarted = new GenerationQuota(0, 0, 0, 0, file, new MutableClock());
+        assertEquals(8100, restarted.getGlobalTokensUsed());
+        assertEquals(1000, restarted.tokensUsed("player3"));
+        assertFalse(Files.exists(file.resolveSibling("quotas.json.tmp")));
+    }
+
+    @Test
+    public void testSchedulerRejectsOverBudgetWithoutQueueing() throws Exception {
+        GenerationScheduler scheduler = new GenerationScheduler(1, 8, 8, 1);
+        scheduler.setQuota(new GenerationQuota(1, 0, 0, 0, null, new MutableClock()));
+        try {
+            scheduler.submit(alice, () -> CompletableFuture.completedFuture("first")).get(5, TimeUnit.SECONDS);
+
+            CompletableFuture<String> second = scheduler.submit(alice, () -> CompletableFuture.completedFuture("second"));
+            assertTrue(second.isCompletedExceptionally());
+            ExecutionException error = assertThrows(ExecutionException.class, second::get);
+            assertTrue(error.getCause() instanceof RejectedExecutionException);
+            assertTrue(error.getCause().getMessage().contains("per minute"));
+            assertEquals(1, scheduler.getRejected());
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    private static class MutableClock extends Clock {
+        private long millis = Instant.parse("2024-05-01T10:00:00Z").toEpochMilli();
+
+        void advance(long delta) {
+            millis += delta;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.generation.GenerationContext;
+import com.example.aimodgen.generation.GenerationScheduler;
+import com.example.aimodgen.util.SingleFlight;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Tests for the bounded, prioritized generation scheduler
+ */
+@Tag("contentgen")
+public class GenerationSchedulerTest {
+
+    @Test
+    public void testPlayersTakeTurns() throws Exception {
+        GenerationScheduler scheduler = new GenerationScheduler(1, 16, 4, 1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<String> blocker = new CompletableFuture<>();
+        scheduler.submit(GenerationContext.interactive("first"), () -> blocker);
+
+        CompletableFuture<String> alice1 = scheduler.submit(GenerationContext.interactive("alice"), record(order, "alice1"));
+        CompletableFuture<String> alice2 = scheduler.submit(GenerationContext.interactive("alice"), record(order, "alice2"));
+        CompletableFuture<String> bob = scheduler.submit(GenerationContext.interactive("bob"), record(order, "bob"));
+        assertEquals(3, scheduler.getQueueDepth());
+
+        blocker.complete("done");
+        CompletableFuture.allOf(alice1, alice2, bob).get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("alice1", "bob", "alice2"), order);
+        assertEquals(0, scheduler.getQueueDepth());
+        assertEquals(0, scheduler.getRunning());
+    }
+
+    @Test
+    public void testInteractiveRunsBeforeBackground() throws Exception {
+        GenerationScheduler scheduler = new GenerationScheduler(1, 16, 4, 1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<String> blocker = new CompletableFuture<>();
+        scheduler.submit(GenerationContext.interactive("first"), () -> blocker);
+
+        CompletableFuture<String> background = scheduler.submit(GenerationContext.background(), record(order, "background"));
+        CompletableFuture<String> interactive = scheduler.submit(GenerationContext.interactive("alice"), record(order, "interactive"));
+        assertEquals(1, scheduler.getQueueDepth(GenerationContext.Priority.BACKGROUND));
+
+        blocker.complete("done");
+        CompletableFuture.allOf(background, interactive).get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("interactive", "background"), order);
+    }
+
+    @Test
+    public void testFullQueueRejectsWithFeedback() {
+        GenerationScheduler scheduler = new GenerationScheduler(1, 4, 2, 1);
+        List<String> messages = new ArrayList<>();
+        scheduler.submit(GenerationContext.interactive("first"), CompletableFuture::new);
+
+        GenerationContext alice = GenerationContext.interactive("alice").withFeedback(messages::add);
+        scheduler.submit(alice, CompletableFuture::new);
+        scheduler.submit(alice, CompletableFuture::new);
+        CompletableFuture<Object> third = scheduler.submit(alice, CompletableFuture::new);
+
+        CompletionException error = assertThrows(CompletionException.class, third::join);
+        assertTrue(error.getCause() instanceof RejectedExecutionException);
+        assertEquals(2, messages.size());
+        assertTrue(messages.get(1).contains("1 request(s) ahead"));
+
+        // Background work may only fill half the queue
+        CompletableFuture<Object> background = scheduler.submit(GenerationContext.background(), CompletableFuture::new);
+        assertThrows(CompletionException.class, background::join);
+        assertEquals(2, scheduler.getRejected());
+    }
+
+    @Test
+    public void testCancelledJobsAreSkipped() throws Exception {
+        GenerationScheduler scheduler = new GenerationScheduler(1, 16, 4, 1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<String> blocker = new CompletableFuture<>();
+        scheduler.submit(GenerationContext.interactive("first"), () -> blocker);
+
+        CompletableFuture<String> abandoned = scheduler.submit(GenerationContext.interactive("alice"), record(order, "abandoned"));
+        CompletableFuture<String> kept = scheduler.submit(GenerationContext.interactive("bob"), record(order, "kept"));
+        abandoned.cancel(true);
+
+        blocker.complete("done");
+        kept.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("kept"), order);
+        assertTrue(scheduler.getMaxWaitMillis() >= 0);
+    }
+
+    @Test
+    public void testCancellingContextStopsQueuedAndRunningWork() throws Exception {
+        GenerationScheduler scheduler = new GenerationScheduler(1, 16, 4, 1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<String> work = new CompletableFuture<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<String> running = scheduler.submit(GenerationContext.interactive("alice"), () -> {
+            started.countDown();
+            return work;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> queued = scheduler.submit(GenerationContext.interactive("alice"), record(order, "queued"));
+        CompletableFuture<String> other = scheduler.submit(GenerationContext.interactive("bob"), record(order, "other"));
+
+        assertEquals(2, scheduler.cancelAll("alice", "alice logged off"));
+
+        // The worker may still be handing the job its work, in which case the cancellation reaches it just after
+        assertThrows(CancellationException.class, () -> work.get(5, TimeUnit.SECONDS),
+            "Running work should be cancelled along with its job");
+        assertThrows(CancellationException.class, running::join);
+        assertThrows(CancellationException.class, queued::join);
+        other.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("other"), order);
+        assertEquals(0, scheduler.cancelAll("alice", "again"));
+        assertEquals(2, scheduler.getCancelled());
+    }
+
+    @Test
+    public void testSpeculativeWorkNeverQueues() {
+        GenerationScheduler scheduler = new GenerationScheduler(1, 16, 4, 1);
+        scheduler.submit(GenerationContext.background(), CompletableFuture::new);
+
+        CompletableFuture<Object> speculative = scheduler.submit(GenerationContext.speculative(), CompletableFuture::new);
+
+        CompletionException error = assertThrows(CompletionException.class, speculative::join);
+        assertTrue(error.getCause() instanceof RejectedExecutionException);
+        assertEquals(0, scheduler.getQueueDepth());
+        assertEquals(0, scheduler.getPreempted(), "Only interactive requests preempt speculative work");
+    }
+
+    @Test
+    public void testCancelledContextIsNotAccepted() {
+        GenerationScheduler scheduler = new GenerationScheduler(1, 16, 4, 1);
+        GenerationContext context = GenerationContext.interactive("alice");
+        context.cancel("superseded");
+        List<String> order = new ArrayList<>();
+
+        CompletableFuture<String> result = scheduler.submit(context, record(order, "never"));
+
+        CancellationException error = assertThrows(CancellationException.class, result::join);
+        assertEquals("superseded", error.getMessage());
+        assertTrue(order.isEmpty());
+    }
+
+    @Test
+    public void testDeadlineCancelsTrackedWork() throws Exception {
+        GenerationContext context = GenerationContext.interactive("alice").withDeadline(50);
+        CompletableFuture<String> call = context.getCancellation().track(new CompletableFuture<>());
+
+        assertThrows(CancellationException.class, () -> call.get(5, TimeUnit.SECONDS));
+        assertTrue(context.isCancelled());
+        assertTrue(context.getCancellation().getReason().contains("timed out"));
+
+        CompletableFuture<String> late = context.getCancellation().track(new CompletableFuture<>());
+        assertTrue(late.isCancelled(), "Work registered after cancelling should not start");
+    }
+
+    @Test
+    public void testOneJoinerCancellingDoesNotStopSharedWork() throws Exception {
+        GenerationScheduler scheduler = new GenerationScheduler(1, 16, 4, 1);
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        CompletableFuture<String> work = new CompletableFuture<>();
+        List<GenerationContext> ranUnder = Collections.synchronizedList(new ArrayList<>());
+        GenerationContext alice = GenerationContext.interactive("alice");
+        GenerationContext bob = GenerationContext.interactive("bob");
+
+        CompletableFuture<String> forAlice = scheduler.submitShared(flights, "ruby block", alice, context -> {
+            ranUnder.add(context);
+            return context.getCancellation().track(work);
+        });
+        CompletableFuture<String> forBob = scheduler.submitShared(flights, "ruby block", bob, context -> {
+            ranUnder.add(context);
+            return CompletableFuture.completedFuture("bob's own");
+        });
+
+        // The first requester logging off only gives up their own wait
+        assertEquals(1, scheduler.cancelAll("alice", "alice logged off"));
+        assertThrows(CancellationException.class, forAlice::join);
+        assertFalse(work.isDone());
+        assertFalse(forBob.isDone());
+
+        work.complete("ruby");
+        assertEquals("ruby", forBob.get(5, TimeUnit.SECONDS));
+        assertEquals(1, ranUnder.size(), "Bob joined Alice's generation");
+        assertTrue(ranUnder.get(0).isDetached());
+        assertEquals("alice", ranUnder.get(0).getRequesterId());
+    }
+
+    @Test
+    public void testSharedWorkStopsOnceEveryJoinerCancels() throws Exception {
+        GenerationScheduler scheduler = new GenerationScheduler(1, 16, 4, 1);
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        CompletableFuture<String> work = new CompletableFuture<>();
+        GenerationContext alice = GenerationContext.interactive("alice");
+        GenerationContext bob = GenerationContext.interactive("bob");
+        List<GenerationContext> ranUnder = Collections.synchronizedList(new ArrayList<>());
+
+        CompletableFuture<String> forAlice = scheduler.submitShared(flights, "ruby block", alice, context -> {
+            ranUnder.add(context);
+            return context.getCancellation().track(work);
+        });
+        CompletableFuture<String> forBob = scheduler.submitShared(flights, "ruby block", bob,
+            context -> CompletableFuture.completedFuture("bob's own"));
+        // The job runs on the scheduler's workers; cancelling before it starts would never reach its calls
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ranUnder.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        bob.cancel("bob gave up");
+        assertThrows(CancellationException.class, forBob::join);
+        assertFalse(work.isDone(), "Alice is still waiting");
+
+        alice.cancel("alice gave up");
+        assertThrows(CancellationException.class, forAlice::join);
+        assertThrows(CancellationException.class, () -> work.get(5, TimeUnit.SECONDS),
+            "Nobody wants the result any more, so its calls are aborted");
+        assertTrue(ranUnder.get(0).isCancelled());
+    }
+
+    private static Supplier<CompletableFuture<String>> record(List<String> order, String name) {
+        return () -> {
+            order.add(name);
+            return CompletableFuture.completedFuture(name);
+        };
+    }
+}
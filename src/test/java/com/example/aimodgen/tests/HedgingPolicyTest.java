@@ -0,0 +1,87 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.ai.HedgingPolicy;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for hedged LLM requests
+ */
+@Tag("llm")
+public class HedgingPolicyTest {
+
+    @Test
+    public void testNoHedgingUntilEnoughSamples() {
+        HedgingPolicy policy = new HedgingPolicy(95, 10, 1.0);
+
+        assertEquals(-1, policy.getHedgeDelayMs());
+        warmUp(policy);
+        assertTrue(policy.getHedgeDelayMs() >= 10);
+    }
+
+    @Test
+    public void testHedgeWinsAndCancelsStuckRequest() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy(95, 10, 1.0);
+        warmUp(policy);
+        CompletableFuture<String> stuck = new CompletableFuture<>();
+
+        String result = policy.execute(() -> stuck, () -> CompletableFuture.completedFuture("hedge"))
+            .get(5, TimeUnit.SECONDS);
+
+        assertEquals("hedge", result);
+        assertTrue(stuck.isCancelled());
+        assertEquals(1, policy.getHedgeCount());
+        assertEquals(1.0, policy.getWinRate());
+    }
+
+    @Test
+    public void testFastPrimaryIsNotHedged() {
+        HedgingPolicy policy = new HedgingPolicy(95, 10, 1.0);
+        warmUp(policy);
+        AtomicInteger hedgesStarted = new AtomicInteger();
+
+        String result = policy.execute(() -> CompletableFuture.completedFuture("primary"), () -> {
+            hedgesStarted.incrementAndGet();
+            return CompletableFuture.completedFuture("hedge");
+        }).join();
+
+        assertEquals("primary", result);
+        assertEquals(0, hedgesStarted.get());
+    }
+
+    @Test
+    public void testHedgeBudgetIsRespected() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy(95, 10, 0.0);
+        warmUp(policy);
+        CompletableFuture<String> slow = new CompletableFuture<>();
+
+        CompletableFuture<String> result = policy.execute(() -> slow, () -> CompletableFuture.completedFuture("hedge"));
+        Thread.sleep(50);
+        slow.complete("primary");
+
+        assertEquals("primary", result.get(5, TimeUnit.SECONDS));
+        assertEquals(0, policy.getHedgeCount());
+    }
+
+    @Test
+    public void testFailsOnlyWhenBothAttemptsFail() {
+        HedgingPolicy policy = new HedgingPolicy(95, 10, 1.0);
+        warmUp(policy);
+
+        CompletableFuture<String> failedPrimary = CompletableFuture.failedFuture(new IllegalStateException("down"));
+        CompletableFuture<String> result = policy.execute(() -> failedPrimary, () -> CompletableFuture.completedFuture("hedge"));
+
+        assertTrue(result.isCompletedExceptionally());
+    }
+
+    private static void warmUp(HedgingPolicy policy) {
+        for (int i = 0; i < 20; i++) {
+            policy.execute(() -> CompletableFuture.completedFuture("ok"), () -> CompletableFuture.completedFuture("ok")).join();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.ai.JsonRepair;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for recovering JSON objects from almost-valid model output
+ */
+@Tag("llm")
+public class JsonRepairTest {
+
+    @Test
+    public void testObjectIsFoundInsideChatterAndCodeFences() {
+        JsonObject parsed = JsonRepair.parseObject("Sure! Here it is:\n```json\n{\"id\": \"ruby_block\", \"note\": \"a } inside\"}\n```\nEnjoy {not json}");
+
+        assertNotNull(parsed);
+        assertEquals("ruby_block", parsed.get("id").getAsString());
+        assertEquals("a } inside", parsed.get("note").getAsString());
+    }
+
+    @Test
+    public void testTrailingCommasAreDropped() {
+        JsonObject parsed = JsonRepair.parseObject("{\"pattern\": [\"SS\", \"SS\",], \"type\": \"shaped\",}");
+
+        assertNotNull(parsed);
+        assertEquals(2, parsed.getAsJsonArray("pattern").size());
+        assertEquals("shaped", parsed.get("type").getAsString());
+    }
+
+    @Test
+    public void testTruncatedAnswerIsClosed() {
+        JsonObject parsed = JsonRepair.parseObject("{\"id\": \"jade\", \"colorPalette\": [\"#00A86B\", \"#3B7A57\", \"desc");
+
+        assertNotNull(parsed);
+        assertEquals("jade", parsed.get("id").getAsString());
+        assertEquals(3, parsed.getAsJsonArray("colorPalette").size());
+    }
+
+    @Test
+    public void testAnswerCutAfterKeyGetsNull() {
+        JsonObject parsed = JsonRepair.parseObject("{\"id\": \"jade\", \"hardness\":");
+
+        assertNotNull(parsed);
+        assertTrue(parsed.get("hardness").isJsonNull());
+    }
+
+    @Test
+    public void testNoObjectGivesNull() {
+        assertNull(JsonRepair.parseObject("I cannot help with that."));
+        assertNull(JsonRepair.parseObject(null));
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.ai.LLMHttpTransport;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the shared HTTP transport's connection limits
+ */
+@Tag("llm")
+public class LLMHttpTransportTest {
+
+    @Test
+    public void testRequestsThatCannotBeSentFailAndFreeTheirConnections() throws Exception {
+        LLMHttpTransport.configure(1, 1, 1000, 1000, 30, 1);
+        LLMHttpTransport closed = LLMHttpTransport.shared();
+        // Replacing the transport closes the old one, which backends may still hold
+        LLMHttpTransport.configure(LLMHttpTransport.DEFAULT_MAX_CONNECTIONS_PER_ROUTE,
+                LLMHttpTransport.DEFAULT_MAX_CONNECTIONS_TOTAL, LLMHttpTransport.DEFAULT_CONNECT_TIMEOUT_MS,
+                LLMHttpTransport.DEFAULT_READ_TIMEOUT_MS, LLMHttpTransport.DEFAULT_IDLE_EVICTION_SECONDS,
+                LLMHttpTransport.DEFAULT_IO_THREADS);
+
+        // Both go to the same route, which has one connection: the second only runs if the first gave it back
+        for (int i = 0; i < 2; i++) {
+            CompletableFuture<?> request = closed.postJson("http://127.0.0.1:9/api/generate", Map.of(), "{}");
+            ExecutionException error = assertThrows(ExecutionException.class, () -> request.get(5, TimeUnit.SECONDS));
+            assertTrue(error.getCause() instanceof RejectedExecutionException, String.valueOf(error.getCause()));
+        }
+        assertEquals(0, closed.getInFlightRequests());
+        assertEquals(0, closed.getQueuedRequests());
+    }
+}
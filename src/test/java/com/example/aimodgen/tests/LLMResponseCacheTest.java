@@ -0,0 +1,137 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.ai.LLMRequest;
+import com.example.aimodgen.ai.LLMResponseCache;
+import com.example.aimodgen.ai.LLMService;
+import com.example.aimodgen.ai.ResponseSchema;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Tests for the two-tier LLM response cache
+ */
+@Tag("llm")
+public class LLMResponseCacheTest {
+
+    @Test
+    public void testKeyDependsOnEveryComponent() {
+        String key = LLMResponseCache.key("ollama", "mistral", 0.7, "fire sword");
+
+        assertEquals(key, LLMResponseCache.key("ollama", "mistral", 0.7, "fire sword"));
+        assertNotEquals(key, LLMResponseCache.key("lmstudio", "mistral", 0.7, "fire sword"));
+        assertNotEquals(key, LLMResponseCache.key("ollama", "llama3", 0.7, "fire sword"));
+        assertNotEquals(key, LLMResponseCache.key("ollama", "mistral", 0.2, "fire sword"));
+        assertNotEquals(key, LLMResponseCache.key("ollama", "mistral", 0.7, "ice sword"));
+        assertNotEquals(key, LLMResponseCache.key("ollama", "mistral", 0.7, "item", "fire sword"));
+        assertNotEquals(LLMResponseCache.key("ollama", "mistral", 0.7, "item", "fire sword"),
+                LLMResponseCache.key("ollama", "mistral", 0.7, "block", "fire sword"));
+    }
+
+    @Test
+    public void testOnlyReadableAnswersAreCached() throws Exception {
+        LLMResponseCache cache = new LLMResponseCache(Files.createTempDirectory("llm-cache"), 16, 1024 * 1024, 60_000);
+        ResponseSchema schema = new ResponseSchema("item").required("name", ResponseSchema.Type.STRING);
+        ScriptedBackend backend = new ScriptedBackend();
+        backend.setResponseCache(cache);
+
+        backend.answers.add("I'd be happy to help! {\"name\": ");
+        backend.answers.add("{\"damage\": 4}");
+        backend.answers.add("{\"name\": \"Fire Sword\"}");
+        assertEquals("I'd be happy to help! {\"name\": ", backend.generateModContentAsync("fire sword", null, schema).join());
+        assertEquals("{\"damage\": 4}", backend.generateModContentAsync("fire sword", null, schema).join(),
+                "A truncated answer is not served again");
+        assertEquals("{\"name\": \"Fire Sword\"}", backend.generateModContentAsync("fire sword", null, schema).join(),
+                "Nor one missing a required field");
+        assertEquals("{\"name\": \"Fire Sword\"}", backend.generateModContentAsync("fire sword", null, schema).join());
+        assertEquals(3, backend.prompts);
+
+        // Regenerating skips the cached answer and keeps the new one
+        backend.answers.add("{\"name\": \"Blazing Sword\"}");
+        backend.invalidateCachedResponse("fire sword", schema);
+        assertEquals("{\"name\": \"Blazing Sword\"}", backend.generateModContentAsync("fire sword", null, schema).join());
+        assertEquals("{\"name\": \"Blazing Sword\"}", backend.generateModContentAsync("fire sword", null, schema).join());
+        assertEquals(4, backend.prompts);
+    }
+
+    @Test
+    public void testHitsAndMissesAreCounted() throws Exception {
+        Path dir = Files.createTempDirectory("llm-cache");
+        LLMResponseCache cache = new LLMResponseCache(dir, 16, 1024 * 1024, 60_000);
+        String key = LLMResponseCache.key("ollama", "mistral", 0.7, "prompt");
+
+        assertNull(cache.get(key));
+        cache.put(key, "{\"id\": \"fire_sword\"}");
+
+        assertEquals("{\"id\": \"fire_sword\"}", cache.get(key));
+        assertEquals(1, cache.getMemoryHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testDiskTierSurvivesNewInstance() throws Exception {
+        Path dir = Files.createTempDirectory("llm-cache");
+        String key = LLMResponseCache.key("ollama", "mistral", 0.7, "prompt");
+        new LLMResponseCache(dir, 16, 1024 * 1024, 60_000).put(key, "cached response");
+
+        LLMResponseCache reloaded = new LLMResponseCache(dir, 16, 1024 * 1024, 60_000);
+
+        assertEquals("cached response", reloaded.get(key));
+        assertEquals(1, reloaded.getDiskHits());
+        assertTrue(reloaded.getDiskBytes() > 0);
+    }
+
+    @Test
+    public void testExpiredEntriesAreMisses() throws Exception {
+        Path dir = Files.createTempDirectory("llm-cache");
+        LLMResponseCache cache = new LLMResponseCache(dir, 16, 1024 * 1024, 1);
+        String key = LLMResponseCache.key("ollama", "mistral", 0.7, "prompt");
+
+        cache.put(key, "stale");
+        Thread.sleep(5);
+
+        assertNull(cache.get(key));
+        assertEquals(0, cache.getDiskBytes());
+    }
+
+    @Test
+    public void testDiskBudgetEvictsOldestEntries() throws Exception {
+        Path dir = Files.createTempDirectory("llm-cache");
+        LLMResponseCache cache = new LLMResponseCache(dir, 1, 2048, 60_000);
+        String payload = "x".repeat(600);
+
+        for (int i = 0; i < 6; i++) {
+            cache.put(LLMResponseCache.key("ollama", "mistral", 0.7, "prompt " + i), payload);
+        }
+
+        assertTrue(cache.getEvictions() > 0);
+        assertTrue(cache.getDiskBytes() <= 2048);
+        assertEquals(1, cache.getMemoryEntries());
+    }
+
+    private static class ScriptedBackend extends LLMService {
+        final Queue<String> answers = new ArrayDeque<>();
+        int prompts;
+
+        ScriptedBackend() {
+            setUsageTracker(null);
+        }
+
+        @Override
+        protected CompletableFuture<String> sendPrompt(String prompt) {
+            return sendPrompt(new LLMRequest(prompt, null, null, null));
+        }
+
+        @Override
+        protected CompletableFuture<String> sendPrompt(LLMRequest request) {
+            prompts++;
+            return CompletableFuture.completedFuture(answers.poll());
+        }
+    }
+}
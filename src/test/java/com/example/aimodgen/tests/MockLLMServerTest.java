@@ -0,0 +1,101 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.ai.LLMHttpException;
+import com.example.aimodgen.ai.LLMService;
+import com.example.aimodgen.ai.LMStudioService;
+import com.example.aimodgen.ai.MockBehavior;
+import com.example.aimodgen.ai.MockLLMServer;
+import com.example.aimodgen.ai.OllamaService;
+import com.example.aimodgen.ai.OpenAIService;
+import com.example.aimodgen.generation.ContentSchemas;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that the real backends can talk to the mock HTTP server, streamed and not
+ */
+@Tag("llm")
+public class MockLLMServerTest {
+    private static final String BLOCK_PROMPT = "Generate properties for a Minecraft block with the following description:\n" +
+            "Jade Lamp\n\nAdditional properties: {}\n\nReturn a JSON object with the following structure:\n{}";
+
+    private MockLLMServer server;
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        server = new MockLLMServer(new MockBehavior(5).streaming(16, 1).chatty(true)).start(0);
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void testServerThreadsDoNotHoldTheJvmOpen() {
+        // Started from the test's own non-daemon thread, as the mod starts it from the main thread
+        assertTrue(Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("HTTP-Dispatcher"))
+                .allMatch(Thread::isDaemon));
+        assertTrue(Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> thread.getName().startsWith("HTTP-Dispatcher")));
+    }
+
+    @Test
+    public void testOllama() throws Exception {
+        OllamaService service = new OllamaService(server.getBaseUrl(), "mock");
+        assertGeneratesBlock(service, false);
+        assertGeneratesBlock(service, true);
+    }
+
+    @Test
+    public void testLMStudio() throws Exception {
+        LMStudioService service = new LMStudioService(server.getBaseUrl());
+        assertGeneratesBlock(service, false);
+        assertGeneratesBlock(service, true);
+    }
+
+    @Test
+    public void testOpenAI() throws Exception {
+        OpenAIService service = new OpenAIService("test-key", server.getBaseUrl() + "/v1");
+        assertGeneratesBlock(service, false);
+        assertGeneratesBlock(service, true);
+    }
+
+    @Test
+    public void testFailuresUseTheConfiguredStatus() throws Exception {
+        MockLLMServer failing = new MockLLMServer(new MockBehavior(5).errors(1.0, 429)).start(0);
+        try {
+            OllamaService service = new OllamaService(failing.getBaseUrl(), "mock");
+            service.setStreamResponses(false);
+            ExecutionException error = assertThrows(ExecutionException.class,
+                    () -> service.generateModContentAsync(BLOCK_PROMPT).get(5, TimeUnit.SECONDS));
+            Throwable cause = error.getCause();
+            while (!(cause instanceof LLMHttpException) && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            assertTrue(cause instanceof LLMHttpException, "Failed with " + error.getCause());
+            assertEquals(429, ((LLMHttpException) cause).getStatusCode());
+        } finally {
+            failing.close();
+        }
+    }
+
+    private void assertGeneratesBlock(LLMService service, boolean stream) throws Exception {
+        long before = server.getRequestCount();
+        service.setStreamResponses(stream);
+        String response = service.generateModContentAsync(BLOCK_PROMPT, null, ContentSchemas.BLOCK).get(10, TimeUnit.SECONDS);
+
+        JsonObject block = ContentSchemas.BLOCK.parse(response);
+        assertNotNull(block, "Unusable answer " + response);
+        assertEquals("jade_lamp", block.get("id").getAsString());
+        assertTrue(server.getRequestCount() > before);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.ai.BackendLimiter;
+import com.example.aimodgen.ai.BatchPrompt;
+import com.example.aimodgen.ai.LLMHttpException;
+import com.example.aimodgen.ai.MockBehavior;
+import com.example.aimodgen.ai.MockLLMService;
+import com.example.aimodgen.generation.ContentSchemas;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the in-process mock backend used to run the pipeline without a model
+ */
+@Tag("llm")
+public class MockLLMServiceTest {
+    private static final String BLOCK_PROMPT = "Generate properties for a Minecraft block with the following description:\n" +
+            "Ruby Block\n\nAdditional properties: {}\n\nReturn a JSON object with the following structure:\n{}";
+
+    @Test
+    public void testSameSeedBehavesTheSame() {
+        MockBehavior first = new MockBehavior(7).latency(MockBehavior.Latency.parse("lognormal:800,0.5")).errors(0.3, 503);
+        MockBehavior second = new MockBehavior(7).latency(MockBehavior.Latency.parse("lognormal:800,0.5")).errors(0.3, 503);
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals(first.sampleLatencyMillis(), second.sampleLatencyMillis());
+            assertEquals(first.sampleFailure(), second.sampleFailure());
+        }
+        assertEquals(first.answerFor(BLOCK_PROMPT), second.answerFor(BLOCK_PROMPT));
+        assertThrows(IllegalArgumentException.class, () -> MockBehavior.Latency.parse("gaussian:5"));
+    }
+
+    @Test
+    public void testAnswersParseAsTheGeneratorsExpect() throws Exception {
+        MockBehavior behavior = new MockBehavior(1).chatty(true);
+
+        JsonObject block = ContentSchemas.BLOCK.parse(behavior.answerFor(BLOCK_PROMPT));
+        assertNotNull(block, "Chatty answers still hold a usable object");
+        assertEquals("ruby_block", block.get("id").getAsString());
+        assertTrue(block.has("hardness"));
+
+        BatchPrompt batch = new BatchPrompt("Design a new Minecraft item with the following description:\nFire Sword\n")
+                .add("properties", "Properties of the item", ContentSchemas.ITEM)
+                .add("texture", "A 16x16 pixel art texture, as a Base64 encoded PNG image string.")
+                .add("recipe", "A crafting recipe for the item", ContentSchemas.RECIPE);
+        Map<String, String> parts = batch.split(behavior.answerFor(batch.build()));
+
+        assertEquals(3, parts.size());
+        assertEquals("fire_sword", ContentSchemas.ITEM.parse(parts.get("properties")).get("id").getAsString());
+        assertNotNull(ContentSchemas.RECIPE.parse(parts.get("recipe")));
+        BufferedImage texture = ImageIO.read(new ByteArrayInputStream(Base64.getDecoder().decode(parts.get("texture"))));
+        assertEquals(16, texture.getWidth());
+        assertEquals(16, texture.getHeight());
+    }
+
+    @Test
+    public void testFailsAndWaitsAsConfigured() throws Exception {
+        MockLLMService failing = new MockLLMService(new MockBehavior(1).errors(1.0, 503));
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> failing.generateModContentAsync(BLOCK_PROMPT).get(5, TimeUnit.SECONDS));
+        assertTrue(error.getCause() instanceof LLMHttpException);
+        assertEquals(503, ((LLMHttpException) error.getCause()).getStatusCode());
+        assertEquals(1, failing.getFailureCount());
+
+        MockLLMService slow = new MockLLMService(new MockBehavior(1)
+                .latency(MockBehavior.Latency.fixed(150)).streaming(1000, 50));
+        long start = System.nanoTime();
+        slow.generateModContentAsync(BLOCK_PROMPT).get(5, TimeUnit.SECONDS);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis >= 200, "Time to first token plus one chunk, took " + elapsedMillis + "ms");
+    }
+
+    @Test
+    public void testCancellationReleasesTheCall() {
+        MockLLMService service = new MockLLMService(new MockBehavior(1).latency(MockBehavior.Latency.fixed(60_000)));
+        CompletableFuture<String> answer = service.generateModContentAsync(BLOCK_PROMPT);
+        assertEquals(1, service.getInFlightCount());
+
+        answer.cancel(true);
+        assertEquals(0, service.getInFlightCount());
+    }
+
+    @Test
+    public void testConcurrentLoadStaysWithinTheLimiter() throws Exception {
+        MockLLMService service = new MockLLMService(new MockBehavior(3)
+                .latency(MockBehavior.Latency.uniform(10, 30)).streaming(64, 1));
+        BackendLimiter limiter = new BackendLimiter("mock", 4, 0, 1, 10);
+        service.setLimiter(limiter);
+
+        List<CompletableFuture<String>> answers = new ArrayList<>();
+        int maxInFlight = 0;
+        for (int i = 0; i < 40; i++) {
+            answers.add(service.generateModContentAsync(BLOCK_PROMPT.replace("Ruby", "Ruby " + i)));
+            maxInFlight = Math.max(maxInFlight, service.getInFlightCount());
+        }
+        for (CompletableFuture<String> answer : answers) {
+            assertNotNull(ContentSchemas.BLOCK.parse(answer.get(10, TimeUnit.SECONDS)));
+            maxInFlight = Math.max(maxInFlight, service.getInFlightCount());
+        }
+
+        assertEquals(40, service.getPromptCount());
+        assertTrue(maxInFlight <= 4, "Limiter allowed " + maxInFlight + " prompts at once");
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.ai.OllamaService;
+import com.example.aimodgen.ai.RoutingLLMService;
+import com.example.aimodgen.ai.UsageTracker;
+import com.example.aimodgen.generation.GenerationContext;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the Ollama request fields that let the server reuse prompt evaluation
+ */
+@Tag("llm")
+public class OllamaServiceTest {
+    private HttpServer server;
+    private final List<JsonObject> requests = new CopyOnWriteArrayList<>();
+    private final AtomicInteger contextToken = new AtomicInteger();
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/generate", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            requests.add(JsonParser.parseString(body).getAsJsonObject());
+            int token = contextToken.incrementAndGet();
+            byte[] response = ("{\"response\": \"{\\\"id\\\": \\\"answer" + token + "\\\"}\", \"done\": true, " +
+                    "\"context\": [" + token + ", " + (token + 100) + "], \"prompt_eval_count\": 12, \"eval_count\": 34, " +
+                    "\"prompt_eval_duration\": 5000000, \"eval_duration\": 20000000}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private OllamaService service() {
+        return service("mistral");
+    }
+
+    private OllamaService service(String model) {
+        OllamaService service = new OllamaService("http://127.0.0.1:" + server.getAddress().getPort(), model);
+        service.setStreamResponses(false);
+        service.setKeepAlive("30m");
+        service.setUsageTracker(new UsageTracker());
+        return service;
+    }
+
+    @Test
+    public void testSystemPromptAndKeepAliveAreSentSeparately() throws Exception {
+        service().generateModContentAsync("Describe a ruby block").get(5, TimeUnit.SECONDS);
+
+        JsonObject request = requests.get(0);
+        assertEquals("Describe a ruby block", request.get("prompt").getAsString(), "System prompt should not be pasted into the prompt");
+        assertTrue(request.get("system").getAsString().contains("Minecraft"));
+        assertEquals("30m", request.get("keep_alive").getAsString());
+        assertEquals(0.7, request.getAsJsonObject("options").get("temperature").getAsDouble(), 1e-9);
+        assertFalse(request.has("context"));
+    }
+
+    @Test
+    public void testConversationContinuesFromReturnedContext() throws Exception {
+        OllamaService service = service();
+
+        service.generateModContentAsync("Properties for a ruby block", "block:ruby").get(5, TimeUnit.SECONDS);
+        service.generateModContentAsync("Recipe for the ruby block", "block:ruby").get(5, TimeUnit.SECONDS);
+        service.generateModContentAsync("Properties for a jade block", "block:jade").get(5, TimeUnit.SECONDS);
+
+        assertFalse(requests.get(0).has("context"));
+        assertEquals("[1,101]", requests.get(1).get("context").toString());
+        assertFalse(requests.get(2).has("context"), "Other conversations start fresh");
+        assertEquals(2, service.getConversationCount());
+    }
+
+    @Test
+    public void testEndedConversationStartsFresh() throws Exception {
+        OllamaService service = service();
+        RoutingLLMService router = new RoutingLLMService(List.of(service));
+
+        router.generateModContentAsync("Properties for a ruby block", "block:1:ruby").get(5, TimeUnit.SECONDS);
+        router.endConversation("block:1:ruby");
+        assertEquals(0, service.getConversationCount(), "The router passes the end on to its backends");
+
+        // A later generation of the same description under the same key must not continue the old one
+        router.generateModContentAsync("Recipe for the ruby block", "block:1:ruby").get(5, TimeUnit.SECONDS);
+        assertFalse(requests.get(1).has("context"));
+    }
+
+    @Test
+    public void testContextReuseCanBeTurnedOff() throws Exception {
+        OllamaService service = service();
+        service.setReuseContext(false);
+
+        service.generateModContentAsync("Properties for a ruby block", "block:ruby").get(5, TimeUnit.SECONDS);
+        service.generateModContentAsync("Recipe for the ruby block", "block:ruby").get(5, TimeUnit.SECONDS);
+
+        assertFalse(requests.get(1).has("context"));
+        assertEquals(0, service.getConversationCount());
+    }
+
+    @Test
+    public void testUsageFromResponseIsAccounted() throws Exception {
+        OllamaService service = service();
+
+        service.generateModContentAsync("Describe a ruby block").get(5, TimeUnit.SECONDS);
+
+        UsageTracker.Totals totals = service.getUsageTracker().getByBackend().get("ollama");
+        assertEquals(12, totals.getPromptTokens());
+        assertEquals(34, totals.getCompletionTokens());
+        assertEquals(25, totals.getBackendMillis());
+        assertEquals(0, totals.getEstimatedRequests());
+    }
+
+    @Test
+    public void testVisionModelTexturesAreAccountedToTheRequester() throws Exception {
+        OllamaService service = service("llava:7b");
+
+        service.generateTextureAsync("ruby block", "block", GenerationContext.interactive("alice")).get(5, TimeUnit.SECONDS);
+
+        assertTrue(requests.get(0).get("prompt").getAsString().contains("pixelMap"), "Sent as an image prompt");
+        UsageTracker.Totals totals = service.getUsageTracker().getPlayerTotals("alice");
+        assertEquals(1, totals.getRequests());
+        assertEquals(46, totals.getTotalTokens(), "Counted from the response, so the quotas are charged for it");
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.generation.ContentType;
+import com.example.aimodgen.generation.GenerationContext;
+import com.example.aimodgen.generation.GenerationScheduler;
+import com.example.aimodgen.generation.PregenerationService;
+import com.example.aimodgen.generation.PregenerationService.Prediction;
+import com.example.aimodgen.generation.RequestHistory;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Tests for idle-time pre-generation of popular requests
+ */
+@Tag("contentgen")
+public class PregenerationServiceTest {
+
+    @Test
+    public void testPredictsMostRequestedDescriptions() {
+        RequestHistory history = new RequestHistory(null);
+        history.record(ContentType.ITEM, "fire sword");
+        history.record(ContentType.ITEM, "Fire Sword");
+        history.record(ContentType.ITEM, "a fire sword!");
+        history.record(ContentType.ITEM, "fire sword");
+        history.record(ContentType.ITEM, "healing wand");
+        history.record(ContentType.ITEM, "healing wand");
+        history.record(ContentType.ITEM, "teleport staff");
+        history.record(ContentType.BLOCK, "fire sword");
+
+        List<Prediction> predictions = PregenerationService.predict(history.getRequests(), 3);
+
+        assertEquals(3, predictions.size());
+        assertEquals(ContentType.ITEM, predictions.get(0).getType());
+        assertEquals("fire sword", predictions.get(0).getDescription(), "Predicted in the wording used most");
+        assertEquals(4, predictions.get(0).getCount());
+        assertEquals("healing wand", predictions.get(1).getDescription());
+        assertEquals(1, predictions.get(2).getCount());
+    }
+
+    @Test
+    public void testRepeatedRequestsCountEveryTime() throws Exception {
+        // Asking again for the same content is a cache hit that saves nothing new, but it is still a request
+        Path file = Files.createTempDirectory("requests").resolve("request_history.json");
+        RequestHistory history = new RequestHistory(file);
+        history.record(ContentType.ITEM, "healing wand");
+        for (int i = 0; i < 3; i++) {
+            history.record(ContentType.ITEM, "fire sword");
+        }
+        history.flush();
+
+        List<Prediction> predictions = PregenerationService.predict(new RequestHistory(file).getRequests(), 10);
+        assertEquals("fire sword", predictions.get(0).getDescription(), "Not alphabetical, most asked for first");
+        assertEquals(3, predictions.get(0).getCount());
+        assertEquals(1, predictions.get(1).getCount());
+    }
+
+    @Test
+    public void testWarmsOneAtATimeWhileIdle() {
+        GenerationScheduler scheduler = new GenerationScheduler(2, 16, 4, 1);
+        List<String> warmed = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<String>> calls = Collections.synchronizedList(new ArrayList<>());
+        PregenerationService service = service(scheduler, () -> true, (prediction, context) -> {
+            assertEquals(GenerationContext.Priority.SPECULATIVE, context.getPriority());
+            warmed.add(prediction.getDescription());
+            CompletableFuture<String> call = new CompletableFuture<>();
+            calls.add(call);
+            return call;
+        });
+
+        assertTrue(service.tick());
+        waitFor(() -> calls.size() == 1);
+        assertFalse(service.tick(), "Only one speculative generation runs at a time");
+
+        calls.get(0).complete("done");
+        waitFor(() -> scheduler.getRunning() == 0);
+        assertTrue(service.tick());
+        waitFor(() -> calls.size() == 2);
+        calls.get(1).complete("done");
+        waitFor(() -> scheduler.getRunning() == 0);
+
+        assertFalse(service.tick(), "Everything predicted has been warmed");
+        assertEquals(List.of("fire sword", "healing wand"), warmed);
+        assertEquals(2, service.getCompleted());
+    }
+
+    @Test
+    public void testStartsAgainAfterClosing() {
+        GenerationScheduler scheduler = new GenerationScheduler(2, 16, 4, 1);
+        List<String> warmed = Collections.synchronizedList(new ArrayList<>());
+        PregenerationService service = service(scheduler, () -> true, (prediction, context) -> {
+            warmed.add(prediction.getDescription());
+            return CompletableFuture.completedFuture(null);
+        });
+
+        // As when a single player world is closed before anything was warmed and another one opened
+        service.start(60_000);
+        service.close();
+        service.start(10);
+        waitFor(() -> warmed.size() == 2);
+        service.close();
+    }
+
+    @Test
+    public void testWaitsWhileBusy() {
+        GenerationScheduler scheduler = new GenerationScheduler(2, 16, 4, 1);
+        AtomicBoolean backendIdle = new AtomicBoolean(false);
+        PregenerationService service = service(scheduler, backendIdle::get,
+            (prediction, context) -> CompletableFuture.completedFuture(null));
+
+        assertFalse(service.tick(), "Backend has prompts in flight");
+
+        backendIdle.set(true);
+        CompletableFuture<String> player = new CompletableFuture<>();
+        scheduler.submit(GenerationContext.interactive("alice"), () -> player);
+        assertFalse(service.tick(), "A player's generation is running");
+
+        player.complete("done");
+        waitFor(() -> scheduler.getRunning() == 0);
+        assertTrue(service.tick());
+
+        // A player asked recently, so a service that wants quiet time holds off
+        PregenerationService patient = new PregenerationService(scheduler, PregenerationServiceTest::history,
+            (prediction, context) -> CompletableFuture.completedFuture(null), () -> true, 10, 60_000, 0, 0,
+            Clock.systemUTC());
+        assertFalse(patient.tick());
+    }
+
+    @Test
+    public void testPlayerRequestPreemptsSpeculativeWork() throws Exception {
+        GenerationScheduler scheduler = new GenerationScheduler(1, 16, 4, 1);
+        List<CompletableFuture<String>> calls = Collections.synchronizedList(new ArrayList<>());
+        List<String> warmed = Collections.synchronizedList(new ArrayList<>());
+        PregenerationService service = service(scheduler, () -> true, (prediction, context) -> {
+            warmed.add(prediction.getDescription());
+            CompletableFuture<String> call = new CompletableFuture<>();
+            calls.add(call);
+            return call;
+        });
+
+        assertTrue(service.tick());
+        waitFor(() -> calls.size() == 1);
+
+        // The only slot is taken by speculative work, yet the player's generation starts straight away
+        CompletableFuture<String> player = scheduler.submit(GenerationContext.interactive("alice"),
+            () -> CompletableFuture.completedFuture("sword"));
+        assertEquals("sword", player.get(5, TimeUnit.SECONDS));
+        assertTrue(calls.get(0).isCancelled());
+        assertThrows(CancellationException.class, () -> calls.get(0).join());
+        assertEquals(1, scheduler.getPreempted());
+        waitFor(() -> service.getPreempted() == 1);
+
+        // What was preempted is warmed again once the server is idle
+        waitFor(() -> scheduler.getRunning() == 0);
+        assertTrue(service.tick());
+        waitFor(() -> calls.size() == 2);
+        assertEquals(List.of("fire sword", "fire sword"), warmed);
+    }
+
+    private static PregenerationService service(GenerationScheduler scheduler, BooleanSupplier backendIdle,
+                                                PregenerationService.Warmer warmer) {
+        return new PregenerationService(scheduler, PregenerationServiceTest::history, warmer, backendIdle, 10, 0, 0, 0,
+            Clock.systemUTC());
+    }
+
+    private static List<RequestHistory.Request> history() {
+        return List.of(
+            new RequestHistory.Request(ContentType.ITEM, "fire sword", 2),
+            new RequestHistory.Request(ContentType.ITEM, "healing wand", 1));
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting");
+            Thread.onSpinWait();
+        }
+    }
+}
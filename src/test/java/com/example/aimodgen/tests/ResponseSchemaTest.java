@@ -0,0 +1,61 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.ai.ResponseSchema;
+import com.example.aimodgen.ai.ResponseSchema.Type;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for typed response schemas and their local validation
+ */
+@Tag("llm")
+public class ResponseSchemaTest {
+    private final ResponseSchema schema = new ResponseSchema("block")
+        .required("id", Type.STRING)
+        .field("hardness", Type.NUMBER)
+        .field("lightLevel", Type.INTEGER)
+        .field("requiresTool", Type.BOOLEAN)
+        .field("colors", Type.ARRAY);
+
+    @Test
+    public void testValuesAreCoercedToTheirTypes() {
+        JsonObject parsed = schema.parse("{\"id\": \"ruby\", \"hardness\": \"2.5\", \"lightLevel\": 7.0, " +
+            "\"requiresTool\": \"yes\", \"colors\": \"#FF0000\"}");
+
+        assertNotNull(parsed);
+        assertEquals(2.5, parsed.get("hardness").getAsDouble(), 1e-9);
+        assertEquals(7, parsed.get("lightLevel").getAsInt());
+        assertTrue(parsed.get("requiresTool").getAsBoolean());
+        assertEquals(1, parsed.getAsJsonArray("colors").size());
+    }
+
+    @Test
+    public void testUnusableOptionalValuesAreDropped() {
+        JsonObject parsed = schema.parse("{\"id\": \"ruby\", \"hardness\": \"very hard\", \"extra\": 1}");
+
+        assertNotNull(parsed);
+        assertFalse(parsed.has("hardness"));
+        assertTrue(parsed.has("extra"), "Fields outside the schema are kept");
+    }
+
+    @Test
+    public void testMissingRequiredFieldRejectsTheAnswer() {
+        assertNull(schema.parse("{\"hardness\": 2}"));
+        assertNull(schema.parse("{\"id\": {\"nested\": true}}"));
+    }
+
+    @Test
+    public void testJsonSchemaListsTypesAndRequiredFields() {
+        JsonObject combined = new ResponseSchema("batch").required("properties", schema).required("texture", Type.STRING)
+            .toJsonSchema();
+
+        JsonObject properties = combined.getAsJsonObject("properties");
+        assertEquals("string", properties.getAsJsonObject("texture").get("type").getAsString());
+        JsonObject nested = properties.getAsJsonObject("properties");
+        assertEquals("number", nested.getAsJsonObject("properties").getAsJsonObject("hardness").get("type").getAsString());
+        assertEquals("[\"id\"]", nested.get("required").toString());
+        assertEquals("[\"properties\",\"texture\"]", combined.get("required").toString());
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.ai.LLMService;
+import com.example.aimodgen.ai.RoutingLLMService;
+import com.example.aimodgen.generation.GenerationContext;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Tests for latency-aware routing and failover across LLM backends
+ */
+@Tag("llm")
+public class RoutingLLMServiceTest {
+
+    @Test
+    public void testPrefersFasterBackend() {
+        FakeBackend fast = new FakeBackend("fast", prompt -> delayed("fast", 5));
+        FakeBackend slow = new FakeBackend("slow", prompt -> delayed("slow", 80));
+        RoutingLLMService router = new RoutingLLMService(List.of(fast, slow));
+
+        for (int i = 0; i < 10; i++) {
+            router.generateModContentAsync("prompt " + i).join();
+        }
+
+        assertTrue(fast.prompts.size() >= 8, "fast backend served " + fast.prompts.size());
+    }
+
+    @Test
+    public void testSpreadsOutstandingRequests() {
+        List<CompletableFuture<String>> pending = new ArrayList<>();
+        Function<String, CompletableFuture<String>> hold = prompt -> {
+            CompletableFuture<String> response = new CompletableFuture<>();
+            pending.add(response);
+            return response;
+        };
+        FakeBackend first = new FakeBackend("gpu1", hold);
+        FakeBackend second = new FakeBackend("gpu2", hold);
+        RoutingLLMService router = new RoutingLLMService(List.of(first, second));
+
+        for (int i = 0; i < 4; i++) {
+            router.generateModContentAsync("prompt " + i);
+        }
+
+        assertEquals(2, first.prompts.size());
+        assertEquals(2, second.prompts.size());
+        pending.forEach(response -> response.complete("done"));
+    }
+
+    @Test
+    public void testFailsOverToNextBackend() {
+        FakeBackend broken = new FakeBackend("broken", prompt ->
+            CompletableFuture.failedFuture(new IllegalStateException("connection refused")));
+        FakeBackend healthy = new FakeBackend("healthy", prompt -> CompletableFuture.completedFuture("{\"id\": \"ok\"}"));
+        RoutingLLMService router = new RoutingLLMService(List.of(broken, healthy));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("{\"id\": \"ok\"}", router.generateModContentAsync("prompt " + i).join());
+        }
+        // After the first failure the broken backend is ranked last
+        assertEquals(1, broken.prompts.size());
+        assertEquals(1, router.getFailoverCount());
+    }
+
+    @Test
+    public void testFailsWhenEveryBackendFails() {
+        FakeBackend first = new FakeBackend("gpu1", prompt -> CompletableFuture.failedFuture(new IllegalStateException("down")));
+        FakeBackend second = new FakeBackend("gpu2", prompt -> CompletableFuture.failedFuture(new IllegalStateException("down")));
+        RoutingLLMService router = new RoutingLLMService(List.of(first, second));
+
+        assertThrows(CompletionException.class, () -> router.generateModContentAsync("prompt").join());
+        assertEquals(1, first.prompts.size());
+        assertEquals(1, second.prompts.size());
+    }
+
+    @Test
+    public void testCancelledContextAbortsPrompt() {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        FakeBackend backend = new FakeBackend("gpu1", prompt -> response);
+        RoutingLLMService router = new RoutingLLMService(List.of(backend));
+        GenerationContext context = GenerationContext.interactive("alice");
+
+        CompletableFuture<String> answer = router.generateModContentAsync("prompt", null, null, context);
+        context.cancel("alice logged off");
+
+        assertTrue(answer.isCompletedExceptionally());
+        assertTrue(response.isCancelled(), "The backend call should be aborted, not left running");
+        assertThrows(CancellationException.class, () -> router.generateModContentAsync("next", null, null, context).join());
+        assertEquals(1, backend.prompts.size());
+    }
+
+    @Test
+    public void testImagesGoOnlyToImageCapableBackends() {
+        FakeBackend text = new FakeBackend("text", prompt -> CompletableFuture.completedFuture("{}"));
+        FakeBackend broken = new FakeBackend("broken", prompt -> null);
+        broken.image = CompletableFuture.failedFuture(new IllegalStateException("connection refused"));
+        FakeBackend painter = new FakeBackend("painter", prompt -> null);
+        painter.image = CompletableFuture.completedFuture(new byte[] {1, 2, 3});
+        RoutingLLMService router = new RoutingLLMService(List.of(text, broken, painter));
+
+        assertTrue(router.supportsImageGeneration());
+        assertArrayEquals(new byte[] {1, 2, 3}, router.generateImageAsync("ruby", null).join());
+        assertEquals(0, text.images);
+        assertEquals(1, painter.images);
+        assertArrayEquals(new byte[] {1, 2, 3}, router.generateImage("jade", null), "The blocking call takes the same route");
+
+        RoutingLLMService textOnly = new RoutingLLMService(List.of(text));
+        assertNull(textOnly.generateImageAsync("ruby", null).join());
+        assertEquals(0, text.images);
+    }
+
+    private static CompletableFuture<String> delayed(String value, long millis) {
+        return CompletableFuture.supplyAsync(() -> value, CompletableFuture.delayedExecutor(millis, TimeUnit.MILLISECONDS));
+    }
+
+    private static class FakeBackend extends LLMService {
+        final String name;
+        final Function<String, CompletableFuture<String>> responder;
+        final List<String> prompts = new ArrayList<>();
+        CompletableFuture<byte[]> image;
+        int images;
+
+        FakeBackend(String name, Function<String, CompletableFuture<String>> responder) {
+            this.name = name;
+            this.responder = responder;
+        }
+
+        @Override
+        public String getBackendName() {
+            return name;
+        }
+
+        @Override
+        protected CompletableFuture<String> sendPrompt(String prompt) {
+            prompts.add(prompt);
+            return responder.apply(prompt);
+        }
+
+        @Override
+        public boolean supportsImageGeneration() {
+            return image != null;
+        }
+
+        @Override
+        public CompletableFuture<byte[]> generateImageAsync(String description, Map<String, Object> parameters) {
+            images++;
+            return image != null ? image : super.generateImageAsync(description, parameters);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.util.SingleFlight;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for coalescing concurrent identical requests
+ */
+@Tag("llm")
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallersShareOneInvocation() {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        AtomicInteger invocations = new AtomicInteger();
+        CompletableFuture<String> backend = new CompletableFuture<>();
+
+        CompletableFuture<String> first = flight.execute("fire sword", () -> {
+            invocations.incrementAndGet();
+            return backend;
+        });
+        CompletableFuture<String> second = flight.execute("fire sword", () -> {
+            invocations.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        });
+
+        assertTrue(flight.isInFlight("fire sword"));
+        backend.complete("{\"id\": \"fire_sword\"}");
+
+        assertEquals("{\"id\": \"fire_sword\"}", first.join());
+        assertEquals("{\"id\": \"fire_sword\"}", second.join());
+        assertEquals(1, invocations.get());
+        assertEquals(1, flight.getCoalescedCount());
+        assertEquals(0, flight.size());
+    }
+
+    @Test
+    public void testCompletedKeysStartFreshWork() {
+        SingleFlight<String, Integer> flight = new SingleFlight<>();
+        AtomicInteger invocations = new AtomicInteger();
+
+        flight.execute("key", () -> CompletableFuture.completedFuture(invocations.incrementAndGet())).join();
+        int second = flight.execute("key", () -> CompletableFuture.completedFuture(invocations.incrementAndGet())).join();
+
+        assertEquals(2, second);
+        assertFalse(flight.isInFlight("key"));
+    }
+
+    @Test
+    public void testFailurePropagatesAndClearsKey() {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CompletableFuture<String> backend = new CompletableFuture<>();
+
+        CompletableFuture<String> first = flight.execute("key", () -> backend);
+        CompletableFuture<String> second = flight.execute("key", () -> backend);
+        backend.completeExceptionally(new IllegalStateException("backend down"));
+
+        assertThrows(CompletionException.class, first::join);
+        assertThrows(CompletionException.class, second::join);
+        assertFalse(flight.isInFlight("key"));
+    }
+
+    @Test
+    public void testCancellingOneCallerLeavesOthersRunning() {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CompletableFuture<String> backend = new CompletableFuture<>();
+
+        CompletableFuture<String> first = flight.execute("key", () -> backend);
+        CompletableFuture<String> second = flight.execute("key", () -> backend);
+        first.cancel(true);
+        backend.complete("done");
+
+        assertTrue(first.isCancelled());
+        assertEquals("done", second.join());
+    }
+
+    @Test
+    public void testCancellingEveryCallerCancelsTheWork() {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CompletableFuture<String> backend = new CompletableFuture<>();
+
+        CompletableFuture<String> first = flight.execute("fire sword", () -> backend);
+        CompletableFuture<String> second = flight.execute("fire sword", () -> backend);
+        first.cancel(true);
+        assertFalse(backend.isCancelled(), "One caller is still waiting");
+
+        second.cancel(true);
+        assertTrue(backend.isCancelled(), "Nobody is waiting, so the backend call should be aborted");
+        assertFalse(flight.isInFlight("fire sword"));
+
+        CompletableFuture<String> fresh = flight.execute("fire sword", () -> CompletableFuture.completedFuture("new"));
+        assertEquals("new", fresh.join());
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.ai.StreamingJsonExtractor;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for incremental JSON detection on streamed LLM output
+ */
+@Tag("llm")
+public class StreamingJsonExtractorTest {
+
+    @Test
+    public void testCompletesWhenTopLevelObjectCloses() {
+        StreamingJsonExtractor extractor = new StreamingJsonExtractor();
+
+        assertFalse(extractor.feed("Sure! Here is the item: {\"id\": \"fire_"));
+        assertFalse(extractor.feed("sword\", \"customProperties\": {\"fireRadius\": 3}"));
+        assertTrue(extractor.feed("} Let me know if you want changes."));
+
+        assertEquals("{\"id\": \"fire_sword\", \"customProperties\": {\"fireRadius\": 3}}", extractor.getJson());
+        assertTrue(extractor.getText().startsWith("Sure!"));
+        assertFalse(extractor.getText().contains("Let me know"));
+    }
+
+    @Test
+    public void testIgnoresBracesInsideStrings() {
+        StreamingJsonExtractor extractor = new StreamingJsonExtractor();
+
+        assertFalse(extractor.feed("{\"name\": \"Curly } Brace \\\" {\", "));
+        assertTrue(extractor.feed("\"id\": \"brace\"}"));
+        assertEquals("{\"name\": \"Curly } Brace \\\" {\", \"id\": \"brace\"}", extractor.getJson());
+    }
+
+    @Test
+    public void testReturnsAllTextWhenNoObjectCloses() {
+        StreamingJsonExtractor extractor = new StreamingJsonExtractor();
+
+        extractor.feed("No JSON here, ");
+        extractor.feed("just prose.");
+
+        assertFalse(extractor.isComplete());
+        assertNull(extractor.getJson());
+        assertEquals("No JSON here, just prose.", extractor.getText());
+    }
+}
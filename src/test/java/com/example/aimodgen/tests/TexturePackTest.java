@@ -0,0 +1,188 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.persistence.TexturePack;
+import com.example.aimodgen.persistence.TextureStore;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Tests for the single-file, memory-mapped texture pack
+ */
+@Tag("texture")
+public class TexturePackTest {
+
+    @Test
+    public void testLookupsAreReadOnlySlicesOfOneMapping() throws Exception {
+        Path file = Files.createTempDirectory("pack").resolve("textures.pack");
+        TexturePack pack = new TexturePack(file);
+        byte[] ruby = png(Color.RED, 16);
+        pack.putPng("block/ruby_block", ruby);
+        pack.putRgba("item/jade_sword", 2, 1, new byte[] {0, 1, 2, 3, 4, 5, 6, 7});
+
+        ByteBuffer data = pack.get("block/ruby_block");
+        assertTrue(data.isReadOnly());
+        assertTrue(data.isDirect(), "Served from the mapping, not copied onto the heap");
+        assertArrayEquals(ruby, bytes(data));
+
+        TexturePack.Texture sword = pack.getTexture("item/jade_sword");
+        assertEquals(TexturePack.Format.RGBA, sword.getFormat());
+        assertEquals(2, sword.getWidth());
+        assertArrayEquals(new byte[] {0, 1, 2, 3, 4, 5, 6, 7}, bytes(sword.getData()));
+        assertEquals(16, pack.getTexture("block/ruby_block").getHeight(), "Size read from the PNG header");
+
+        pack.get("block/ruby_block");
+        assertEquals(1, pack.getMapCount(), "Lookups within the mapping do not map again");
+        assertNull(pack.get("block/missing"));
+    }
+
+    @Test
+    public void testReopenIndexesInOnePass() throws Exception {
+        Path file = Files.createTempDirectory("pack").resolve("textures.pack");
+        TexturePack pack = new TexturePack(file);
+        for (int i = 0; i < 100; i++) {
+            pack.putPng("item/item_" + i, ("png " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        pack.putPng("item/item_7", "replaced".getBytes(StandardCharsets.UTF_8));
+        pack.remove("item/item_8");
+        ByteBuffer handedOut = pack.get("item/item_7");
+        pack.close();
+        assertEquals("replaced", StandardCharsets.UTF_8.decode(handedOut.duplicate()).toString(),
+                "Slices stay readable after the pack is closed");
+
+        TexturePack reopened = new TexturePack(file);
+        reopened.open();
+        assertEquals(99, reopened.size());
+        assertEquals(1, reopened.getMapCount());
+        assertEquals("replaced", StandardCharsets.UTF_8.decode(reopened.get("item/item_7")).toString());
+        assertEquals("png 99", StandardCharsets.UTF_8.decode(reopened.get("item/item_99")).toString());
+        assertFalse(reopened.contains("item/item_8"));
+        assertEquals("item/item_0", reopened.getIds().get(0));
+    }
+
+    @Test
+    public void testTornAppendIsCutOff() throws Exception {
+        Path file = Files.createTempDirectory("pack").resolve("textures.pack");
+        TexturePack pack = new TexturePack(file);
+        pack.putPng("block/ruby_block", "ruby".getBytes(StandardCharsets.UTF_8));
+        pack.putPng("block/onyx_lamp", "onyx".getBytes(StandardCharsets.UTF_8));
+        pack.close();
+        long intact = Files.size(file);
+        Files.write(file, new byte[] {1, 2, 3, 4, 0, 0, 0, 9, 'b', 'l'}, StandardOpenOption.APPEND);
+
+        TexturePack recovered = new TexturePack(file);
+        assertEquals(2, recovered.size());
+        assertEquals(intact, Files.size(file));
+        assertTrue(recovered.getDiscardedBytes() > 0);
+
+        recovered.putPng("block/jade_lamp", "jade".getBytes(StandardCharsets.UTF_8));
+        recovered.close();
+        assertEquals(3, new TexturePack(file).size());
+    }
+
+    @Test
+    public void testCorruptLengthsAreCheckedBeforeAllocating() throws Exception {
+        Path file = Files.createTempDirectory("pack").resolve("textures.pack");
+        TexturePack pack = new TexturePack(file);
+        pack.putPng("block/ruby_block", "ruby".getBytes(StandardCharsets.UTF_8));
+        pack.close();
+        long intact = Files.size(file);
+        // An id "length" of 2 GB, followed by enough bytes to look like the rest of an entry
+        ByteBuffer torn = ByteBuffer.allocate(64).putInt(0).putInt(Integer.MAX_VALUE - 8);
+        Files.write(file, torn.array(), StandardOpenOption.APPEND);
+
+        TexturePack recovered = new TexturePack(file);
+        recovered.open();
+        assertEquals(1, recovered.size());
+        assertEquals(intact, Files.size(file));
+        assertEquals("ruby", StandardCharsets.UTF_8.decode(recovered.get("block/ruby_block")).toString());
+        assertEquals(1, recovered.getMapCount(), "Mapped once, after the tail was cut off");
+    }
+
+    @Test
+    public void testCorruptPayloadIsCaughtAgainstTheMapping() throws Exception {
+        Path file = Files.createTempDirectory("pack").resolve("textures.pack");
+        TexturePack pack = new TexturePack(file);
+        pack.putPng("block/ruby_block", "ruby".getBytes(StandardCharsets.UTF_8));
+        long intact = Files.size(file);
+        pack.putPng("block/onyx_lamp", "onyx".getBytes(StandardCharsets.UTF_8));
+        pack.close();
+        // Flip the last payload byte: every length still adds up, only the checksum can tell
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+
+        TexturePack recovered = new TexturePack(file);
+        recovered.open();
+        assertEquals(1, recovered.size());
+        assertNull(recovered.get("block/onyx_lamp"));
+        assertEquals("ruby", StandardCharsets.UTF_8.decode(recovered.get("block/ruby_block")).toString());
+        assertEquals(intact, Files.size(file));
+        assertEquals(1, recovered.getMapCount(), "Checked against the one mapping");
+
+        recovered.putPng("block/jade_lamp", "jade".getBytes(StandardCharsets.UTF_8));
+        recovered.close();
+        assertEquals(2, new TexturePack(file).size());
+    }
+
+    @Test
+    public void testMostlyDeadPackIsCompactedOnOpen() throws Exception {
+        Path file = Files.createTempDirectory("pack").resolve("textures.pack");
+        TexturePack pack = new TexturePack(file);
+        for (int i = 0; i < 10; i++) {
+            pack.putPng("block/ruby_block", ("ruby version " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        pack.close();
+        long before = Files.size(file);
+
+        TexturePack reopened = new TexturePack(file);
+        reopened.open();
+        assertEquals(1, reopened.getCompactionCount());
+        assertEquals(1, reopened.getMapCount(), "Only the compacted pack is mapped");
+        assertTrue(Files.size(file) < before / 5);
+        assertEquals("ruby version 9", StandardCharsets.UTF_8.decode(reopened.get("block/ruby_block")).toString());
+        reopened.close();
+        assertEquals(List.of("block/ruby_block"), new TexturePack(file).getIds());
+    }
+
+    @Test
+    public void testExistingTextureFilesAreImported() throws Exception {
+        Path dir = Files.createTempDirectory("pack");
+        Path textures = dir.resolve("textures");
+        Files.createDirectories(textures.resolve("block"));
+        Files.createDirectories(textures.resolve("item"));
+        Files.write(textures.resolve("block/ruby_block.png"), png(Color.RED, 16));
+        Files.write(textures.resolve("item/jade_sword.png"), png(Color.GREEN, 16));
+        Files.writeString(textures.resolve("item/notes.txt"), "not a texture");
+
+        TexturePack pack = new TexturePack(dir.resolve("textures.pack"));
+        assertEquals(2, pack.importDirectory(textures));
+        assertEquals(0, pack.importDirectory(textures), "Already packed");
+        assertArrayEquals(Files.readAllBytes(textures.resolve("item/jade_sword.png")), bytes(pack.get("item/jade_sword")));
+    }
+
+    private static byte[] png(Color color, int size) throws Exception {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                image.setRGB(x, y, color.getRGB());
+            }
+        }
+        return TextureStore.encodePng(image);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.generation.AdvancedTextureGenerator.TextureGenerationOptions;
+import com.example.aimodgen.generation.TextureScore;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Tests for scoring raced textures and how wide the race is
+ */
+@Tag("texture")
+public class TextureScoreTest {
+
+    @Test
+    public void testEmptyAndFlatTexturesScoreLow() {
+        BufferedImage empty = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        assertEquals(0.0, TextureScore.score(empty));
+        assertEquals(0.0, TextureScore.score(null));
+
+        BufferedImage flat = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        fill(flat, (x, y) -> 0xFF808080);
+        assertTrue(TextureScore.score(flat) < 0.3, "A single flat colour is barely a texture");
+    }
+
+    @Test
+    public void testDetailedTextureBeatsFlatOne() {
+        BufferedImage flat = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        fill(flat, (x, y) -> 0xFF808080);
+
+        BufferedImage detailed = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        int[] palette = {0xFF202020, 0xFF5A3A1A, 0xFF8B5A2B, 0xFFC08040, 0xFFE0C080, 0xFFFFFFFF, 0xFF3050A0, 0xFF60A0E0};
+        fill(detailed, (x, y) -> palette[(x * 3 + y) % palette.length]);
+
+        double score = TextureScore.score(detailed);
+        assertTrue(score > 0.8, "Varied, contrasting texture should score high but was " + score);
+        assertTrue(score > TextureScore.score(flat));
+    }
+
+    @Test
+    public void testRaceWidthFollowsDetailLevel() {
+        TextureGenerationOptions options = TextureGenerationOptions.defaultOptions();
+        options.detailLevel = 1;
+        assertEquals(1, options.getRaceWidth(), "Lowest detail keeps the serial fallback chain");
+        options.detailLevel = 3;
+        assertEquals(2, options.getRaceWidth());
+        assertEquals(4, TextureGenerationOptions.highQuality().getRaceWidth());
+
+        options.raceWidth = 3;
+        assertEquals(3, options.getRaceWidth(), "An explicit width wins over the detail level");
+    }
+
+    private interface Pixels {
+        int at(int x, int y);
+    }
+
+    private static void fill(BufferedImage image, Pixels pixels) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, pixels.at(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.generation.ContentType;
+import com.example.aimodgen.generation.GeneratedContent;
+import com.example.aimodgen.persistence.TextureStore;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Tests for keeping identical textures once, by hash
+ */
+@Tag("texture")
+public class TextureStoreTest {
+    private static final byte[] GRAY = {(byte) 0x89, 'P', 'N', 'G', 1, 1, 1};
+    private static final byte[] RED = {(byte) 0x89, 'P', 'N', 'G', 2, 0, 0};
+
+    @Test
+    public void testIdenticalTexturesAreStoredOnce() throws Exception {
+        Path dir = Files.createTempDirectory("textures");
+        TextureStore store = new TextureStore(dir, 0);
+
+        String first = store.link("content/ruby_block", GRAY);
+        String second = store.link("content/jade_sword", GRAY.clone());
+        String third = store.link("content/onyx_lamp", RED);
+
+        assertEquals(first, second);
+        assertNotEquals(first, third);
+        assertEquals(TextureStore.hash(GRAY), first);
+        assertEquals(2, store.getReferenceCount(first));
+        assertEquals(2, store.getStoredCount());
+        assertEquals(1, store.getDeduplicatedCount());
+        assertEquals(2, blobCount(dir));
+        assertArrayEquals(GRAY, store.get(first));
+    }
+
+    @Test
+    public void testBlobIsDeletedWithItsLastReference() throws Exception {
+        Path dir = Files.createTempDirectory("textures");
+        TextureStore store = new TextureStore(dir, 0);
+        String gray = store.link("content/ruby_block", GRAY);
+        store.link("content/jade_sword", GRAY);
+
+        store.unlink("content/ruby_block");
+        assertTrue(store.contains(gray), "Still referred to by the sword");
+
+        // Pointing the last name elsewhere drops the old blob too
+        store.link("content/jade_sword", RED);
+        assertFalse(store.contains(gray));
+        assertEquals(0, store.getReferenceCount(gray));
+        assertEquals(1, store.getDeletedCount());
+        assertNull(store.get(gray));
+    }
+
+    @Test
+    public void testReferencesSurviveReopen() throws Exception {
+        Path dir = Files.createTempDirectory("textures");
+        TextureStore store = new TextureStore(dir, 60_000);
+        String gray = store.link("content/ruby_block", GRAY);
+        store.link("registry/ruby_block", gray);
+        store.unlink("content/ruby_block");
+        assertTrue(store.contains(gray));
+        store.close();
+
+        TextureStore reopened = new TextureStore(dir, 0);
+        assertEquals(gray, reopened.getHash("registry/ruby_block"));
+        assertNull(reopened.getHash("content/ruby_block"));
+        assertEquals(1, reopened.getReferenceCount(gray));
+        reopened.unlink("registry/ruby_block");
+        assertFalse(reopened.contains(gray));
+    }
+
+    @Test
+    public void testDeleteWaitsForTheSavedReferences() throws Exception {
+        Path dir = Files.createTempDirectory("textures");
+        TextureStore store = new TextureStore(dir, 60_000);
+        String gray = store.link("content/ruby_block", GRAY);
+        store.flush();
+
+        store.unlink("content/ruby_block");
+        assertTrue(store.contains(gray), "The table on disk still refers to it");
+
+        // Stored again before the table is saved, so it must be kept for whoever holds the hash
+        store.put(GRAY);
+        store.flush();
+        assertTrue(store.contains(gray));
+    }
+
+    @Test
+    public void testSavedFilesAndContentShareTheBlob() throws Exception {
+        Path dir = Files.createTempDirectory("textures");
+        TextureStore store = new TextureStore(dir.resolve("store"), 0);
+        Path texture = dir.resolve("assets/textures/block/ruby_block.png");
+
+        String hash = store.saveFile(texture, GRAY);
+        assertArrayEquals(GRAY, Files.readAllBytes(texture));
+        store.saveFile(texture, RED);
+        assertArrayEquals(RED, Files.readAllBytes(texture), "Replaced whole, not written through the link");
+        assertFalse(store.contains(hash), "Nothing refers to the old texture any more");
+
+        GeneratedContent content = new GeneratedContent(ContentType.BLOCK, "ruby_block", "ruby block",
+                new JsonObject(), RED);
+        String linked = store.linkTexture("content/ruby_block", content);
+        assertEquals(store.getHash("file/" + texture.normalize().toString().replace('\\', '/')), linked);
+        assertEquals(2, store.getReferenceCount(linked));
+        assertNull(store.linkTexture("content/bare", new GeneratedContent(ContentType.ITEM, "bare", null,
+                new JsonObject(), new byte[0])));
+    }
+
+    private static long blobCount(Path dir) throws Exception {
+        try (Stream<Path> files = Files.walk(dir.resolve("blobs"))) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+}
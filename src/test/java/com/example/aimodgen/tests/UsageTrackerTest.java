@@ -0,0 +1,165 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.ai.LLMRequest;
+import com.example.aimodgen.ai.LLMResponseCache;
+import com.example.aimodgen.ai.LLMService;
+import com.example.aimodgen.ai.RoutingLLMService;
+import com.example.aimodgen.ai.UsageTracker;
+import com.example.aimodgen.generation.GenerationContext;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Tests for token and latency accounting per player, command and backend
+ */
+@Tag("llm")
+public class UsageTrackerTest {
+
+    @Test
+    public void testReportedTokensAreTotalledPerPlayerCommandAndBackend() {
+        UsageTracker tracker = new UsageTracker();
+        MeteredBackend backend = new MeteredBackend("ollama", tracker, true);
+        GenerationContext alice = GenerationContext.interactive("uuid-alice", "Alice").withCommand("generate block");
+        GenerationContext bob = GenerationContext.interactive("uuid-bob", "Bob").withCommand("generate item");
+
+        backend.generateModContentAsync("first", null, null, alice).join();
+        backend.generateModContentAsync("second", null, null, alice).join();
+        backend.generateModContentAsync("third", null, null, bob).join();
+
+        assertEquals(3, tracker.getTotals().getRequests());
+        assertEquals(30, tracker.getTotals().getPromptTokens());
+        assertEquals(60, tracker.getTotals().getCompletionTokens());
+        assertEquals(60, tracker.getPlayerTotals("Alice").getTotalTokens());
+        assertEquals(1, tracker.getByCommand().get("generate item").getRequests());
+        assertEquals(3, tracker.getByBackend().get("ollama").getRequests());
+        assertEquals(0, tracker.getTotals().getEstimatedRequests());
+        assertEquals("Alice", tracker.getByPlayer().keySet().iterator().next(), "Players are listed most tokens first");
+    }
+
+    @Test
+    public void testUnreportedTokensAreEstimatedAndUnattributedCallsGoToServer() {
+        UsageTracker tracker = new UsageTracker();
+        MeteredBackend backend = new MeteredBackend("lmstudio", tracker, false);
+
+        backend.generateModContentAsync("12345678").join();
+
+        UsageTracker.Totals server = tracker.getPlayerTotals(GenerationContext.SERVER_REQUESTER);
+        assertEquals(1, server.getEstimatedRequests());
+        assertEquals(2, server.getPromptTokens());
+        assertEquals(1, tracker.getByCommand().get(GenerationContext.BACKGROUND_COMMAND).getRequests());
+    }
+
+    @Test
+    public void testFailuresAndCacheHitsAreCounted() throws Exception {
+        UsageTracker tracker = new UsageTracker();
+        MeteredBackend backend = new MeteredBackend("ollama", tracker, true);
+        backend.setResponseCache(new LLMResponseCache(Files.createTempDirectory("usage-cache"), 16, 1024 * 1024, 60_000));
+        GenerationContext alice = GenerationContext.interactive("uuid-alice", "Alice");
+
+        backend.generateModContentAsync("cached", null, null, alice).join();
+        backend.generateModContentAsync("cached", null, null, alice).join();
+        backend.fail = true;
+        assertThrows(CompletionException.class, () -> backend.generateModContentAsync("broken", null, null, alice).join());
+
+        UsageTracker.Totals totals = tracker.getPlayerTotals("Alice");
+        assertEquals(2, totals.getRequests());
+        assertEquals(1, totals.getCacheHits());
+        assertEquals(1, totals.getFailures());
+    }
+
+    @Test
+    public void testOnlyAttemptsThatReachedTheBackendCostTokens() {
+        UsageTracker tracker = new UsageTracker();
+        List<Long> charged = new ArrayList<>();
+        tracker.addListener((context, tokens) -> charged.add(tokens));
+        MeteredBackend backend = new MeteredBackend("ollama", tracker, false);
+        GenerationContext alice = GenerationContext.interactive("uuid-alice", "Alice");
+
+        backend.fail = true;
+        assertThrows(CompletionException.class, () -> backend.generateModContentAsync("never connected", null, null, alice).join());
+        UsageTracker.Totals totals = tracker.getPlayerTotals("Alice");
+        assertEquals(1, totals.getRequests());
+        assertEquals(1, totals.getFailures());
+        assertEquals(0, totals.getTotalTokens());
+        assertTrue(charged.isEmpty(), "Nothing to charge against a quota");
+
+        // An error status or a stream that broke off means the backend did read the prompt
+        backend.answerBeforeFailing = true;
+        assertThrows(CompletionException.class, () -> backend.generateModContentAsync("12345678", null, null, alice).join());
+        assertEquals(2, totals.getFailures());
+        assertEquals(2, totals.getPromptTokens());
+        assertEquals(List.of(2L), charged);
+    }
+
+    @Test
+    public void testRouterLeavesAccountingToBackends() {
+        UsageTracker tracker = new UsageTracker();
+        MeteredBackend backend = new MeteredBackend("ollama", tracker, true);
+        RoutingLLMService router = new RoutingLLMService(List.of(backend));
+        router.setUsageTracker(tracker);
+
+        router.generateModContentAsync("prompt").join();
+
+        assertEquals(1, tracker.getTotals().getRequests());
+        assertFalse(tracker.getByBackend().containsKey("router"));
+    }
+
+    @Test
+    public void testDumpIsJson() throws Exception {
+        UsageTracker tracker = new UsageTracker();
+        new MeteredBackend("ollama", tracker, true).generateModContentAsync("prompt").join();
+        Path file = Files.createTempDirectory("usage").resolve("stats/usage.json");
+
+        tracker.writeDump(file);
+
+        JsonObject dump = com.google.gson.JsonParser.parseString(Files.readString(file)).getAsJsonObject();
+        assertEquals(1, dump.getAsJsonObject("backends").getAsJsonObject("ollama").get("requests").getAsInt());
+        assertTrue(dump.getAsJsonObject("players").has(GenerationContext.SERVER_REQUESTER));
+    }
+
+    private static class MeteredBackend extends LLMService {
+        private final String name;
+        private final boolean reportsTokens;
+        volatile boolean fail;
+        volatile boolean answerBeforeFailing;
+
+        MeteredBackend(String name, UsageTracker tracker, boolean reportsTokens) {
+            this.name = name;
+            this.reportsTokens = reportsTokens;
+            setUsageTracker(tracker);
+        }
+
+        @Override
+        public String getBackendName() {
+            return name;
+        }
+
+        @Override
+        protected CompletableFuture<String> sendPrompt(String prompt) {
+            return sendPrompt(new LLMRequest(prompt, null, null, null));
+        }
+
+        @Override
+        protected CompletableFuture<String> sendPrompt(LLMRequest request) {
+            if (fail) {
+                if (answerBeforeFailing) {
+                    request.markResponded();
+                }
+                return CompletableFuture.failedFuture(new IllegalStateException("backend down"));
+            }
+            if (reportsTokens) {
+                request.reportTokens(10, 20);
+            }
+            return CompletableFuture.completedFuture("{}");
+        }
+    }
+}
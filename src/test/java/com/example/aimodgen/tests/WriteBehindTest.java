@@ -0,0 +1,110 @@
+package com.example.aimodgen.tests;
+
+import com.example.aimodgen.persistence.WriteBehind;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Tests for coalescing saves into background flushes
+ */
+@Tag("contentgen")
+public class WriteBehindTest {
+
+    @Test
+    public void testBurstIsWrittenInOneFlush() {
+        List<Map<String, String>> batches = Collections.synchronizedList(new ArrayList<>());
+        WriteBehind<String, String> writes = new WriteBehind<>("test", changes -> batches.add(new LinkedHashMap<>(changes)), 200);
+
+        for (int i = 0; i < 50; i++) {
+            writes.put("item_" + i, "v" + i);
+        }
+        assertTrue(batches.isEmpty(), "Nothing is written on the caller's thread");
+        assertEquals(50, writes.getPendingCount());
+
+        waitFor(() -> writes.getFlushCount() == 1);
+        assertEquals(1, batches.size());
+        assertEquals(50, batches.get(0).size());
+        assertEquals(0, writes.getPendingCount());
+        assertTrue(writes.getLastFlushLagMillis() >= 150, "Lag was " + writes.getLastFlushLagMillis() + "ms");
+    }
+
+    @Test
+    public void testRepeatedChangesAreCoalesced() {
+        List<Map<String, String>> batches = new ArrayList<>();
+        WriteBehind<String, String> writes = new WriteBehind<>("test", changes -> batches.add(new HashMap<>(changes)), 60_000);
+
+        writes.put("ruby_block", "first");
+        writes.put("jade_sword", "first");
+        writes.put("ruby_block", "second");
+        writes.delete("jade_sword");
+        writes.flush();
+
+        assertEquals(1, batches.size());
+        Map<String, String> expected = new HashMap<>();
+        expected.put("ruby_block", "second");
+        expected.put("jade_sword", null);
+        assertEquals(expected, batches.get(0));
+        assertEquals(4, writes.getChangeCount());
+        assertEquals(2, writes.getWrittenCount());
+    }
+
+    @Test
+    public void testFailedFlushIsRetriedWithoutLosingNewerChanges() {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        Map<String, String> stored = new HashMap<>();
+        WriteBehind<String, String> writes = new WriteBehind<>("test", changes -> {
+            if (failing.get()) {
+                throw new IOException("disk full");
+            }
+            stored.putAll(changes);
+        }, 60_000);
+
+        writes.put("ruby_block", "first");
+        writes.put("jade_sword", "first");
+        writes.flush();
+        assertEquals(1, writes.getFailureCount());
+        assertEquals(2, writes.getPendingCount(), "Failed changes are kept");
+
+        writes.put("ruby_block", "second");
+        failing.set(false);
+        writes.flush();
+
+        assertEquals("second", stored.get("ruby_block"));
+        assertEquals("first", stored.get("jade_sword"));
+        assertEquals(0, writes.getPendingCount());
+    }
+
+    @Test
+    public void testWritesThroughWhenClosedOrWithoutInterval() {
+        List<Map<String, String>> batches = new ArrayList<>();
+        WriteBehind<String, String> immediate = new WriteBehind<>("test", changes -> batches.add(new HashMap<>(changes)), 0);
+        immediate.put("ruby_block", "first");
+        assertEquals(1, batches.size());
+
+        WriteBehind<String, String> closing = new WriteBehind<>("test", changes -> batches.add(new HashMap<>(changes)), 60_000);
+        closing.put("jade_sword", "first");
+        closing.close();
+        assertEquals(2, batches.size(), "Closing writes what is pending");
+        closing.put("onyx_lamp", "first");
+        assertEquals(3, batches.size(), "Changes after closing are not held");
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting");
+            Thread.onSpinWait();
+        }
+    }
+}